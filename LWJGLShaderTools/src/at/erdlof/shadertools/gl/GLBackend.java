@@ -0,0 +1,294 @@
+package at.erdlof.shadertools.gl;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * The set of OpenGL entry points used by the shader tools. Every class of this library routes its GL calls
+ * through a backend instead of calling LWJGL directly, so the whole library can run without a GPU
+ * (see {@link RecordingBackend}).
+ * <p>
+ * Method names mirror the LWJGL functions they stand for. All methods have to be called on the GL thread.
+ * @author Florian Bhrle
+ */
+public interface GLBackend {
+	/**
+	 * Completion status of a shader or program object (KHR_parallel_shader_compile), which LWJGL 2 doesn't define.
+	 */
+	public static final int GL_COMPLETION_STATUS_KHR = 0x91B1;
+	
+	/**
+	 * @return true if ARB shader objects (vertex and fragment shaders) are supported
+	 */
+	public boolean isShaderSupported();
+	
+	/**
+	 * @return true if EXT framebuffer objects are supported
+	 */
+	public boolean isFramebufferSupported();
+	
+	/**
+	 * @return true if program binaries can be retrieved and loaded (ARB_get_program_binary)
+	 */
+	public boolean isProgramBinarySupported();
+	
+	/**
+	 * @return true if the completion status of shaders and programs can be queried without waiting for the driver (KHR_parallel_shader_compile)
+	 */
+	public boolean isParallelCompileSupported();
+	
+	/**
+	 * @return true if the GPU time of commands can be measured with queries (EXT_timer_query)
+	 */
+	public boolean isTimerQuerySupported();
+	
+	/**
+	 * @return true if a framebuffer can have several color attachments drawn at once (ARB_draw_buffers)
+	 */
+	public boolean isDrawBuffersSupported();
+	
+	/**
+	 * @return true if textures can have floating point formats like GL_RGBA16F (ARB_texture_float)
+	 */
+	public boolean isFloatTextureSupported();
+	
+	/**
+	 * @return true if depth and stencil can share a renderbuffer (EXT_packed_depth_stencil)
+	 */
+	public boolean isPackedDepthStencilSupported();
+	
+	/**
+	 * @return true if pixels can be read into buffer objects without waiting for the GPU (ARB_pixel_buffer_object)
+	 */
+	public boolean isPixelBufferSupported();
+	
+	/**
+	 * @return the width of the default framebuffer (the display)
+	 */
+	public int getDisplayWidth();
+	
+	/**
+	 * @return the height of the default framebuffer (the display)
+	 */
+	public int getDisplayHeight();
+	
+	/**
+	 * Gets an object kept for the context of this backend, e.g. its {@link StateTracker}. These objects are held by the
+	 * backend rather than by static maps, so they are collected together with it although they reference it.
+	 * @param type the class of the object
+	 * @return the object, or null if none has been attached
+	 */
+	public <T> T getAttachment(Class<T> type);
+	
+	/**
+	 * Attaches an object to this backend, replacing the attached object of the same class.
+	 * @param type the class of the object
+	 * @param attachment the object
+	 */
+	public <T> void setAttachment(Class<T> type, T attachment);
+	
+	public String glGetString(int name);
+	
+	// Shader objects
+	
+	public int glCreateShaderObjectARB(int shaderType);
+	
+	public void glShaderSourceARB(int shader, CharSequence source);
+	
+	public void glCompileShaderARB(int shader);
+	
+	public int glGetObjectParameteriARB(int object, int pname);
+	
+	public String glGetInfoLogARB(int object, int maxLength);
+	
+	public void glDeleteObjectARB(int object);
+	
+	public int glCreateProgramObjectARB();
+	
+	public void glAttachObjectARB(int program, int shader);
+	
+	public void glDetachObjectARB(int program, int shader);
+	
+	public void glLinkProgramARB(int program);
+	
+	public void glUseProgramObjectARB(int program);
+	
+	public int glGetUniformLocationARB(int program, CharSequence name);
+	
+	public int glGetAttribLocationARB(int program, CharSequence name);
+	
+	/**
+	 * @param sizeType receives the size of the variable at its position and the type after it
+	 * @return the name of the active uniform variable
+	 */
+	public String glGetActiveUniformARB(int program, int index, int maxLength, IntBuffer sizeType);
+	
+	/**
+	 * @param sizeType receives the size of the variable at its position and the type after it
+	 * @return the name of the active attribute variable
+	 */
+	public String glGetActiveAttribARB(int program, int index, int maxLength, IntBuffer sizeType);
+	
+	public void glUniform1fARB(int location, float v0);
+	
+	public void glUniform2fARB(int location, float v0, float v1);
+	
+	public void glUniform3fARB(int location, float v0, float v1, float v2);
+	
+	public void glUniform4fARB(int location, float v0, float v1, float v2, float v3);
+	
+	public void glUniform1iARB(int location, int v0);
+	
+	public void glUniform2iARB(int location, int v0, int v1);
+	
+	public void glUniform3iARB(int location, int v0, int v1, int v2);
+	
+	public void glUniform4iARB(int location, int v0, int v1, int v2, int v3);
+	
+	public void glUniform1ARB(int location, FloatBuffer values);
+	
+	public void glUniform2ARB(int location, FloatBuffer values);
+	
+	public void glUniform3ARB(int location, FloatBuffer values);
+	
+	public void glUniform4ARB(int location, FloatBuffer values);
+	
+	public void glUniform1ARB(int location, IntBuffer values);
+	
+	public void glUniform2ARB(int location, IntBuffer values);
+	
+	public void glUniform3ARB(int location, IntBuffer values);
+	
+	public void glUniform4ARB(int location, IntBuffer values);
+	
+	public void glUniformMatrix2ARB(int location, boolean transpose, FloatBuffer matrices);
+	
+	public void glUniformMatrix3ARB(int location, boolean transpose, FloatBuffer matrices);
+	
+	public void glUniformMatrix4ARB(int location, boolean transpose, FloatBuffer matrices);
+	
+	// Program binaries
+	
+	public void glProgramParameteri(int program, int pname, int value);
+	
+	public void glGetProgramBinary(int program, IntBuffer length, IntBuffer binaryFormat, ByteBuffer binary);
+	
+	public void glProgramBinary(int program, int binaryFormat, ByteBuffer binary);
+	
+	// Framebuffer objects
+	
+	public int glGenFramebuffersEXT();
+	
+	public void glBindFramebufferEXT(int target, int framebuffer);
+	
+	public void glFramebufferTexture2DEXT(int target, int attachment, int textarget, int texture, int level);
+	
+	public void glDeleteFramebuffersEXT(int framebuffer);
+	
+	public int glCheckFramebufferStatusEXT(int target);
+	
+	public int glGenRenderbuffersEXT();
+	
+	public void glBindRenderbufferEXT(int target, int renderbuffer);
+	
+	public void glRenderbufferStorageEXT(int target, int internalFormat, int width, int height);
+	
+	public void glFramebufferRenderbufferEXT(int target, int attachment, int renderbufferTarget, int renderbuffer);
+	
+	public void glDeleteRenderbuffersEXT(int renderbuffer);
+	
+	public void glDrawBuffersARB(IntBuffer buffers);
+	
+	public void glReadBuffer(int mode);
+	
+	/**
+	 * Reads into the buffer object bound to GL_PIXEL_PACK_BUFFER_ARB.
+	 */
+	public void glReadPixels(int x, int y, int width, int height, int format, int type, long offset);
+	
+	public void glReadPixels(int x, int y, int width, int height, int format, int type, ByteBuffer pixels);
+	
+	// Textures and fixed function
+	
+	public int glGenTextures();
+	
+	public void glBindTexture(int target, int texture);
+	
+	public void glTexParameteri(int target, int pname, int param);
+	
+	public void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border, int format, int type, ByteBuffer pixels);
+	
+	public void glDeleteTextures(int texture);
+	
+	public void glActiveTexture(int texture);
+	
+	public void glPushAttrib(int mask);
+	
+	public void glPopAttrib();
+	
+	public void glViewport(int x, int y, int width, int height);
+	
+	public void glClear(int mask);
+	
+	public void glEnable(int cap);
+	
+	public void glDisable(int cap);
+	
+	public void glMatrixMode(int mode);
+	
+	public void glPushMatrix();
+	
+	public void glPopMatrix();
+	
+	public void glLoadIdentity();
+	
+	// Vertex buffers and arrays
+	
+	public int glGenBuffersARB();
+	
+	public void glBindBufferARB(int target, int buffer);
+	
+	public void glBufferDataARB(int target, FloatBuffer data, int usage);
+	
+	public void glBufferDataARB(int target, long size, int usage);
+	
+	/**
+	 * @param oldBuffer the buffer returned by the last call for the same buffer object, reused if the mapping hasn't moved
+	 */
+	public ByteBuffer glMapBufferARB(int target, int access, long length, ByteBuffer oldBuffer);
+	
+	public boolean glUnmapBufferARB(int target);
+	
+	public void glDeleteBuffersARB(int buffer);
+	
+	public void glVertexAttribPointerARB(int index, int size, int type, boolean normalized, int stride, long offset);
+	
+	public void glEnableVertexAttribArrayARB(int index);
+	
+	public void glDisableVertexAttribArrayARB(int index);
+	
+	public void glEnableClientState(int cap);
+	
+	public void glDisableClientState(int cap);
+	
+	public void glVertexPointer(int size, int type, int stride, long offset);
+	
+	public void glTexCoordPointer(int size, int type, int stride, long offset);
+	
+	public void glDrawArrays(int mode, int first, int count);
+	
+	// Queries
+	
+	public int glGenQueriesARB();
+	
+	public void glDeleteQueriesARB(int query);
+	
+	public void glBeginQueryARB(int target, int query);
+	
+	public void glEndQueryARB(int target);
+	
+	public int glGetQueryObjectiARB(int query, int pname);
+	
+	public long glGetQueryObjectui64EXT(int query, int pname);
+}
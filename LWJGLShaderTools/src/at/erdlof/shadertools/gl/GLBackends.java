@@ -0,0 +1,42 @@
+package at.erdlof.shadertools.gl;
+
+/**
+ * Holds the backend all shader tools use. By default this is a {@link LWJGLBackend}.
+ * Objects capture the current backend when they are created, so switch backends before creating any shaders.
+ * @author Florian Bhrle
+ */
+public final class GLBackends {
+	private static volatile GLBackend current;
+	
+	private GLBackends() {
+	}
+	
+	/**
+	 * @return the backend in use, never null
+	 */
+	public static GLBackend current() {
+		GLBackend backend = current;
+		
+		if (backend == null) {
+			synchronized (GLBackends.class) {
+				if (current == null) current = new LWJGLBackend();
+				backend = current;
+			}
+		}
+		
+		return backend;
+	}
+	
+	/**
+	 * Replaces the backend, e.g. with a {@link RecordingBackend} for headless tests.
+	 * @param backend the new backend
+	 * @throws NullPointerException if backend is null
+	 */
+	public static void set(GLBackend backend) {
+		if (backend == null) throw new NullPointerException("backend");
+		
+		synchronized (GLBackends.class) {
+			current = backend;
+		}
+	}
+}
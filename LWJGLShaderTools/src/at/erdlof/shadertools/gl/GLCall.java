@@ -0,0 +1,113 @@
+package at.erdlof.shadertools.gl;
+
+/**
+ * The GL functions of the {@link GLBackend}, used by the {@link RecordingBackend} to count calls.
+ * @author Florian Bhrle
+ */
+public enum GLCall {
+	GET_STRING("glGetString"),
+	CREATE_SHADER_OBJECT("glCreateShaderObjectARB"),
+	SHADER_SOURCE("glShaderSourceARB"),
+	COMPILE_SHADER("glCompileShaderARB"),
+	GET_OBJECT_PARAMETER("glGetObjectParameteriARB"),
+	GET_INFO_LOG("glGetInfoLogARB"),
+	DELETE_OBJECT("glDeleteObjectARB"),
+	CREATE_PROGRAM_OBJECT("glCreateProgramObjectARB"),
+	ATTACH_OBJECT("glAttachObjectARB"),
+	DETACH_OBJECT("glDetachObjectARB"),
+	LINK_PROGRAM("glLinkProgramARB"),
+	USE_PROGRAM_OBJECT("glUseProgramObjectARB"),
+	GET_UNIFORM_LOCATION("glGetUniformLocationARB"),
+	GET_ATTRIB_LOCATION("glGetAttribLocationARB"),
+	GET_ACTIVE_UNIFORM("glGetActiveUniformARB"),
+	GET_ACTIVE_ATTRIB("glGetActiveAttribARB"),
+	UNIFORM_1F("glUniform1fARB"),
+	UNIFORM_2F("glUniform2fARB"),
+	UNIFORM_3F("glUniform3fARB"),
+	UNIFORM_4F("glUniform4fARB"),
+	UNIFORM_1I("glUniform1iARB"),
+	UNIFORM_2I("glUniform2iARB"),
+	UNIFORM_3I("glUniform3iARB"),
+	UNIFORM_4I("glUniform4iARB"),
+	UNIFORM_1FV("glUniform1fvARB"),
+	UNIFORM_2FV("glUniform2fvARB"),
+	UNIFORM_3FV("glUniform3fvARB"),
+	UNIFORM_4FV("glUniform4fvARB"),
+	UNIFORM_1IV("glUniform1ivARB"),
+	UNIFORM_2IV("glUniform2ivARB"),
+	UNIFORM_3IV("glUniform3ivARB"),
+	UNIFORM_4IV("glUniform4ivARB"),
+	UNIFORM_MATRIX_2FV("glUniformMatrix2fvARB"),
+	UNIFORM_MATRIX_3FV("glUniformMatrix3fvARB"),
+	UNIFORM_MATRIX_4FV("glUniformMatrix4fvARB"),
+	PROGRAM_PARAMETER("glProgramParameteri"),
+	GET_PROGRAM_BINARY("glGetProgramBinary"),
+	PROGRAM_BINARY("glProgramBinary"),
+	GEN_FRAMEBUFFERS("glGenFramebuffersEXT"),
+	BIND_FRAMEBUFFER("glBindFramebufferEXT"),
+	FRAMEBUFFER_TEXTURE_2D("glFramebufferTexture2DEXT"),
+	DELETE_FRAMEBUFFERS("glDeleteFramebuffersEXT"),
+	CHECK_FRAMEBUFFER_STATUS("glCheckFramebufferStatusEXT"),
+	GEN_RENDERBUFFERS("glGenRenderbuffersEXT"),
+	BIND_RENDERBUFFER("glBindRenderbufferEXT"),
+	RENDERBUFFER_STORAGE("glRenderbufferStorageEXT"),
+	FRAMEBUFFER_RENDERBUFFER("glFramebufferRenderbufferEXT"),
+	DELETE_RENDERBUFFERS("glDeleteRenderbuffersEXT"),
+	DRAW_BUFFERS("glDrawBuffersARB"),
+	READ_BUFFER("glReadBuffer"),
+	READ_PIXELS("glReadPixels"),
+	GEN_TEXTURES("glGenTextures"),
+	BIND_TEXTURE("glBindTexture"),
+	TEX_PARAMETER("glTexParameteri"),
+	TEX_IMAGE_2D("glTexImage2D"),
+	DELETE_TEXTURES("glDeleteTextures"),
+	ACTIVE_TEXTURE("glActiveTexture"),
+	PUSH_ATTRIB("glPushAttrib"),
+	POP_ATTRIB("glPopAttrib"),
+	VIEWPORT("glViewport"),
+	CLEAR("glClear"),
+	ENABLE("glEnable"),
+	DISABLE("glDisable"),
+	MATRIX_MODE("glMatrixMode"),
+	PUSH_MATRIX("glPushMatrix"),
+	POP_MATRIX("glPopMatrix"),
+	LOAD_IDENTITY("glLoadIdentity"),
+	GEN_BUFFERS("glGenBuffersARB"),
+	BIND_BUFFER("glBindBufferARB"),
+	BUFFER_DATA("glBufferDataARB"),
+	MAP_BUFFER("glMapBufferARB"),
+	UNMAP_BUFFER("glUnmapBufferARB"),
+	DELETE_BUFFERS("glDeleteBuffersARB"),
+	VERTEX_ATTRIB_POINTER("glVertexAttribPointerARB"),
+	ENABLE_VERTEX_ATTRIB_ARRAY("glEnableVertexAttribArrayARB"),
+	DISABLE_VERTEX_ATTRIB_ARRAY("glDisableVertexAttribArrayARB"),
+	ENABLE_CLIENT_STATE("glEnableClientState"),
+	DISABLE_CLIENT_STATE("glDisableClientState"),
+	VERTEX_POINTER("glVertexPointer"),
+	TEX_COORD_POINTER("glTexCoordPointer"),
+	DRAW_ARRAYS("glDrawArrays"),
+	GEN_QUERIES("glGenQueriesARB"),
+	DELETE_QUERIES("glDeleteQueriesARB"),
+	BEGIN_QUERY("glBeginQueryARB"),
+	END_QUERY("glEndQueryARB"),
+	GET_QUERY_OBJECT("glGetQueryObjectiARB"),
+	GET_QUERY_OBJECT_UI64("glGetQueryObjectui64EXT");
+	
+	private final String functionName;
+	
+	private GLCall(String functionName) {
+		this.functionName = functionName;
+	}
+	
+	/**
+	 * @return the name of the GL function, e.g. "glUseProgramObjectARB"
+	 */
+	public String getFunctionName() {
+		return functionName;
+	}
+	
+	@Override
+	public String toString() {
+		return functionName;
+	}
+}
@@ -0,0 +1,270 @@
+package at.erdlof.shadertools.gl;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Keeps track of the GL objects created in the context of a backend and deletes them on the GL thread.
+ * <p>
+ * Every wrapper owning a GL object registers it with {@link #track(Object, Type, int)} and deletes it through the
+ * returned {@link Resource}. Deleting is safe to call twice and from any thread: on the thread that created the
+ * tracker (the GL thread) the object is deleted right away, on other threads it is queued until the next
+ * {@link #processDeletions()}. Call that once per frame. Example:
+ * <p><code>
+ * GLResources resources = GLResources.of(GLBackends.current());<br>
+ * resources.setLeakDetection(true); <span style="color: gray; font-style: italic">// During development</span><br>
+ * <span style="color: gray; font-style: italic">-- Every frame: --</span><br>
+ * resources.processDeletions();</code>
+ * <p>
+ * A wrapper that is garbage collected without being released has leaked its GL object. The object is deleted by the
+ * next {@link #processDeletions()} and counted as a leak. With {@link #setLeakDetection(boolean) leak detection}
+ * enabled, the stack trace of its creation is passed to the {@link #setLeakHandler(Consumer) leak handler}.
+ * @author Florian Bhrle
+ */
+public class GLResources {
+	/**
+	 * The kinds of GL objects.
+	 */
+	public static enum Type {
+		PROGRAM, SHADER, FRAMEBUFFER, RENDERBUFFER, TEXTURE, BUFFER
+	}
+	
+	private static final Type[] TYPES = Type.values();
+	
+	private final GLBackend gl;
+	private final Thread glThread;
+	private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+	//Keeps the references reachable until their objects are deleted
+	private final Set<Resource> live = new HashSet<Resource>();
+	private final Queue<Resource> deferred = new ConcurrentLinkedQueue<Resource>();
+	private final long[] created = new long[TYPES.length];
+	private final long[] deleted = new long[TYPES.length];
+	private volatile boolean leakDetection;
+	private volatile Consumer<Throwable> leakHandler = Throwable::printStackTrace;
+	
+	private long leaks, deferredDeletions;
+	
+	private GLResources(GLBackend gl) {
+		this.gl = gl;
+		this.glThread = Thread.currentThread();
+	}
+	
+	/**
+	 * Gets the tracker of a backend. The first call has to be made on the GL thread.
+	 * @param backend the backend
+	 * @return the tracker of the backend's context
+	 */
+	public static GLResources of(GLBackend backend) {
+		synchronized (backend) {
+			GLResources tracker = backend.getAttachment(GLResources.class);
+			
+			if (tracker == null) {
+				tracker = new GLResources(backend);
+				backend.setAttachment(GLResources.class, tracker);
+			}
+			
+			return tracker;
+		}
+	}
+	
+	/**
+	 * Registers a GL object. Has to be called on the GL thread.
+	 * @param owner the wrapper owning the object
+	 * @param type the kind of the object
+	 * @param id the ID of the object
+	 * @return the handle deleting the object
+	 */
+	public Resource track(Object owner, Type type, int id) {
+		Resource resource = new Resource(owner, this, type, id, leakDetection ? new Throwable("Allocation of GL " + type + " " + id) : null);
+		live.add(resource);
+		created[type.ordinal()]++;
+		return resource;
+	}
+	
+	/**
+	 * Deletes the objects released on other threads and the objects of wrappers that have been garbage collected.
+	 * Has to be called on the GL thread, e.g. once per frame.
+	 * @return the number of objects deleted
+	 */
+	public int processDeletions() {
+		int count = 0;
+		Resource resource;
+		
+		while ((resource = deferred.poll()) != null) {
+			delete(resource);
+			deferredDeletions++;
+			count++;
+		}
+		
+		while ((resource = (Resource) collected.poll()) != null) {
+			//Released explicitly, but collected before the queue has been drained
+			if (resource.deleted) continue;
+			
+			leaks++;
+			if (resource.allocation != null) leakHandler.accept(resource.allocation);
+			
+			resource.deleted = true;
+			delete(resource);
+			count++;
+		}
+		
+		return count;
+	}
+	
+	private void delete(Resource resource) {
+		if (!live.remove(resource)) return;
+		
+		resource.clear();
+		deleted[resource.type.ordinal()]++;
+		
+		switch (resource.type) {
+		case PROGRAM:
+			StateTracker.of(gl).programDeleted(resource.id);
+			gl.glDeleteObjectARB(resource.id);
+			break;
+		case SHADER:
+			gl.glDeleteObjectARB(resource.id);
+			break;
+		case FRAMEBUFFER:
+			StateTracker.of(gl).framebufferDeleted(resource.id);
+			gl.glDeleteFramebuffersEXT(resource.id);
+			break;
+		case RENDERBUFFER:
+			gl.glDeleteRenderbuffersEXT(resource.id);
+			break;
+		case TEXTURE:
+			StateTracker.of(gl).textureDeleted(resource.id);
+			gl.glDeleteTextures(resource.id);
+			break;
+		case BUFFER:
+			StateTracker.of(gl).bufferDeleted(resource.id);
+			gl.glDeleteBuffersARB(resource.id);
+			break;
+		}
+	}
+	
+	/**
+	 * @param leakDetection true to record where every GL object has been created, which costs a stack trace per object
+	 */
+	public void setLeakDetection(boolean leakDetection) {
+		this.leakDetection = leakDetection;
+	}
+	
+	public boolean isLeakDetection() {
+		return leakDetection;
+	}
+	
+	/**
+	 * @param leakHandler receives the creation stack trace of every leaked object that has been created with leak
+	 * detection enabled. Prints the stack trace by default.
+	 */
+	public void setLeakHandler(Consumer<Throwable> leakHandler) {
+		this.leakHandler = leakHandler;
+	}
+	
+	/**
+	 * @param type a kind of GL object
+	 * @return the number of objects of the kind that exist
+	 */
+	public long getLiveCount(Type type) {
+		return created[type.ordinal()] - deleted[type.ordinal()];
+	}
+	
+	/**
+	 * @return the number of all GL objects that exist
+	 */
+	public long getLiveCount() {
+		long count = 0;
+		for (Type type : TYPES) count += getLiveCount(type);
+		return count;
+	}
+	
+	/**
+	 * @param type a kind of GL object
+	 * @return the number of objects of the kind that have been created
+	 */
+	public long getCreatedCount(Type type) {
+		return created[type.ordinal()];
+	}
+	
+	/**
+	 * @return the number of objects whose wrappers have been garbage collected without being released
+	 */
+	public long getLeaks() {
+		return leaks;
+	}
+	
+	/**
+	 * @return the number of objects that have been released on another thread and deleted later
+	 */
+	public long getDeferredDeletions() {
+		return deferredDeletions;
+	}
+	
+	/**
+	 * @return the number of released objects waiting for {@link #processDeletions()}
+	 */
+	public int getPendingDeletions() {
+		return deferred.size();
+	}
+	
+	/**
+	 * Resets the leak and deferred deletion counters. The live counts aren't affected.
+	 */
+	public void resetStatistics() {
+		leaks = 0;
+		deferredDeletions = 0;
+	}
+	
+	/**
+	 * A tracked GL object. The reference only points to the wrapper owning the object, so it notices when the
+	 * wrapper is garbage collected.
+	 */
+	public static final class Resource extends PhantomReference<Object> {
+		private final GLResources tracker;
+		private final Type type;
+		private final int id;
+		private final Throwable allocation;
+		private volatile boolean deleted;
+		
+		private Resource(Object owner, GLResources tracker, Type type, int id, Throwable allocation) {
+			super(owner, tracker.collected);
+			this.tracker = tracker;
+			this.type = type;
+			this.id = id;
+			this.allocation = allocation;
+		}
+		
+		/**
+		 * Deletes the object, right away on the GL thread, otherwise with the next {@link GLResources#processDeletions()}.
+		 * Further calls have no effect.
+		 */
+		public void delete() {
+			if (deleted) return;
+			deleted = true;
+			
+			if (Thread.currentThread() == tracker.glThread) tracker.delete(this);
+			else tracker.deferred.add(this);
+		}
+		
+		/**
+		 * @return true if the object has been {@link #delete() deleted} or is about to be deleted
+		 */
+		public boolean isDeleted() {
+			return deleted;
+		}
+		
+		public Type getType() {
+			return type;
+		}
+		
+		public int getID() {
+			return id;
+		}
+	}
+}
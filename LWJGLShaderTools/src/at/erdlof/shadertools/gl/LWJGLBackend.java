@@ -0,0 +1,551 @@
+package at.erdlof.shadertools.gl;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lwjgl.opengl.ARBDrawBuffers;
+import org.lwjgl.opengl.ARBGetProgramBinary;
+import org.lwjgl.opengl.ARBOcclusionQuery;
+import org.lwjgl.opengl.ARBShaderObjects;
+import org.lwjgl.opengl.ARBVertexBufferObject;
+import org.lwjgl.opengl.ARBVertexShader;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.Display;
+import org.lwjgl.opengl.EXTFramebufferObject;
+import org.lwjgl.opengl.EXTTimerQuery;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GLContext;
+
+/**
+ * The default backend, which passes every call straight to LWJGL.
+ * @author Florian Bhrle
+ */
+public class LWJGLBackend implements GLBackend {
+	private Boolean parallelCompileSupported;
+	private final Map<Class<?>, Object> attachments = new HashMap<Class<?>, Object>();
+	
+	@Override
+	public boolean isShaderSupported() {
+		ContextCapabilities c = GLContext.getCapabilities();
+		
+		return c.GL_ARB_shader_objects && c.GL_ARB_vertex_shader && c.GL_ARB_fragment_shader;
+	}
+	
+	@Override
+	public boolean isFramebufferSupported() {
+		return GLContext.getCapabilities().GL_EXT_framebuffer_object;
+	}
+	
+	@Override
+	public boolean isProgramBinarySupported() {
+		return GLContext.getCapabilities().GL_ARB_get_program_binary;
+	}
+	
+	@Override
+	public boolean isParallelCompileSupported() {
+		//Newer than LWJGL 2, so the capabilities don't know it
+		if (parallelCompileSupported == null) {
+			String extensions = GL11.glGetString(GL11.GL_EXTENSIONS);
+			parallelCompileSupported = extensions != null
+					&& (extensions.contains("GL_KHR_parallel_shader_compile") || extensions.contains("GL_ARB_parallel_shader_compile"));
+		}
+		
+		return parallelCompileSupported;
+	}
+	
+	@Override
+	public boolean isTimerQuerySupported() {
+		ContextCapabilities c = GLContext.getCapabilities();
+		
+		return c.GL_EXT_timer_query && c.GL_ARB_occlusion_query;
+	}
+	
+	@Override
+	public boolean isDrawBuffersSupported() {
+		return GLContext.getCapabilities().GL_ARB_draw_buffers;
+	}
+	
+	@Override
+	public boolean isFloatTextureSupported() {
+		return GLContext.getCapabilities().GL_ARB_texture_float;
+	}
+	
+	@Override
+	public boolean isPackedDepthStencilSupported() {
+		return GLContext.getCapabilities().GL_EXT_packed_depth_stencil;
+	}
+	
+	@Override
+	public boolean isPixelBufferSupported() {
+		return GLContext.getCapabilities().GL_ARB_pixel_buffer_object;
+	}
+	
+	@Override
+	public int getDisplayWidth() {
+		return Display.getWidth();
+	}
+	
+	@Override
+	public int getDisplayHeight() {
+		return Display.getHeight();
+	}
+	
+	@Override
+	public <T> T getAttachment(Class<T> type) {
+		return type.cast(attachments.get(type));
+	}
+	
+	@Override
+	public <T> void setAttachment(Class<T> type, T attachment) {
+		attachments.put(type, attachment);
+	}
+	
+	@Override
+	public String glGetString(int name) {
+		return GL11.glGetString(name);
+	}
+	
+	@Override
+	public int glCreateShaderObjectARB(int shaderType) {
+		return ARBShaderObjects.glCreateShaderObjectARB(shaderType);
+	}
+	
+	@Override
+	public void glShaderSourceARB(int shader, CharSequence source) {
+		ARBShaderObjects.glShaderSourceARB(shader, source);
+	}
+	
+	@Override
+	public void glCompileShaderARB(int shader) {
+		ARBShaderObjects.glCompileShaderARB(shader);
+	}
+	
+	@Override
+	public int glGetObjectParameteriARB(int object, int pname) {
+		return ARBShaderObjects.glGetObjectParameteriARB(object, pname);
+	}
+	
+	@Override
+	public String glGetInfoLogARB(int object, int maxLength) {
+		return ARBShaderObjects.glGetInfoLogARB(object, maxLength);
+	}
+	
+	@Override
+	public void glDeleteObjectARB(int object) {
+		ARBShaderObjects.glDeleteObjectARB(object);
+	}
+	
+	@Override
+	public int glCreateProgramObjectARB() {
+		return ARBShaderObjects.glCreateProgramObjectARB();
+	}
+	
+	@Override
+	public void glAttachObjectARB(int program, int shader) {
+		ARBShaderObjects.glAttachObjectARB(program, shader);
+	}
+	
+	@Override
+	public void glDetachObjectARB(int program, int shader) {
+		ARBShaderObjects.glDetachObjectARB(program, shader);
+	}
+	
+	@Override
+	public void glLinkProgramARB(int program) {
+		ARBShaderObjects.glLinkProgramARB(program);
+	}
+	
+	@Override
+	public void glUseProgramObjectARB(int program) {
+		ARBShaderObjects.glUseProgramObjectARB(program);
+	}
+	
+	@Override
+	public int glGetUniformLocationARB(int program, CharSequence name) {
+		return ARBShaderObjects.glGetUniformLocationARB(program, name);
+	}
+	
+	@Override
+	public int glGetAttribLocationARB(int program, CharSequence name) {
+		return ARBVertexShader.glGetAttribLocationARB(program, name);
+	}
+	
+	@Override
+	public String glGetActiveUniformARB(int program, int index, int maxLength, IntBuffer sizeType) {
+		return ARBShaderObjects.glGetActiveUniformARB(program, index, maxLength, sizeType);
+	}
+	
+	@Override
+	public String glGetActiveAttribARB(int program, int index, int maxLength, IntBuffer sizeType) {
+		return ARBVertexShader.glGetActiveAttribARB(program, index, maxLength, sizeType);
+	}
+	
+	@Override
+	public void glUniform1fARB(int location, float v0) {
+		ARBShaderObjects.glUniform1fARB(location, v0);
+	}
+	
+	@Override
+	public void glUniform2fARB(int location, float v0, float v1) {
+		ARBShaderObjects.glUniform2fARB(location, v0, v1);
+	}
+	
+	@Override
+	public void glUniform3fARB(int location, float v0, float v1, float v2) {
+		ARBShaderObjects.glUniform3fARB(location, v0, v1, v2);
+	}
+	
+	@Override
+	public void glUniform4fARB(int location, float v0, float v1, float v2, float v3) {
+		ARBShaderObjects.glUniform4fARB(location, v0, v1, v2, v3);
+	}
+	
+	@Override
+	public void glUniform1iARB(int location, int v0) {
+		ARBShaderObjects.glUniform1iARB(location, v0);
+	}
+	
+	@Override
+	public void glUniform2iARB(int location, int v0, int v1) {
+		ARBShaderObjects.glUniform2iARB(location, v0, v1);
+	}
+	
+	@Override
+	public void glUniform3iARB(int location, int v0, int v1, int v2) {
+		ARBShaderObjects.glUniform3iARB(location, v0, v1, v2);
+	}
+	
+	@Override
+	public void glUniform4iARB(int location, int v0, int v1, int v2, int v3) {
+		ARBShaderObjects.glUniform4iARB(location, v0, v1, v2, v3);
+	}
+	
+	@Override
+	public void glUniform1ARB(int location, FloatBuffer values) {
+		ARBShaderObjects.glUniform1ARB(location, values);
+	}
+	
+	@Override
+	public void glUniform2ARB(int location, FloatBuffer values) {
+		ARBShaderObjects.glUniform2ARB(location, values);
+	}
+	
+	@Override
+	public void glUniform3ARB(int location, FloatBuffer values) {
+		ARBShaderObjects.glUniform3ARB(location, values);
+	}
+	
+	@Override
+	public void glUniform4ARB(int location, FloatBuffer values) {
+		ARBShaderObjects.glUniform4ARB(location, values);
+	}
+	
+	@Override
+	public void glUniform1ARB(int location, IntBuffer values) {
+		ARBShaderObjects.glUniform1ARB(location, values);
+	}
+	
+	@Override
+	public void glUniform2ARB(int location, IntBuffer values) {
+		ARBShaderObjects.glUniform2ARB(location, values);
+	}
+	
+	@Override
+	public void glUniform3ARB(int location, IntBuffer values) {
+		ARBShaderObjects.glUniform3ARB(location, values);
+	}
+	
+	@Override
+	public void glUniform4ARB(int location, IntBuffer values) {
+		ARBShaderObjects.glUniform4ARB(location, values);
+	}
+	
+	@Override
+	public void glUniformMatrix2ARB(int location, boolean transpose, FloatBuffer matrices) {
+		ARBShaderObjects.glUniformMatrix2ARB(location, transpose, matrices);
+	}
+	
+	@Override
+	public void glUniformMatrix3ARB(int location, boolean transpose, FloatBuffer matrices) {
+		ARBShaderObjects.glUniformMatrix3ARB(location, transpose, matrices);
+	}
+	
+	@Override
+	public void glUniformMatrix4ARB(int location, boolean transpose, FloatBuffer matrices) {
+		ARBShaderObjects.glUniformMatrix4ARB(location, transpose, matrices);
+	}
+	
+	@Override
+	public void glProgramParameteri(int program, int pname, int value) {
+		ARBGetProgramBinary.glProgramParameteri(program, pname, value);
+	}
+	
+	@Override
+	public void glGetProgramBinary(int program, IntBuffer length, IntBuffer binaryFormat, ByteBuffer binary) {
+		ARBGetProgramBinary.glGetProgramBinary(program, length, binaryFormat, binary);
+	}
+	
+	@Override
+	public void glProgramBinary(int program, int binaryFormat, ByteBuffer binary) {
+		ARBGetProgramBinary.glProgramBinary(program, binaryFormat, binary);
+	}
+	
+	@Override
+	public int glGenFramebuffersEXT() {
+		return EXTFramebufferObject.glGenFramebuffersEXT();
+	}
+	
+	@Override
+	public void glBindFramebufferEXT(int target, int framebuffer) {
+		EXTFramebufferObject.glBindFramebufferEXT(target, framebuffer);
+	}
+	
+	@Override
+	public void glFramebufferTexture2DEXT(int target, int attachment, int textarget, int texture, int level) {
+		EXTFramebufferObject.glFramebufferTexture2DEXT(target, attachment, textarget, texture, level);
+	}
+	
+	@Override
+	public void glDeleteFramebuffersEXT(int framebuffer) {
+		EXTFramebufferObject.glDeleteFramebuffersEXT(framebuffer);
+	}
+	
+	@Override
+	public int glCheckFramebufferStatusEXT(int target) {
+		return EXTFramebufferObject.glCheckFramebufferStatusEXT(target);
+	}
+	
+	@Override
+	public int glGenRenderbuffersEXT() {
+		return EXTFramebufferObject.glGenRenderbuffersEXT();
+	}
+	
+	@Override
+	public void glBindRenderbufferEXT(int target, int renderbuffer) {
+		EXTFramebufferObject.glBindRenderbufferEXT(target, renderbuffer);
+	}
+	
+	@Override
+	public void glRenderbufferStorageEXT(int target, int internalFormat, int width, int height) {
+		EXTFramebufferObject.glRenderbufferStorageEXT(target, internalFormat, width, height);
+	}
+	
+	@Override
+	public void glFramebufferRenderbufferEXT(int target, int attachment, int renderbufferTarget, int renderbuffer) {
+		EXTFramebufferObject.glFramebufferRenderbufferEXT(target, attachment, renderbufferTarget, renderbuffer);
+	}
+	
+	@Override
+	public void glDeleteRenderbuffersEXT(int renderbuffer) {
+		EXTFramebufferObject.glDeleteRenderbuffersEXT(renderbuffer);
+	}
+	
+	@Override
+	public void glDrawBuffersARB(IntBuffer buffers) {
+		ARBDrawBuffers.glDrawBuffersARB(buffers);
+	}
+	
+	@Override
+	public void glReadBuffer(int mode) {
+		GL11.glReadBuffer(mode);
+	}
+	
+	@Override
+	public void glReadPixels(int x, int y, int width, int height, int format, int type, long offset) {
+		GL11.glReadPixels(x, y, width, height, format, type, offset);
+	}
+	
+	@Override
+	public void glReadPixels(int x, int y, int width, int height, int format, int type, ByteBuffer pixels) {
+		GL11.glReadPixels(x, y, width, height, format, type, pixels);
+	}
+	
+	@Override
+	public int glGenTextures() {
+		return GL11.glGenTextures();
+	}
+	
+	@Override
+	public void glBindTexture(int target, int texture) {
+		GL11.glBindTexture(target, texture);
+	}
+	
+	@Override
+	public void glTexParameteri(int target, int pname, int param) {
+		GL11.glTexParameteri(target, pname, param);
+	}
+	
+	@Override
+	public void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border, int format, int type, ByteBuffer pixels) {
+		GL11.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+	}
+	
+	@Override
+	public void glDeleteTextures(int texture) {
+		GL11.glDeleteTextures(texture);
+	}
+	
+	@Override
+	public void glActiveTexture(int texture) {
+		GL13.glActiveTexture(texture);
+	}
+	
+	@Override
+	public void glPushAttrib(int mask) {
+		GL11.glPushAttrib(mask);
+	}
+	
+	@Override
+	public void glPopAttrib() {
+		GL11.glPopAttrib();
+	}
+	
+	@Override
+	public void glViewport(int x, int y, int width, int height) {
+		GL11.glViewport(x, y, width, height);
+	}
+	
+	@Override
+	public void glClear(int mask) {
+		GL11.glClear(mask);
+	}
+	
+	@Override
+	public void glEnable(int cap) {
+		GL11.glEnable(cap);
+	}
+	
+	@Override
+	public void glDisable(int cap) {
+		GL11.glDisable(cap);
+	}
+	
+	@Override
+	public void glMatrixMode(int mode) {
+		GL11.glMatrixMode(mode);
+	}
+	
+	@Override
+	public void glPushMatrix() {
+		GL11.glPushMatrix();
+	}
+	
+	@Override
+	public void glPopMatrix() {
+		GL11.glPopMatrix();
+	}
+	
+	@Override
+	public void glLoadIdentity() {
+		GL11.glLoadIdentity();
+	}
+	
+	@Override
+	public int glGenBuffersARB() {
+		return ARBVertexBufferObject.glGenBuffersARB();
+	}
+	
+	@Override
+	public void glBindBufferARB(int target, int buffer) {
+		ARBVertexBufferObject.glBindBufferARB(target, buffer);
+	}
+	
+	@Override
+	public void glBufferDataARB(int target, FloatBuffer data, int usage) {
+		ARBVertexBufferObject.glBufferDataARB(target, data, usage);
+	}
+	
+	@Override
+	public void glBufferDataARB(int target, long size, int usage) {
+		ARBVertexBufferObject.glBufferDataARB(target, size, usage);
+	}
+	
+	@Override
+	public ByteBuffer glMapBufferARB(int target, int access, long length, ByteBuffer oldBuffer) {
+		return ARBVertexBufferObject.glMapBufferARB(target, access, length, oldBuffer);
+	}
+	
+	@Override
+	public boolean glUnmapBufferARB(int target) {
+		return ARBVertexBufferObject.glUnmapBufferARB(target);
+	}
+	
+	@Override
+	public void glDeleteBuffersARB(int buffer) {
+		ARBVertexBufferObject.glDeleteBuffersARB(buffer);
+	}
+	
+	@Override
+	public void glVertexAttribPointerARB(int index, int size, int type, boolean normalized, int stride, long offset) {
+		ARBVertexShader.glVertexAttribPointerARB(index, size, type, normalized, stride, offset);
+	}
+	
+	@Override
+	public void glEnableVertexAttribArrayARB(int index) {
+		ARBVertexShader.glEnableVertexAttribArrayARB(index);
+	}
+	
+	@Override
+	public void glDisableVertexAttribArrayARB(int index) {
+		ARBVertexShader.glDisableVertexAttribArrayARB(index);
+	}
+	
+	@Override
+	public void glEnableClientState(int cap) {
+		GL11.glEnableClientState(cap);
+	}
+	
+	@Override
+	public void glDisableClientState(int cap) {
+		GL11.glDisableClientState(cap);
+	}
+	
+	@Override
+	public void glVertexPointer(int size, int type, int stride, long offset) {
+		GL11.glVertexPointer(size, type, stride, offset);
+	}
+	
+	@Override
+	public void glTexCoordPointer(int size, int type, int stride, long offset) {
+		GL11.glTexCoordPointer(size, type, stride, offset);
+	}
+	
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+		GL11.glDrawArrays(mode, first, count);
+	}
+	
+	@Override
+	public int glGenQueriesARB() {
+		return ARBOcclusionQuery.glGenQueriesARB();
+	}
+	
+	@Override
+	public void glDeleteQueriesARB(int query) {
+		ARBOcclusionQuery.glDeleteQueriesARB(query);
+	}
+	
+	@Override
+	public void glBeginQueryARB(int target, int query) {
+		ARBOcclusionQuery.glBeginQueryARB(target, query);
+	}
+	
+	@Override
+	public void glEndQueryARB(int target) {
+		ARBOcclusionQuery.glEndQueryARB(target);
+	}
+	
+	@Override
+	public int glGetQueryObjectiARB(int query, int pname) {
+		return ARBOcclusionQuery.glGetQueryObjectiARB(query, pname);
+	}
+	
+	@Override
+	public long glGetQueryObjectui64EXT(int query, int pname) {
+		return EXTTimerQuery.glGetQueryObjectuEXT(query, pname);
+	}
+}
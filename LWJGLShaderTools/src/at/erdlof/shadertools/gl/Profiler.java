@@ -0,0 +1,351 @@
+package at.erdlof.shadertools.gl;
+
+import static org.lwjgl.opengl.ARBOcclusionQuery.GL_QUERY_RESULT_ARB;
+import static org.lwjgl.opengl.ARBOcclusionQuery.GL_QUERY_RESULT_AVAILABLE_ARB;
+import static org.lwjgl.opengl.EXTTimerQuery.GL_TIME_ELAPSED_EXT;
+import static org.lwjgl.opengl.GL11.GL_FALSE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Measures how long named sections of a frame take, e.g. the passes of a {@code ComplexProgram} or the binds of a
+ * {@code ShaderProgram}. Profiling is off by default and costs a single check per section while it is off. Example:
+ * <p><code>
+ * Profiler profiler = Profiler.of(GLBackends.current());<br>
+ * profiler.setEnabled(true);<br>
+ * int shadows = profiler.section("shadows");<br>
+ * <span style="color: gray; font-style: italic">-- Every frame: --</span><br>
+ * profiler.begin(shadows);<br>
+ * <span style="color: gray; font-style: italic">-- Render shadows --</span><br>
+ * profiler.end(shadows);<br>
+ * profiler.endFrame();<br>
+ * <span style="color: gray; font-style: italic">-- Any time: --</span><br>
+ * long p99 = profiler.getCpuPercentile(shadows, 99);</code>
+ * <p>
+ * The CPU time is taken from the {@link #setClock(LongSupplier) clock}. With EXT_timer_query the GPU time is measured
+ * as well; its results arrive a few frames later and are collected by {@link #endFrame()}. Timer queries can't be
+ * nested, so only the outermost section gets a GPU time. The last {@link #getWindow() window} samples of every section
+ * are kept in ring buffers, nothing is allocated per sample.
+ * @author Florian Bhrle
+ */
+public class Profiler {
+	/**
+	 * The default number of samples kept per section.
+	 */
+	public static final int DEFAULT_WINDOW = 128;
+	private static final int MAX_PENDING_QUERIES = 64;
+	
+	private final GLBackend gl;
+	private final int window;
+	private final List<String> names = new ArrayList<String>();
+	private boolean enabled;
+	private boolean gpuTiming = true;
+	private LongSupplier clock = System::nanoTime;
+	
+	//Per section
+	private long[] starts = new long[8];
+	private long[] counts = new long[8];
+	private long[] cpuWritten = new long[8];
+	private long[] cpuSamples;
+	private long[] gpuWritten = new long[8];
+	private long[] gpuSamples;
+	private final long[] scratch;
+	
+	//Timer queries in flight, oldest first, and queries ready for reuse
+	private final int[] pendingQueries = new int[MAX_PENDING_QUERIES];
+	private final int[] pendingSections = new int[MAX_PENDING_QUERIES];
+	private int pendingHead, pendingCount;
+	private int[] freeQueries = new int[8];
+	private int freeCount;
+	private int activeQuery, activeSection = -1;
+	
+	/**
+	 * Creates a profiler of its own. Usually the shared profiler of the context, see {@link #of(GLBackend)}, is used.
+	 * @param gl the backend of the context
+	 * @param window the number of samples kept per section
+	 */
+	public Profiler(GLBackend gl, int window) {
+		this.gl = gl;
+		this.window = window;
+		this.cpuSamples = new long[8 * window];
+		this.gpuSamples = new long[8 * window];
+		this.scratch = new long[window];
+	}
+	
+	/**
+	 * @param backend the backend
+	 * @return the profiler of the backend's context
+	 */
+	public static Profiler of(GLBackend backend) {
+		synchronized (backend) {
+			Profiler profiler = backend.getAttachment(Profiler.class);
+			
+			if (profiler == null) {
+				profiler = new Profiler(backend, DEFAULT_WINDOW);
+				backend.setAttachment(Profiler.class, profiler);
+			}
+			
+			return profiler;
+		}
+	}
+	
+	/**
+	 * Gets the handle of a section, creating the section if it doesn't exist.
+	 * @param name the name of the section
+	 * @return the handle for {@link #begin(int)} and the other methods
+	 */
+	public int section(String name) {
+		int section = names.indexOf(name);
+		if (section >= 0) return section;
+		
+		section = names.size();
+		names.add(name);
+		
+		if (section == starts.length) {
+			int capacity = section * 2;
+			starts = Arrays.copyOf(starts, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+			cpuWritten = Arrays.copyOf(cpuWritten, capacity);
+			gpuWritten = Arrays.copyOf(gpuWritten, capacity);
+			cpuSamples = Arrays.copyOf(cpuSamples, capacity * window);
+			gpuSamples = Arrays.copyOf(gpuSamples, capacity * window);
+		}
+		
+		return section;
+	}
+	
+	/**
+	 * @param name the name of a section
+	 * @return the handle of the section, -1 if it doesn't exist
+	 */
+	public int findSection(String name) {
+		return names.indexOf(name);
+	}
+	
+	public String getSectionName(int section) {
+		return names.get(section);
+	}
+	
+	public int getSectionCount() {
+		return names.size();
+	}
+	
+	/**
+	 * Starts measuring a section. Does nothing while the profiler is disabled or if the section is -1.
+	 * @param section the handle returned by {@link #section(String)}
+	 */
+	public void begin(int section) {
+		if (!enabled || section < 0) return;
+		
+		if (activeSection == -1 && gpuTiming && pendingCount < MAX_PENDING_QUERIES && gl.isTimerQuerySupported()) {
+			activeQuery = freeCount > 0 ? freeQueries[--freeCount] : gl.glGenQueriesARB();
+			activeSection = section;
+			gl.glBeginQueryARB(GL_TIME_ELAPSED_EXT, activeQuery);
+		}
+		
+		starts[section] = clock.getAsLong();
+	}
+	
+	/**
+	 * Stops measuring a section and records its CPU time. Does nothing while the profiler is disabled or if the section is -1.
+	 * @param section the handle passed to {@link #begin(int)}
+	 */
+	public void end(int section) {
+		if (!enabled || section < 0) return;
+		
+		sample(section, clock.getAsLong() - starts[section]);
+		
+		if (section == activeSection) {
+			gl.glEndQueryARB(GL_TIME_ELAPSED_EXT);
+			
+			int slot = (pendingHead + pendingCount++) % MAX_PENDING_QUERIES;
+			pendingQueries[slot] = activeQuery;
+			pendingSections[slot] = section;
+			activeSection = -1;
+		}
+	}
+	
+	/**
+	 * Records a CPU time measured by the caller. Does nothing while the profiler is disabled.
+	 * @param section the handle returned by {@link #section(String)}
+	 * @param cpuNanos the time in nanoseconds
+	 */
+	public void sample(int section, long cpuNanos) {
+		if (!enabled) return;
+		
+		counts[section]++;
+		cpuSamples[section * window + (int) (cpuWritten[section]++ % window)] = cpuNanos;
+	}
+	
+	/**
+	 * @return the current time of the profiler's clock in nanoseconds
+	 */
+	public long now() {
+		return clock.getAsLong();
+	}
+	
+	/**
+	 * Collects the GPU times which have arrived. Call this once per frame.
+	 * @return the number of GPU times collected
+	 */
+	public int endFrame() {
+		int collected = 0;
+		
+		while (pendingCount > 0) {
+			int query = pendingQueries[pendingHead];
+			//Results arrive in order, so the first missing one ends the search
+			if (gl.glGetQueryObjectiARB(query, GL_QUERY_RESULT_AVAILABLE_ARB) == GL_FALSE) break;
+			
+			int section = pendingSections[pendingHead];
+			gpuSamples[section * window + (int) (gpuWritten[section]++ % window)] = gl.glGetQueryObjectui64EXT(query, GL_QUERY_RESULT_ARB);
+			
+			if (freeCount == freeQueries.length) freeQueries = Arrays.copyOf(freeQueries, freeCount * 2);
+			freeQueries[freeCount++] = query;
+			
+			pendingHead = (pendingHead + 1) % MAX_PENDING_QUERIES;
+			pendingCount--;
+			collected++;
+		}
+		
+		return collected;
+	}
+	
+	/**
+	 * @param section the handle of a section
+	 * @return how often the section has been measured since the last {@link #reset()}
+	 */
+	public long getCount(int section) {
+		return counts[section];
+	}
+	
+	/**
+	 * @param section the handle of a section
+	 * @param percentile the percentile between 0 and 100, e.g. 50 for the median
+	 * @return the CPU time in nanoseconds below which the given percentage of the kept samples lie, -1 if there are none
+	 */
+	public long getCpuPercentile(int section, double percentile) {
+		return percentile(cpuSamples, section, cpuWritten[section], percentile);
+	}
+	
+	/**
+	 * @param section the handle of a section
+	 * @param percentile the percentile between 0 and 100, e.g. 50 for the median
+	 * @return the GPU time in nanoseconds below which the given percentage of the kept samples lie, -1 if there are none
+	 */
+	public long getGpuPercentile(int section, double percentile) {
+		return percentile(gpuSamples, section, gpuWritten[section], percentile);
+	}
+	
+	private long percentile(long[] samples, int section, long written, double percentile) {
+		int count = (int) Math.min(written, window);
+		if (count == 0) return -1;
+		
+		System.arraycopy(samples, section * window, scratch, 0, count);
+		Arrays.sort(scratch, 0, count);
+		
+		int rank = (int) Math.ceil(percentile / 100 * count) - 1;
+		return scratch[Math.max(0, Math.min(count - 1, rank))];
+	}
+	
+	/**
+	 * Describes all sections, one per line: name, count, CPU p50/p99 and GPU p50/p99 in microseconds.
+	 * @return the report
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder();
+		
+		for (int section = 0; section < names.size(); section++) {
+			report.append(names.get(section)).append(": ").append(counts[section])
+					.append("x, cpu p50 ").append(micros(getCpuPercentile(section, 50)))
+					.append(" p99 ").append(micros(getCpuPercentile(section, 99)));
+			
+			if (gpuWritten[section] > 0) {
+				report.append(", gpu p50 ").append(micros(getGpuPercentile(section, 50)))
+						.append(" p99 ").append(micros(getGpuPercentile(section, 99)));
+			}
+			
+			report.append('\n');
+		}
+		
+		return report.toString();
+	}
+	
+	private static String micros(long nanos) {
+		return nanos < 0 ? "-" : String.format("%.1fus", nanos / 1000.0);
+	}
+	
+	/**
+	 * Forgets all samples and counts. The sections are kept.
+	 */
+	public void reset() {
+		Arrays.fill(counts, 0);
+		Arrays.fill(cpuWritten, 0);
+		Arrays.fill(gpuWritten, 0);
+	}
+	
+	/**
+	 * Deletes the timer queries. Results which haven't arrived yet are lost.
+	 */
+	public void release() {
+		if (activeSection != -1) {
+			gl.glEndQueryARB(GL_TIME_ELAPSED_EXT);
+			gl.glDeleteQueriesARB(activeQuery);
+			activeSection = -1;
+		}
+		
+		for (; pendingCount > 0; pendingCount--) {
+			gl.glDeleteQueriesARB(pendingQueries[pendingHead]);
+			pendingHead = (pendingHead + 1) % MAX_PENDING_QUERIES;
+		}
+		
+		while (freeCount > 0) gl.glDeleteQueriesARB(freeQueries[--freeCount]);
+	}
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Disabling the profiler in the middle of a section ends its timer query and drops the GPU time of that section.
+	 * @param enabled true to measure sections
+	 */
+	public void setEnabled(boolean enabled) {
+		if (!enabled && activeSection != -1) {
+			gl.glEndQueryARB(GL_TIME_ELAPSED_EXT);
+			
+			if (freeCount == freeQueries.length) freeQueries = Arrays.copyOf(freeQueries, freeCount * 2);
+			freeQueries[freeCount++] = activeQuery;
+			activeSection = -1;
+		}
+		
+		this.enabled = enabled;
+	}
+	
+	public boolean isGpuTiming() {
+		return gpuTiming;
+	}
+	
+	/**
+	 * @param gpuTiming false to measure CPU times only, even if timer queries are supported
+	 */
+	public void setGpuTiming(boolean gpuTiming) {
+		this.gpuTiming = gpuTiming;
+	}
+	
+	/**
+	 * @param clock the clock measuring CPU times in nanoseconds, {@link System#nanoTime()} by default
+	 */
+	public void setClock(LongSupplier clock) {
+		this.clock = clock;
+	}
+	
+	/**
+	 * @return the number of samples kept per section
+	 */
+	public int getWindow() {
+		return window;
+	}
+}
@@ -0,0 +1,1128 @@
+package at.erdlof.shadertools.gl;
+
+import static org.lwjgl.opengl.ARBFragmentShader.GL_FRAGMENT_SHADER_ARB;
+import static org.lwjgl.opengl.ARBGetProgramBinary.GL_PROGRAM_BINARY_LENGTH;
+import static org.lwjgl.opengl.ARBOcclusionQuery.GL_QUERY_RESULT_ARB;
+import static org.lwjgl.opengl.ARBOcclusionQuery.GL_QUERY_RESULT_AVAILABLE_ARB;
+import static org.lwjgl.opengl.ARBPixelBufferObject.GL_PIXEL_PACK_BUFFER_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_BOOL_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_FLOAT_MAT2_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_FLOAT_MAT3_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_FLOAT_MAT4_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_FLOAT_VEC2_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_FLOAT_VEC3_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_FLOAT_VEC4_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_INT_VEC2_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_INT_VEC3_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_INT_VEC4_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_OBJECT_ACTIVE_UNIFORMS_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_OBJECT_ACTIVE_UNIFORM_MAX_LENGTH_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_OBJECT_COMPILE_STATUS_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_OBJECT_INFO_LOG_LENGTH_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_OBJECT_LINK_STATUS_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_SAMPLER_2D_ARB;
+import static org.lwjgl.opengl.ARBVertexShader.GL_OBJECT_ACTIVE_ATTRIBUTES_ARB;
+import static org.lwjgl.opengl.ARBVertexShader.GL_OBJECT_ACTIVE_ATTRIBUTE_MAX_LENGTH_ARB;
+import static org.lwjgl.opengl.ARBVertexShader.GL_VERTEX_SHADER_ARB;
+import static org.lwjgl.opengl.EXTFramebufferObject.GL_FRAMEBUFFER_COMPLETE_EXT;
+import static org.lwjgl.opengl.GL11.GL_FALSE;
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_INT;
+import static org.lwjgl.opengl.GL11.GL_RENDERER;
+import static org.lwjgl.opengl.GL11.GL_TRUE;
+import static org.lwjgl.opengl.GL11.GL_VENDOR;
+import static org.lwjgl.opengl.GL11.GL_VERSION;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import at.erdlof.shadertools.util.LongIntMap;
+
+/**
+ * A headless backend which doesn't need a GPU or even an OpenGL context. It counts every call,
+ * hands out object IDs and simulates compiling and linking closely enough to drive the shader tools:
+ * <ul>
+ * <li>A shader fails to compile if its source contains an <code>#error</code> directive.</li>
+ * <li>A program fails to link unless exactly one compiled vertex and one compiled fragment shader are attached.</li>
+ * <li>Uniform and attribute locations are taken from the declarations in the attached sources.
+ * Unknown names resolve to -1, just like on a real driver. Every declared variable counts as active.</li>
+ * <li>With {@link #setParallelCompileSupported(boolean) parallel compiling} enabled, programs report completion
+ * only after their status has been polled a {@link #setCompileLatency(int) number of times}.</li>
+ * <li>The binary of a linked program holds its sources. It is only accepted by a backend reporting the same
+ * {@link #setDriverVersion(String) driver version}.</li>
+ * <li>With {@link #setTimerQuerySupported(boolean) timer queries} enabled, a query measures one microsecond
+ * per GL call made while it is active. Its result is available right away.</li>
+ * <li>Framebuffers report the {@link #setFramebufferStatus(int) status} set, complete by default.</li>
+ * <li>Buffer objects get the storage they are given, which can be mapped. Reading pixels fills them with the number
+ * of the read, starting at 1, so results can be told apart.</li>
+ * </ul>
+ * Call counts are kept per frame. {@link #endFrame()} closes a frame and returns its call histogram.
+ * @author Florian Bhrle
+ */
+public class RecordingBackend implements GLBackend {
+	private static final GLCall[] CALLS = GLCall.values();
+	private static final Pattern COMMENT = Pattern.compile("//[^\\n]*|/\\*.*?\\*/", Pattern.DOTALL);
+	private static final Pattern DECLARATION = Pattern.compile(
+			"(?:^|[;}])\\s*(uniform|attribute|in)\\s+(?:(?:lowp|mediump|highp)\\s+)?(\\w+)\\s+([^;{}()]+);", Pattern.MULTILINE);
+	private static final Pattern DECLARATOR = Pattern.compile("\\s*(\\w+)\\s*(?:\\[\\s*(\\d+)\\s*\\])?\\s*");
+	
+	private final int[] frameCounts = new int[CALLS.length];
+	private final long[] totalCounts = new long[CALLS.length];
+	private final List<Map<GLCall, Integer>> frames = new ArrayList<Map<GLCall, Integer>>();
+	
+	private final Map<Integer, SimulatedShader> shaders = new HashMap<Integer, SimulatedShader>();
+	private final Map<Integer, SimulatedProgram> programs = new HashMap<Integer, SimulatedProgram>();
+	private int nextObjectID = 1;
+	private int nextFramebufferID = 1;
+	private int nextTextureID = 1;
+	private int nextBufferID = 1;
+	private int nextRenderbufferID = 1;
+	private int nextQueryID = 1;
+	private final Map<Integer, Long> queryResults = new HashMap<Integer, Long>();
+	private int activeQuery;
+	private long activeQueryStart;
+	private int liveFramebuffers, liveTextures, liveBuffers, liveRenderbuffers;
+	private final Map<Integer, ByteBuffer> bufferStorage = new HashMap<Integer, ByteBuffer>();
+	//Primitive, so binding buffers doesn't show up in the allocation rates of benchmarks
+	private final LongIntMap boundBuffers = new LongIntMap(0);
+	private int pixelReads;
+	
+	private int boundProgram, boundFramebuffer;
+	private boolean shaderSupported = true, framebufferSupported = true, programBinarySupported = true;
+	private boolean parallelCompileSupported, timerQuerySupported;
+	private boolean drawBuffersSupported = true, floatTextureSupported = true, packedDepthStencilSupported = true;
+	private boolean pixelBufferSupported = true;
+	private int framebufferStatus = GL_FRAMEBUFFER_COMPLETE_EXT;
+	private int compileLatency;
+	private String driverVersion = "2.1 RecordingBackend";
+	private int displayWidth = 800, displayHeight = 600;
+	private final Map<Class<?>, Object> attachments = new HashMap<Class<?>, Object>();
+	
+	// Configuration
+	
+	public void setShaderSupported(boolean shaderSupported) {
+		this.shaderSupported = shaderSupported;
+	}
+	
+	public void setFramebufferSupported(boolean framebufferSupported) {
+		this.framebufferSupported = framebufferSupported;
+	}
+	
+	public void setProgramBinarySupported(boolean programBinarySupported) {
+		this.programBinarySupported = programBinarySupported;
+	}
+	
+	public void setParallelCompileSupported(boolean parallelCompileSupported) {
+		this.parallelCompileSupported = parallelCompileSupported;
+	}
+	
+	public void setTimerQuerySupported(boolean timerQuerySupported) {
+		this.timerQuerySupported = timerQuerySupported;
+	}
+	
+	public void setDrawBuffersSupported(boolean drawBuffersSupported) {
+		this.drawBuffersSupported = drawBuffersSupported;
+	}
+	
+	public void setFloatTextureSupported(boolean floatTextureSupported) {
+		this.floatTextureSupported = floatTextureSupported;
+	}
+	
+	public void setPackedDepthStencilSupported(boolean packedDepthStencilSupported) {
+		this.packedDepthStencilSupported = packedDepthStencilSupported;
+	}
+	
+	public void setPixelBufferSupported(boolean pixelBufferSupported) {
+		this.pixelBufferSupported = pixelBufferSupported;
+	}
+	
+	/**
+	 * @param framebufferStatus the status returned by every framebuffer check, e.g. GL_FRAMEBUFFER_UNSUPPORTED_EXT
+	 */
+	public void setFramebufferStatus(int framebufferStatus) {
+		this.framebufferStatus = framebufferStatus;
+	}
+	
+	/**
+	 * @param compileLatency how often the completion status of a program has to be polled after linking, until it reports completion
+	 */
+	public void setCompileLatency(int compileLatency) {
+		this.compileLatency = compileLatency;
+	}
+	
+	/**
+	 * Changes the string returned for GL_VERSION. Program binaries retrieved under another version are rejected,
+	 * like after a driver update.
+	 * @param driverVersion the version string
+	 */
+	public void setDriverVersion(String driverVersion) {
+		this.driverVersion = driverVersion;
+	}
+	
+	public void setDisplaySize(int width, int height) {
+		this.displayWidth = width;
+		this.displayHeight = height;
+	}
+	
+	// Statistics
+	
+	/**
+	 * @param call the GL function
+	 * @return how often the function has been called in the current frame
+	 */
+	public int getFrameCount(GLCall call) {
+		return frameCounts[call.ordinal()];
+	}
+	
+	/**
+	 * @param call the GL function
+	 * @return how often the function has been called since the last {@link #reset() reset}
+	 */
+	public long getTotalCount(GLCall call) {
+		return totalCounts[call.ordinal()];
+	}
+	
+	/**
+	 * @return the number of GL calls of any kind in the current frame
+	 */
+	public int getFrameCallCount() {
+		int sum = 0;
+		for (int count : frameCounts) sum += count;
+		return sum;
+	}
+	
+	/**
+	 * Closes the current frame.
+	 * @return the call histogram of the closed frame, containing only the functions which have been called
+	 */
+	public Map<GLCall, Integer> endFrame() {
+		Map<GLCall, Integer> histogram = new EnumMap<GLCall, Integer>(GLCall.class);
+		
+		for (int i = 0; i < frameCounts.length; i++) {
+			if (frameCounts[i] != 0) histogram.put(CALLS[i], frameCounts[i]);
+			frameCounts[i] = 0;
+		}
+		
+		histogram = Collections.unmodifiableMap(histogram);
+		frames.add(histogram);
+		return histogram;
+	}
+	
+	/**
+	 * @return the call histograms of all closed frames, oldest first
+	 */
+	public List<Map<GLCall, Integer>> getFrameHistory() {
+		return Collections.unmodifiableList(frames);
+	}
+	
+	/**
+	 * Clears all call counts and the frame history. Simulated objects are not affected.
+	 */
+	public void reset() {
+		for (int i = 0; i < frameCounts.length; i++) {
+			frameCounts[i] = 0;
+			totalCounts[i] = 0;
+		}
+		
+		frames.clear();
+	}
+	
+	// Simulated state
+	
+	public int getBoundProgram() {
+		return boundProgram;
+	}
+	
+	public int getBoundFramebuffer() {
+		return boundFramebuffer;
+	}
+	
+	public int getLiveShaderCount() {
+		return shaders.size();
+	}
+	
+	public int getLiveProgramCount() {
+		return programs.size();
+	}
+	
+	public int getLiveFramebufferCount() {
+		return liveFramebuffers;
+	}
+	
+	public int getLiveTextureCount() {
+		return liveTextures;
+	}
+	
+	public int getLiveBufferCount() {
+		return liveBuffers;
+	}
+	
+	public int getLiveRenderbufferCount() {
+		return liveRenderbuffers;
+	}
+	
+	private void record(GLCall call) {
+		frameCounts[call.ordinal()]++;
+		totalCounts[call.ordinal()]++;
+	}
+	
+	@Override
+	public boolean isShaderSupported() {
+		return shaderSupported;
+	}
+	
+	@Override
+	public boolean isFramebufferSupported() {
+		return framebufferSupported;
+	}
+	
+	@Override
+	public boolean isProgramBinarySupported() {
+		return programBinarySupported;
+	}
+	
+	@Override
+	public boolean isParallelCompileSupported() {
+		return parallelCompileSupported;
+	}
+	
+	@Override
+	public boolean isTimerQuerySupported() {
+		return timerQuerySupported;
+	}
+	
+	@Override
+	public boolean isDrawBuffersSupported() {
+		return drawBuffersSupported;
+	}
+	
+	@Override
+	public boolean isFloatTextureSupported() {
+		return floatTextureSupported;
+	}
+	
+	@Override
+	public boolean isPackedDepthStencilSupported() {
+		return packedDepthStencilSupported;
+	}
+	
+	@Override
+	public boolean isPixelBufferSupported() {
+		return pixelBufferSupported;
+	}
+	
+	@Override
+	public int getDisplayWidth() {
+		return displayWidth;
+	}
+	
+	@Override
+	public int getDisplayHeight() {
+		return displayHeight;
+	}
+	
+	@Override
+	public <T> T getAttachment(Class<T> type) {
+		return type.cast(attachments.get(type));
+	}
+	
+	@Override
+	public <T> void setAttachment(Class<T> type, T attachment) {
+		attachments.put(type, attachment);
+	}
+	
+	@Override
+	public String glGetString(int name) {
+		record(GLCall.GET_STRING);
+		
+		switch (name) {
+		case GL_VENDOR:
+			return "at.erdlof.shadertools";
+		case GL_RENDERER:
+			return "RecordingBackend";
+		case GL_VERSION:
+			return driverVersion;
+		default:
+			return null;
+		}
+	}
+	
+	@Override
+	public int glCreateShaderObjectARB(int shaderType) {
+		record(GLCall.CREATE_SHADER_OBJECT);
+		if (shaderType != GL_VERTEX_SHADER_ARB && shaderType != GL_FRAGMENT_SHADER_ARB) return 0;
+		
+		int id = nextObjectID++;
+		shaders.put(id, new SimulatedShader(shaderType));
+		return id;
+	}
+	
+	@Override
+	public void glShaderSourceARB(int shader, CharSequence source) {
+		record(GLCall.SHADER_SOURCE);
+		SimulatedShader s = shaders.get(shader);
+		if (s != null) s.source = source.toString();
+	}
+	
+	@Override
+	public void glCompileShaderARB(int shader) {
+		record(GLCall.COMPILE_SHADER);
+		SimulatedShader s = shaders.get(shader);
+		if (s == null) return;
+		
+		int error = s.source.indexOf("#error");
+		s.compiled = error < 0;
+		s.log = s.compiled ? "" : "0(" + lineOf(s.source, error) + ") : error: " + s.source.substring(error).split("\n", 2)[0];
+	}
+	
+	@Override
+	public int glGetObjectParameteriARB(int object, int pname) {
+		record(GLCall.GET_OBJECT_PARAMETER);
+		SimulatedShader shader = shaders.get(object);
+		SimulatedProgram program = programs.get(object);
+		
+		switch (pname) {
+		case GL_OBJECT_COMPILE_STATUS_ARB:
+			return shader != null && shader.compiled ? GL_TRUE : GL_FALSE;
+		case GL_OBJECT_LINK_STATUS_ARB:
+			return program != null && program.linked ? GL_TRUE : GL_FALSE;
+		case GL_OBJECT_INFO_LOG_LENGTH_ARB:
+			String log = shader != null ? shader.log : program != null ? program.log : "";
+			return log.isEmpty() ? 0 : log.length() + 1;
+		case GL_COMPLETION_STATUS_KHR:
+			if (program != null && program.pendingPolls > 0) {
+				program.pendingPolls--;
+				return GL_FALSE;
+			}
+			
+			return GL_TRUE;
+		case GL_PROGRAM_BINARY_LENGTH:
+			return program != null && program.linked ? program.binary.length : 0;
+		case GL_OBJECT_ACTIVE_UNIFORMS_ARB:
+			return program != null && program.linked ? program.uniforms.size() : 0;
+		case GL_OBJECT_ACTIVE_ATTRIBUTES_ARB:
+			return program != null && program.linked ? program.attributes.size() : 0;
+		case GL_OBJECT_ACTIVE_UNIFORM_MAX_LENGTH_ARB:
+			return program != null ? maxNameLength(program.uniforms) : 0;
+		case GL_OBJECT_ACTIVE_ATTRIBUTE_MAX_LENGTH_ARB:
+			return program != null ? maxNameLength(program.attributes) : 0;
+		default:
+			return 0;
+		}
+	}
+	
+	@Override
+	public String glGetInfoLogARB(int object, int maxLength) {
+		record(GLCall.GET_INFO_LOG);
+		SimulatedShader shader = shaders.get(object);
+		SimulatedProgram program = programs.get(object);
+		String log = shader != null ? shader.log : program != null ? program.log : "";
+		
+		return log.length() > maxLength ? log.substring(0, Math.max(0, maxLength - 1)) : log;
+	}
+	
+	@Override
+	public void glDeleteObjectARB(int object) {
+		record(GLCall.DELETE_OBJECT);
+		shaders.remove(object);
+		programs.remove(object);
+	}
+	
+	@Override
+	public int glCreateProgramObjectARB() {
+		record(GLCall.CREATE_PROGRAM_OBJECT);
+		int id = nextObjectID++;
+		programs.put(id, new SimulatedProgram());
+		return id;
+	}
+	
+	@Override
+	public void glAttachObjectARB(int program, int shader) {
+		record(GLCall.ATTACH_OBJECT);
+		SimulatedProgram p = programs.get(program);
+		if (p != null && shaders.containsKey(shader) && !p.attached.contains(shader)) p.attached.add(shader);
+	}
+	
+	@Override
+	public void glDetachObjectARB(int program, int shader) {
+		record(GLCall.DETACH_OBJECT);
+		SimulatedProgram p = programs.get(program);
+		if (p != null) p.attached.remove(Integer.valueOf(shader));
+	}
+	
+	@Override
+	public void glLinkProgramARB(int program) {
+		record(GLCall.LINK_PROGRAM);
+		SimulatedProgram p = programs.get(program);
+		if (p == null) return;
+		
+		int vertex = 0, fragment = 0;
+		p.pendingPolls = compileLatency;
+		p.uniforms.clear();
+		p.attributes.clear();
+		p.linked = false;
+		
+		for (int id : p.attached) {
+			SimulatedShader s = shaders.get(id);
+			if (!s.compiled) {
+				p.log = "error: attached shader " + id + " is not compiled";
+				return;
+			}
+			
+			if (s.type == GL_VERTEX_SHADER_ARB) vertex++;
+			else fragment++;
+		}
+		
+		if (vertex != 1 || fragment != 1) {
+			p.log = "error: a program needs exactly one vertex and one fragment shader";
+			return;
+		}
+		
+		String vertexSource = null, fragmentSource = null;
+		
+		for (int id : p.attached) {
+			SimulatedShader s = shaders.get(id);
+			
+			if (s.type == GL_VERTEX_SHADER_ARB) vertexSource = s.source;
+			else fragmentSource = s.source;
+		}
+		
+		load(p, vertexSource, fragmentSource);
+	}
+	
+	private static void load(SimulatedProgram p, String vertexSource, String fragmentSource) {
+		declare(p, vertexSource, true);
+		declare(p, fragmentSource, false);
+		
+		p.binary = (vertexSource + '\0' + fragmentSource).getBytes(StandardCharsets.UTF_8);
+		p.linked = true;
+		p.log = "";
+	}
+	
+	@Override
+	public void glUseProgramObjectARB(int program) {
+		record(GLCall.USE_PROGRAM_OBJECT);
+		boundProgram = program;
+	}
+	
+	@Override
+	public int glGetUniformLocationARB(int program, CharSequence name) {
+		record(GLCall.GET_UNIFORM_LOCATION);
+		SimulatedProgram p = programs.get(program);
+		return p != null && p.linked ? locate(p.uniforms, name.toString()) : -1;
+	}
+	
+	@Override
+	public int glGetAttribLocationARB(int program, CharSequence name) {
+		record(GLCall.GET_ATTRIB_LOCATION);
+		SimulatedProgram p = programs.get(program);
+		if (p == null || !p.linked) return -1;
+		
+		Variable v = p.attributes.get(name.toString());
+		return v != null ? v.location : -1;
+	}
+	
+	@Override
+	public String glGetActiveUniformARB(int program, int index, int maxLength, IntBuffer sizeType) {
+		record(GLCall.GET_ACTIVE_UNIFORM);
+		SimulatedProgram p = programs.get(program);
+		return p != null && p.linked ? active(p.uniforms, index, sizeType) : "";
+	}
+	
+	@Override
+	public String glGetActiveAttribARB(int program, int index, int maxLength, IntBuffer sizeType) {
+		record(GLCall.GET_ACTIVE_ATTRIB);
+		SimulatedProgram p = programs.get(program);
+		return p != null && p.linked ? active(p.attributes, index, sizeType) : "";
+	}
+	
+	private static String active(Map<String, Variable> variables, int index, IntBuffer sizeType) {
+		if (index < 0 || index >= variables.size()) return "";
+		
+		Map.Entry<String, Variable> variable = new ArrayList<Map.Entry<String, Variable>>(variables.entrySet()).get(index);
+		Variable v = variable.getValue();
+		sizeType.put(sizeType.position(), v.size);
+		sizeType.put(sizeType.position() + 1, glType(v.type));
+		
+		//Drivers name arrays after their first element
+		return v.size > 1 ? variable.getKey() + "[0]" : variable.getKey();
+	}
+	
+	private static int maxNameLength(Map<String, Variable> variables) {
+		int length = 0;
+		for (String name : variables.keySet()) length = Math.max(length, name.length() + "[0]".length() + 1);
+		return length;
+	}
+	
+	private static int glType(String type) {
+		switch (type) {
+		case "float":
+			return GL_FLOAT;
+		case "vec2":
+			return GL_FLOAT_VEC2_ARB;
+		case "vec3":
+			return GL_FLOAT_VEC3_ARB;
+		case "vec4":
+			return GL_FLOAT_VEC4_ARB;
+		case "int":
+			return GL_INT;
+		case "ivec2":
+			return GL_INT_VEC2_ARB;
+		case "ivec3":
+			return GL_INT_VEC3_ARB;
+		case "ivec4":
+			return GL_INT_VEC4_ARB;
+		case "bool":
+			return GL_BOOL_ARB;
+		case "mat2":
+			return GL_FLOAT_MAT2_ARB;
+		case "mat3":
+			return GL_FLOAT_MAT3_ARB;
+		case "mat4":
+			return GL_FLOAT_MAT4_ARB;
+		case "sampler2D":
+			return GL_SAMPLER_2D_ARB;
+		default:
+			return 0;
+		}
+	}
+	
+	@Override
+	public void glUniform1fARB(int location, float v0) {
+		record(GLCall.UNIFORM_1F);
+	}
+	
+	@Override
+	public void glUniform2fARB(int location, float v0, float v1) {
+		record(GLCall.UNIFORM_2F);
+	}
+	
+	@Override
+	public void glUniform3fARB(int location, float v0, float v1, float v2) {
+		record(GLCall.UNIFORM_3F);
+	}
+	
+	@Override
+	public void glUniform4fARB(int location, float v0, float v1, float v2, float v3) {
+		record(GLCall.UNIFORM_4F);
+	}
+	
+	@Override
+	public void glUniform1iARB(int location, int v0) {
+		record(GLCall.UNIFORM_1I);
+	}
+	
+	@Override
+	public void glUniform2iARB(int location, int v0, int v1) {
+		record(GLCall.UNIFORM_2I);
+	}
+	
+	@Override
+	public void glUniform3iARB(int location, int v0, int v1, int v2) {
+		record(GLCall.UNIFORM_3I);
+	}
+	
+	@Override
+	public void glUniform4iARB(int location, int v0, int v1, int v2, int v3) {
+		record(GLCall.UNIFORM_4I);
+	}
+	
+	@Override
+	public void glUniform1ARB(int location, FloatBuffer values) {
+		record(GLCall.UNIFORM_1FV);
+	}
+	
+	@Override
+	public void glUniform2ARB(int location, FloatBuffer values) {
+		record(GLCall.UNIFORM_2FV);
+	}
+	
+	@Override
+	public void glUniform3ARB(int location, FloatBuffer values) {
+		record(GLCall.UNIFORM_3FV);
+	}
+	
+	@Override
+	public void glUniform4ARB(int location, FloatBuffer values) {
+		record(GLCall.UNIFORM_4FV);
+	}
+	
+	@Override
+	public void glUniform1ARB(int location, IntBuffer values) {
+		record(GLCall.UNIFORM_1IV);
+	}
+	
+	@Override
+	public void glUniform2ARB(int location, IntBuffer values) {
+		record(GLCall.UNIFORM_2IV);
+	}
+	
+	@Override
+	public void glUniform3ARB(int location, IntBuffer values) {
+		record(GLCall.UNIFORM_3IV);
+	}
+	
+	@Override
+	public void glUniform4ARB(int location, IntBuffer values) {
+		record(GLCall.UNIFORM_4IV);
+	}
+	
+	@Override
+	public void glUniformMatrix2ARB(int location, boolean transpose, FloatBuffer matrices) {
+		record(GLCall.UNIFORM_MATRIX_2FV);
+	}
+	
+	@Override
+	public void glUniformMatrix3ARB(int location, boolean transpose, FloatBuffer matrices) {
+		record(GLCall.UNIFORM_MATRIX_3FV);
+	}
+	
+	@Override
+	public void glUniformMatrix4ARB(int location, boolean transpose, FloatBuffer matrices) {
+		record(GLCall.UNIFORM_MATRIX_4FV);
+	}
+	
+	@Override
+	public void glProgramParameteri(int program, int pname, int value) {
+		record(GLCall.PROGRAM_PARAMETER);
+	}
+	
+	@Override
+	public void glGetProgramBinary(int program, IntBuffer length, IntBuffer binaryFormat, ByteBuffer binary) {
+		record(GLCall.GET_PROGRAM_BINARY);
+		SimulatedProgram p = programs.get(program);
+		byte[] data = p != null && p.linked ? p.binary : new byte[0];
+		int written = Math.min(data.length, binary.remaining());
+		
+		binary.duplicate().put(data, 0, written);
+		if (length != null) length.put(length.position(), written);
+		binaryFormat.put(binaryFormat.position(), driverVersion.hashCode());
+	}
+	
+	@Override
+	public void glProgramBinary(int program, int binaryFormat, ByteBuffer binary) {
+		record(GLCall.PROGRAM_BINARY);
+		SimulatedProgram p = programs.get(program);
+		if (p == null) return;
+		
+		p.uniforms.clear();
+		p.attributes.clear();
+		p.linked = false;
+		
+		byte[] data = new byte[binary.remaining()];
+		binary.duplicate().get(data);
+		String[] sources = new String(data, StandardCharsets.UTF_8).split("\0", -1);
+		
+		if (binaryFormat != driverVersion.hashCode() || sources.length != 2) {
+			p.log = "error: the program binary is not compatible with this driver";
+			return;
+		}
+		
+		load(p, sources[0], sources[1]);
+	}
+	
+	@Override
+	public int glGenFramebuffersEXT() {
+		record(GLCall.GEN_FRAMEBUFFERS);
+		liveFramebuffers++;
+		return nextFramebufferID++;
+	}
+	
+	@Override
+	public void glBindFramebufferEXT(int target, int framebuffer) {
+		record(GLCall.BIND_FRAMEBUFFER);
+		boundFramebuffer = framebuffer;
+	}
+	
+	@Override
+	public void glFramebufferTexture2DEXT(int target, int attachment, int textarget, int texture, int level) {
+		record(GLCall.FRAMEBUFFER_TEXTURE_2D);
+	}
+	
+	@Override
+	public void glDeleteFramebuffersEXT(int framebuffer) {
+		record(GLCall.DELETE_FRAMEBUFFERS);
+		if (framebuffer != 0) liveFramebuffers--;
+	}
+	
+	@Override
+	public int glCheckFramebufferStatusEXT(int target) {
+		record(GLCall.CHECK_FRAMEBUFFER_STATUS);
+		return framebufferStatus;
+	}
+	
+	@Override
+	public int glGenRenderbuffersEXT() {
+		record(GLCall.GEN_RENDERBUFFERS);
+		liveRenderbuffers++;
+		return nextRenderbufferID++;
+	}
+	
+	@Override
+	public void glBindRenderbufferEXT(int target, int renderbuffer) {
+		record(GLCall.BIND_RENDERBUFFER);
+	}
+	
+	@Override
+	public void glRenderbufferStorageEXT(int target, int internalFormat, int width, int height) {
+		record(GLCall.RENDERBUFFER_STORAGE);
+	}
+	
+	@Override
+	public void glFramebufferRenderbufferEXT(int target, int attachment, int renderbufferTarget, int renderbuffer) {
+		record(GLCall.FRAMEBUFFER_RENDERBUFFER);
+	}
+	
+	@Override
+	public void glDeleteRenderbuffersEXT(int renderbuffer) {
+		record(GLCall.DELETE_RENDERBUFFERS);
+		if (renderbuffer != 0) liveRenderbuffers--;
+	}
+	
+	@Override
+	public void glDrawBuffersARB(IntBuffer buffers) {
+		record(GLCall.DRAW_BUFFERS);
+	}
+	
+	@Override
+	public void glReadBuffer(int mode) {
+		record(GLCall.READ_BUFFER);
+	}
+	
+	@Override
+	public void glReadPixels(int x, int y, int width, int height, int format, int type, long offset) {
+		record(GLCall.READ_PIXELS);
+		pixelReads++;
+		
+		int buffer = boundBuffers.get(GL_PIXEL_PACK_BUFFER_ARB);
+		ByteBuffer storage = buffer != 0 ? bufferStorage.get(buffer) : null;
+		if (storage == null) throw new IllegalStateException("No pixel pack buffer with storage is bound.");
+		
+		for (int i = (int) offset; i < storage.capacity(); i++) storage.put(i, (byte) pixelReads);
+	}
+	
+	@Override
+	public void glReadPixels(int x, int y, int width, int height, int format, int type, ByteBuffer pixels) {
+		record(GLCall.READ_PIXELS);
+		pixelReads++;
+		
+		for (int i = pixels.position(); i < pixels.limit(); i++) pixels.put(i, (byte) pixelReads);
+	}
+	
+	@Override
+	public int glGenTextures() {
+		record(GLCall.GEN_TEXTURES);
+		liveTextures++;
+		return nextTextureID++;
+	}
+	
+	@Override
+	public void glBindTexture(int target, int texture) {
+		record(GLCall.BIND_TEXTURE);
+	}
+	
+	@Override
+	public void glTexParameteri(int target, int pname, int param) {
+		record(GLCall.TEX_PARAMETER);
+	}
+	
+	@Override
+	public void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border, int format, int type, ByteBuffer pixels) {
+		record(GLCall.TEX_IMAGE_2D);
+	}
+	
+	@Override
+	public void glDeleteTextures(int texture) {
+		record(GLCall.DELETE_TEXTURES);
+		if (texture != 0) liveTextures--;
+	}
+	
+	@Override
+	public void glActiveTexture(int texture) {
+		record(GLCall.ACTIVE_TEXTURE);
+	}
+	
+	@Override
+	public void glPushAttrib(int mask) {
+		record(GLCall.PUSH_ATTRIB);
+	}
+	
+	@Override
+	public void glPopAttrib() {
+		record(GLCall.POP_ATTRIB);
+	}
+	
+	@Override
+	public void glViewport(int x, int y, int width, int height) {
+		record(GLCall.VIEWPORT);
+	}
+	
+	@Override
+	public void glClear(int mask) {
+		record(GLCall.CLEAR);
+	}
+	
+	@Override
+	public void glEnable(int cap) {
+		record(GLCall.ENABLE);
+	}
+	
+	@Override
+	public void glDisable(int cap) {
+		record(GLCall.DISABLE);
+	}
+	
+	@Override
+	public void glMatrixMode(int mode) {
+		record(GLCall.MATRIX_MODE);
+	}
+	
+	@Override
+	public void glPushMatrix() {
+		record(GLCall.PUSH_MATRIX);
+	}
+	
+	@Override
+	public void glPopMatrix() {
+		record(GLCall.POP_MATRIX);
+	}
+	
+	@Override
+	public void glLoadIdentity() {
+		record(GLCall.LOAD_IDENTITY);
+	}
+	
+	@Override
+	public int glGenBuffersARB() {
+		record(GLCall.GEN_BUFFERS);
+		liveBuffers++;
+		return nextBufferID++;
+	}
+	
+	@Override
+	public void glBindBufferARB(int target, int buffer) {
+		record(GLCall.BIND_BUFFER);
+		boundBuffers.put(target, buffer);
+	}
+	
+	@Override
+	public void glBufferDataARB(int target, FloatBuffer data, int usage) {
+		record(GLCall.BUFFER_DATA);
+	}
+	
+	@Override
+	public void glBufferDataARB(int target, long size, int usage) {
+		record(GLCall.BUFFER_DATA);
+		
+		int buffer = boundBuffers.get(target);
+		if (buffer != 0) bufferStorage.put(buffer, ByteBuffer.allocateDirect((int) size));
+	}
+	
+	@Override
+	public ByteBuffer glMapBufferARB(int target, int access, long length, ByteBuffer oldBuffer) {
+		record(GLCall.MAP_BUFFER);
+		
+		int buffer = boundBuffers.get(target);
+		ByteBuffer storage = buffer != 0 ? bufferStorage.get(buffer) : null;
+		if (storage != null) storage.clear();
+		return storage;
+	}
+	
+	@Override
+	public boolean glUnmapBufferARB(int target) {
+		record(GLCall.UNMAP_BUFFER);
+		return true;
+	}
+	
+	@Override
+	public void glDeleteBuffersARB(int buffer) {
+		record(GLCall.DELETE_BUFFERS);
+		if (buffer != 0) liveBuffers--;
+		bufferStorage.remove(buffer);
+	}
+	
+	@Override
+	public void glVertexAttribPointerARB(int index, int size, int type, boolean normalized, int stride, long offset) {
+		record(GLCall.VERTEX_ATTRIB_POINTER);
+	}
+	
+	@Override
+	public void glEnableVertexAttribArrayARB(int index) {
+		record(GLCall.ENABLE_VERTEX_ATTRIB_ARRAY);
+	}
+	
+	@Override
+	public void glDisableVertexAttribArrayARB(int index) {
+		record(GLCall.DISABLE_VERTEX_ATTRIB_ARRAY);
+	}
+	
+	@Override
+	public void glEnableClientState(int cap) {
+		record(GLCall.ENABLE_CLIENT_STATE);
+	}
+	
+	@Override
+	public void glDisableClientState(int cap) {
+		record(GLCall.DISABLE_CLIENT_STATE);
+	}
+	
+	@Override
+	public void glVertexPointer(int size, int type, int stride, long offset) {
+		record(GLCall.VERTEX_POINTER);
+	}
+	
+	@Override
+	public void glTexCoordPointer(int size, int type, int stride, long offset) {
+		record(GLCall.TEX_COORD_POINTER);
+	}
+	
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+		record(GLCall.DRAW_ARRAYS);
+	}
+	
+	@Override
+	public int glGenQueriesARB() {
+		record(GLCall.GEN_QUERIES);
+		int id = nextQueryID++;
+		queryResults.put(id, 0L);
+		return id;
+	}
+	
+	@Override
+	public void glDeleteQueriesARB(int query) {
+		record(GLCall.DELETE_QUERIES);
+		queryResults.remove(query);
+	}
+	
+	@Override
+	public void glBeginQueryARB(int target, int query) {
+		record(GLCall.BEGIN_QUERY);
+		activeQuery = query;
+		activeQueryStart = totalCallCount();
+	}
+	
+	@Override
+	public void glEndQueryARB(int target) {
+		record(GLCall.END_QUERY);
+		//The begin and end calls don't count
+		if (queryResults.containsKey(activeQuery)) queryResults.put(activeQuery, (totalCallCount() - activeQueryStart - 1) * 1000);
+		activeQuery = 0;
+	}
+	
+	@Override
+	public int glGetQueryObjectiARB(int query, int pname) {
+		record(GLCall.GET_QUERY_OBJECT);
+		if (pname == GL_QUERY_RESULT_AVAILABLE_ARB) return GL_TRUE;
+		
+		Long result = queryResults.get(query);
+		return pname == GL_QUERY_RESULT_ARB && result != null ? (int) (long) result : 0;
+	}
+	
+	@Override
+	public long glGetQueryObjectui64EXT(int query, int pname) {
+		record(GLCall.GET_QUERY_OBJECT_UI64);
+		Long result = queryResults.get(query);
+		return pname == GL_QUERY_RESULT_ARB && result != null ? result : 0;
+	}
+	
+	private long totalCallCount() {
+		long sum = 0;
+		for (long count : totalCounts) sum += count;
+		return sum;
+	}
+	
+	private static int lineOf(String source, int index) {
+		int line = 1;
+		for (int i = 0; i < index; i++) if (source.charAt(i) == '\n') line++;
+		return line;
+	}
+	
+	/**
+	 * Collects the uniforms and attributes declared in the given source. Locations are handed out
+	 * in declaration order, arrays take one location per element.
+	 */
+	private static void declare(SimulatedProgram program, String source, boolean vertexStage) {
+		Matcher m = DECLARATION.matcher(COMMENT.matcher(source).replaceAll(" "));
+		
+		while (m.find()) {
+			String qualifier = m.group(1);
+			if (qualifier.equals("in") && !vertexStage) continue;
+			
+			Map<String, Variable> target = qualifier.equals("uniform") ? program.uniforms : program.attributes;
+			
+			for (String declarator : m.group(3).split(",")) {
+				Matcher d = DECLARATOR.matcher(declarator);
+				if (!d.matches() || target.containsKey(d.group(1))) continue;
+				
+				int size = d.group(2) != null ? Integer.parseInt(d.group(2)) : 1;
+				int location = 0;
+				for (Variable v : target.values()) location += v.size;
+				
+				target.put(d.group(1), new Variable(m.group(2), size, location));
+			}
+		}
+	}
+	
+	private static int locate(Map<String, Variable> variables, String name) {
+		int index = 0;
+		int bracket = name.indexOf('[');
+		
+		if (bracket >= 0 && name.endsWith("]")) {
+			try {
+				index = Integer.parseInt(name.substring(bracket + 1, name.length() - 1).trim());
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+			
+			name = name.substring(0, bracket);
+		}
+		
+		Variable v = variables.get(name);
+		return v != null && index >= 0 && index < v.size ? v.location + index : -1;
+	}
+	
+	private static class SimulatedShader {
+		private final int type;
+		private String source = "";
+		private String log = "";
+		private boolean compiled;
+		
+		private SimulatedShader(int type) {
+			this.type = type;
+		}
+	}
+	
+	private static class SimulatedProgram {
+		private final List<Integer> attached = new ArrayList<Integer>();
+		private final Map<String, Variable> uniforms = new LinkedHashMap<String, Variable>();
+		private final Map<String, Variable> attributes = new LinkedHashMap<String, Variable>();
+		private String log = "";
+		private byte[] binary;
+		private boolean linked;
+		private int pendingPolls;
+	}
+	
+	private static class Variable {
+		private final String type;
+		private final int size;
+		private final int location;
+		
+		private Variable(String type, int size, int location) {
+			this.type = type;
+			this.size = size;
+			this.location = location;
+		}
+	}
+}
@@ -0,0 +1,491 @@
+package at.erdlof.shadertools.gl;
+
+import static org.lwjgl.opengl.ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB;
+import static org.lwjgl.opengl.EXTFramebufferObject.GL_FRAMEBUFFER_EXT;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_COORD_ARRAY;
+import static org.lwjgl.opengl.GL11.GL_VERTEX_ARRAY;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+
+import java.util.Arrays;
+
+/**
+ * Remembers which program, framebuffer and 2D textures are bound in the context of a backend, so binding
+ * the object that is already bound doesn't reach the driver. Textures are tracked per texture unit, and the active
+ * unit is only switched if a texture has to be bound on another unit.
+ * <p>
+ * The vertex state of the {@code FullscreenQuad} is tracked as well: the bound array buffer, the enabled vertex
+ * arrays and their pointers. It stays set between draws, so drawing the quad again costs a single draw call.
+ * {@link #resetVertexArrays()}, called by {@code ShaderProgram.unbindAll()}, disables the arrays and unbinds the buffer
+ * before client side vertex arrays are used.
+ * <p>
+ * Unbinding programs is lazy by default: {@link #unbindProgram(int)} keeps the program bound, since the next
+ * draw call most likely binds a program anyway. Fixed function rendering needs an explicit
+ * {@link #useProgram(int) useProgram(0)}, which is what {@code ShaderProgram.unbindAll()} does.
+ * <p>
+ * The tracker only sees the calls made through it. Call {@link #invalidate()} after binding programs, framebuffers or
+ * textures in any other way.
+ * @author Florian Bhrle
+ */
+public class StateTracker {
+	/**
+	 * The binding is unknown, so the next bind always reaches the driver.
+	 */
+	public static final int UNKNOWN = -1;
+	/**
+	 * The number of texture units tracked.
+	 */
+	public static final int MAX_TEXTURE_UNITS = 32;
+	/**
+	 * The number of generic vertex attribute arrays tracked.
+	 */
+	public static final int MAX_VERTEX_ATTRIBS = 16;
+	/**
+	 * The bit of GL_VERTEX_ARRAY in {@link #setClientArrays(int)}.
+	 */
+	public static final int VERTEX_ARRAY_BIT = 1;
+	/**
+	 * The bit of GL_TEXTURE_COORD_ARRAY in {@link #setClientArrays(int)}.
+	 */
+	public static final int TEXTURE_COORD_ARRAY_BIT = 2;
+	//The pointers of the client arrays are kept behind the generic ones
+	private static final int VERTEX_POINTER = MAX_VERTEX_ATTRIBS;
+	private static final int TEX_COORD_POINTER = MAX_VERTEX_ATTRIBS + 1;
+	
+	private final GLBackend gl;
+	private int boundProgram = UNKNOWN;
+	private int boundFramebuffer = UNKNOWN;
+	private int activeTextureUnit = UNKNOWN;
+	private final int[] boundTextures = new int[MAX_TEXTURE_UNITS];
+	private boolean lazyUnbind = true;
+	
+	private int boundArrayBuffer = UNKNOWN;
+	//A bit of the known masks is set if the state of the array is known
+	private int enabledAttribArrays, knownAttribArrays;
+	private int enabledClientArrays, knownClientArrays;
+	private final int[] pointerBuffers = new int[MAX_VERTEX_ATTRIBS + 2];
+	private final long[] pointerFormats = new long[MAX_VERTEX_ATTRIBS + 2];
+	private final long[] pointerOffsets = new long[MAX_VERTEX_ATTRIBS + 2];
+	
+	private long programBinds, redundantProgramBinds, deferredUnbinds;
+	private long framebufferBinds, redundantFramebufferBinds;
+	private long textureBinds, redundantTextureBinds, textureUnitSwitches;
+	private long arrayBufferBinds, redundantArrayBufferBinds, vertexArrayCalls;
+	
+	private StateTracker(GLBackend gl) {
+		this.gl = gl;
+		Arrays.fill(boundTextures, UNKNOWN);
+		Arrays.fill(pointerBuffers, UNKNOWN);
+	}
+	
+	/**
+	 * @param backend the backend
+	 * @return the tracker of the backend's context
+	 */
+	public static StateTracker of(GLBackend backend) {
+		synchronized (backend) {
+			StateTracker tracker = backend.getAttachment(StateTracker.class);
+			
+			if (tracker == null) {
+				tracker = new StateTracker(backend);
+				backend.setAttachment(StateTracker.class, tracker);
+			}
+			
+			return tracker;
+		}
+	}
+	
+	/**
+	 * Binds a program, unless it is bound already.
+	 * @param program the ID of the program, 0 for fixed function
+	 * @return true if the driver has been called
+	 */
+	public boolean useProgram(int program) {
+		programBinds++;
+		
+		if (program == boundProgram) {
+			redundantProgramBinds++;
+			return false;
+		}
+		
+		gl.glUseProgramObjectARB(program);
+		boundProgram = program;
+		return true;
+	}
+	
+	/**
+	 * Signals that the program isn't needed anymore. With lazy unbinding enabled the program stays bound
+	 * until another one is needed, otherwise fixed function is restored right away.
+	 * @param program the ID of the program
+	 */
+	public void unbindProgram(int program) {
+		if (boundProgram != program) return;
+		
+		if (lazyUnbind) deferredUnbinds++;
+		else useProgram(0);
+	}
+	
+	/**
+	 * Has to be called before a program is deleted. If the program is bound, fixed function is restored,
+	 * since its ID may be reused by the next program created.
+	 * @param program the ID of the program
+	 */
+	public void programDeleted(int program) {
+		if (boundProgram == program) useProgram(0);
+	}
+	
+	/**
+	 * Binds a framebuffer, unless it is bound already.
+	 * @param framebuffer the ID of the FBO, 0 for the display
+	 * @return true if the driver has been called
+	 */
+	public boolean bindFramebuffer(int framebuffer) {
+		framebufferBinds++;
+		
+		if (framebuffer == boundFramebuffer) {
+			redundantFramebufferBinds++;
+			return false;
+		}
+		
+		gl.glBindFramebufferEXT(GL_FRAMEBUFFER_EXT, framebuffer);
+		boundFramebuffer = framebuffer;
+		return true;
+	}
+	
+	/**
+	 * Has to be called before a framebuffer is deleted. If the framebuffer is bound, the display is bound instead.
+	 * @param framebuffer the ID of the FBO
+	 */
+	public void framebufferDeleted(int framebuffer) {
+		if (boundFramebuffer == framebuffer) bindFramebuffer(0);
+	}
+	
+	/**
+	 * Binds a 2D texture on a texture unit, unless it is bound there already. The unit is made active first, unless it
+	 * is active already.
+	 * @param unit the texture unit, 0 for GL_TEXTURE0
+	 * @param texture the ID of the texture, 0 to unbind
+	 * @return true if the driver has been called
+	 */
+	public boolean bindTexture(int unit, int texture) {
+		if (unit < 0 || unit >= MAX_TEXTURE_UNITS) throw new IllegalArgumentException("Invalid texture unit: " + unit);
+		
+		textureBinds++;
+		
+		if (boundTextures[unit] == texture) {
+			redundantTextureBinds++;
+			return false;
+		}
+		
+		if (activeTextureUnit != unit) {
+			gl.glActiveTexture(GL_TEXTURE0 + unit);
+			activeTextureUnit = unit;
+			textureUnitSwitches++;
+		}
+		
+		gl.glBindTexture(GL_TEXTURE_2D, texture);
+		boundTextures[unit] = texture;
+		return true;
+	}
+	
+	/**
+	 * Has to be called before a texture is deleted. The units it is bound on become unbound, since its ID may be
+	 * reused by the next texture created.
+	 * @param texture the ID of the texture
+	 */
+	public void textureDeleted(int texture) {
+		for (int unit = 0; unit < MAX_TEXTURE_UNITS; unit++) {
+			if (boundTextures[unit] == texture) boundTextures[unit] = 0;
+		}
+	}
+	
+	/**
+	 * Binds a buffer to GL_ARRAY_BUFFER, unless it is bound already.
+	 * @param buffer the ID of the buffer, 0 to unbind
+	 * @return true if the driver has been called
+	 */
+	public boolean bindArrayBuffer(int buffer) {
+		arrayBufferBinds++;
+		
+		if (buffer == boundArrayBuffer) {
+			redundantArrayBufferBinds++;
+			return false;
+		}
+		
+		gl.glBindBufferARB(GL_ARRAY_BUFFER_ARB, buffer);
+		boundArrayBuffer = buffer;
+		return true;
+	}
+	
+	/**
+	 * Has to be called before a buffer is deleted. If the buffer is bound to GL_ARRAY_BUFFER, it is unbound, and the
+	 * pointers into it are forgotten, since its ID may be reused by the next buffer created.
+	 * @param buffer the ID of the buffer
+	 */
+	public void bufferDeleted(int buffer) {
+		if (boundArrayBuffer == buffer) bindArrayBuffer(0);
+		
+		for (int pointer = 0; pointer < pointerBuffers.length; pointer++) {
+			if (pointerBuffers[pointer] == buffer) pointerBuffers[pointer] = UNKNOWN;
+		}
+	}
+	
+	/**
+	 * Enables exactly the given generic vertex attribute arrays and disables all others. Only the arrays whose state
+	 * changes reach the driver.
+	 * @param mask one bit per attribute index, bit 0 for index 0
+	 */
+	public void setVertexAttribArrays(int mask) {
+		int changed = (enabledAttribArrays ^ mask | ~knownAttribArrays) & (1 << MAX_VERTEX_ATTRIBS) - 1;
+		
+		for (int index = 0; changed != 0; index++, changed >>>= 1) {
+			if ((changed & 1) == 0) continue;
+			
+			if ((mask & 1 << index) != 0) gl.glEnableVertexAttribArrayARB(index);
+			else gl.glDisableVertexAttribArrayARB(index);
+			vertexArrayCalls++;
+		}
+		
+		enabledAttribArrays = mask & (1 << MAX_VERTEX_ATTRIBS) - 1;
+		knownAttribArrays = (1 << MAX_VERTEX_ATTRIBS) - 1;
+	}
+	
+	/**
+	 * Enables exactly the given client side arrays and disables the others, like {@link #setVertexAttribArrays(int)}.
+	 * @param mask a combination of {@link #VERTEX_ARRAY_BIT} and {@link #TEXTURE_COORD_ARRAY_BIT}
+	 */
+	public void setClientArrays(int mask) {
+		int changed = (enabledClientArrays ^ mask | ~knownClientArrays) & (VERTEX_ARRAY_BIT | TEXTURE_COORD_ARRAY_BIT);
+		
+		if ((changed & VERTEX_ARRAY_BIT) != 0) clientState(GL_VERTEX_ARRAY, (mask & VERTEX_ARRAY_BIT) != 0);
+		if ((changed & TEXTURE_COORD_ARRAY_BIT) != 0) clientState(GL_TEXTURE_COORD_ARRAY, (mask & TEXTURE_COORD_ARRAY_BIT) != 0);
+		
+		enabledClientArrays = mask & (VERTEX_ARRAY_BIT | TEXTURE_COORD_ARRAY_BIT);
+		knownClientArrays = VERTEX_ARRAY_BIT | TEXTURE_COORD_ARRAY_BIT;
+	}
+	
+	private void clientState(int cap, boolean enabled) {
+		if (enabled) gl.glEnableClientState(cap);
+		else gl.glDisableClientState(cap);
+		vertexArrayCalls++;
+	}
+	
+	/**
+	 * Points a generic vertex attribute into the bound array buffer, unless it points there with this format already.
+	 * @param index the attribute index
+	 * @param size the number of components
+	 * @param type the type of the components, e.g. GL_FLOAT
+	 * @param normalized true to normalize integer components
+	 * @param stride the distance between two vertices in bytes
+	 * @param offset the offset of the first component in the buffer
+	 * @return true if the driver has been called
+	 */
+	public boolean vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long offset) {
+		if (index < 0 || index >= MAX_VERTEX_ATTRIBS) throw new IllegalArgumentException("Invalid vertex attribute: " + index);
+		if (!pointerChanged(index, format(size, type, stride) | (normalized ? 1L << 63 : 0), offset)) return false;
+		
+		gl.glVertexAttribPointerARB(index, size, type, normalized, stride, offset);
+		return true;
+	}
+	
+	/**
+	 * Sets the vertex pointer to the bound array buffer, unless it points there with this format already.
+	 * @see #vertexAttribPointer(int, int, int, boolean, int, long)
+	 */
+	public boolean vertexPointer(int size, int type, int stride, long offset) {
+		if (!pointerChanged(VERTEX_POINTER, format(size, type, stride), offset)) return false;
+		
+		gl.glVertexPointer(size, type, stride, offset);
+		return true;
+	}
+	
+	/**
+	 * Sets the texture coordinate pointer to the bound array buffer, unless it points there with this format already.
+	 * @see #vertexAttribPointer(int, int, int, boolean, int, long)
+	 */
+	public boolean texCoordPointer(int size, int type, int stride, long offset) {
+		if (!pointerChanged(TEX_COORD_POINTER, format(size, type, stride), offset)) return false;
+		
+		gl.glTexCoordPointer(size, type, stride, offset);
+		return true;
+	}
+	
+	private static long format(int size, int type, int stride) {
+		return (long) type << 40 | (stride & 0xFFFFFFFFL) << 8 | size;
+	}
+	
+	private boolean pointerChanged(int pointer, long format, long offset) {
+		if (boundArrayBuffer != UNKNOWN && pointerBuffers[pointer] == boundArrayBuffer
+				&& pointerFormats[pointer] == format && pointerOffsets[pointer] == offset) {
+			return false;
+		}
+		
+		pointerBuffers[pointer] = boundArrayBuffer;
+		pointerFormats[pointer] = format;
+		pointerOffsets[pointer] = offset;
+		vertexArrayCalls++;
+		return true;
+	}
+	
+	/**
+	 * Disables all vertex arrays and unbinds the array buffer, so client side vertex arrays can be used.
+	 */
+	public void resetVertexArrays() {
+		setVertexAttribArrays(0);
+		setClientArrays(0);
+		bindArrayBuffer(0);
+	}
+	
+	/**
+	 * Forgets all bindings, so the next bind of every kind reaches the driver.
+	 */
+	public void invalidate() {
+		boundProgram = UNKNOWN;
+		boundFramebuffer = UNKNOWN;
+		activeTextureUnit = UNKNOWN;
+		Arrays.fill(boundTextures, UNKNOWN);
+		boundArrayBuffer = UNKNOWN;
+		knownAttribArrays = 0;
+		knownClientArrays = 0;
+		Arrays.fill(pointerBuffers, UNKNOWN);
+	}
+	
+	/**
+	 * @return the ID of the bound program, or {@link #UNKNOWN}
+	 */
+	public int getBoundProgram() {
+		return boundProgram;
+	}
+	
+	/**
+	 * @return the ID of the bound framebuffer, or {@link #UNKNOWN}
+	 */
+	public int getBoundFramebuffer() {
+		return boundFramebuffer;
+	}
+	
+	/**
+	 * @param unit the texture unit, 0 for GL_TEXTURE0
+	 * @return the ID of the 2D texture bound on the unit, or {@link #UNKNOWN}
+	 */
+	public int getBoundTexture(int unit) {
+		return boundTextures[unit];
+	}
+	
+	/**
+	 * @return the active texture unit, 0 for GL_TEXTURE0, or {@link #UNKNOWN}
+	 */
+	public int getActiveTextureUnit() {
+		return activeTextureUnit;
+	}
+	
+	/**
+	 * @return the ID of the buffer bound to GL_ARRAY_BUFFER, or {@link #UNKNOWN}
+	 */
+	public int getBoundArrayBuffer() {
+		return boundArrayBuffer;
+	}
+	
+	public boolean isLazyUnbind() {
+		return lazyUnbind;
+	}
+	
+	/**
+	 * @param lazyUnbind false to restore fixed function on every {@link #unbindProgram(int) unbind}, like earlier versions did
+	 */
+	public void setLazyUnbind(boolean lazyUnbind) {
+		this.lazyUnbind = lazyUnbind;
+	}
+	
+	/**
+	 * @return the number of program binds requested, including redundant ones
+	 */
+	public long getProgramBinds() {
+		return programBinds;
+	}
+	
+	/**
+	 * @return the number of program binds that have been skipped, because the program was bound already
+	 */
+	public long getRedundantProgramBinds() {
+		return redundantProgramBinds;
+	}
+	
+	/**
+	 * @return the number of unbinds that have been deferred
+	 */
+	public long getDeferredUnbinds() {
+		return deferredUnbinds;
+	}
+	
+	/**
+	 * @return the number of framebuffer binds requested, including redundant ones
+	 */
+	public long getFramebufferBinds() {
+		return framebufferBinds;
+	}
+	
+	/**
+	 * @return the number of framebuffer binds that have been skipped, because the framebuffer was bound already
+	 */
+	public long getRedundantFramebufferBinds() {
+		return redundantFramebufferBinds;
+	}
+	
+	/**
+	 * @return the number of texture binds requested, including redundant ones
+	 */
+	public long getTextureBinds() {
+		return textureBinds;
+	}
+	
+	/**
+	 * @return the number of texture binds that have been skipped, because the texture was bound on the unit already
+	 */
+	public long getRedundantTextureBinds() {
+		return redundantTextureBinds;
+	}
+	
+	/**
+	 * @return the number of times the active texture unit has been switched. Without the tracker every texture bind
+	 * would switch it.
+	 */
+	public long getTextureUnitSwitches() {
+		return textureUnitSwitches;
+	}
+	
+	/**
+	 * @return the number of array buffer binds requested, including redundant ones
+	 */
+	public long getArrayBufferBinds() {
+		return arrayBufferBinds;
+	}
+	
+	/**
+	 * @return the number of array buffer binds that have been skipped, because the buffer was bound already
+	 */
+	public long getRedundantArrayBufferBinds() {
+		return redundantArrayBufferBinds;
+	}
+	
+	/**
+	 * @return the number of calls enabling or disabling vertex arrays or setting their pointers that reached the driver
+	 */
+	public long getVertexArrayCalls() {
+		return vertexArrayCalls;
+	}
+	
+	public void resetStatistics() {
+		programBinds = 0;
+		redundantProgramBinds = 0;
+		deferredUnbinds = 0;
+		framebufferBinds = 0;
+		redundantFramebufferBinds = 0;
+		textureBinds = 0;
+		redundantTextureBinds = 0;
+		textureUnitSwitches = 0;
+		arrayBufferBinds = 0;
+		redundantArrayBufferBinds = 0;
+		vertexArrayCalls = 0;
+	}
+}
@@ -0,0 +1,233 @@
+package at.erdlof.shadertools.shaders;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Draw commands recorded by any thread, to be executed on the GL thread by a {@link CommandQueue}.
+ * A buffer is used by one thread at a time: {@link CommandQueue#acquire() acquire} it, record, and
+ * {@link CommandQueue#submit(CommandBuffer) submit} it. Example:
+ * <p><code>
+ * CommandBuffer commands = queue.acquire();<br>
+ * commands.begin(target, blur);<br>
+ * commands.setUniform(radius, 4f);<br>
+ * commands.drawQuad();<br>
+ * queue.submit(commands);</code>
+ * <p>
+ * Every draw forms an item together with the target, program and uniform values passed since {@link #begin}.
+ * The commands are written into a direct buffer allocated once, which only grows if a frame needs more space than
+ * before. Programs and targets are referenced through a small table, so recording doesn't touch any GL state.
+ * @author Florian Bhrle
+ */
+public class CommandBuffer {
+	static final byte BEGIN = 1, UNIFORM_1F = 2, UNIFORM_2F = 3, UNIFORM_3F = 4, UNIFORM_4F = 5,
+			UNIFORM_1I = 6, UNIFORM_2I = 7, UNIFORM_3I = 8, UNIFORM_4I = 9, UNIFORM_MATRIX_4 = 10,
+			DRAW_QUAD = 11, DRAW_ARRAYS = 12;
+	
+	/**
+	 * The highest layer, see {@link #begin(FrameBuffer, ShaderProgram, int)}.
+	 */
+	public static final int MAX_LAYER = 0x7F;
+	
+	private ByteBuffer data;
+	private Object[] references = new Object[16];
+	private int referenceCount;
+	private long[] itemKeys = new long[64];
+	private int[] itemOffsets = new int[64];
+	private int itemCount;
+	private boolean recording;
+	
+	/**
+	 * @param capacity the initial size of the buffer in bytes
+	 */
+	CommandBuffer(int capacity) {
+		data = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+	}
+	
+	/**
+	 * Starts a draw item in layer 0.
+	 * @param target the target to draw into, null for the display
+	 * @param program the program to draw with, null for fixed function
+	 */
+	public void begin(FrameBuffer target, ShaderProgram program) {
+		begin(target, program, 0);
+	}
+	
+	/**
+	 * Starts a draw item. When the commands are sorted, items are ordered by layer first, then by target and program.
+	 * Use layers for draws depending on each other, e.g. a pass reading the target of an earlier pass.
+	 * @param target the target to draw into, null for the display
+	 * @param program the program to draw with, null for fixed function
+	 * @param layer the layer, from 0 to {@link #MAX_LAYER}
+	 */
+	public void begin(FrameBuffer target, ShaderProgram program, int layer) {
+		if (recording) throw new IllegalStateException("The last item hasn't been drawn.");
+		if (layer < 0 || layer > MAX_LAYER) throw new IllegalArgumentException("The layer must be between 0 and " + MAX_LAYER + ".");
+		
+		if (itemCount == itemKeys.length) {
+			itemKeys = Arrays.copyOf(itemKeys, itemCount * 2);
+			itemOffsets = Arrays.copyOf(itemOffsets, itemCount * 2);
+		}
+		
+		int targetID = target != null ? target.getFBOid() : 0;
+		int programID = program != null ? program.getProgramID() : 0;
+		itemKeys[itemCount] = (long) layer << 32 | (targetID & 0xFFFFL) << 16 | programID & 0xFFFFL;
+		itemOffsets[itemCount] = data.position();
+		itemCount++;
+		recording = true;
+		
+		ensure(9);
+		data.put(BEGIN).putInt(reference(target)).putInt(reference(program));
+	}
+	
+	public void setUniform(int handle, float v) {
+		write(UNIFORM_1F, handle, 4).putFloat(v);
+	}
+	
+	public void setUniform(int handle, float x, float y) {
+		write(UNIFORM_2F, handle, 8).putFloat(x).putFloat(y);
+	}
+	
+	public void setUniform(int handle, float x, float y, float z) {
+		write(UNIFORM_3F, handle, 12).putFloat(x).putFloat(y).putFloat(z);
+	}
+	
+	public void setUniform(int handle, float x, float y, float z, float w) {
+		write(UNIFORM_4F, handle, 16).putFloat(x).putFloat(y).putFloat(z).putFloat(w);
+	}
+	
+	public void setUniform(int handle, int v) {
+		write(UNIFORM_1I, handle, 4).putInt(v);
+	}
+	
+	public void setUniform(int handle, int x, int y) {
+		write(UNIFORM_2I, handle, 8).putInt(x).putInt(y);
+	}
+	
+	public void setUniform(int handle, int x, int y, int z) {
+		write(UNIFORM_3I, handle, 12).putInt(x).putInt(y).putInt(z);
+	}
+	
+	public void setUniform(int handle, int x, int y, int z, int w) {
+		write(UNIFORM_4I, handle, 16).putInt(x).putInt(y).putInt(z).putInt(w);
+	}
+	
+	/**
+	 * Sets a mat4 uniform variable.
+	 * @param handle the handle returned by {@link ShaderProgram#registerUniform(String)}
+	 * @param transpose false if the matrix is stored in column-major order, true for row-major order
+	 * @param matrix the 16 values of the matrix, copied right away
+	 */
+	public void setUniformMatrix4(int handle, boolean transpose, float[] matrix) {
+		write(UNIFORM_MATRIX_4, handle, 1 + 16 * 4).put((byte) (transpose ? 1 : 0));
+		for (int i = 0; i < 16; i++) data.putFloat(matrix[i]);
+	}
+	
+	/**
+	 * Draws the {@link FullscreenQuad} and ends the item.
+	 */
+	public void drawQuad() {
+		checkRecording();
+		ensure(1);
+		data.put(DRAW_QUAD);
+		recording = false;
+	}
+	
+	/**
+	 * Draws from the bound vertex arrays and ends the item.
+	 * @param mode the primitive type, e.g. GL_TRIANGLES
+	 * @param first the first vertex
+	 * @param count the number of vertices
+	 */
+	public void drawArrays(int mode, int first, int count) {
+		checkRecording();
+		ensure(13);
+		data.put(DRAW_ARRAYS).putInt(mode).putInt(first).putInt(count);
+		recording = false;
+	}
+	
+	private ByteBuffer write(byte command, int handle, int size) {
+		checkRecording();
+		ensure(5 + size);
+		return data.put(command).putInt(handle);
+	}
+	
+	private void checkRecording() {
+		if (!recording) throw new IllegalStateException("Call begin() before recording uniforms or draws.");
+	}
+	
+	private void ensure(int bytes) {
+		if (data.remaining() >= bytes) return;
+		
+		ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(data.capacity() * 2, data.position() + bytes)).order(ByteOrder.nativeOrder());
+		data.flip();
+		larger.put(data);
+		data = larger;
+	}
+	
+	private int reference(Object object) {
+		if (object == null) return -1;
+		
+		//Tables are small, most items reuse one of the last references
+		for (int i = referenceCount - 1; i >= 0; i--) {
+			if (references[i] == object) return i;
+		}
+		
+		if (referenceCount == references.length) references = Arrays.copyOf(references, referenceCount * 2);
+		references[referenceCount] = object;
+		return referenceCount++;
+	}
+	
+	/**
+	 * Forgets all commands, keeping the memory.
+	 */
+	void reset() {
+		data.clear();
+		Arrays.fill(references, 0, referenceCount, null);
+		referenceCount = 0;
+		itemCount = 0;
+		recording = false;
+	}
+	
+	boolean isRecording() {
+		return recording;
+	}
+	
+	ByteBuffer getData() {
+		return data;
+	}
+	
+	Object getReference(int index) {
+		return index >= 0 ? references[index] : null;
+	}
+	
+	long getItemKey(int item) {
+		return itemKeys[item];
+	}
+	
+	int getItemOffset(int item) {
+		return itemOffsets[item];
+	}
+	
+	/**
+	 * @return the number of draws recorded
+	 */
+	public int getItemCount() {
+		return itemCount;
+	}
+	
+	/**
+	 * @return the number of bytes recorded
+	 */
+	public int getSize() {
+		return data.position();
+	}
+	
+	/**
+	 * @return the size of the direct buffer in bytes
+	 */
+	public int getCapacity() {
+		return data.capacity();
+	}
+}
@@ -0,0 +1,298 @@
+package at.erdlof.shadertools.shaders;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import at.erdlof.shadertools.gl.GLBackend;
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.StateTracker;
+import at.erdlof.shadertools.util.RadixSort;
+
+/**
+ * Hands draw commands recorded on other threads to the GL thread. Worker threads take a {@link CommandBuffer},
+ * record into it without any locking and submit it; the GL thread executes all submitted buffers once per frame.
+ * Example:
+ * <p><code>
+ * CommandQueue queue = new CommandQueue();<br>
+ * <span style="color: gray; font-style: italic">-- On any thread: --</span><br>
+ * CommandBuffer commands = queue.acquire();<br>
+ * <span style="color: gray; font-style: italic">-- Record --</span><br>
+ * queue.submit(commands);<br>
+ * <span style="color: gray; font-style: italic">-- On the GL thread, every frame: --</span><br>
+ * queue.execute();</code>
+ * <p>
+ * With sorting enabled (the default), the items of all buffers are ordered by layer, target and program before they
+ * are executed, so every target and program is bound as few times as possible. Items with the same layer, target and
+ * program keep the order they have been submitted in. Disable sorting if the order of the draws matters beyond that.
+ * <p>
+ * Targets are bound with a viewport covering them and without clearing them. After executing, the display is bound
+ * with a viewport covering it. Executed buffers are reset and reused by later {@link #acquire()} calls.
+ * @author Florian Bhrle
+ */
+public class CommandQueue {
+	/**
+	 * The initial size of a new buffer in bytes.
+	 */
+	public static final int DEFAULT_BUFFER_CAPACITY = 64 * 1024;
+	//The low bits of a sort key hold the position of the item
+	private static final int INDEX_BITS = 24;
+	
+	private final GLBackend gl;
+	private final StateTracker state;
+	private final FullscreenQuad quad;
+	private final Queue<CommandBuffer> free = new ConcurrentLinkedQueue<CommandBuffer>();
+	private final Queue<CommandBuffer> submitted = new ConcurrentLinkedQueue<CommandBuffer>();
+	private final int bufferCapacity;
+	private boolean sorting = true;
+	
+	//Used on the GL thread only
+	private final List<CommandBuffer> executing = new ArrayList<CommandBuffer>();
+	private final RadixSort sort = new RadixSort();
+	private long[] keys = new long[256];
+	private int[] itemBuffers = new int[256];
+	private int[] itemOffsets = new int[256];
+	private final float[] matrix = new float[16];
+	
+	private long items, targetBinds, programBinds;
+	
+	public CommandQueue() {
+		this(DEFAULT_BUFFER_CAPACITY);
+	}
+	
+	/**
+	 * @param bufferCapacity the initial size of every buffer in bytes
+	 */
+	public CommandQueue(int bufferCapacity) {
+		this.gl = GLBackends.current();
+		this.state = StateTracker.of(gl);
+		this.quad = FullscreenQuad.of(gl);
+		this.bufferCapacity = bufferCapacity;
+	}
+	
+	/**
+	 * Takes an empty buffer. May be called on any thread.
+	 * @return the buffer, to be recorded by the calling thread only
+	 */
+	public CommandBuffer acquire() {
+		CommandBuffer buffer = free.poll();
+		return buffer != null ? buffer : new CommandBuffer(bufferCapacity);
+	}
+	
+	/**
+	 * Hands a recorded buffer to the GL thread. May be called on any thread. The buffer must not be used afterwards.
+	 * @param buffer a buffer returned by {@link #acquire()}
+	 * @throws IllegalStateException if the last item of the buffer hasn't been drawn
+	 */
+	public void submit(CommandBuffer buffer) {
+		if (buffer.isRecording()) throw new IllegalStateException("The last item of the buffer hasn't been drawn.");
+		submitted.add(buffer);
+	}
+	
+	/**
+	 * Executes all submitted buffers. Has to be called on the GL thread. If an item fails, the items after it are
+	 * dropped; the buffers are reused and the display is bound all the same.
+	 * @return the number of items executed
+	 */
+	public int execute() {
+		CommandBuffer buffer;
+		while ((buffer = submitted.poll()) != null) executing.add(buffer);
+		if (executing.isEmpty()) return 0;
+		
+		FrameBuffer target = null;
+		int count;
+		
+		try {
+			count = collect();
+			if (sorting) sort.sort(keys, count);
+			
+			ShaderProgram program = null;
+			boolean first = true;
+			
+			for (int i = 0; i < count; i++) {
+				int item = (int) (keys[i] & (1 << INDEX_BITS) - 1);
+				CommandBuffer source = executing.get(itemBuffers[item]);
+				ByteBuffer data = source.getData();
+				int offset = itemOffsets[item];
+				
+				FrameBuffer itemTarget = (FrameBuffer) source.getReference(data.getInt(offset + 1));
+				ShaderProgram itemProgram = (ShaderProgram) source.getReference(data.getInt(offset + 5));
+				
+				if (first || itemTarget != target) {
+					bindTarget(itemTarget);
+					target = itemTarget;
+				}
+				
+				if (first || itemProgram != program) {
+					if (itemProgram != null) itemProgram.bind();
+					else state.useProgram(0);
+					
+					program = itemProgram;
+					programBinds++;
+				}
+				
+				first = false;
+				replay(data, offset + 9, program);
+			}
+		} finally {
+			if (target != null) bindTarget(null);
+			
+			//Buffers left in the list would be replayed by the next call
+			for (CommandBuffer executed : executing) {
+				executed.reset();
+				free.add(executed);
+			}
+			
+			executing.clear();
+		}
+		
+		items += count;
+		return count;
+	}
+	
+	private int collect() {
+		int count = 0;
+		
+		for (int b = 0; b < executing.size(); b++) {
+			CommandBuffer buffer = executing.get(b);
+			int bufferItems = buffer.getItemCount();
+			
+			if (count + bufferItems > keys.length) {
+				int capacity = Math.max(keys.length * 2, count + bufferItems);
+				if (capacity > 1 << INDEX_BITS) throw new IllegalStateException("More than " + (1 << INDEX_BITS) + " items have been submitted.");
+				
+				keys = Arrays.copyOf(keys, capacity);
+				itemBuffers = Arrays.copyOf(itemBuffers, capacity);
+				itemOffsets = Arrays.copyOf(itemOffsets, capacity);
+			}
+			
+			for (int i = 0; i < bufferItems; i++, count++) {
+				keys[count] = buffer.getItemKey(i) << INDEX_BITS | count;
+				itemBuffers[count] = b;
+				itemOffsets[count] = buffer.getItemOffset(i);
+			}
+		}
+		
+		return count;
+	}
+	
+	private void bindTarget(FrameBuffer target) {
+		if (target != null) {
+			state.bindFramebuffer(target.getFBOid());
+			gl.glViewport(0, 0, target.getWidth(), target.getHeight());
+		} else {
+			state.bindFramebuffer(0);
+			gl.glViewport(0, 0, gl.getDisplayWidth(), gl.getDisplayHeight());
+		}
+		
+		targetBinds++;
+	}
+	
+	/**
+	 * Executes the uniform commands and the draw of an item.
+	 */
+	private void replay(ByteBuffer data, int offset, ShaderProgram program) {
+		while (true) {
+			byte command = data.get(offset);
+			int handle = data.getInt(offset + 1);
+			int p = offset + 5;
+			
+			switch (command) {
+			case CommandBuffer.UNIFORM_1F:
+				program.setUniform(handle, data.getFloat(p));
+				offset = p + 4;
+				break;
+			case CommandBuffer.UNIFORM_2F:
+				program.setUniform(handle, data.getFloat(p), data.getFloat(p + 4));
+				offset = p + 8;
+				break;
+			case CommandBuffer.UNIFORM_3F:
+				program.setUniform(handle, data.getFloat(p), data.getFloat(p + 4), data.getFloat(p + 8));
+				offset = p + 12;
+				break;
+			case CommandBuffer.UNIFORM_4F:
+				program.setUniform(handle, data.getFloat(p), data.getFloat(p + 4), data.getFloat(p + 8), data.getFloat(p + 12));
+				offset = p + 16;
+				break;
+			case CommandBuffer.UNIFORM_1I:
+				program.setUniform(handle, data.getInt(p));
+				offset = p + 4;
+				break;
+			case CommandBuffer.UNIFORM_2I:
+				program.setUniform(handle, data.getInt(p), data.getInt(p + 4));
+				offset = p + 8;
+				break;
+			case CommandBuffer.UNIFORM_3I:
+				program.setUniform(handle, data.getInt(p), data.getInt(p + 4), data.getInt(p + 8));
+				offset = p + 12;
+				break;
+			case CommandBuffer.UNIFORM_4I:
+				program.setUniform(handle, data.getInt(p), data.getInt(p + 4), data.getInt(p + 8), data.getInt(p + 12));
+				offset = p + 16;
+				break;
+			case CommandBuffer.UNIFORM_MATRIX_4:
+				boolean transpose = data.get(p) != 0;
+				for (int i = 0; i < 16; i++) matrix[i] = data.getFloat(p + 1 + i * 4);
+				program.setUniformMatrix(handle, 4, transpose, matrix);
+				offset = p + 1 + 16 * 4;
+				break;
+			case CommandBuffer.DRAW_QUAD:
+				quad.draw(program);
+				return;
+			case CommandBuffer.DRAW_ARRAYS:
+				gl.glDrawArrays(data.getInt(offset + 1), data.getInt(offset + 5), data.getInt(offset + 9));
+				return;
+			default:
+				throw new IllegalStateException("Unknown command " + command + ".");
+			}
+		}
+	}
+	
+	public boolean isSorting() {
+		return sorting;
+	}
+	
+	/**
+	 * @param sorting false to execute the items in the order they have been submitted
+	 */
+	public void setSorting(boolean sorting) {
+		this.sorting = sorting;
+	}
+	
+	/**
+	 * @return the number of buffers submitted and waiting for {@link #execute()}
+	 */
+	public int getSubmittedCount() {
+		return submitted.size();
+	}
+	
+	/**
+	 * @return the number of items executed
+	 */
+	public long getItems() {
+		return items;
+	}
+	
+	/**
+	 * @return the number of times a target has been bound while executing
+	 */
+	public long getTargetBinds() {
+		return targetBinds;
+	}
+	
+	/**
+	 * @return the number of times a program has been bound while executing
+	 */
+	public long getProgramBinds() {
+		return programBinds;
+	}
+	
+	public void resetStatistics() {
+		items = 0;
+		targetBinds = 0;
+		programBinds = 0;
+	}
+}
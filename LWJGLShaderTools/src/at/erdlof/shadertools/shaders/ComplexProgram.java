@@ -1,35 +1,62 @@
 package at.erdlof.shadertools.shaders;
 
+import static org.lwjgl.opengl.GL11.GL_ENABLE_BIT;
+import static org.lwjgl.opengl.GL11.GL_RGBA8;
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
-import static org.lwjgl.opengl.GL11.glBindTexture;
-import static org.lwjgl.opengl.GL11.glDeleteTextures;
-import static org.lwjgl.opengl.GL11.glTexCoord2f;
-import static org.lwjgl.opengl.GL11.glVertex3f;
-import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
-import static org.lwjgl.opengl.GL13.glActiveTexture;
+
+import at.erdlof.shadertools.gl.GLBackend;
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.Profiler;
+import at.erdlof.shadertools.gl.StateTracker;
 
 /**
  * This class manages the rendering process of one sequence, if more than one programs should be applied. (Multiple shader passes)
  * @author Florian Bhrle
- * @deprecated Currently not working :x
  */
 public class ComplexProgram {
+	private final GLBackend gl;
+	private final StateTracker state;
+	private final RenderTargetPool pool;
+	private final FullscreenQuad quad;
+	private final Profiler profiler;
 	private ShaderProgram[] programs;
+	private String name;
+	//Scene, one per pass, final blit
+	private int[] sections;
 	
 	/**
-	 * Creates a new ComplexProgram.
+	 * Creates a new ComplexProgram with its own pool of render targets.
 	 * @param programs The shader programs to be applied. You have to pass at least 2.
 	 * @throws RuntimeException If < 2 programs are passed.
 	 * @throws InvalidProgramException If one or more of the passed programs are invalid.
 	 * @throws NullPointerException If one or more of the passed programs are null.
 	 */
 	public ComplexProgram(ShaderProgram... programs) {
+		//Two targets are used in turns, targets of an old size are evicted on the first frame after a resize
+		this(new RenderTargetPool(2), programs);
+	}
+	
+	/**
+	 * Creates a new ComplexProgram rendering into targets from the given pool. Sharing a pool
+	 * between several ComplexPrograms lets them reuse each other's targets.
+	 * @param pool the pool of render targets
+	 * @param programs The shader programs to be applied. You have to pass at least 2.
+	 * @throws RuntimeException If < 2 programs are passed.
+	 * @throws InvalidProgramException If one or more of the passed programs are invalid.
+	 * @throws NullPointerException If one or more of the passed programs are null.
+	 */
+	public ComplexProgram(RenderTargetPool pool, ShaderProgram... programs) {
 		//if (programs.length < 2) throw new RuntimeException("You have to pass at least 2 programs.");
 		
 		for (ShaderProgram program : programs) {
 			if (!program.isValid()) throw new InvalidProgramException("All passed programs must be valid!");
 		}
 		
+		this.gl = GLBackends.current();
+		this.state = StateTracker.of(gl);
+		this.pool = pool;
+		this.quad = FullscreenQuad.of(gl);
+		this.profiler = Profiler.of(gl);
 		this.programs = programs;
 	}
 	
@@ -41,47 +68,129 @@ public class ComplexProgram {
 	 * }); </code>
 	 * <p>
 	 * Do not use shaders or any other modifications of the rendering in this sequence.
+	 * <p>
+	 * The passes render back and forth between two targets taken from the {@link #getPool() pool},
+	 * so once the pool is warm no FBOs or textures are created. Every pass draws the shared {@link FullscreenQuad}.
+	 * <p>
+	 * While the {@link Profiler} is enabled, the sequence, every pass and the final blit are measured in sections named
+	 * after this ComplexProgram, e.g. "bloom pass 1 (blur)".
 	 * @param sequence The rendering commands to be executed passing multiple programs.
 	 * @throws RuntimeException If the initialization of the FBO fails.
 	 */
 	public void use(ComplexSequence sequence) {
-		FrameBuffer basic = new FrameBuffer(Display.getWidth(), Display.getHeight());
-		
-		basic.bind();
-		sequence.renderSequence();
-		basic.unbind();
-		basic.release();
+		int width = gl.getDisplayWidth();
+		int height = gl.getDisplayHeight();
+		FrameBuffer source = pool.acquire(width, height, GL_RGBA8);
+		FrameBuffer target = null;
+		//What a failing pass leaves behind: the bound target, the pushed blit attributes and the open section
+		FrameBuffer bound = null;
+		boolean pushed = false;
+		int openSection = -1;
+		if (profiler.isEnabled() && sections == null) createSections();
 		
-		int lastTex = basic.getTextureID();
-
-		for (ShaderProgram program : programs) {
-			FrameBuffer itBuffer = new FrameBuffer(Display.getWidth(), Display.getHeight());
-			
-			itBuffer.bind();
-			program.bind();
+		try {
+			profiler.begin(openSection = section(0));
+			source.bind();
+			bound = source;
+			sequence.renderSequence();
+			bound = null;
+			source.unbind();
+			profiler.end(openSection);
+			openSection = -1;
 			
-			renderTexture(lastTex);
+			for (int i = 0; i < programs.length; i++) {
+				ShaderProgram program = programs[i];
+				target = pool.acquire(width, height, GL_RGBA8);
+				
+				profiler.begin(openSection = section(i + 1));
+				target.bind();
+				bound = target;
+				program.bind();
+				
+				renderTexture(source.getTextureID(), program);
+				
+				program.unbind();
+				bound = null;
+				target.unbind();
+				profiler.end(openSection);
+				openSection = -1;
+				
+				pool.release(source);
+				source = target;
+				target = null;
+			}
 			
-			program.unbind();
-			itBuffer.unbind();
+			profiler.begin(openSection = section(programs.length + 1));
+			//The last program is still bound, since unbinding is lazy
+			state.useProgram(0);
+			gl.glPushAttrib(GL_ENABLE_BIT);
+			pushed = true;
+			gl.glEnable(GL_TEXTURE_2D);
+			renderTexture(source.getTextureID(), null);
+			pushed = false;
+			gl.glPopAttrib();
+			profiler.end(openSection);
+			openSection = -1;
+		} finally {
+			//A failing pass must not leave its target bound, the pool may delete it
+			if (bound != null) bound.unbind();
+			if (pushed) gl.glPopAttrib();
+			if (openSection != -1) profiler.end(openSection);
 			
-			glDeleteTextures(lastTex);
-			itBuffer.release();
-			
-			lastTex = itBuffer.getTextureID();
+			pool.release(source);
+			if (target != null) pool.release(target);
+		}
+	}
+	
+	private void createSections() {
+		String prefix = getName();
+		sections = new int[programs.length + 2];
+		sections[0] = profiler.section(prefix + " sequence");
+		
+		for (int i = 0; i < programs.length; i++) {
+			sections[i + 1] = profiler.section(prefix + " pass " + (i + 1) + " (" + programs[i].getName() + ")");
 		}
 		
-		renderTexture(lastTex);
-		glDeleteTextures(lastTex);
+		sections[programs.length + 1] = profiler.section(prefix + " blit");
+	}
+	
+	private int section(int index) {
+		//-1 is ignored by the profiler, e.g. if it has been enabled during the sequence
+		return sections != null ? sections[index] : -1;
+	}
+	
+	/**
+	 * @return the name used by the {@link Profiler}, "ComplexProgram" and a hash code by default
+	 */
+	public String getName() {
+		return name != null ? name : "ComplexProgram@" + Integer.toHexString(hashCode());
+	}
+	
+	/**
+	 * @param name the name used by the {@link Profiler}
+	 */
+	public void setName(String name) {
+		this.name = name;
+		this.sections = null;
+	}
+	
+	/**
+	 * @return the number of programs applied, each in a full screen pass of its own
+	 */
+	public int getPassCount() {
+		return programs.length;
+	}
+	
+	/**
+	 * @return the pool the render targets are taken from
+	 */
+	public RenderTargetPool getPool() {
+		return pool;
 	}
 	
-	private void renderTexture(int texture) {
-		glActiveTexture(GL_TEXTURE0);
-		glBindTexture(GL_TEXTURE_2D, texture);
+	private void renderTexture(int texture, ShaderProgram program) {
+		state.bindTexture(0, texture);
 		
-		glTexCoord2f(0, 0); glVertex3f(0, 0, 0);
-		glTexCoord2f(0, 1); glVertex3f(0, Display.getHeight(), 0);
-		glTexCoord2f(1, 1); glVertex3f(Display.getWidth(), Display.getHeight(), 0);
-		glTexCoord2f(1, 0); glVertex3f(Display.getWidth(), 0, 0);
+		quad.draw(program);
 	}
 }
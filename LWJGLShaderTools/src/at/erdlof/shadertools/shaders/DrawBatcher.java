@@ -0,0 +1,273 @@
+package at.erdlof.shadertools.shaders;
+
+import java.util.Arrays;
+
+import at.erdlof.shadertools.gl.GLBackend;
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.StateTracker;
+import at.erdlof.shadertools.util.RadixSort;
+
+/**
+ * Collects the draws of a frame and submits them ordered by target, program, texture and depth, so programs,
+ * framebuffers and textures are switched as rarely as possible. Example:
+ * <p><code>
+ * DrawBatcher batcher = new DrawBatcher();<br>
+ * <span style="color: gray; font-style: italic">-- For every object, in any order: --</span><br>
+ * batcher.add(null, object.getProgram(), object.getTexture(), depth, program -> {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;program.setUniform(color, object.getColor());<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;object.render();<br>
+ * });<br>
+ * <span style="color: gray; font-style: italic">-- At the end of the frame: --</span><br>
+ * batcher.flush();</code>
+ * <p>
+ * Every draw is described by a 64-bit sort key packing its layer, the IDs of its target, program and texture and its
+ * quantized depth, most significant first. The keys are sorted by a {@link RadixSort}, so flushing neither boxes nor
+ * allocates once the arrays have grown to the size of a frame. Draws with equal keys keep the order they have been
+ * added in. Near draws come first, which suits opaque geometry; pass <code>1 - depth</code> for back to front.
+ * <p>
+ * Draws are ordered by layer first. Without layers, draws into the display (ID 0) come before the draws into other
+ * targets, so a draw reading a target has to be in a higher layer than the draws writing it, e.g. compositing a
+ * target into the display after rendering into it.
+ * <p>
+ * After every {@link #flush()} the batcher knows how many program and framebuffer switches the draws would have needed
+ * in the order they have been added, and how many were needed after sorting.
+ * @author Florian Bhrle
+ */
+public class DrawBatcher {
+	/**
+	 * Renders a single draw. The program of the draw is bound, its target and texture too.
+	 */
+	public static interface Draw {
+		public void draw(ShaderProgram program);
+	}
+	
+	/**
+	 * The highest layer, see {@link #add(FrameBuffer, ShaderProgram, int, float, int, Draw)}.
+	 */
+	public static final int MAX_LAYER = 0x7F;
+	
+	private final GLBackend gl;
+	private final StateTracker state;
+	private final RadixSort sort = new RadixSort();
+	
+	private long[] keys = new long[256];
+	private int[] order = new int[256];
+	private FrameBuffer[] targets = new FrameBuffer[256];
+	private ShaderProgram[] programs = new ShaderProgram[256];
+	private int[] textures = new int[256];
+	private Draw[] draws = new Draw[256];
+	private int count;
+	
+	//Of the last flush
+	private int programSwitches, targetSwitches, textureSwitches;
+	private int unsortedProgramSwitches, unsortedTargetSwitches;
+	
+	private long items, savedProgramSwitches, savedTargetSwitches;
+	
+	public DrawBatcher() {
+		this.gl = GLBackends.current();
+		this.state = StateTracker.of(gl);
+	}
+	
+	/**
+	 * Adds a draw without a texture at depth 0 into the display.
+	 */
+	public void add(ShaderProgram program, Draw draw) {
+		add(null, program, 0, 0, draw);
+	}
+	
+	/**
+	 * Adds a draw in layer 0, to be rendered by the next {@link #flush()}.
+	 * @param target the target to draw into, null for the display
+	 * @param program the program to draw with
+	 * @param texture the ID of the texture bound to unit 0 for the draw, 0 to leave the bound texture alone
+	 * @param depth the depth between 0 (near) and 1 (far), values outside are clamped
+	 * @param draw renders the draw
+	 */
+	public void add(FrameBuffer target, ShaderProgram program, int texture, float depth, Draw draw) {
+		add(target, program, texture, depth, 0, draw);
+	}
+	
+	/**
+	 * Adds a draw, to be rendered by the next {@link #flush()}. Draws in lower layers are rendered first.
+	 * @param target the target to draw into, null for the display
+	 * @param program the program to draw with
+	 * @param texture the ID of the texture bound to unit 0 for the draw, 0 to leave the bound texture alone
+	 * @param depth the depth between 0 (near) and 1 (far), values outside are clamped
+	 * @param layer the layer, from 0 to {@link #MAX_LAYER}
+	 * @param draw renders the draw
+	 */
+	public void add(FrameBuffer target, ShaderProgram program, int texture, float depth, int layer, Draw draw) {
+		if (layer < 0 || layer > MAX_LAYER) throw new IllegalArgumentException("The layer must be between 0 and " + MAX_LAYER + ".");
+		
+		if (count == keys.length) {
+			int capacity = count * 2;
+			keys = Arrays.copyOf(keys, capacity);
+			order = Arrays.copyOf(order, capacity);
+			targets = Arrays.copyOf(targets, capacity);
+			programs = Arrays.copyOf(programs, capacity);
+			textures = Arrays.copyOf(textures, capacity);
+			draws = Arrays.copyOf(draws, capacity);
+		}
+		
+		int targetID = target != null ? target.getFBOid() : 0;
+		int quantizedDepth = (int) (Math.max(0, Math.min(1, depth)) * 0xFFFF);
+		
+		//8 bits layer, 12 bits target, 12 bits program, 16 bits texture and 16 bits depth. IDs sharing their low bits
+		//are only grouped less well, since the draws compare the objects themselves
+		keys[count] = (long) layer << 56 | (targetID & 0xFFFL) << 44 | (program.getProgramID() & 0xFFFL) << 32 | (texture & 0xFFFFL) << 16 | quantizedDepth;
+		order[count] = count;
+		targets[count] = target;
+		programs[count] = program;
+		textures[count] = texture;
+		draws[count] = draw;
+		count++;
+	}
+	
+	/**
+	 * Sorts and renders all draws added since the last flush. Has to be called on the GL thread.
+	 * Afterwards the display is bound with a viewport covering it.
+	 * @return the number of draws rendered
+	 */
+	public int flush() {
+		countUnsortedSwitches();
+		sort.sort(keys, order, count);
+		
+		programSwitches = 0;
+		targetSwitches = 0;
+		textureSwitches = 0;
+		
+		FrameBuffer target = null;
+		ShaderProgram program = null;
+		
+		for (int i = 0; i < count; i++) {
+			int item = order[i];
+			
+			if (i == 0 || targets[item] != target) {
+				target = targets[item];
+				bindTarget(target);
+				targetSwitches++;
+			}
+			
+			if (programs[item] != program) {
+				program = programs[item];
+				program.bind();
+				programSwitches++;
+			}
+			
+			//The tracker also skips the texture bound by the last flush
+			if (textures[item] != 0 && state.bindTexture(0, textures[item])) textureSwitches++;
+			
+			draws[item].draw(program);
+		}
+		
+		if (target != null) bindTarget(null);
+		
+		int flushed = count;
+		clear();
+		
+		items += flushed;
+		savedProgramSwitches += unsortedProgramSwitches - programSwitches;
+		savedTargetSwitches += unsortedTargetSwitches - targetSwitches;
+		return flushed;
+	}
+	
+	private void countUnsortedSwitches() {
+		unsortedProgramSwitches = 0;
+		unsortedTargetSwitches = 0;
+		
+		for (int i = 0; i < count; i++) {
+			if (i == 0 || targets[i] != targets[i - 1]) unsortedTargetSwitches++;
+			if (i == 0 || programs[i] != programs[i - 1]) unsortedProgramSwitches++;
+		}
+	}
+	
+	private void bindTarget(FrameBuffer target) {
+		if (target != null) {
+			state.bindFramebuffer(target.getFBOid());
+			gl.glViewport(0, 0, target.getWidth(), target.getHeight());
+		} else {
+			state.bindFramebuffer(0);
+			gl.glViewport(0, 0, gl.getDisplayWidth(), gl.getDisplayHeight());
+		}
+	}
+	
+	/**
+	 * Drops all draws added since the last flush without rendering them.
+	 */
+	public void clear() {
+		Arrays.fill(targets, 0, count, null);
+		Arrays.fill(programs, 0, count, null);
+		Arrays.fill(draws, 0, count, null);
+		count = 0;
+	}
+	
+	/**
+	 * @return the number of draws waiting for {@link #flush()}
+	 */
+	public int getCount() {
+		return count;
+	}
+	
+	/**
+	 * @return the number of programs bound by the last flush
+	 */
+	public int getProgramSwitches() {
+		return programSwitches;
+	}
+	
+	/**
+	 * @return the number of targets bound by the last flush, not counting the display bound at its end
+	 */
+	public int getTargetSwitches() {
+		return targetSwitches;
+	}
+	
+	/**
+	 * @return the number of textures bound by the last flush
+	 */
+	public int getTextureSwitches() {
+		return textureSwitches;
+	}
+	
+	/**
+	 * @return the number of program switches the last flush has saved compared to the order the draws were added in
+	 */
+	public int getSavedProgramSwitchesPerFrame() {
+		return unsortedProgramSwitches - programSwitches;
+	}
+	
+	/**
+	 * @return the number of target switches the last flush has saved compared to the order the draws were added in
+	 */
+	public int getSavedTargetSwitchesPerFrame() {
+		return unsortedTargetSwitches - targetSwitches;
+	}
+	
+	/**
+	 * @return the number of draws rendered
+	 */
+	public long getItems() {
+		return items;
+	}
+	
+	/**
+	 * @return the number of program switches saved by all flushes
+	 */
+	public long getSavedProgramSwitches() {
+		return savedProgramSwitches;
+	}
+	
+	/**
+	 * @return the number of target switches saved by all flushes
+	 */
+	public long getSavedTargetSwitches() {
+		return savedTargetSwitches;
+	}
+	
+	public void resetStatistics() {
+		items = 0;
+		savedProgramSwitches = 0;
+		savedTargetSwitches = 0;
+	}
+}
@@ -0,0 +1,161 @@
+package at.erdlof.shadertools.shaders;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A chain of post processing passes, made of programs and {@link PixelEffect pixel effects}. Example:
+ * <p><code>
+ * EffectChain chain = new EffectChain()<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;.add(blur)<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;.add(grading).add(tonemap).add(vignette);<br>
+ * chain.use(() -> { <br>
+ * <span style="color: gray; font-style: italic">-- Stuff to be drawn --</span><br>
+ * }); </code>
+ * <p>
+ * With fusion enabled (the default), consecutive pixel effects are fused into a single pass by the
+ * {@link EffectFuser}, so the example renders two passes instead of four. Without fusion every effect is a pass of its
+ * own, which helps to find out which effect is wrong or slow. The passes are run by a {@link ComplexProgram}, which is
+ * set up again on the next {@link #use(ComplexSequence)} whenever the chain has changed.
+ * <p>
+ * The uniforms of an effect belong to the program it ends up in, see {@link #getProgram(PixelEffect)}.
+ * @author Florian Bhrle
+ */
+public class EffectChain {
+	private final EffectFuser fuser;
+	private final RenderTargetPool pool = new RenderTargetPool(2);
+	//ShaderProgram or PixelEffect
+	private final List<Object> passes = new ArrayList<Object>();
+	private final Map<PixelEffect, ShaderProgram> effectPrograms = new IdentityHashMap<PixelEffect, ShaderProgram>();
+	private boolean fusion = true;
+	private String name;
+	private ComplexProgram complexProgram;
+	
+	/**
+	 * Creates a chain with a fuser of its own.
+	 */
+	public EffectChain() {
+		this(new EffectFuser());
+	}
+	
+	/**
+	 * @param fuser the fuser generating the programs of the effects, may be shared by several chains
+	 */
+	public EffectChain(EffectFuser fuser) {
+		this.fuser = fuser;
+	}
+	
+	/**
+	 * Appends a program as a pass of its own.
+	 * @return this chain
+	 */
+	public EffectChain add(ShaderProgram program) {
+		passes.add(program);
+		complexProgram = null;
+		return this;
+	}
+	
+	/**
+	 * Appends a pixel effect, which is fused with the pixel effects next to it.
+	 * @return this chain
+	 */
+	public EffectChain add(PixelEffect effect) {
+		passes.add(effect);
+		complexProgram = null;
+		return this;
+	}
+	
+	/**
+	 * Draws a sequence and applies all passes of the chain, see {@link ComplexProgram#use(ComplexSequence)}.
+	 * @throws InvalidShaderException if the program of an effect has to be generated and is invalid
+	 * @throws InvalidProgramException if the program of an effect has to be generated and can't be linked
+	 */
+	public void use(ComplexSequence sequence) {
+		if (complexProgram == null) build();
+		complexProgram.use(sequence);
+	}
+	
+	private void build() {
+		List<ShaderProgram> programs = new ArrayList<ShaderProgram>();
+		List<PixelEffect> run = new ArrayList<PixelEffect>();
+		effectPrograms.clear();
+		
+		for (Object pass : passes) {
+			if (pass instanceof PixelEffect) {
+				run.add((PixelEffect) pass);
+				if (!fusion) flush(run, programs);
+			} else {
+				flush(run, programs);
+				programs.add((ShaderProgram) pass);
+			}
+		}
+		
+		flush(run, programs);
+		
+		complexProgram = new ComplexProgram(pool, programs.toArray(new ShaderProgram[programs.size()]));
+		if (name != null) complexProgram.setName(name);
+	}
+	
+	private void flush(List<PixelEffect> run, List<ShaderProgram> programs) {
+		if (run.isEmpty()) return;
+		
+		ShaderProgram program = fuser.program(run);
+		for (PixelEffect effect : run) effectPrograms.put(effect, program);
+		
+		programs.add(program);
+		run.clear();
+	}
+	
+	/**
+	 * @param effect an effect of this chain
+	 * @return the program applying the effect, null if the chain hasn't been used since the effect has been added
+	 */
+	public ShaderProgram getProgram(PixelEffect effect) {
+		return effectPrograms.get(effect);
+	}
+	
+	/**
+	 * @return the number of passes rendered by {@link #use(ComplexSequence)}, -1 if the chain hasn't been used since it has been changed
+	 */
+	public int getPassCount() {
+		return complexProgram != null ? complexProgram.getPassCount() : -1;
+	}
+	
+	public boolean isFusion() {
+		return fusion;
+	}
+	
+	/**
+	 * @param fusion false to render every pixel effect as a pass of its own
+	 */
+	public void setFusion(boolean fusion) {
+		if (fusion == this.fusion) return;
+		
+		this.fusion = fusion;
+		complexProgram = null;
+	}
+	
+	/**
+	 * @param name the name used by the {@link at.erdlof.shadertools.gl.Profiler Profiler}
+	 */
+	public void setName(String name) {
+		this.name = name;
+		if (complexProgram != null) complexProgram.setName(name);
+	}
+	
+	/**
+	 * @return the pool the render targets are taken from
+	 */
+	public RenderTargetPool getPool() {
+		return pool;
+	}
+	
+	/**
+	 * @return the fuser generating the programs of the effects
+	 */
+	public EffectFuser getFuser() {
+		return fuser;
+	}
+}
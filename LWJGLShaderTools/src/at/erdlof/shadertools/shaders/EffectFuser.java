@@ -0,0 +1,168 @@
+package at.erdlof.shadertools.shaders;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a single program applying several {@link PixelEffect pixel effects} one after another, so a chain of
+ * effects reads and writes the full screen once instead of once per effect.
+ * <p>
+ * Programs are cached by their generated code, so fusing the same effects again returns the same program. The vertex
+ * shader is shared by all fused programs. The code is generated without any GL calls, see
+ * {@link #fragmentCode(List)}.
+ * @author Florian Bhrle
+ */
+public class EffectFuser {
+	/**
+	 * The vertex shader of all fused programs, drawing the {@link FullscreenQuad}.
+	 */
+	public static final String VERTEX_CODE = "#version 120\n"
+			+ "attribute vec2 " + FullscreenQuad.POSITION_ATTRIBUTE + ";\n"
+			+ "attribute vec2 " + FullscreenQuad.TEX_COORD_ATTRIBUTE + ";\n"
+			+ "varying vec2 uv;\n"
+			+ "void main() {\n"
+			+ "\tuv = " + FullscreenQuad.TEX_COORD_ATTRIBUTE + ";\n"
+			+ "\tgl_Position = vec4(" + FullscreenQuad.POSITION_ATTRIBUTE + ", 0.0, 1.0);\n"
+			+ "}\n";
+	/**
+	 * The sampler reading the output of the previous pass, bound to texture unit 0.
+	 */
+	public static final String SOURCE_SAMPLER = "source";
+	
+	private final ShaderRegistry registry = new ShaderRegistry();
+	private final Map<String, ShaderProgram> programs = new HashMap<String, ShaderProgram>();
+	
+	private long fusedEffects, cacheHits;
+	
+	/**
+	 * Generates the fragment shader applying the effects in the given order. Example for a grading and a vignette effect:
+	 * <p><code>
+	 * vec4 color = texture2D(source, uv);<br>
+	 * color = grade_0(color, uv);<br>
+	 * color = vignette_1(color, uv);<br>
+	 * gl_FragColor = color;</code>
+	 * @param effects the effects, at least one
+	 * @return the code of the fragment shader
+	 */
+	public static String fragmentCode(List<PixelEffect> effects) {
+		if (effects.isEmpty()) throw new IllegalArgumentException("At least one effect is needed.");
+		
+		StringBuilder code = new StringBuilder("#version 120\n");
+		code.append("uniform sampler2D ").append(SOURCE_SAMPLER).append(";\n");
+		code.append("varying vec2 uv;\n");
+		
+		//Identical uniforms and constants of several effects are emitted once, everything else as it is
+		Set<String> sharedDeclarations = new HashSet<String>();
+		Set<String> declarationBlocks = new HashSet<String>();
+		
+		for (PixelEffect effect : effects) {
+			//An effect applied twice declares its helper functions once
+			if (!declarationBlocks.add(effect.getDeclarations().trim())) continue;
+			int depth = 0;
+			
+			for (String line : effect.getDeclarations().split("\n")) {
+				String trimmed = line.trim();
+				if (trimmed.isEmpty()) continue;
+				
+				if (depth > 0 || !isSharedDeclaration(trimmed)) code.append(line).append('\n');
+				else if (sharedDeclarations.add(trimmed)) code.append(trimmed).append('\n');
+				
+				for (int i = 0; i < trimmed.length(); i++) {
+					if (trimmed.charAt(i) == '{') depth++;
+					else if (trimmed.charAt(i) == '}') depth--;
+				}
+			}
+		}
+		
+		for (int i = 0; i < effects.size(); i++) {
+			PixelEffect effect = effects.get(i);
+			code.append("vec4 ").append(function(effect, i)).append("(vec4 color, vec2 texCoord) {\n");
+			code.append(effect.getBody()).append("\n}\n");
+		}
+		
+		code.append("void main() {\n");
+		code.append("\tvec4 color = texture2D(").append(SOURCE_SAMPLER).append(", uv);\n");
+		for (int i = 0; i < effects.size(); i++) code.append("\tcolor = ").append(function(effects.get(i), i)).append("(color, uv);\n");
+		code.append("\tgl_FragColor = color;\n");
+		code.append("}\n");
+		
+		return code.toString();
+	}
+	
+	//A single uniform or constant outside of any function, e.g. "uniform float strength;"
+	private static boolean isSharedDeclaration(String line) {
+		return (line.startsWith("uniform ") || line.startsWith("const ")) && line.indexOf(';') == line.length() - 1;
+	}
+	
+	//The index keeps the names unique if an effect appears twice
+	private static String function(PixelEffect effect, int index) {
+		return effect.getName() + "_" + index;
+	}
+	
+	/**
+	 * Gets the program applying the effects in the given order, compiling it if it isn't in the cache yet.
+	 * @param effects the effects, at least one
+	 * @return the program, named after the effects
+	 * @throws InvalidShaderException if the generated shader is invalid, e.g. because of an invalid effect
+	 * @throws InvalidProgramException if the shaders can't be linked
+	 */
+	public ShaderProgram program(List<PixelEffect> effects) {
+		String code = fragmentCode(effects);
+		ShaderProgram program = programs.get(code);
+		
+		if (program != null) {
+			cacheHits++;
+			return program;
+		}
+		
+		program = registry.program(VERTEX_CODE, code);
+		StringBuilder name = new StringBuilder("fused ");
+		
+		for (int i = 0; i < effects.size(); i++) {
+			if (i > 0) name.append('+');
+			name.append(effects.get(i).getName());
+		}
+		
+		program.setName(name.toString());
+		programs.put(code, program);
+		fusedEffects += effects.size();
+		return program;
+	}
+	
+	/**
+	 * Deletes all programs in the cache.
+	 */
+	public void release() {
+		for (ShaderProgram program : programs.values()) program.releaseAll();
+		programs.clear();
+	}
+	
+	/**
+	 * @return the number of programs in the cache
+	 */
+	public int size() {
+		return programs.size();
+	}
+	
+	/**
+	 * @return the number of effects compiled into programs
+	 */
+	public long getFusedEffects() {
+		return fusedEffects;
+	}
+	
+	/**
+	 * @return the number of requests served from the cache
+	 */
+	public long getCacheHits() {
+		return cacheHits;
+	}
+	
+	public void resetStatistics() {
+		fusedEffects = 0;
+		cacheHits = 0;
+	}
+}
@@ -1,9 +1,6 @@
 package at.erdlof.shadertools.shaders;
 
 import static org.lwjgl.opengl.ARBFragmentShader.GL_FRAGMENT_SHADER_ARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glCompileShaderARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glCreateShaderObjectARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glShaderSourceARB;
 
 /**
  * @author Florian Bhrle
@@ -12,9 +9,28 @@ public class FragmentShader extends Shader {
 	public FragmentShader(String programCode) {
 		super(programCode);
 		
-		setShaderID(glCreateShaderObjectARB(GL_FRAGMENT_SHADER_ARB));
-		glShaderSourceARB(getShaderID(), getProgramCode());
-		glCompileShaderARB(getShaderID());
-		super.validate();
+		compile(GL_FRAGMENT_SHADER_ARB);
+		validateOrRelease();
+	}
+	
+	/**
+	 * @param source preprocessed code, see {@link ShaderPreprocessor}
+	 */
+	public FragmentShader(ShaderSource source) {
+		super(source);
+		
+		compile(GL_FRAGMENT_SHADER_ARB);
+		validateOrRelease();
+	}
+	
+	/**
+	 * Compiles without checking the compile status, see {@link ShaderBatch}.
+	 */
+	FragmentShader(String programCode, boolean deferValidation) {
+		super(programCode);
+		
+		compile(GL_FRAGMENT_SHADER_ARB);
+		if (deferValidation) deferValidation();
+		else validateOrRelease();
 	}
 }
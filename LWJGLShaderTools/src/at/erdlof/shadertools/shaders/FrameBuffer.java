@@ -1,71 +1,171 @@
 package at.erdlof.shadertools.shaders;
 
+import static org.lwjgl.opengl.ARBTextureFloat.GL_RGBA16F_ARB;
+import static org.lwjgl.opengl.ARBTextureFloat.GL_RGBA32F_ARB;
 import static org.lwjgl.opengl.EXTFramebufferObject.GL_COLOR_ATTACHMENT0_EXT;
+import static org.lwjgl.opengl.EXTFramebufferObject.GL_DEPTH_ATTACHMENT_EXT;
+import static org.lwjgl.opengl.EXTFramebufferObject.GL_FRAMEBUFFER_COMPLETE_EXT;
 import static org.lwjgl.opengl.EXTFramebufferObject.GL_FRAMEBUFFER_EXT;
-import static org.lwjgl.opengl.EXTFramebufferObject.glBindFramebufferEXT;
-import static org.lwjgl.opengl.EXTFramebufferObject.glDeleteFramebuffersEXT;
-import static org.lwjgl.opengl.EXTFramebufferObject.glFramebufferTexture2DEXT;
-import static org.lwjgl.opengl.EXTFramebufferObject.glGenFramebuffersEXT;
+import static org.lwjgl.opengl.EXTFramebufferObject.GL_RENDERBUFFER_EXT;
+import static org.lwjgl.opengl.EXTFramebufferObject.GL_STENCIL_ATTACHMENT_EXT;
+import static org.lwjgl.opengl.EXTPackedDepthStencil.GL_DEPTH24_STENCIL8_EXT;
 import static org.lwjgl.opengl.GL11.GL_COLOR_BUFFER_BIT;
+import static org.lwjgl.opengl.GL11.GL_DEPTH_BUFFER_BIT;
 import static org.lwjgl.opengl.GL11.GL_RGBA;
 import static org.lwjgl.opengl.GL11.GL_RGBA8;
+import static org.lwjgl.opengl.GL11.GL_STENCIL_BUFFER_BIT;
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
 import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
 import static org.lwjgl.opengl.GL11.GL_VIEWPORT_BIT;
-import static org.lwjgl.opengl.GL11.glBindTexture;
-import static org.lwjgl.opengl.GL11.glClear;
-import static org.lwjgl.opengl.GL11.glGenTextures;
-import static org.lwjgl.opengl.GL11.glPopAttrib;
-import static org.lwjgl.opengl.GL11.glPushAttrib;
-import static org.lwjgl.opengl.GL11.glTexImage2D;
-import static org.lwjgl.opengl.GL11.glTexParameteri;
-import static org.lwjgl.opengl.GL11.glViewport;
 import static org.lwjgl.opengl.GL12.GL_TEXTURE_BASE_LEVEL;
 import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL14.GL_DEPTH_COMPONENT24;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 
-import org.lwjgl.opengl.GLContext;
+import at.erdlof.shadertools.gl.GLBackend;
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.GLResources;
+import at.erdlof.shadertools.gl.StateTracker;
 
 /**
- * A basic wrapper for OpenGL-FBOs.
+ * A wrapper for OpenGL-FBOs. The simple constructors create a framebuffer with one RGBA texture to draw on.
+ * A {@link Builder} creates framebuffers with several color textures, e.g. the G-buffer of deferred shading filled
+ * by a single geometry pass, float formats and depth or stencil buffers:
+ * <p><code>
+ * FrameBuffer gBuffer = new FrameBuffer.Builder(width, height)<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;.color(GL_RGBA8) <span style="color: gray; font-style: italic">// Albedo, gl_FragData[0]</span><br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;.color(GL_RGBA16F_ARB) <span style="color: gray; font-style: italic">// Normals, gl_FragData[1]</span><br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;.depth()<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;.build();</code>
+ * <p>
+ * Depth and stencil buffers are renderbuffers, since they are only needed while drawing. A framebuffer that the driver
+ * reports as incomplete is deleted right away and an exception is thrown.
  * @author Florian Bhrle
- * @deprecated Not finished, heavy bugs.
  */
-public class FrameBuffer {
+public class FrameBuffer implements AutoCloseable {
+	/**
+	 * The most color attachments a framebuffer can have. Drivers may support fewer, see {@link #getStatus()}.
+	 */
+	public static final int MAX_COLOR_ATTACHMENTS = 8;
+	
+	private final GLBackend gl;
+	private final StateTracker state;
 	private int id;
-	private int texture;
+	private final int[] textures;
+	private final int[] internalFormats;
+	private int depthBuffer;
+	private final int depthFormat;
+	private GLResources.Resource idResource, depthResource;
+	private final GLResources.Resource[] textureResources;
 	private int width, height;
+	//The size the textures and the depth buffer have been allocated with
+	private int storageWidth, storageHeight;
 	
 	/**
 	 * Creates a new FBO.
+	 * @param internalFormat the format of the texture, e.g. GL_RGBA8
+	 * @param pixels the initial content in RGBA bytes, also for float formats, or null
 	 * @throws RuntimeException If the system doesn't support FBOs. See {@link #isSupported() here}.
 	 */
+	public FrameBuffer(int width, int height, int internalFormat, ByteBuffer pixels) {
+		this(width, height, new int[] {internalFormat}, 0, pixels);
+	}
+	
 	public FrameBuffer(int width, int height, ByteBuffer pixels) {
-		if (!isSupported()) throw new RuntimeException("This system doesn't support FBOs.");
+		this(width, height, GL_RGBA8, pixels);
+	}
+	
+	public FrameBuffer(int width, int height) {
+		this(width, height, GL_RGBA8, null);
+	}
+	
+	private FrameBuffer(int width, int height, int[] internalFormats, int depthFormat, ByteBuffer pixels) {
+		this.gl = GLBackends.current();
+		if (!gl.isFramebufferSupported()) throw new RuntimeException("This system doesn't support FBOs.");
+		if (internalFormats.length > 1 && !gl.isDrawBuffersSupported()) throw new RuntimeException("This system doesn't support multiple render targets.");
+		if (depthFormat == GL_DEPTH24_STENCIL8_EXT && !gl.isPackedDepthStencilSupported()) throw new RuntimeException("This system doesn't support packed depth and stencil buffers.");
+		
+		for (int internalFormat : internalFormats) {
+			if (isFloatFormat(internalFormat) && !gl.isFloatTextureSupported()) throw new RuntimeException("This system doesn't support float textures.");
+		}
 		
+		this.state = StateTracker.of(gl);
 		this.width = width;
 		this.height = height;
+		this.storageWidth = width;
+		this.storageHeight = height;
+		this.internalFormats = internalFormats;
+		this.depthFormat = depthFormat;
+		this.textures = new int[internalFormats.length];
+		this.textureResources = new GLResources.Resource[internalFormats.length];
+		
+		GLResources resources = GLResources.of(gl);
+		
+		//Generate the textures this FBO draws on
+		for (int i = 0; i < textures.length; i++) {
+			textures[i] = gl.glGenTextures();
+			textureResources[i] = resources.track(this, GLResources.Type.TEXTURE, textures[i]);
+			state.bindTexture(0, textures[i]);
+			gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, 0);
+			gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 0);
+			allocateTexture(i, i == 0 ? pixels : null);
+		}
 		
-		//Generate the texture this FBO draws on
-		texture = glGenTextures();
-		glBindTexture(GL_TEXTURE_2D, texture);
-		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, 0);
-		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 0);
-		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
-
 		//Generate the FBO
-		id = glGenFramebuffersEXT();
-		glBindFramebufferEXT(GL_FRAMEBUFFER_EXT, id);
-		//Bind the texture to the FBO
-		glFramebufferTexture2DEXT(GL_FRAMEBUFFER_EXT, GL_COLOR_ATTACHMENT0_EXT, GL_TEXTURE_2D, texture, 0);
+		id = gl.glGenFramebuffersEXT();
+		idResource = resources.track(this, GLResources.Type.FRAMEBUFFER, id);
+		state.bindFramebuffer(id);
+		
+		//Bind the textures to the FBO
+		for (int i = 0; i < textures.length; i++) {
+			gl.glFramebufferTexture2DEXT(GL_FRAMEBUFFER_EXT, GL_COLOR_ATTACHMENT0_EXT + i, GL_TEXTURE_2D, textures[i], 0);
+		}
+		
+		if (depthFormat != 0) {
+			depthBuffer = gl.glGenRenderbuffersEXT();
+			depthResource = resources.track(this, GLResources.Type.RENDERBUFFER, depthBuffer);
+			allocateDepthBuffer();
+			
+			gl.glFramebufferRenderbufferEXT(GL_FRAMEBUFFER_EXT, GL_DEPTH_ATTACHMENT_EXT, GL_RENDERBUFFER_EXT, depthBuffer);
+			if (depthFormat == GL_DEPTH24_STENCIL8_EXT) gl.glFramebufferRenderbufferEXT(GL_FRAMEBUFFER_EXT, GL_STENCIL_ATTACHMENT_EXT, GL_RENDERBUFFER_EXT, depthBuffer);
+		}
+		
+		//The draw buffers are part of the FBO's state, so they are set once
+		if (textures.length > 1) {
+			IntBuffer drawBuffers = ByteBuffer.allocateDirect(textures.length * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+			for (int i = 0; i < textures.length; i++) drawBuffers.put(GL_COLOR_ATTACHMENT0_EXT + i);
+			drawBuffers.flip();
+			gl.glDrawBuffersARB(drawBuffers);
+		}
+		
+		int status = gl.glCheckFramebufferStatusEXT(GL_FRAMEBUFFER_EXT);
 		
 		//Unbind the FBO for later use
-		glBindFramebufferEXT(GL_FRAMEBUFFER_EXT, 0);
+		state.bindFramebuffer(0);
+		
+		if (status != GL_FRAMEBUFFER_COMPLETE_EXT) {
+			release();
+			throw new RuntimeException("The framebuffer is incomplete, status 0x" + Integer.toHexString(status) + ".");
+		}
 	}
 	
-	public FrameBuffer(int width, int height) {
-		this(width, height, null);
+	private void allocateTexture(int attachment, ByteBuffer pixels) {
+		//The initial content is given in RGBA bytes for every format, GL converts it for float textures
+		gl.glTexImage2D(GL_TEXTURE_2D, 0, internalFormats[attachment], storageWidth, storageHeight, 0, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+	}
+	
+	private void allocateDepthBuffer() {
+		gl.glBindRenderbufferEXT(GL_RENDERBUFFER_EXT, depthBuffer);
+		gl.glRenderbufferStorageEXT(GL_RENDERBUFFER_EXT, depthFormat, storageWidth, storageHeight);
+		gl.glBindRenderbufferEXT(GL_RENDERBUFFER_EXT, 0);
+	}
+	
+	private static boolean isFloatFormat(int internalFormat) {
+		return internalFormat == GL_RGBA16F_ARB || internalFormat == GL_RGBA32F_ARB;
 	}
 	
 	/**
@@ -73,28 +173,103 @@ public class FrameBuffer {
 	 * you want after that call and it will be stored in the {@link #getTextureID() texture}.
 	 */
 	public void bind() {
-		glBindFramebufferEXT(GL_FRAMEBUFFER_EXT, id);
+		state.bindFramebuffer(id);
 		
-		glPushAttrib(GL_VIEWPORT_BIT);
-		glViewport(0, 0, width, height);
-		glClear(GL_COLOR_BUFFER_BIT);
+		gl.glPushAttrib(GL_VIEWPORT_BIT);
+		gl.glViewport(0, 0, width, height);
+		
+		int mask = GL_COLOR_BUFFER_BIT;
+		if (depthFormat != 0) mask |= GL_DEPTH_BUFFER_BIT;
+		if (depthFormat == GL_DEPTH24_STENCIL8_EXT) mask |= GL_STENCIL_BUFFER_BIT;
+		gl.glClear(mask);
 	}
 	
 	public void unbind() {
-		glBindFramebufferEXT(GL_FRAMEBUFFER_EXT, 0);
-		glPopAttrib();
+		state.bindFramebuffer(0);
+		gl.glPopAttrib();
+	}
+	
+	/**
+	 * Starts reading the first color attachment without waiting for the GPU. The pixels are passed to the consumer of
+	 * the readback a few captures later, see {@link PixelReadback}.
+	 */
+	public void readAsync(PixelReadback readback) {
+		readback.capture(this, 0);
 	}
 	
+	/**
+	 * Changes the size of the framebuffer, keeping the FBO and its textures. The storage is only allocated again if
+	 * the framebuffer grows beyond the size it has been allocated with; a smaller framebuffer draws into the lower left
+	 * part of its textures. Texture coordinates reaching that part only go up to
+	 * <code>getWidth() / (float) getStorageWidth()</code> and <code>getHeight() / (float) getStorageHeight()</code>.
+	 * The content is undefined afterwards.
+	 * @return true if the storage has been allocated again
+	 */
+	public boolean resize(int width, int height) {
+		this.width = width;
+		this.height = height;
+		
+		if (width <= storageWidth && height <= storageHeight) return false;
+		
+		storageWidth = Math.max(width, storageWidth);
+		storageHeight = Math.max(height, storageHeight);
+		
+		for (int i = 0; i < textures.length; i++) {
+			state.bindTexture(0, textures[i]);
+			allocateTexture(i, null);
+		}
+		
+		if (depthFormat != 0) allocateDepthBuffer();
+		return true;
+	}
+	
+	/**
+	 * Asks the driver whether the framebuffer can be drawn to. Binds the FBO.
+	 * @return GL_FRAMEBUFFER_COMPLETE_EXT or the reason why the framebuffer is incomplete
+	 */
+	public int getStatus() {
+		state.bindFramebuffer(id);
+		return gl.glCheckFramebufferStatusEXT(GL_FRAMEBUFFER_EXT);
+	}
+	
+	/**
+	 * Deletes the FBO, its textures and its depth buffer. A FrameBuffer that is garbage collected without being
+	 * released is deleted by {@link GLResources#processDeletions()}.
+	 */
 	public void release() {
-		glDeleteFramebuffersEXT(id);
-		// TODO release texture
+		idResource.delete();
+		for (GLResources.Resource textureResource : textureResources) textureResource.delete();
+		if (depthResource != null) depthResource.delete();
 	}
 	
 	/**
-	 * @return the texture ID
+	 * Same as {@link #release()}, for try-with-resources.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+	
+	/**
+	 * @return the ID of the texture of the first color attachment
 	 */
 	public int getTextureID() {
-		return texture;
+		return textures[0];
+	}
+	
+	/**
+	 * @param attachment the index of the color attachment, as in <code>gl_FragData[attachment]</code>
+	 * @return the texture ID
+	 */
+	public int getTextureID(int attachment) {
+		return textures[attachment];
+	}
+	
+	/**
+	 * @return the number of color attachments
+	 */
+	public int getColorAttachmentCount() {
+		return textures.length;
 	}
 	
 	/**
@@ -104,11 +279,116 @@ public class FrameBuffer {
 		return id;
 	}
 	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * @return the width the textures have been allocated with, at least the {@link #getWidth() width}
+	 */
+	public int getStorageWidth() {
+		return storageWidth;
+	}
+	
+	/**
+	 * @return the height the textures have been allocated with, at least the {@link #getHeight() height}
+	 */
+	public int getStorageHeight() {
+		return storageHeight;
+	}
+	
+	/**
+	 * @return the internal format of the texture of the first color attachment
+	 */
+	public int getInternalFormat() {
+		return internalFormats[0];
+	}
+	
+	/**
+	 * @param attachment the index of the color attachment
+	 * @return the internal format of its texture
+	 */
+	public int getInternalFormat(int attachment) {
+		return internalFormats[attachment];
+	}
+	
+	/**
+	 * @return the internal format of the depth buffer, 0 if there is none
+	 */
+	public int getDepthFormat() {
+		return depthFormat;
+	}
+	
 	/**
 	 * Checks if the systems supports FBOs, which are needed for multiple shader passes.
 	 * @return true if FBOs are supported, false otherwise
 	 */
 	public static boolean isSupported() {
-		return GLContext.getCapabilities().GL_EXT_framebuffer_object;
+		return GLBackends.current().isFramebufferSupported();
+	}
+	
+	/**
+	 * Describes a framebuffer with any number of color attachments and an optional depth buffer.
+	 */
+	public static class Builder {
+		private final int width, height;
+		private int[] internalFormats = new int[0];
+		private int depthFormat;
+		
+		public Builder(int width, int height) {
+			this.width = width;
+			this.height = height;
+		}
+		
+		/**
+		 * Adds a color attachment. Fragment shaders write to the attachments in the order they have been added
+		 * through <code>gl_FragData</code>.
+		 * @param internalFormat the format of the texture, e.g. GL_RGBA8, GL_RGBA16F_ARB or GL_RGBA32F_ARB
+		 */
+		public Builder color(int internalFormat) {
+			if (internalFormats.length == MAX_COLOR_ATTACHMENTS) throw new IllegalStateException("A framebuffer can't have more than " + MAX_COLOR_ATTACHMENTS + " color attachments.");
+			
+			internalFormats = Arrays.copyOf(internalFormats, internalFormats.length + 1);
+			internalFormats[internalFormats.length - 1] = internalFormat;
+			return this;
+		}
+		
+		/**
+		 * Adds a 24 bit depth buffer.
+		 */
+		public Builder depth() {
+			return depth(GL_DEPTH_COMPONENT24);
+		}
+		
+		/**
+		 * Adds a depth buffer with a 24 bit depth and an 8 bit stencil component (EXT_packed_depth_stencil).
+		 */
+		public Builder depthStencil() {
+			return depth(GL_DEPTH24_STENCIL8_EXT);
+		}
+		
+		/**
+		 * Adds a depth buffer.
+		 * @param internalFormat the format of the renderbuffer, e.g. GL_DEPTH_COMPONENT16
+		 */
+		public Builder depth(int internalFormat) {
+			this.depthFormat = internalFormat;
+			return this;
+		}
+		
+		/**
+		 * Creates the framebuffer.
+		 * @return the framebuffer
+		 * @throws RuntimeException If the system doesn't support one of the features or the driver reports the framebuffer as incomplete.
+		 */
+		public FrameBuffer build() {
+			if (internalFormats.length == 0) throw new IllegalStateException("A framebuffer needs at least one color attachment.");
+			
+			return new FrameBuffer(width, height, internalFormats.clone(), depthFormat, null);
+		}
 	}
 }
@@ -0,0 +1,154 @@
+package at.erdlof.shadertools.shaders;
+
+import static org.lwjgl.opengl.ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB;
+import static org.lwjgl.opengl.ARBVertexBufferObject.GL_STATIC_DRAW_ARB;
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_MODELVIEW;
+import static org.lwjgl.opengl.GL11.GL_PROJECTION;
+import static org.lwjgl.opengl.GL11.GL_TRIANGLE_STRIP;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import at.erdlof.shadertools.gl.GLBackend;
+import at.erdlof.shadertools.gl.GLResources;
+import at.erdlof.shadertools.gl.StateTracker;
+
+/**
+ * A quad covering the whole viewport, stored in a vertex buffer and drawn with a single call.
+ * All post processing passes of a context share one quad, which is created on the first draw.
+ * <p>
+ * Every vertex has a position in normalized device coordinates and a texture coordinate. Shaders receive them in the
+ * attributes {@value #POSITION_ATTRIBUTE} and {@value #TEX_COORD_ATTRIBUTE}, so the vertex shader of a pass can be as
+ * simple as <code>gl_Position = vec4(position, 0.0, 1.0);</code>. Programs without these attributes and fixed function
+ * get them through <code>gl_Vertex</code> and <code>gl_MultiTexCoord0</code>, with identity matrices loaded for the draw.
+ * <p>
+ * The buffer binding and the vertex arrays are left set up after a draw and tracked by the {@link StateTracker}, so
+ * the next pass with the same attribute locations draws with a single call. Call {@code ShaderProgram.unbindAll()}
+ * before using client side vertex arrays.
+ * @author Florian Bhrle
+ */
+public class FullscreenQuad {
+	public static final String POSITION_ATTRIBUTE = "position";
+	public static final String TEX_COORD_ATTRIBUTE = "texCoord";
+	
+	//x, y, s, t per vertex, drawn as triangle strip
+	private static final float[] VERTICES = {
+		-1, -1, 0, 0,
+		 1, -1, 1, 0,
+		-1,  1, 0, 1,
+		 1,  1, 1, 1
+	};
+	private static final int STRIDE = 4 * 4;
+	private static final int TEX_COORD_OFFSET = 2 * 4;
+	
+	private final GLBackend gl;
+	private final StateTracker state;
+	private int buffer;
+	private GLResources.Resource resource;
+	private long draws;
+	
+	private FullscreenQuad(GLBackend gl) {
+		this.gl = gl;
+		this.state = StateTracker.of(gl);
+	}
+	
+	/**
+	 * @param backend the backend
+	 * @return the quad of the backend's context
+	 */
+	public static FullscreenQuad of(GLBackend backend) {
+		synchronized (backend) {
+			FullscreenQuad quad = backend.getAttachment(FullscreenQuad.class);
+			
+			if (quad == null) {
+				quad = new FullscreenQuad(backend);
+				backend.setAttachment(FullscreenQuad.class, quad);
+			}
+			
+			return quad;
+		}
+	}
+	
+	private void create() {
+		FloatBuffer data = ByteBuffer.allocateDirect(VERTICES.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		data.put(VERTICES).flip();
+		
+		buffer = gl.glGenBuffersARB();
+		resource = GLResources.of(gl).track(this, GLResources.Type.BUFFER, buffer);
+		state.bindArrayBuffer(buffer);
+		gl.glBufferDataARB(GL_ARRAY_BUFFER_ARB, data, GL_STATIC_DRAW_ARB);
+	}
+	
+	/**
+	 * Draws the quad with the given program. The program has to be bound.
+	 * The attribute locations are looked up through {@link ShaderProgram#registerAttribute(String)}, which queries them only once.
+	 * @param program the bound program, or null for fixed function
+	 */
+	public void draw(ShaderProgram program) {
+		if (buffer == 0) create();
+		else state.bindArrayBuffer(buffer);
+		
+		int position = program != null ? program.registerAttribute(POSITION_ATTRIBUTE) : -1;
+		
+		if (position != -1) {
+			int texCoord = program.registerAttribute(TEX_COORD_ATTRIBUTE);
+			
+			//Generic attribute 0 may alias gl_Vertex, so the client arrays are turned off
+			state.setClientArrays(0);
+			state.vertexAttribPointer(position, 2, GL_FLOAT, false, STRIDE, 0);
+			
+			if (texCoord != -1) {
+				state.vertexAttribPointer(texCoord, 2, GL_FLOAT, false, STRIDE, TEX_COORD_OFFSET);
+				state.setVertexAttribArrays(1 << position | 1 << texCoord);
+			} else {
+				state.setVertexAttribArrays(1 << position);
+			}
+			
+			gl.glDrawArrays(GL_TRIANGLE_STRIP, 0, 4);
+		} else {
+			drawLegacy();
+		}
+		
+		draws++;
+	}
+	
+	private void drawLegacy() {
+		state.setVertexAttribArrays(0);
+		state.setClientArrays(StateTracker.VERTEX_ARRAY_BIT | StateTracker.TEXTURE_COORD_ARRAY_BIT);
+		state.vertexPointer(2, GL_FLOAT, STRIDE, 0);
+		state.texCoordPointer(2, GL_FLOAT, STRIDE, TEX_COORD_OFFSET);
+		
+		gl.glMatrixMode(GL_PROJECTION);
+		gl.glPushMatrix();
+		gl.glLoadIdentity();
+		gl.glMatrixMode(GL_MODELVIEW);
+		gl.glPushMatrix();
+		gl.glLoadIdentity();
+		
+		gl.glDrawArrays(GL_TRIANGLE_STRIP, 0, 4);
+		
+		gl.glPopMatrix();
+		gl.glMatrixMode(GL_PROJECTION);
+		gl.glPopMatrix();
+		gl.glMatrixMode(GL_MODELVIEW);
+	}
+	
+	/**
+	 * Deletes the vertex buffer. The next draw creates it again.
+	 */
+	public void release() {
+		if (buffer == 0) return;
+		
+		resource.delete();
+		buffer = 0;
+	}
+	
+	/**
+	 * @return the number of times the quad has been drawn
+	 */
+	public long getDraws() {
+		return draws;
+	}
+}
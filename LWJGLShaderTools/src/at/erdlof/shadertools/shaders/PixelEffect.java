@@ -0,0 +1,57 @@
+package at.erdlof.shadertools.shaders;
+
+import java.util.regex.Pattern;
+
+/**
+ * A post processing effect that only changes the color of every pixel, without reading its neighbours, e.g. color
+ * grading, tone mapping or a vignette. Consecutive pixel effects of an {@link EffectChain} can be fused into a single
+ * pass by an {@link EffectFuser}. Example:
+ * <p><code>
+ * PixelEffect vignette = new PixelEffect("vignette", "uniform float strength;",<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;"return color * (1.0 - strength * length(texCoord - 0.5));");</code>
+ * <p>
+ * The body becomes the function <code>vec4 name(vec4 color, vec2 texCoord)</code>, which receives the color of the
+ * pixel and returns the new one. The declarations are placed before the function. Effects declaring the same uniform
+ * or constant on a line of its own share it when they are fused, helper functions are emitted as they are.
+ * @author Florian Bhrle
+ */
+public class PixelEffect {
+	private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+	
+	private final String name;
+	private final String declarations;
+	private final String body;
+	
+	/**
+	 * @param name the name of the effect, a GLSL identifier
+	 * @param declarations uniforms, constants and helper functions of the effect, may be empty
+	 * @param body the body of the function computing the new color
+	 * @throws IllegalArgumentException If the name isn't a GLSL identifier.
+	 */
+	public PixelEffect(String name, String declarations, String body) {
+		if (!IDENTIFIER.matcher(name).matches() || name.startsWith("gl_")) throw new IllegalArgumentException("The name of an effect must be a GLSL identifier: " + name);
+		
+		this.name = name;
+		this.declarations = declarations;
+		this.body = body;
+	}
+	
+	/**
+	 * Creates an effect without declarations.
+	 */
+	public PixelEffect(String name, String body) {
+		this(name, "", body);
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public String getDeclarations() {
+		return declarations;
+	}
+	
+	public String getBody() {
+		return body;
+	}
+}
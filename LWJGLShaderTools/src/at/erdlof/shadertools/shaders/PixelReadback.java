@@ -0,0 +1,382 @@
+package at.erdlof.shadertools.shaders;
+
+import static org.lwjgl.opengl.ARBPixelBufferObject.GL_PIXEL_PACK_BUFFER_ARB;
+import static org.lwjgl.opengl.ARBVertexBufferObject.GL_READ_ONLY_ARB;
+import static org.lwjgl.opengl.ARBVertexBufferObject.GL_STREAM_READ_ARB;
+import static org.lwjgl.opengl.EXTFramebufferObject.GL_COLOR_ATTACHMENT0_EXT;
+import static org.lwjgl.opengl.GL11.GL_BACK;
+import static org.lwjgl.opengl.GL11.GL_RGBA;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import at.erdlof.shadertools.gl.GLBackend;
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.GLResources;
+import at.erdlof.shadertools.gl.StateTracker;
+
+/**
+ * Reads the pixels of framebuffers without stalling the GL thread, e.g. to encode a video or to compare frames
+ * against reference images. Example:
+ * <p><code>
+ * PixelReadback readback = new PixelReadback(3, 4);<br>
+ * <span style="color: gray; font-style: italic">-- On the GL thread, after every frame: --</span><br>
+ * frameBuffer.readAsync(readback);<br>
+ * <span style="color: gray; font-style: italic">-- On the encoder thread: --</span><br>
+ * PixelReadback.Frame frame = readback.take();<br>
+ * encoder.encode(frame.getPixels(), frame.getWidth(), frame.getHeight());<br>
+ * readback.recycle(frame);</code>
+ * <p>
+ * Every capture reads the pixels into one of a ring of pixel buffer objects and returns right away, the GPU copies
+ * them while the next frames are rendered. The read is mapped when its buffer object comes round again, i.e. as many
+ * captures later as the ring is long, and copied into a {@link Frame}. Frames are taken from a fixed set that is
+ * allocated up front, so once their buffers have grown to the size of the captures no heap memory is allocated.
+ * <p>
+ * Finished frames wait in a bounded queue for the consumer, which hands them back by {@link #recycle(Frame)}. If all
+ * frames are queued or held by the consumer, a finished read is dropped and counted, unless the readback is
+ * {@link #setBlocking(boolean) blocking}, which waits for a frame instead and slows the GL thread down to the pace of
+ * the consumer. Without ARB_pixel_buffer_object the pixels are read synchronously.
+ * <p>
+ * The pixels are RGBA bytes, starting at the lower left corner.
+ * @author Florian Bhrle
+ */
+public class PixelReadback implements AutoCloseable {
+	/**
+	 * The pixels of a capture. Owned by the consumer until it is {@link PixelReadback#recycle(Frame) recycled}.
+	 */
+	public static class Frame {
+		private ByteBuffer pixels = ByteBuffer.allocateDirect(0);
+		private int width, height;
+		private long number;
+		
+		private void allocate(int bytes) {
+			if (pixels.capacity() < bytes) pixels = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+			pixels.clear().limit(bytes);
+		}
+		
+		/**
+		 * @return the pixels, from the position to the limit. The buffer is reused after the frame has been recycled.
+		 */
+		public ByteBuffer getPixels() {
+			return pixels;
+		}
+		
+		public int getWidth() {
+			return width;
+		}
+		
+		public int getHeight() {
+			return height;
+		}
+		
+		/**
+		 * @return the number of the capture, counting from 0. Gaps are dropped frames.
+		 */
+		public long getNumber() {
+			return number;
+		}
+	}
+	
+	private final GLBackend gl;
+	private final StateTracker state;
+	
+	private final int[] buffers;
+	private final GLResources.Resource[] resources;
+	private final ByteBuffer[] mappings;
+	private final int[] capacities, widths, heights;
+	private final long[] numbers;
+	private final boolean[] pending;
+	private int head;
+	
+	private final BlockingQueue<Frame> free, ready;
+	private volatile boolean blocking;
+	private long nextNumber;
+	
+	private volatile long captured, delivered, dropped;
+	
+	/**
+	 * Creates a readback reading three captures behind with four frames.
+	 */
+	public PixelReadback() {
+		this(3, 4);
+	}
+	
+	/**
+	 * @param ringSize the number of pixel buffer objects, i.e. how many captures a read is mapped after, at least 1
+	 * @param frameCount the number of frames the consumer can hold or have queued, at least 1
+	 */
+	public PixelReadback(int ringSize, int frameCount) {
+		if (ringSize < 1 || frameCount < 1) throw new IllegalArgumentException("A readback needs at least one buffer and one frame.");
+		
+		this.gl = GLBackends.current();
+		this.state = StateTracker.of(gl);
+		
+		buffers = new int[ringSize];
+		resources = new GLResources.Resource[ringSize];
+		mappings = new ByteBuffer[ringSize];
+		capacities = new int[ringSize];
+		widths = new int[ringSize];
+		heights = new int[ringSize];
+		numbers = new long[ringSize];
+		pending = new boolean[ringSize];
+		
+		free = new ArrayBlockingQueue<Frame>(frameCount);
+		ready = new ArrayBlockingQueue<Frame>(frameCount);
+		for (int i = 0; i < frameCount; i++) free.add(new Frame());
+	}
+	
+	/**
+	 * Reads the first color attachment of a framebuffer, see {@link #capture(FrameBuffer, int)}.
+	 */
+	public void capture(FrameBuffer source) {
+		capture(source, 0);
+	}
+	
+	/**
+	 * Reads the display, see {@link #capture(FrameBuffer, int)}.
+	 */
+	public void captureDisplay() {
+		capture(null, 0);
+	}
+	
+	/**
+	 * Starts reading a framebuffer and finishes the read that has been started as many captures ago as the ring is
+	 * long. Has to be called on the GL thread, after the content has been drawn. The framebuffer that has been bound
+	 * before is bound again afterwards.
+	 * @param source the framebuffer, null for the display
+	 * @param attachment the index of the color attachment to read
+	 */
+	public void capture(FrameBuffer source, int attachment) {
+		int width = source != null ? source.getWidth() : gl.getDisplayWidth();
+		int height = source != null ? source.getHeight() : gl.getDisplayHeight();
+		int bytes = width * height * 4;
+		long number = nextNumber++;
+		captured++;
+		
+		int previous = state.getBoundFramebuffer();
+		state.bindFramebuffer(source != null ? source.getFBOid() : 0);
+		gl.glReadBuffer(source != null ? GL_COLOR_ATTACHMENT0_EXT + attachment : GL_BACK);
+		
+		if (gl.isPixelBufferSupported()) {
+			int slot = head;
+			head = (head + 1) % buffers.length;
+			
+			if (pending[slot]) finish(slot);
+			
+			if (buffers[slot] == 0) {
+				buffers[slot] = gl.glGenBuffersARB();
+				resources[slot] = GLResources.of(gl).track(this, GLResources.Type.BUFFER, buffers[slot]);
+			}
+			
+			gl.glBindBufferARB(GL_PIXEL_PACK_BUFFER_ARB, buffers[slot]);
+			
+			//Buffer objects only grow, like the frames
+			if (capacities[slot] < bytes) {
+				gl.glBufferDataARB(GL_PIXEL_PACK_BUFFER_ARB, bytes, GL_STREAM_READ_ARB);
+				capacities[slot] = bytes;
+				mappings[slot] = null;
+			}
+			
+			gl.glReadPixels(0, 0, width, height, GL_RGBA, GL_UNSIGNED_BYTE, 0);
+			gl.glBindBufferARB(GL_PIXEL_PACK_BUFFER_ARB, 0);
+			
+			widths[slot] = width;
+			heights[slot] = height;
+			numbers[slot] = number;
+			pending[slot] = true;
+		} else {
+			Frame frame = acquire();
+			
+			if (frame != null) {
+				frame.allocate(bytes);
+				gl.glReadPixels(0, 0, width, height, GL_RGBA, GL_UNSIGNED_BYTE, frame.pixels);
+				deliver(frame, width, height, number);
+			}
+		}
+		
+		if (previous != StateTracker.UNKNOWN) state.bindFramebuffer(previous);
+	}
+	
+	private void finish(int slot) {
+		pending[slot] = false;
+		Frame frame = acquire();
+		if (frame == null) return;
+		
+		int bytes = widths[slot] * heights[slot] * 4;
+		gl.glBindBufferARB(GL_PIXEL_PACK_BUFFER_ARB, buffers[slot]);
+		ByteBuffer mapping = gl.glMapBufferARB(GL_PIXEL_PACK_BUFFER_ARB, GL_READ_ONLY_ARB, capacities[slot], mappings[slot]);
+		mappings[slot] = mapping;
+		
+		if (mapping != null) {
+			frame.allocate(bytes);
+			mapping.clear().limit(bytes);
+			frame.pixels.put(mapping).flip();
+		}
+		
+		//The content is undefined if the driver has lost the mapping, e.g. after a mode switch
+		if (!gl.glUnmapBufferARB(GL_PIXEL_PACK_BUFFER_ARB) || mapping == null) {
+			free.add(frame);
+			dropped++;
+		} else {
+			deliver(frame, widths[slot], heights[slot], numbers[slot]);
+		}
+		
+		gl.glBindBufferARB(GL_PIXEL_PACK_BUFFER_ARB, 0);
+	}
+	
+	private Frame acquire() {
+		Frame frame = free.poll();
+		if (frame != null || !blocking) {
+			if (frame == null) dropped++;
+			return frame;
+		}
+		
+		try {
+			return free.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			dropped++;
+			return null;
+		}
+	}
+	
+	private void deliver(Frame frame, int width, int height, long number) {
+		frame.width = width;
+		frame.height = height;
+		frame.number = number;
+		
+		//Can't fail, there are as many places in the queue as there are frames
+		ready.add(frame);
+		delivered++;
+	}
+	
+	/**
+	 * Finishes all reads that have been started, e.g. after the last frame of a video. Has to be called on the GL thread.
+	 * @return the number of reads finished, including the ones that have been dropped
+	 */
+	public int flush() {
+		int finished = 0;
+		
+		for (int i = 0; i < buffers.length; i++) {
+			int slot = (head + i) % buffers.length;
+			
+			if (pending[slot]) {
+				finish(slot);
+				finished++;
+			}
+		}
+		
+		return finished;
+	}
+	
+	/**
+	 * Waits for the next finished frame. Can be called on any thread.
+	 * @return the frame, to be {@link #recycle(Frame) recycled} when its pixels have been used
+	 */
+	public Frame take() throws InterruptedException {
+		return ready.take();
+	}
+	
+	/**
+	 * @return the next finished frame, null if there is none
+	 */
+	public Frame poll() {
+		return ready.poll();
+	}
+	
+	/**
+	 * @return the next finished frame, null if there is none within the timeout
+	 */
+	public Frame poll(long timeout, TimeUnit unit) throws InterruptedException {
+		return ready.poll(timeout, unit);
+	}
+	
+	/**
+	 * Hands a frame back, so it can be filled again. Can be called on any thread.
+	 * @param frame a frame returned by {@link #take()} or {@link #poll()}
+	 */
+	public void recycle(Frame frame) {
+		free.add(frame);
+	}
+	
+	/**
+	 * Deletes the pixel buffer objects. Reads that haven't been finished are lost, frames that have been queued can still be taken.
+	 */
+	public void release() {
+		for (int i = 0; i < buffers.length; i++) {
+			if (buffers[i] == 0) continue;
+			
+			resources[i].delete();
+			buffers[i] = 0;
+			capacities[i] = 0;
+			mappings[i] = null;
+			pending[i] = false;
+		}
+	}
+	
+	/**
+	 * Same as {@link #release()}, for try-with-resources.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+	
+	public boolean isBlocking() {
+		return blocking;
+	}
+	
+	/**
+	 * @param blocking true to wait for the consumer if all frames are in use, false to drop the read
+	 */
+	public void setBlocking(boolean blocking) {
+		this.blocking = blocking;
+	}
+	
+	/**
+	 * @return the number of reads started and not finished yet
+	 */
+	public int getPending() {
+		int count = 0;
+		for (boolean p : pending) if (p) count++;
+		return count;
+	}
+	
+	/**
+	 * @return the number of frames waiting for the consumer
+	 */
+	public int getQueued() {
+		return ready.size();
+	}
+	
+	/**
+	 * @return the number of captures
+	 */
+	public long getCaptured() {
+		return captured;
+	}
+	
+	/**
+	 * @return the number of frames passed to the consumer
+	 */
+	public long getDelivered() {
+		return delivered;
+	}
+	
+	/**
+	 * @return the number of captures dropped because the consumer hasn't kept up
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+	
+	public void resetStatistics() {
+		captured = 0;
+		delivered = 0;
+		dropped = 0;
+	}
+}
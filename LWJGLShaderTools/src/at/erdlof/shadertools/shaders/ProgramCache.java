@@ -0,0 +1,275 @@
+package at.erdlof.shadertools.shaders;
+
+import static org.lwjgl.opengl.ARBGetProgramBinary.GL_PROGRAM_BINARY_LENGTH;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_OBJECT_LINK_STATUS_ARB;
+import static org.lwjgl.opengl.GL11.GL_FALSE;
+import static org.lwjgl.opengl.GL11.GL_RENDERER;
+import static org.lwjgl.opengl.GL11.GL_VENDOR;
+import static org.lwjgl.opengl.GL11.GL_VERSION;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+import at.erdlof.shadertools.gl.GLBackend;
+import at.erdlof.shadertools.gl.GLBackends;
+
+/**
+ * Stores the binaries of linked programs on disk, so later runs load them instead of compiling and linking the sources.
+ * <p>
+ * A binary is stored under a hash of both sources and the vendor, renderer and version strings of the driver.
+ * Binaries of another driver are never looked up, and a binary the driver rejects anyway is deleted. In both cases
+ * the program is compiled from source and its new binary is stored. Every file starts with a header holding a magic
+ * number, the file format version and a CRC32 of the binary, so truncated or foreign files are detected. Example:
+ * <p><code>
+ * ProgramCache cache = new ProgramCache(Paths.get("cache/shaders"));<br>
+ * ShaderProgram program = cache.load(vertexCode, fragmentCode);</code>
+ * <p>
+ * Without ARB_get_program_binary the cache compiles every program from source.
+ * @author Florian Bhrle
+ */
+public class ProgramCache {
+	private static final int MAGIC = 0x53545042; //"STPB"
+	private static final int FORMAT_VERSION = 1;
+	//magic, version, binary format, length, CRC32
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+	private static final String SUFFIX = ".bin";
+	
+	private final GLBackend gl;
+	private final Path directory;
+	private String driver;
+	
+	private long hits, misses, rejected, writes;
+	
+	/**
+	 * @param directory the directory the binaries are stored in, created if it doesn't exist
+	 */
+	public ProgramCache(Path directory) {
+		this.gl = GLBackends.current();
+		this.directory = directory;
+	}
+	
+	/**
+	 * Loads the program from the cache, or compiles and links it and stores its binary.
+	 * @param vertexCode the code of the vertex shader
+	 * @param fragmentCode the code of the fragment shader
+	 * @return the linked program
+	 * @throws InvalidShaderException if a shader has to be compiled and is invalid
+	 * @throws InvalidProgramException if the program has to be linked and can't be linked
+	 */
+	public ShaderProgram load(String vertexCode, String fragmentCode) {
+		if (!gl.isProgramBinarySupported()) {
+			misses++;
+			return compile(vertexCode, fragmentCode, false);
+		}
+		
+		Path file = directory.resolve(key(vertexCode, fragmentCode) + SUFFIX);
+		ShaderProgram program = read(file);
+		
+		if (program != null) {
+			hits++;
+			return program;
+		}
+		
+		misses++;
+		//Throws if the program can't be linked, so only linked programs are written
+		program = compile(vertexCode, fragmentCode, true);
+		write(file, program);
+		
+		return program;
+	}
+	
+	private static ShaderProgram compile(String vertexCode, String fragmentCode, boolean retrievableBinary) {
+		VertexShader vertexShader = new VertexShader(vertexCode);
+		FragmentShader fragmentShader;
+		
+		try {
+			fragmentShader = new FragmentShader(fragmentCode);
+		} catch (InvalidShaderException e) {
+			vertexShader.releaseShader();
+			throw e;
+		}
+		
+		try {
+			return new ShaderProgram(vertexShader, fragmentShader, retrievableBinary);
+		} catch (InvalidProgramException e) {
+			vertexShader.releaseShader();
+			fragmentShader.releaseShader();
+			throw e;
+		}
+	}
+	
+	private ShaderProgram read(Path file) {
+		if (!Files.isRegularFile(file)) return null;
+		
+		ByteBuffer data;
+		
+		try {
+			data = ByteBuffer.wrap(Files.readAllBytes(file));
+		} catch (IOException e) {
+			return null;
+		}
+		
+		if (data.remaining() < HEADER_SIZE || data.getInt() != MAGIC || data.getInt() != FORMAT_VERSION) {
+			discard(file);
+			return null;
+		}
+		
+		int binaryFormat = data.getInt();
+		int length = data.getInt();
+		long checksum = data.getLong();
+		
+		if (length != data.remaining() || checksum(data.array(), HEADER_SIZE, length) != checksum) {
+			discard(file);
+			return null;
+		}
+		
+		ByteBuffer binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+		binary.put(data).flip();
+		
+		int id = gl.glCreateProgramObjectARB();
+		gl.glProgramBinary(id, binaryFormat, binary);
+		
+		//The driver may reject binaries even if its version string hasn't changed
+		if (gl.glGetObjectParameteriARB(id, GL_OBJECT_LINK_STATUS_ARB) == GL_FALSE) {
+			gl.glDeleteObjectARB(id);
+			discard(file);
+			return null;
+		}
+		
+		return new ShaderProgram(gl, id);
+	}
+	
+	private void write(Path file, ShaderProgram program) {
+		int length = gl.glGetObjectParameteriARB(program.getProgramID(), GL_PROGRAM_BINARY_LENGTH);
+		if (length <= 0) return;
+		
+		ByteBuffer binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+		IntBuffer written = ByteBuffer.allocateDirect(4).order(ByteOrder.nativeOrder()).asIntBuffer();
+		IntBuffer binaryFormat = ByteBuffer.allocateDirect(4).order(ByteOrder.nativeOrder()).asIntBuffer();
+		gl.glGetProgramBinary(program.getProgramID(), written, binaryFormat, binary);
+		
+		length = written.get(0);
+		byte[] bytes = new byte[length];
+		binary.get(bytes);
+		
+		ByteBuffer data = ByteBuffer.allocate(HEADER_SIZE + length);
+		data.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(binaryFormat.get(0)).putInt(length);
+		data.putLong(checksum(bytes, 0, length)).put(bytes);
+		
+		try {
+			Files.createDirectories(directory);
+			
+			//Write to a temporary file first, so a crash never leaves a truncated binary behind
+			Path temporary = Files.createTempFile(directory, "program", ".tmp");
+			Files.write(temporary, data.array());
+			
+			try {
+				Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+			
+			writes++;
+		} catch (IOException e) {
+			//A cache that can't be written only costs the next run its speedup
+		}
+	}
+	
+	private void discard(Path file) {
+		rejected++;
+		
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			//Overwritten by the next write anyway
+		}
+	}
+	
+	private static long checksum(byte[] bytes, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		return crc.getValue();
+	}
+	
+	private String key(String vertexCode, String fragmentCode) {
+		if (driver == null) {
+			driver = gl.glGetString(GL_VENDOR) + '\0' + gl.glGetString(GL_RENDERER) + '\0' + gl.glGetString(GL_VERSION);
+		}
+		
+		MessageDigest digest;
+		
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			//Every Java platform has to support SHA-256
+			throw new RuntimeException(e);
+		}
+		
+		digest.update(vertexCode.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(fragmentCode.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(driver.getBytes(StandardCharsets.UTF_8));
+		
+		StringBuilder key = new StringBuilder(64);
+		for (byte b : digest.digest()) key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		
+		return key.toString();
+	}
+	
+	/**
+	 * Forgets the driver strings, e.g. after the context has been recreated. They are queried again on the next load.
+	 */
+	public void invalidateDriver() {
+		driver = null;
+	}
+	
+	public Path getDirectory() {
+		return directory;
+	}
+	
+	/**
+	 * @return the number of programs loaded from a binary
+	 */
+	public long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return the number of programs compiled from source
+	 */
+	public long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * @return the number of stored binaries that have been deleted, because they were corrupt or rejected by the driver
+	 */
+	public long getRejected() {
+		return rejected;
+	}
+	
+	/**
+	 * @return the number of binaries stored
+	 */
+	public long getWrites() {
+		return writes;
+	}
+	
+	public void resetStatistics() {
+		hits = 0;
+		misses = 0;
+		rejected = 0;
+		writes = 0;
+	}
+}
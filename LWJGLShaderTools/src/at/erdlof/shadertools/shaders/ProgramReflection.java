@@ -0,0 +1,213 @@
+package at.erdlof.shadertools.shaders;
+
+import static org.lwjgl.opengl.ARBShaderObjects.GL_OBJECT_ACTIVE_UNIFORMS_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_OBJECT_ACTIVE_UNIFORM_MAX_LENGTH_ARB;
+import static org.lwjgl.opengl.ARBVertexShader.GL_OBJECT_ACTIVE_ATTRIBUTES_ARB;
+import static org.lwjgl.opengl.ARBVertexShader.GL_OBJECT_ACTIVE_ATTRIBUTE_MAX_LENGTH_ARB;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import at.erdlof.shadertools.gl.GLBackend;
+import at.erdlof.shadertools.util.StringIntMap;
+
+/**
+ * The active uniform and attribute variables of a linked program, with their names, types, sizes and locations.
+ * The driver is asked once after linking, later lookups only read the tables. Example:
+ * <p><code>
+ * ProgramReflection reflection = program.getReflection();<br>
+ * for (int i = 0; i < reflection.getUniformCount(); i++) {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;System.out.println(reflection.getUniformName(i) + " at " + reflection.getUniformLocation(i));<br>
+ * }</code>
+ * <p>
+ * Arrays are listed once by their name without brackets, their size is the number of elements and their location
+ * the one of the first element. The types are the GL enums, e.g. <code>GL_FLOAT_VEC3_ARB</code>.
+ * Variables the compiler has optimized away aren't active and don't appear.
+ * @author Florian Bhrle
+ */
+public final class ProgramReflection {
+	private final String[] uniformNames;
+	private final int[] uniformTypes, uniformSizes, uniformLocations;
+	private final StringIntMap uniformIndices;
+	
+	private final String[] attributeNames;
+	private final int[] attributeTypes, attributeSizes, attributeLocations;
+	private final StringIntMap attributeIndices;
+	
+	private ProgramReflection(int uniforms, int attributes) {
+		uniformNames = new String[uniforms];
+		uniformTypes = new int[uniforms];
+		uniformSizes = new int[uniforms];
+		uniformLocations = new int[uniforms];
+		uniformIndices = new StringIntMap(-1, uniforms);
+		
+		attributeNames = new String[attributes];
+		attributeTypes = new int[attributes];
+		attributeSizes = new int[attributes];
+		attributeLocations = new int[attributes];
+		attributeIndices = new StringIntMap(-1, attributes);
+	}
+	
+	/**
+	 * Enumerates the active variables of a program. Has to be called on the GL thread after the program has been linked successfully.
+	 * @param gl the backend the program has been created with
+	 * @param programID the ID of the linked program object
+	 */
+	static ProgramReflection query(GLBackend gl, int programID) {
+		int uniforms = gl.glGetObjectParameteriARB(programID, GL_OBJECT_ACTIVE_UNIFORMS_ARB);
+		int attributes = gl.glGetObjectParameteriARB(programID, GL_OBJECT_ACTIVE_ATTRIBUTES_ARB);
+		ProgramReflection reflection = new ProgramReflection(uniforms, attributes);
+		IntBuffer sizeType = ByteBuffer.allocateDirect(2 * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+		
+		int maxLength = gl.glGetObjectParameteriARB(programID, GL_OBJECT_ACTIVE_UNIFORM_MAX_LENGTH_ARB);
+		
+		for (int i = 0; i < uniforms; i++) {
+			String name = gl.glGetActiveUniformARB(programID, i, maxLength, sizeType);
+			
+			reflection.uniformNames[i] = baseName(name);
+			reflection.uniformSizes[i] = sizeType.get(0);
+			reflection.uniformTypes[i] = sizeType.get(1);
+			reflection.uniformLocations[i] = gl.glGetUniformLocationARB(programID, name);
+			reflection.uniformIndices.put(reflection.uniformNames[i], i);
+		}
+		
+		maxLength = gl.glGetObjectParameteriARB(programID, GL_OBJECT_ACTIVE_ATTRIBUTE_MAX_LENGTH_ARB);
+		
+		for (int i = 0; i < attributes; i++) {
+			String name = gl.glGetActiveAttribARB(programID, i, maxLength, sizeType);
+			
+			reflection.attributeNames[i] = baseName(name);
+			reflection.attributeSizes[i] = sizeType.get(0);
+			reflection.attributeTypes[i] = sizeType.get(1);
+			reflection.attributeLocations[i] = gl.glGetAttribLocationARB(programID, name);
+			reflection.attributeIndices.put(reflection.attributeNames[i], i);
+		}
+		
+		return reflection;
+	}
+	
+	//Drivers report arrays as "name[0]"
+	private static String baseName(String name) {
+		return name.endsWith("[0]") ? name.substring(0, name.length() - 3) : name;
+	}
+	
+	private static int find(StringIntMap indices, String name) {
+		int index = indices.get(name);
+		return index != -1 || !name.endsWith("[0]") ? index : indices.get(baseName(name));
+	}
+	
+	/**
+	 * @param name the name of the uniform variable, arrays by their name or by "name[0]"
+	 * @return the index of the uniform variable, -1 if it isn't active
+	 */
+	public int findUniform(String name) {
+		return find(uniformIndices, name);
+	}
+	
+	/**
+	 * @param name the name of the uniform variable, or an element of an array like "lights[2]"
+	 * @return true if the variable is active, for an element if it is within the size of the array
+	 */
+	public boolean hasUniform(String name) {
+		if (findUniform(name) != -1) return true;
+		
+		int bracket = name.indexOf('[');
+		if (bracket <= 0 || !name.endsWith("]")) return false;
+		
+		int index = findUniform(name.substring(0, bracket));
+		if (index == -1) return false;
+		
+		try {
+			int element = Integer.parseInt(name.substring(bracket + 1, name.length() - 1));
+			return element >= 0 && element < uniformSizes[index];
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * @param name the name of the uniform variable, arrays by their name or by "name[0]"
+	 * @return the location of the uniform variable, -1 if it isn't active
+	 */
+	public int getUniformLocation(String name) {
+		int index = findUniform(name);
+		return index != -1 ? uniformLocations[index] : -1;
+	}
+	
+	public int getUniformCount() {
+		return uniformNames.length;
+	}
+	
+	public String getUniformName(int index) {
+		return uniformNames[index];
+	}
+	
+	public int getUniformType(int index) {
+		return uniformTypes[index];
+	}
+	
+	public int getUniformSize(int index) {
+		return uniformSizes[index];
+	}
+	
+	public int getUniformLocation(int index) {
+		return uniformLocations[index];
+	}
+	
+	/**
+	 * @param name the name of the attribute variable
+	 * @return the index of the attribute variable, -1 if it isn't active
+	 */
+	public int findAttribute(String name) {
+		return find(attributeIndices, name);
+	}
+	
+	/**
+	 * @param name the name of the attribute variable
+	 * @return the location of the attribute variable, -1 if it isn't active
+	 */
+	public int getAttributeLocation(String name) {
+		int index = findAttribute(name);
+		return index != -1 ? attributeLocations[index] : -1;
+	}
+	
+	public int getAttributeCount() {
+		return attributeNames.length;
+	}
+	
+	public String getAttributeName(int index) {
+		return attributeNames[index];
+	}
+	
+	public int getAttributeType(int index) {
+		return attributeTypes[index];
+	}
+	
+	public int getAttributeSize(int index) {
+		return attributeSizes[index];
+	}
+	
+	public int getAttributeLocation(int index) {
+		return attributeLocations[index];
+	}
+	
+	/**
+	 * Lists all variables, one per line, e.g. <code>uniform lights[4] type 0x8b52 at 3</code>.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		
+		for (int i = 0; i < uniformNames.length; i++) append(builder, "uniform", uniformNames[i], uniformTypes[i], uniformSizes[i], uniformLocations[i]);
+		for (int i = 0; i < attributeNames.length; i++) append(builder, "attribute", attributeNames[i], attributeTypes[i], attributeSizes[i], attributeLocations[i]);
+		
+		return builder.toString();
+	}
+	
+	private static void append(StringBuilder builder, String kind, String name, int type, int size, int location) {
+		builder.append(kind).append(' ').append(name);
+		if (size > 1) builder.append('[').append(size).append(']');
+		builder.append(" type 0x").append(Integer.toHexString(type)).append(" at ").append(location).append('\n');
+	}
+}
@@ -0,0 +1,521 @@
+package at.erdlof.shadertools.shaders;
+
+import static org.lwjgl.opengl.ARBTextureFloat.GL_RGBA16F_ARB;
+import static org.lwjgl.opengl.ARBTextureFloat.GL_RGBA32F_ARB;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import at.erdlof.shadertools.gl.GLBackend;
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.StateTracker;
+
+/**
+ * Schedules the passes of a frame from the targets they read and write, for effects that aren't a straight chain,
+ * e.g. bloom. Example:
+ * <p><code>
+ * RenderGraph graph = new RenderGraph();<br>
+ * int scene = graph.target("scene", width, height, GL_RGBA8);<br>
+ * int bright = graph.target("bright", width / 2, height / 2, GL_RGBA8);<br>
+ * int blurred = graph.target("blurred", width / 2, height / 2, GL_RGBA8);<br>
+ * graph.pass("scene").write(scene).execute(() -> drawScene());<br>
+ * graph.pass("threshold").read(scene).write(bright).execute(() -> threshold(graph.getTextureID(scene)));<br>
+ * graph.pass("blur").read(bright).write(blurred).execute(() -> blur(graph.getTextureID(bright)));<br>
+ * graph.pass("combine").read(scene).read(blurred).write(RenderGraph.DISPLAY).execute(() -> combine());<br>
+ * <span style="color: gray; font-style: italic">-- Every frame: --</span><br>
+ * graph.execute();</code>
+ * <p>
+ * {@link #compile()} orders the passes so every pass runs after the passes writing what it reads, and culls passes
+ * whose results never reach the display or an {@link #output(int) output}. Targets created by the graph are transient:
+ * they only live from the pass writing them to the last pass reading them. Transient targets of the same size and
+ * format whose lifetimes don't overlap share one framebuffer, which keeps the memory needed at its peak. Compiling
+ * makes no GL calls, so the order, the lifetimes and the sharing can be checked without a context.
+ * <p>
+ * Every target is written by a single pass, which finds it bound and cleared, with a viewport covering it. The display
+ * isn't cleared. Passes read targets through {@link #getTextureID(int)} while the graph is executing.
+ * @author Florian Bhrle
+ */
+public class RenderGraph {
+	/**
+	 * The handle of the display, which is always an output of the graph.
+	 */
+	public static final int DISPLAY = 0;
+	
+	private final RenderTargetPool pool;
+	private final List<Target> targets = new ArrayList<Target>();
+	private final List<Pass> passes = new ArrayList<Pass>();
+	private boolean compiled;
+	
+	//Results of compiling
+	private Pass[] order = new Pass[0];
+	private int culledPasses;
+	private int[] slotWidths, slotHeights, slotFormats;
+	private int slotCount;
+	private FrameBuffer[] slotBuffers;
+	
+	/**
+	 * Creates a graph with a pool of its own.
+	 */
+	public RenderGraph() {
+		this(new RenderTargetPool(8));
+	}
+	
+	/**
+	 * @param pool the pool the framebuffers of transient targets are taken from
+	 */
+	public RenderGraph(RenderTargetPool pool) {
+		this.pool = pool;
+		targets.add(new Target("display", 0, 0, 0, null));
+	}
+	
+	/**
+	 * Declares a transient target, which is created by the graph.
+	 * @param internalFormat the format of the texture, e.g. GL_RGBA8
+	 * @return the handle of the target
+	 */
+	public int target(String name, int width, int height, int internalFormat) {
+		return add(new Target(name, width, height, internalFormat, null));
+	}
+	
+	/**
+	 * Declares a target created outside of the graph, e.g. one whose content is kept between frames. Imported targets
+	 * are never shared with other targets.
+	 * @return the handle of the target
+	 */
+	public int importTarget(String name, FrameBuffer buffer) {
+		return add(new Target(name, buffer.getWidth(), buffer.getHeight(), buffer.getInternalFormat(), buffer));
+	}
+	
+	private int add(Target target) {
+		targets.add(target);
+		compiled = false;
+		return targets.size() - 1;
+	}
+	
+	/**
+	 * Declares a pass. The pass is set up through the returned object.
+	 * @param name the name of the pass
+	 * @return the pass
+	 */
+	public Pass pass(String name) {
+		Pass pass = new Pass(name, passes.size());
+		passes.add(pass);
+		compiled = false;
+		return pass;
+	}
+	
+	/**
+	 * Marks a target as a result of the frame, so the passes writing it aren't culled.
+	 * @param target the handle of the target
+	 */
+	public void output(int target) {
+		targets.get(target).output = true;
+		compiled = false;
+	}
+	
+	/**
+	 * Orders the passes, culls the unused ones and decides which targets share a framebuffer. Called by
+	 * {@link #execute()} if the graph has changed. Makes no GL calls.
+	 * @throws IllegalStateException If a target is written by several passes, read without being written, or if
+	 * the passes depend on each other in a cycle.
+	 */
+	public void compile() {
+		Pass[] writers = new Pass[targets.size()];
+		
+		for (Pass pass : passes) {
+			if (pass.output < 0) continue;
+			if (writers[pass.output] != null) throw new IllegalStateException("The target \"" + targets.get(pass.output).name + "\" is written by the passes \"" + writers[pass.output].name + "\" and \"" + pass.name + "\".");
+			writers[pass.output] = pass;
+		}
+		
+		for (Pass pass : passes) {
+			for (int input : pass.inputs) {
+				if (writers[input] == null && targets.get(input).imported == null) throw new IllegalStateException("The pass \"" + pass.name + "\" reads the target \"" + targets.get(input).name + "\", which isn't written by any pass.");
+			}
+		}
+		
+		cull(writers);
+		sort(writers);
+		computeLifetimes();
+		alias();
+		compiled = true;
+	}
+	
+	/**
+	 * Keeps the passes whose results reach an output, walking from the outputs back to the passes they depend on.
+	 */
+	private void cull(Pass[] writers) {
+		for (Pass pass : passes) pass.live = false;
+		
+		List<Pass> stack = new ArrayList<Pass>();
+		
+		//Passes writing no target have effects of their own, e.g. reading pixels back
+		for (Pass pass : passes) {
+			if (pass.output < 0) stack.add(pass);
+		}
+		
+		for (int target = 0; target < targets.size(); target++) {
+			if ((target == DISPLAY || targets.get(target).output) && writers[target] != null) stack.add(writers[target]);
+		}
+		
+		while (!stack.isEmpty()) {
+			Pass pass = stack.remove(stack.size() - 1);
+			if (pass.live) continue;
+			
+			pass.live = true;
+			
+			for (int input : pass.inputs) {
+				if (writers[input] != null) stack.add(writers[input]);
+			}
+		}
+		
+		culledPasses = 0;
+		for (Pass pass : passes) if (!pass.live) culledPasses++;
+	}
+	
+	/**
+	 * Orders the live passes topologically. Of all passes ready to run, the one declared first runs first.
+	 */
+	private void sort(Pass[] writers) {
+		int[] dependencies = new int[passes.size()];
+		List<List<Pass>> dependents = new ArrayList<List<Pass>>();
+		int live = 0;
+		
+		for (Pass pass : passes) {
+			dependents.add(new ArrayList<Pass>());
+			if (pass.live) live++;
+		}
+		
+		for (Pass pass : passes) {
+			if (!pass.live) continue;
+			
+			for (int input : pass.inputs) {
+				Pass writer = writers[input];
+				
+				if (writer != null) {
+					dependencies[pass.index]++;
+					dependents.get(writer.index).add(pass);
+				}
+			}
+		}
+		
+		order = new Pass[live];
+		int count = 0;
+		boolean[] done = new boolean[passes.size()];
+		
+		while (count < live) {
+			Pass next = null;
+			
+			for (Pass pass : passes) {
+				if (pass.live && !done[pass.index] && dependencies[pass.index] == 0) {
+					next = pass;
+					break;
+				}
+			}
+			
+			if (next == null) throw new IllegalStateException("The passes depend on each other in a cycle.");
+			
+			done[next.index] = true;
+			order[count++] = next;
+			for (Pass dependent : dependents.get(next.index)) dependencies[dependent.index]--;
+		}
+	}
+	
+	private void computeLifetimes() {
+		for (Target target : targets) {
+			target.first = -1;
+			target.last = -1;
+		}
+		
+		for (int step = 0; step < order.length; step++) {
+			Pass pass = order[step];
+			
+			if (pass.output >= 0) {
+				Target target = targets.get(pass.output);
+				if (target.first < 0) target.first = step;
+				target.last = Math.max(target.last, step);
+			}
+			
+			for (int input : pass.inputs) {
+				Target target = targets.get(input);
+				if (target.first < 0) target.first = step;
+				target.last = Math.max(target.last, step);
+			}
+		}
+		
+		//Outputs have to survive the frame
+		for (Target target : targets) {
+			if (target.output && target.first >= 0) target.last = order.length;
+		}
+	}
+	
+	/**
+	 * Assigns the transient targets to framebuffers. A target takes the first framebuffer of its size and format
+	 * whose last target has been read for the last time before it is written.
+	 */
+	private void alias() {
+		Integer[] byFirstUse = new Integer[targets.size()];
+		int transientCount = 0;
+		
+		for (int i = 1; i < targets.size(); i++) {
+			Target target = targets.get(i);
+			target.slot = -1;
+			if (target.imported == null && target.first >= 0) byFirstUse[transientCount++] = i;
+		}
+		
+		Arrays.sort(byFirstUse, 0, transientCount, (a, b) -> targets.get(a).first - targets.get(b).first);
+		
+		slotWidths = new int[transientCount];
+		slotHeights = new int[transientCount];
+		slotFormats = new int[transientCount];
+		int[] slotLast = new int[transientCount];
+		slotCount = 0;
+		
+		for (int i = 0; i < transientCount; i++) {
+			Target target = targets.get(byFirstUse[i]);
+			
+			for (int slot = 0; slot < slotCount; slot++) {
+				if (slotLast[slot] < target.first && slotWidths[slot] == target.width && slotHeights[slot] == target.height && slotFormats[slot] == target.internalFormat) {
+					target.slot = slot;
+					break;
+				}
+			}
+			
+			if (target.slot < 0) {
+				target.slot = slotCount++;
+				slotWidths[target.slot] = target.width;
+				slotHeights[target.slot] = target.height;
+				slotFormats[target.slot] = target.internalFormat;
+			}
+			
+			slotLast[target.slot] = target.last;
+		}
+	}
+	
+	/**
+	 * Runs the live passes in order. Has to be called on the GL thread. Afterwards the display is bound with a viewport
+	 * covering it.
+	 */
+	public void execute() {
+		if (!compiled) compile();
+		
+		GLBackend gl = GLBackends.current();
+		StateTracker state = StateTracker.of(gl);
+		slotBuffers = new FrameBuffer[slotCount];
+		
+		for (int slot = 0; slot < slotCount; slot++) slotBuffers[slot] = pool.acquire(slotWidths[slot], slotHeights[slot], slotFormats[slot]);
+		
+		//The target of a failing pass has to be unbound before the pool may delete it
+		FrameBuffer bound = null;
+		
+		try {
+			for (Pass pass : order) {
+				if (pass.output > DISPLAY) {
+					FrameBuffer target = getTarget(pass.output);
+					target.bind();
+					bound = target;
+					if (pass.execution != null) pass.execution.renderSequence();
+					bound = null;
+					target.unbind();
+				} else {
+					if (pass.output == DISPLAY) {
+						state.bindFramebuffer(0);
+						gl.glViewport(0, 0, gl.getDisplayWidth(), gl.getDisplayHeight());
+					}
+					
+					if (pass.execution != null) pass.execution.renderSequence();
+				}
+			}
+		} finally {
+			if (bound != null) bound.unbind();
+			for (int slot = 0; slot < slotCount; slot++) pool.release(slotBuffers[slot]);
+			slotBuffers = null;
+		}
+	}
+	
+	/**
+	 * @param target the handle of a target
+	 * @return the framebuffer of the target, only valid while the graph is executing
+	 */
+	public FrameBuffer getTarget(int target) {
+		Target t = targets.get(target);
+		if (t.imported != null) return t.imported;
+		if (slotBuffers == null || t.slot < 0) throw new IllegalStateException("The target \"" + t.name + "\" has no framebuffer outside of execute().");
+		
+		return slotBuffers[t.slot];
+	}
+	
+	/**
+	 * @param target the handle of a target
+	 * @return the texture of the target, only valid while the graph is executing
+	 */
+	public int getTextureID(int target) {
+		return getTarget(target).getTextureID();
+	}
+	
+	/**
+	 * @return the names of the passes run by {@link #execute()}, in order
+	 */
+	public List<String> getOrder() {
+		List<String> names = new ArrayList<String>();
+		for (Pass pass : order) names.add(pass.name);
+		return names;
+	}
+	
+	/**
+	 * @return the number of passes culled, since their results aren't used
+	 */
+	public int getCulledPassCount() {
+		return culledPasses;
+	}
+	
+	/**
+	 * @param target the handle of a target
+	 * @return the index of the first pass in {@link #getOrder()} using the target, -1 if it isn't used
+	 */
+	public int getFirstUse(int target) {
+		return targets.get(target).first;
+	}
+	
+	/**
+	 * @param target the handle of a target
+	 * @return the index of the last pass in {@link #getOrder()} using the target, the number of passes for outputs
+	 */
+	public int getLastUse(int target) {
+		return targets.get(target).last;
+	}
+	
+	/**
+	 * @param target the handle of a transient target
+	 * @return the index of the framebuffer the target uses, -1 if it is imported or unused. Targets with the same
+	 * index share a framebuffer.
+	 */
+	public int getFramebufferIndex(int target) {
+		return targets.get(target).slot;
+	}
+	
+	/**
+	 * @return the number of framebuffers the transient targets need
+	 */
+	public int getFramebufferCount() {
+		return slotCount;
+	}
+	
+	/**
+	 * @return the estimated size of the framebuffers of the transient targets in bytes
+	 */
+	public long getTransientMemory() {
+		long bytes = 0;
+		for (int slot = 0; slot < slotCount; slot++) bytes += (long) slotWidths[slot] * slotHeights[slot] * bytesPerPixel(slotFormats[slot]);
+		return bytes;
+	}
+	
+	/**
+	 * @return the estimated size the transient targets would need without sharing framebuffers, in bytes
+	 */
+	public long getUnaliasedMemory() {
+		long bytes = 0;
+		
+		for (Target target : targets) {
+			if (target.slot >= 0) bytes += (long) target.width * target.height * bytesPerPixel(target.internalFormat);
+		}
+		
+		return bytes;
+	}
+	
+	private static int bytesPerPixel(int internalFormat) {
+		switch (internalFormat) {
+		case GL_RGBA16F_ARB:
+			return 8;
+		case GL_RGBA32F_ARB:
+			return 16;
+		default:
+			return 4;
+		}
+	}
+	
+	/**
+	 * @return the pool the framebuffers of transient targets are taken from
+	 */
+	public RenderTargetPool getPool() {
+		return pool;
+	}
+	
+	private static class Target {
+		private final String name;
+		private final int width, height, internalFormat;
+		private final FrameBuffer imported;
+		private boolean output;
+		private int first, last, slot = -1;
+		
+		private Target(String name, int width, int height, int internalFormat, FrameBuffer imported) {
+			this.name = name;
+			this.width = width;
+			this.height = height;
+			this.internalFormat = internalFormat;
+			this.imported = imported;
+		}
+	}
+	
+	/**
+	 * A pass of a {@link RenderGraph}, declaring what it reads and writes.
+	 */
+	public class Pass {
+		private final String name;
+		private final int index;
+		private int[] inputs = new int[0];
+		private int output = -1;
+		private ComplexSequence execution;
+		private boolean live;
+		
+		private Pass(String name, int index) {
+			this.name = name;
+			this.index = index;
+		}
+		
+		/**
+		 * @param target the handle of a target the pass samples
+		 * @return this pass
+		 */
+		public Pass read(int target) {
+			checkTarget(target);
+			inputs = Arrays.copyOf(inputs, inputs.length + 1);
+			inputs[inputs.length - 1] = target;
+			
+			compiled = false;
+			return this;
+		}
+		
+		/**
+		 * Sets the target the pass renders into. A pass without a target is never culled.
+		 * @param target the handle of the target, e.g. {@link RenderGraph#DISPLAY}
+		 * @return this pass
+		 */
+		public Pass write(int target) {
+			checkTarget(target);
+			if (output >= 0) throw new IllegalStateException("The pass \"" + name + "\" already writes a target.");
+			
+			output = target;
+			compiled = false;
+			return this;
+		}
+		
+		/**
+		 * @param execution the rendering commands of the pass
+		 * @return this pass
+		 */
+		public Pass execute(ComplexSequence execution) {
+			this.execution = execution;
+			return this;
+		}
+		
+		private void checkTarget(int target) {
+			if (target < 0 || target >= targets.size()) throw new IllegalArgumentException("Unknown target " + target + ".");
+		}
+		
+		public String getName() {
+			return name;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package at.erdlof.shadertools.shaders;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps released {@link FrameBuffer framebuffers} for reuse, so passes rendering into temporary targets
+ * don't create a new FBO and texture every frame.
+ * <p>
+ * Targets are matched by size and internal format. Free targets exceeding the capacity are deleted, least recently
+ * released first, so targets of an old display size drop out after a resize. Example:
+ * <p><code>
+ * FrameBuffer target = pool.acquire(width, height, GL_RGBA8);<br>
+ * <span style="color: gray; font-style: italic">-- Render to target, use its texture --</span><br>
+ * pool.release(target);</code>
+ * @author Florian Bhrle
+ */
+public class RenderTargetPool {
+	private final int capacity;
+	//Ordered from least to most recently released
+	private final List<FrameBuffer> free = new ArrayList<FrameBuffer>();
+	private int acquired;
+	
+	private long allocations, reuses, evictions;
+	
+	/**
+	 * @param capacity the maximum number of free targets kept for reuse
+	 */
+	public RenderTargetPool(int capacity) {
+		if (capacity < 0) throw new IllegalArgumentException("The capacity must not be negative.");
+		
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Returns a free target of the given size and format, or creates one if there is none.
+	 * The content of a reused target is undefined until it is {@link FrameBuffer#bind() bound}.
+	 * @param internalFormat the format of the texture, e.g. GL_RGBA8
+	 * @return the target, to be handed back with {@link #release(FrameBuffer)}
+	 * @throws RuntimeException If the system doesn't support FBOs.
+	 */
+	public FrameBuffer acquire(int width, int height, int internalFormat) {
+		acquired++;
+		
+		//Prefer the most recently released target, its memory is most likely still resident
+		for (int i = free.size() - 1; i >= 0; i--) {
+			FrameBuffer target = free.get(i);
+			
+			if (target.getWidth() == width && target.getHeight() == height && target.getInternalFormat() == internalFormat) {
+				free.remove(i);
+				reuses++;
+				return target;
+			}
+		}
+		
+		allocations++;
+		return new FrameBuffer(width, height, internalFormat, null);
+	}
+	
+	/**
+	 * Hands a target back to the pool. The target must not be used afterwards.
+	 * @param target a target returned by {@link #acquire(int, int, int) acquire}
+	 */
+	public void release(FrameBuffer target) {
+		acquired--;
+		free.add(target);
+		
+		while (free.size() > capacity) {
+			free.remove(0).release();
+			evictions++;
+		}
+	}
+	
+	/**
+	 * Deletes all free targets. Acquired targets aren't affected.
+	 */
+	public void clear() {
+		for (FrameBuffer target : free) target.release();
+		free.clear();
+	}
+	
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * @return the number of targets waiting for reuse
+	 */
+	public int getFreeCount() {
+		return free.size();
+	}
+	
+	/**
+	 * @return the number of targets acquired and not yet released
+	 */
+	public int getAcquiredCount() {
+		return acquired;
+	}
+	
+	/**
+	 * @return the number of targets that have been created
+	 */
+	public long getAllocations() {
+		return allocations;
+	}
+	
+	/**
+	 * @return the number of acquisitions served by a free target
+	 */
+	public long getReuses() {
+		return reuses;
+	}
+	
+	/**
+	 * @return the number of free targets deleted because the pool was full
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+	
+	public void resetStatistics() {
+		allocations = 0;
+		reuses = 0;
+		evictions = 0;
+	}
+}
@@ -2,45 +2,78 @@ package at.erdlof.shadertools.shaders;
 
 import static org.lwjgl.opengl.ARBShaderObjects.GL_OBJECT_COMPILE_STATUS_ARB;
 import static org.lwjgl.opengl.ARBShaderObjects.GL_OBJECT_INFO_LOG_LENGTH_ARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glDeleteObjectARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glGetInfoLogARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glGetObjectParameteriARB;
 import static org.lwjgl.opengl.GL11.GL_FALSE;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import at.erdlof.shadertools.gl.GLBackend;
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.GLResources;
 
 /**
  * @author Florian Bhrle
  */
-public abstract class Shader implements Validable {
+public abstract class Shader implements Validable, AutoCloseable {
+	private final GLBackend gl;
 	private final String programCode;
 	private int shaderID;
+	private GLResources.Resource resource;
 	private boolean valid;
+	private boolean pending;
+	private ShaderRegistry registry;
+	private SourceMap sourceMap;
 	
 	public Shader(String programCode) {
+		this.gl = GLBackends.current();
 		this.programCode = programCode;
 		this.valid = false;
 	}
 	
 	/**
-	 * Gets shader code, either vertex or fragment, from a file.
+	 * @param source preprocessed code, compile errors are reported with the files and lines it comes from
+	 */
+	public Shader(ShaderSource source) {
+		this(source.getCode());
+		this.sourceMap = source.getSourceMap();
+	}
+	
+	/**
+	 * Gets shader code, either vertex or fragment, from a file. The file is read in one piece and decoded as UTF-8,
+	 * every line ends with "\n". See {@link ShaderLoader} for loading files off the GL thread.
 	 * @param fileLocation The location of the shader code file
 	 * @return Shader code
 	 * @throws IOException
 	 */
 	public static String codeFromFile(String fileLocation) throws IOException {
-		StringBuilder builder = new StringBuilder();
-		String line;
-		
-		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileLocation)));
+		return decode(Files.readAllBytes(Paths.get(fileLocation)));
+	}
+	
+	/**
+	 * Decodes shader code and normalizes its line endings to "\n", including one after the last line.
+	 * @param bytes the content of a shader file
+	 * @return Shader code
+	 */
+	static String decode(byte[] bytes) {
+		String code = new String(bytes, StandardCharsets.UTF_8);
 		
-		while((line = reader.readLine()) != null) builder.append(line).append("\n");
-		reader.close();
+		if (code.indexOf('\r') >= 0) code = code.replace("\r\n", "\n").replace('\r', '\n');
+		if (!code.isEmpty() && code.charAt(code.length() - 1) != '\n') code += "\n";
 		
-		return builder.toString();
+		return code;
+	}
+	
+	/**
+	 * Creates the shader object, passes the code and compiles it. Used by the constructors of the subclasses.
+	 * @param shaderType the type of the shader object, e.g. GL_VERTEX_SHADER_ARB
+	 */
+	protected void compile(int shaderType) {
+		setShaderID(gl.glCreateShaderObjectARB(shaderType));
+		resource = GLResources.of(gl).track(this, GLResources.Type.SHADER, getShaderID());
+		gl.glShaderSourceARB(getShaderID(), getProgramCode());
+		gl.glCompileShaderARB(getShaderID());
 	}
 	
 	/**
@@ -48,26 +81,65 @@ public abstract class Shader implements Validable {
 	 * @throws InvalidShaderException if the shader is invalid
 	 */
 	protected void validate() {
-		if(glGetObjectParameteriARB(getShaderID(), GL_OBJECT_COMPILE_STATUS_ARB) == GL_FALSE) {
-			throw new InvalidShaderException("Error while validating shader: " + getLog());
+		pending = false;
+		
+		if(gl.glGetObjectParameteriARB(getShaderID(), GL_OBJECT_COMPILE_STATUS_ARB) == GL_FALSE) {
+			String log = getLog();
+			throw new InvalidShaderException("Error while validating shader: " + (sourceMap != null ? sourceMap.remap(log) : log));
 		}
 		
 		this.valid = true;
 	}
 	
+	/**
+	 * Validates the shader and releases it if it is invalid, so a constructor failing to compile leaves no shader
+	 * object behind. Used by the constructors of the subclasses.
+	 * @throws InvalidShaderException if the shader is invalid
+	 */
+	protected void validateOrRelease() {
+		try {
+			validate();
+		} catch (InvalidShaderException e) {
+			releaseShader();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Leaves the compile status unchecked until the shader is {@link #isValid() needed}, so the driver can compile
+	 * in the background. Used instead of {@link #validate()} by shaders of a {@link ShaderBatch}.
+	 */
+	void deferValidation() {
+		pending = true;
+	}
+	
+	/**
+	 * @return true if the compile status hasn't been checked yet
+	 */
+	public boolean isPending() {
+		return pending;
+	}
+	
 	/**
 	 * Gets the current state of the shader. This can be useful for debugging shaders.
 	 * @return the log
 	 */
 	public String getLog() {
 		if(shaderID == 0) return "";
-		return glGetInfoLogARB(shaderID, glGetObjectParameteriARB(shaderID, GL_OBJECT_INFO_LOG_LENGTH_ARB));
+		return gl.glGetInfoLogARB(shaderID, gl.glGetObjectParameteriARB(shaderID, GL_OBJECT_INFO_LOG_LENGTH_ARB));
 	}
 	
 	public String getProgramCode() {
 		return programCode;
 	}
 	
+	/**
+	 * @return the map to the files the code comes from, null if the shader hasn't been created from a {@link ShaderSource}
+	 */
+	public SourceMap getSourceMap() {
+		return sourceMap;
+	}
+	
 	public int getShaderID() {
 		return shaderID;
 	}
@@ -76,29 +148,62 @@ public abstract class Shader implements Validable {
 		this.shaderID = shaderID;
 	}
 	
-	@Override
-	public void finalize() throws Throwable {
-		releaseShader();
-		super.finalize();
+	/**
+	 * @return the backend this shader has been created with
+	 */
+	protected GLBackend getBackend() {
+		return gl;
+	}
+	
+	/**
+	 * @param registry the registry sharing this shader, null if it isn't shared
+	 */
+	void setRegistry(ShaderRegistry registry) {
+		this.registry = registry;
 	}
 	
 	/**
 	 * Returns the validation state of the shader. A shader that has been created without an exception is always valid.
 	 * However, if the shader is {@link #releaseShader() released}, the validation state is permanently set to false.
 	 * This will make the shader useless.
+	 * <p>
+	 * The compile status of a {@link #isPending() pending} shader is checked first, which waits for the driver.
 	 * @return true if the shader is valid, false otherwise
 	 */
 	@Override
 	public boolean isValid() {
+		if (pending) {
+			try {
+				validate();
+			} catch (InvalidShaderException e) {
+				return false;
+			}
+		}
+		
 		return valid;
 	}
 	
 	/**
 	 * Releases all resources taken by this shader component. DO NOT use this before releasing your shader program!
-	 * This method is automatically invoked by the releaseAll() method of ShaderProgram as well as the {@link #finalize() finalize()} method of this class.
+	 * This method is automatically invoked by the releaseAll() method of ShaderProgram.
+	 * A shader that is garbage collected without being released is deleted by {@link GLResources#processDeletions()}.
+	 * <p>
+	 * A shader from a {@link ShaderRegistry} is shared, so this only drops one reference. The resources are released
+	 * with the last reference.
 	 */
 	public void releaseShader() {
-		glDeleteObjectARB(shaderID);
+		if (registry != null && !registry.release(this)) return;
+		
+		if (resource != null) resource.delete();
 		this.valid = false;
+		this.pending = false;
+	}
+	
+	/**
+	 * Same as {@link #releaseShader()}, for try-with-resources.
+	 */
+	@Override
+	public void close() {
+		releaseShader();
 	}
 }
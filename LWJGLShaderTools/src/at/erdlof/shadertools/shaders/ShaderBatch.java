@@ -0,0 +1,125 @@
+package at.erdlof.shadertools.shaders;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compiles and links many programs without waiting for the driver after every shader. Checking the compile or link
+ * status right away stalls until the driver is done, so all shaders are compiled and all programs linked first, and the
+ * status is checked at the end. Drivers compiling in the background (KHR_parallel_shader_compile, and many drivers
+ * without it) can work on all of them at once. Example:
+ * <p><code>
+ * ShaderBatch batch = new ShaderBatch();<br>
+ * ShaderProgram blur = batch.program(blurVertexCode, blurFragmentCode);<br>
+ * ShaderProgram bloom = batch.program(blurVertexCode, bloomFragmentCode);<br>
+ * <span style="color: gray; font-style: italic">-- Either poll once per frame: --</span><br>
+ * if (batch.isReady()) ...<br>
+ * <span style="color: gray; font-style: italic">-- Or wait: --</span><br>
+ * batch.finish();</code>
+ * <p>
+ * A program of the batch may be used before the batch is finished, its status is checked when it is bound.
+ * @author Florian Bhrle
+ */
+public class ShaderBatch {
+	private final List<Shader> shaders = new ArrayList<Shader>();
+	private final List<ShaderProgram> programs = new ArrayList<ShaderProgram>();
+	private int ready;
+	
+	/**
+	 * Compiles a vertex shader without checking its compile status.
+	 * @param code the code of the shader
+	 * @return the shader
+	 */
+	public VertexShader vertexShader(String code) {
+		VertexShader shader = new VertexShader(code, true);
+		shaders.add(shader);
+		return shader;
+	}
+	
+	/**
+	 * Compiles a fragment shader without checking its compile status.
+	 * @param code the code of the shader
+	 * @return the shader
+	 */
+	public FragmentShader fragmentShader(String code) {
+		FragmentShader shader = new FragmentShader(code, true);
+		shaders.add(shader);
+		return shader;
+	}
+	
+	/**
+	 * Links a program without checking its link status.
+	 * @param vertexShader the vertex shader to use, e.g. from {@link #vertexShader(String)}
+	 * @param fragmentShader the fragment shader to use, e.g. from {@link #fragmentShader(String)}
+	 * @return the program
+	 */
+	public ShaderProgram program(VertexShader vertexShader, FragmentShader fragmentShader) {
+		ShaderProgram program = new ShaderProgram(vertexShader, fragmentShader, false, true);
+		programs.add(program);
+		return program;
+	}
+	
+	/**
+	 * Compiles both shaders and links a program without checking any status.
+	 * @param vertexCode the code of the vertex shader
+	 * @param fragmentCode the code of the fragment shader
+	 * @return the program
+	 */
+	public ShaderProgram program(String vertexCode, String fragmentCode) {
+		return program(vertexShader(vertexCode), fragmentShader(fragmentCode));
+	}
+	
+	/**
+	 * Checks if all programs can be used without waiting for the driver, see {@link ShaderProgram#isReady()}.
+	 * Programs that turned out to be invalid count as ready, {@link #finish()} reports them.
+	 * @return true if the driver is done with all programs
+	 */
+	public boolean isReady() {
+		//Programs are finished in order, the ones before ready don't have to be asked again
+		while (ready < programs.size()) {
+			ShaderProgram program = programs.get(ready);
+			//isReady() is false for invalid programs as well, but those aren't pending anymore
+			if (!program.isReady() && program.isPending()) return false;
+			ready++;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Checks the status of all shaders and programs, waiting for the driver if necessary.
+	 * @throws InvalidProgramException if a shader or program is invalid, with the logs of all of them
+	 */
+	public void finish() {
+		StringBuilder errors = new StringBuilder();
+		int failed = 0;
+		
+		for (Shader shader : shaders) {
+			if (shader.isValid()) continue;
+			
+			String log = shader.getLog();
+			failed++;
+			errors.append('\n').append(shader.getSourceMap() != null ? shader.getSourceMap().remap(log) : log);
+		}
+		
+		for (ShaderProgram program : programs) {
+			//Programs with an invalid shader have been reported with the shader
+			if (program.isValid() || !program.getVertexShader().isValid() || !program.getFragmentShader().isValid()) continue;
+			
+			failed++;
+			errors.append('\n').append(program.getLog());
+		}
+		
+		ready = programs.size();
+		
+		if (failed > 0) throw new InvalidProgramException(failed + " shaders or programs of the batch are invalid:" + errors);
+	}
+	
+	/**
+	 * @return the programs of the batch, in the order they have been created
+	 */
+	public List<ShaderProgram> getPrograms() {
+		return Collections.unmodifiableList(programs);
+	}
+}
@@ -0,0 +1,198 @@
+package at.erdlof.shadertools.shaders;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Loads shaders without blocking the GL thread on disk I/O. Files are read and decoded in parallel by worker threads,
+ * the finished code is queued and compiled when the GL thread calls {@link #processPending()}, e.g. once per frame.
+ * While the GL thread compiles one shader, the workers already read the next ones. Example:
+ * <p><code>
+ * ShaderLoader loader = new ShaderLoader(4);<br>
+ * CompletableFuture&lt;ShaderProgram&gt; blur = loader.loadProgram(blurVertexFile, blurFragmentFile);<br>
+ * <span style="color: gray; font-style: italic">-- Every frame: --</span><br>
+ * loader.processPending();</code>
+ * <p>
+ * The futures of shaders and programs are completed on the GL thread, so actions chained to them may call GL.
+ * A file that can't be read completes the future with an {@link UncheckedIOException}, invalid code with an
+ * {@link InvalidShaderException} or {@link InvalidProgramException}.
+ * @author Florian Bhrle
+ */
+public class ShaderLoader {
+	private final ExecutorService workers;
+	private final boolean ownsWorkers;
+	private final ShaderRegistry registry;
+	private final Queue<Runnable> pending = new ConcurrentLinkedQueue<Runnable>();
+	
+	/**
+	 * Creates a loader with its own pool of daemon worker threads.
+	 * @param threads the number of files read at once
+	 */
+	public ShaderLoader(int threads) {
+		this(Executors.newFixedThreadPool(threads, new WorkerFactory()), true, null);
+	}
+	
+	/**
+	 * @param workers the executor reading the files
+	 * @param registry the registry compiling the shaders, null to compile every shader on its own
+	 */
+	public ShaderLoader(ExecutorService workers, ShaderRegistry registry) {
+		this(workers, false, registry);
+	}
+	
+	private ShaderLoader(ExecutorService workers, boolean ownsWorkers, ShaderRegistry registry) {
+		this.workers = workers;
+		this.ownsWorkers = ownsWorkers;
+		this.registry = registry;
+	}
+	
+	/**
+	 * Reads shader code on a worker thread, like {@link Shader#codeFromFile(String)} does.
+	 * @param file the shader file
+	 * @return the future code, completed on a worker thread
+	 */
+	public CompletableFuture<String> read(final Path file) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return Shader.decode(Files.readAllBytes(file));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, workers);
+	}
+	
+	/**
+	 * @param file the file of the vertex shader
+	 * @return the future shader, compiled by {@link #processPending()}
+	 */
+	public CompletableFuture<VertexShader> loadVertexShader(Path file) {
+		return onGLThread(read(file), code -> registry != null ? registry.vertexShader(code) : new VertexShader(code));
+	}
+	
+	/**
+	 * @param file the file of the fragment shader
+	 * @return the future shader, compiled by {@link #processPending()}
+	 */
+	public CompletableFuture<FragmentShader> loadFragmentShader(Path file) {
+		return onGLThread(read(file), code -> registry != null ? registry.fragmentShader(code) : new FragmentShader(code));
+	}
+	
+	/**
+	 * Reads both files in parallel and links the program once both have been read.
+	 * @param vertexFile the file of the vertex shader
+	 * @param fragmentFile the file of the fragment shader
+	 * @return the future program, compiled and linked by {@link #processPending()}
+	 */
+	public CompletableFuture<ShaderProgram> loadProgram(Path vertexFile, Path fragmentFile) {
+		CompletableFuture<String[]> codes = read(vertexFile).thenCombine(read(fragmentFile), (vertexCode, fragmentCode) -> new String[] {vertexCode, fragmentCode});
+		
+		return onGLThread(codes, code -> registry != null ? registry.program(code[0], code[1]) : link(code[0], code[1]));
+	}
+	
+	private static ShaderProgram link(String vertexCode, String fragmentCode) {
+		VertexShader vertexShader = new VertexShader(vertexCode);
+		FragmentShader fragmentShader;
+		
+		try {
+			fragmentShader = new FragmentShader(fragmentCode);
+		} catch (InvalidShaderException e) {
+			vertexShader.releaseShader();
+			throw e;
+		}
+		
+		try {
+			return new ShaderProgram(vertexShader, fragmentShader);
+		} catch (InvalidProgramException e) {
+			vertexShader.releaseShader();
+			fragmentShader.releaseShader();
+			throw e;
+		}
+	}
+	
+	private <T, R> CompletableFuture<R> onGLThread(CompletableFuture<T> source, final Function<T, R> task) {
+		final CompletableFuture<R> result = new CompletableFuture<R>();
+		
+		source.whenComplete((value, error) -> {
+			if (error != null) {
+				result.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+				return;
+			}
+			
+			pending.add(() -> {
+				try {
+					result.complete(task.apply(value));
+				} catch (RuntimeException e) {
+					result.completeExceptionally(e);
+				}
+			});
+		});
+		
+		return result;
+	}
+	
+	/**
+	 * Compiles all shaders whose code has been read. Has to be called on the GL thread.
+	 * @return the number of shaders and programs completed
+	 */
+	public int processPending() {
+		return processPending(Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Compiles shaders whose code has been read until the time budget is used up, so loading in the background
+	 * doesn't cause long frames. At least one shader or program is completed if any is pending.
+	 * Has to be called on the GL thread.
+	 * @param budgetNanos the time budget in nanoseconds
+	 * @return the number of shaders and programs completed
+	 */
+	public int processPending(long budgetNanos) {
+		long start = System.nanoTime();
+		int completed = 0;
+		Runnable task;
+		
+		while ((task = pending.poll()) != null) {
+			task.run();
+			completed++;
+			
+			if (System.nanoTime() - start >= budgetNanos) break;
+		}
+		
+		return completed;
+	}
+	
+	/**
+	 * @return true if code has been read and waits for {@link #processPending()}
+	 */
+	public boolean hasPending() {
+		return !pending.isEmpty();
+	}
+	
+	/**
+	 * Stops the worker threads if the loader has created them. Pending shaders can still be processed.
+	 */
+	public void shutdown() {
+		if (ownsWorkers) workers.shutdown();
+	}
+	
+	private static class WorkerFactory implements ThreadFactory {
+		private static final AtomicInteger count = new AtomicInteger();
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "ShaderLoader-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,481 @@
+package at.erdlof.shadertools.shaders;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.erdlof.shadertools.util.LongIntMap;
+import at.erdlof.shadertools.util.RadixSort;
+
+/**
+ * Keeps the variants of a shader that are selected by feature flags, e.g. the permutations of a material with or
+ * without shadows, fog or normal mapping. Every variant is identified by a bitset of up to 64 features and is only
+ * compiled when it is first needed. Example:
+ * <p><code>
+ * ShaderPermutations lit = new ShaderPermutations(vertexCode, fragmentCode, 32, "SHADOWS", "FOG", "NORMAL_MAP");<br>
+ * lit.loadUsage(usageFile);<br>
+ * lit.queuePrewarm(lit.getHotSet(32));<br>
+ * <span style="color: gray; font-style: italic">-- Every frame: --</span><br>
+ * lit.prewarmSlice(2000000); <span style="color: gray; font-style: italic">// At most 2 ms</span><br>
+ * lit.get(lit.flags("SHADOWS", "FOG")).bind();<br>
+ * <span style="color: gray; font-style: italic">-- On exit: --</span><br>
+ * lit.saveUsage(usageFile);</code>
+ * <p>
+ * The linked programs are held in a least recently used cache of a fixed capacity. When it is full, the program used
+ * longest ago is deleted by {@link ShaderProgram#releaseProgram()}, so a program returned by {@link #get(long)}
+ * should be fetched again instead of being kept. The compiled shaders are kept, so a variant that comes back only has
+ * to be linked. Shaders with the same code are shared by all variants, e.g. a vertex shader that a {@link Generator}
+ * leaves alone.
+ * <p>
+ * A variant that isn't cached when it is requested has to be compiled and linked right away, which makes the frame
+ * hitch. To avoid that, every request is counted in a usage log, which can be saved and loaded by the next launch to
+ * {@link #queuePrewarm(long...) prewarm} the variants that have been used most. Prewarming compiles and links a few
+ * variants per frame without waiting for the driver, which can work on them in the background
+ * (KHR_parallel_shader_compile); their status is checked when they are bound. Like all GL work, it has to be done on
+ * the GL thread.
+ * @author Florian Bhrle
+ */
+public class ShaderPermutations {
+	/**
+	 * Generates the code of a variant.
+	 */
+	public static interface Generator {
+		public String vertexCode(long features);
+		
+		public String fragmentCode(long features);
+	}
+	
+	/**
+	 * The most features a shader can have.
+	 */
+	public static final int MAX_FEATURES = 64;
+	
+	private final Generator generator;
+	private final String[] features;
+	private final int capacity;
+	
+	//The cache is a list of slots from the newest to the oldest use
+	private final LongIntMap slots;
+	private final long[] slotFeatures;
+	private final ShaderProgram[] slotPrograms;
+	private final int[] newer, older;
+	private int newest = -1, oldest = -1, count;
+	
+	private final Map<String, VertexShader> vertexShaders = new HashMap<String, VertexShader>();
+	private final Map<String, FragmentShader> fragmentShaders = new HashMap<String, FragmentShader>();
+	
+	private final LongIntMap usage = new LongIntMap(0);
+	private long[] prewarmQueue = new long[16];
+	private int prewarmStart, prewarmEnd;
+	
+	private long hits, hitches, compiles, evictions, prewarmed;
+	
+	/**
+	 * Creates variants by defining the names of the features they have, right after the <code>#version</code> directive.
+	 * @param vertexCode the code of the vertex shader
+	 * @param fragmentCode the code of the fragment shader
+	 * @param capacity the number of programs to keep linked
+	 * @param features the names of the features, the first one is bit 0
+	 */
+	public ShaderPermutations(final String vertexCode, final String fragmentCode, int capacity, final String... features) {
+		this(new Generator() {
+			@Override
+			public String vertexCode(long flags) {
+				return define(vertexCode, features, flags);
+			}
+			
+			@Override
+			public String fragmentCode(long flags) {
+				return define(fragmentCode, features, flags);
+			}
+		}, capacity, features);
+	}
+	
+	/**
+	 * @param generator generates the code of the variants, e.g. through a {@link ShaderPreprocessor}
+	 * @param capacity the number of programs to keep linked
+	 */
+	public ShaderPermutations(Generator generator, int capacity) {
+		this(generator, capacity, new String[0]);
+	}
+	
+	private ShaderPermutations(Generator generator, int capacity, String[] features) {
+		if (capacity < 1) throw new IllegalArgumentException("The cache needs room for at least one program.");
+		if (features.length > MAX_FEATURES) throw new IllegalArgumentException("A shader can't have more than " + MAX_FEATURES + " features.");
+		
+		this.generator = generator;
+		this.features = features;
+		this.capacity = capacity;
+		
+		slots = new LongIntMap(-1, capacity);
+		slotFeatures = new long[capacity];
+		slotPrograms = new ShaderProgram[capacity];
+		newer = new int[capacity];
+		older = new int[capacity];
+	}
+	
+	/**
+	 * Defines the names of the features set in the flags, right after the <code>#version</code> directive.
+	 */
+	private static String define(String code, String[] features, long flags) {
+		StringBuilder defines = new StringBuilder();
+		
+		for (int i = 0; i < features.length; i++) {
+			if ((flags & 1L << i) != 0) defines.append("#define ").append(features[i]).append('\n');
+		}
+		
+		if (defines.length() == 0) return code;
+		
+		int insert = 0;
+		
+		if (code.startsWith("#version")) {
+			int lineEnd = code.indexOf('\n');
+			insert = lineEnd != -1 ? lineEnd + 1 : code.length();
+			if (lineEnd == -1) defines.insert(0, '\n');
+		}
+		
+		return new StringBuilder(code.length() + defines.length()).append(code, 0, insert).append(defines).append(code, insert, code.length()).toString();
+	}
+	
+	/**
+	 * @param names the names of features passed to the constructor
+	 * @return the flags of the features
+	 * @throws IllegalArgumentException if a name isn't a feature
+	 */
+	public long flags(String... names) {
+		long flags = 0;
+		
+		outer:
+		for (String name : names) {
+			for (int i = 0; i < features.length; i++) {
+				if (features[i].equals(name)) {
+					flags |= 1L << i;
+					continue outer;
+				}
+			}
+			
+			throw new IllegalArgumentException("Unknown feature: " + name);
+		}
+		
+		return flags;
+	}
+	
+	/**
+	 * Gets the program of a variant, compiling and linking it if it isn't cached. The request is counted in the usage log.
+	 * @param flags the features of the variant
+	 * @return the program, which stays valid until it is evicted by later requests
+	 * @throws InvalidShaderException if a shader of the variant is invalid
+	 * @throws InvalidProgramException if the variant can't be linked
+	 */
+	public ShaderProgram get(long flags) {
+		usage.put(flags, usage.get(flags) + 1);
+		
+		int slot = slots.get(flags);
+		
+		if (slot != -1) {
+			hits++;
+			touch(slot);
+			return slotPrograms[slot];
+		}
+		
+		hitches++;
+		ShaderProgram program = link(flags, false);
+		insert(flags, program);
+		return program;
+	}
+	
+	private ShaderProgram link(long flags, boolean deferred) {
+		String vertexCode = generator.vertexCode(flags);
+		String fragmentCode = generator.fragmentCode(flags);
+		
+		VertexShader vertexShader = vertexShaders.get(vertexCode);
+		
+		if (vertexShader == null) {
+			vertexShader = new VertexShader(vertexCode, deferred);
+			vertexShaders.put(vertexCode, vertexShader);
+		}
+		
+		FragmentShader fragmentShader = fragmentShaders.get(fragmentCode);
+		
+		if (fragmentShader == null) {
+			fragmentShader = new FragmentShader(fragmentCode, deferred);
+			fragmentShaders.put(fragmentCode, fragmentShader);
+		}
+		
+		ShaderProgram program = new ShaderProgram(vertexShader, fragmentShader, false, deferred);
+		program.setName(getName(flags));
+		compiles++;
+		return program;
+	}
+	
+	private void insert(long flags, ShaderProgram program) {
+		int slot;
+		
+		if (count == capacity) {
+			slot = oldest;
+			unlink(slot);
+			slots.remove(slotFeatures[slot]);
+			slotPrograms[slot].releaseProgram();
+			evictions++;
+		} else {
+			slot = count++;
+		}
+		
+		slotFeatures[slot] = flags;
+		slotPrograms[slot] = program;
+		slots.put(flags, slot);
+		linkNewest(slot);
+	}
+	
+	private void touch(int slot) {
+		if (slot == newest) return;
+		
+		unlink(slot);
+		linkNewest(slot);
+	}
+	
+	private void unlink(int slot) {
+		if (newer[slot] != -1) older[newer[slot]] = older[slot];
+		else newest = older[slot];
+		
+		if (older[slot] != -1) newer[older[slot]] = newer[slot];
+		else oldest = newer[slot];
+	}
+	
+	private void linkNewest(int slot) {
+		newer[slot] = -1;
+		older[slot] = newest;
+		
+		if (newest != -1) newer[newest] = slot;
+		else oldest = slot;
+		
+		newest = slot;
+	}
+	
+	/**
+	 * Queues variants to be compiled by {@link #prewarmSlice(long)}, e.g. the {@link #getHotSet(int) hot set} of the
+	 * last launch. Variants are only prewarmed while the cache has room, so prewarming never evicts a program.
+	 * @param flags the features of the variants, the most important first
+	 */
+	public void queuePrewarm(long... flags) {
+		if (prewarmEnd + flags.length > prewarmQueue.length) {
+			//Drops the part that has been prewarmed already
+			int queued = prewarmEnd - prewarmStart;
+			long[] queue = queued + flags.length > prewarmQueue.length ? new long[Math.max(prewarmQueue.length * 2, queued + flags.length)] : prewarmQueue;
+			System.arraycopy(prewarmQueue, prewarmStart, queue, 0, queued);
+			prewarmQueue = queue;
+			prewarmStart = 0;
+			prewarmEnd = queued;
+		}
+		
+		System.arraycopy(flags, 0, prewarmQueue, prewarmEnd, flags.length);
+		prewarmEnd += flags.length;
+	}
+	
+	/**
+	 * Compiles and links queued variants without waiting for the driver, until the time budget is spent. At least one
+	 * variant is started per call, so prewarming makes progress with any budget. Meant to be called once per frame.
+	 * @param budgetNanos the time the call may take, in nanoseconds
+	 * @return the number of variants started
+	 */
+	public int prewarmSlice(long budgetNanos) {
+		long start = System.nanoTime();
+		int started = 0;
+		
+		while (prewarmStart < prewarmEnd) {
+			if (started > 0 && System.nanoTime() - start >= budgetNanos) break;
+			
+			long flags = prewarmQueue[prewarmStart++];
+			if (slots.containsKey(flags)) continue;
+			
+			if (count == capacity) {
+				prewarmStart = prewarmEnd;
+				break;
+			}
+			
+			insert(flags, link(flags, true));
+			prewarmed++;
+			started++;
+		}
+		
+		return started;
+	}
+	
+	/**
+	 * @return the number of variants waiting to be prewarmed
+	 */
+	public int getPrewarmQueueSize() {
+		return prewarmEnd - prewarmStart;
+	}
+	
+	/**
+	 * @param max the most variants to return
+	 * @return the features of the variants requested most often, the most often first
+	 */
+	public long[] getHotSet(int max) {
+		long[] used = usage.keys();
+		long[] keys = new long[used.length];
+		int[] indices = new int[used.length];
+		
+		//Ascending order of the inverted counts is descending order of the counts
+		for (int i = 0; i < used.length; i++) {
+			keys[i] = Integer.MAX_VALUE - usage.get(used[i]);
+			indices[i] = i;
+		}
+		
+		new RadixSort().sort(keys, indices, used.length);
+		
+		long[] hotSet = new long[Math.min(max, used.length)];
+		for (int i = 0; i < hotSet.length; i++) hotSet[i] = used[indices[i]];
+		return hotSet;
+	}
+	
+	/**
+	 * Saves the usage log, one variant per line with its features and the number of requests, in hexadecimal and decimal.
+	 * @param file the file to write
+	 * @throws IOException if the file can't be written
+	 */
+	public void saveUsage(Path file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		for (long flags : getHotSet(usage.size())) lines.add(Long.toHexString(flags) + " " + usage.get(flags));
+		
+		Files.write(file, lines, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Adds the usage log of an earlier launch to the one of this launch. Malformed lines are skipped.
+	 * @param file the file written by {@link #saveUsage(Path)}
+	 * @return the number of variants read, 0 if the file doesn't exist
+	 * @throws IOException if the file can't be read
+	 */
+	public int loadUsage(Path file) throws IOException {
+		if (!Files.isRegularFile(file)) return 0;
+		
+		int read = 0;
+		
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			String[] parts = line.trim().split(" ");
+			if (parts.length != 2) continue;
+			
+			try {
+				long flags = Long.parseUnsignedLong(parts[0], 16);
+				int requests = Integer.parseInt(parts[1]);
+				if (requests < 0) continue;
+				
+				usage.put(flags, (int) Math.min(Integer.MAX_VALUE, (long) usage.get(flags) + requests));
+				read++;
+			} catch (NumberFormatException e) {
+				//Skipped like any other malformed line
+			}
+		}
+		
+		return read;
+	}
+	
+	/**
+	 * @param flags the features of a variant
+	 * @return the names of the features joined by '+', or the flags in hexadecimal if the features have no names
+	 */
+	public String getName(long flags) {
+		if (features.length == 0) return "permutation 0x" + Long.toHexString(flags);
+		
+		StringBuilder name = new StringBuilder("permutation ");
+		int length = name.length();
+		
+		for (int i = 0; i < features.length; i++) {
+			if ((flags & 1L << i) == 0) continue;
+			
+			if (name.length() > length) name.append('+');
+			name.append(features[i]);
+		}
+		
+		if (name.length() == length) name.append("base");
+		return name.toString();
+	}
+	
+	/**
+	 * @param flags the features of a variant
+	 * @return true if the program of the variant is cached
+	 */
+	public boolean contains(long flags) {
+		return slots.containsKey(flags);
+	}
+	
+	/**
+	 * Deletes all programs and shaders. The usage log is kept.
+	 */
+	public void release() {
+		for (int i = 0; i < count; i++) slotPrograms[i].releaseProgram();
+		for (Shader shader : vertexShaders.values()) shader.releaseShader();
+		for (Shader shader : fragmentShaders.values()) shader.releaseShader();
+		
+		Arrays.fill(slotPrograms, null);
+		slots.clear();
+		vertexShaders.clear();
+		fragmentShaders.clear();
+		newest = -1;
+		oldest = -1;
+		count = 0;
+		prewarmStart = prewarmEnd = 0;
+	}
+	
+	/**
+	 * @return the number of programs cached
+	 */
+	public int size() {
+		return count;
+	}
+	
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * @return the number of requests served from the cache
+	 */
+	public long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return the number of requests that had to compile and link right away
+	 */
+	public long getHitches() {
+		return hitches;
+	}
+	
+	/**
+	 * @return the number of programs linked, by requests and by prewarming
+	 */
+	public long getCompiles() {
+		return compiles;
+	}
+	
+	/**
+	 * @return the number of programs deleted to make room for others
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+	
+	/**
+	 * @return the number of programs linked by prewarming
+	 */
+	public long getPrewarmed() {
+		return prewarmed;
+	}
+	
+	public void resetStatistics() {
+		hits = 0;
+		hitches = 0;
+		compiles = 0;
+		evictions = 0;
+		prewarmed = 0;
+	}
+}
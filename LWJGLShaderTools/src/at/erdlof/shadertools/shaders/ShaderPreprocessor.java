@@ -0,0 +1,304 @@
+package at.erdlof.shadertools.shaders;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves <code>#include</code> directives and injects <code>#define</code>s into shader files. Example:
+ * <p><code>
+ * ShaderPreprocessor preprocessor = new ShaderPreprocessor(Paths.get("shaders/include"));<br>
+ * Map&lt;String, String&gt; defines = new LinkedHashMap&lt;&gt;();<br>
+ * defines.put("SHADOWS", "1");<br>
+ * FragmentShader shader = new FragmentShader(preprocessor.process(Paths.get("shaders/lit.frag"), defines));</code>
+ * <p>
+ * <code>#include "file"</code> and <code>#include &lt;file&gt;</code> are resolved relative to the including file first,
+ * then relative to the include directories. Files containing <code>#pragma once</code> are included only once.
+ * The defines are placed right after the <code>#version</code> directive. Directives inside block comments are not
+ * recognized, and conditional directives like <code>#ifdef</code> are left to the compiler.
+ * <p>
+ * Every file is read and parsed once, and the expansion of every file is kept. Creating another permutation of a file
+ * only adds the defines in front of the kept expansion. Call {@link #invalidate(Path)} after a file has changed.
+ * The preprocessor may be used by several threads at once.
+ * @author Florian Bhrle
+ */
+public class ShaderPreprocessor {
+	private static final Pattern INCLUDE = Pattern.compile("^\\s*#\\s*include\\s*[\"<]([^\">]+)[\">]\\s*(?://.*)?$");
+	private static final Pattern PRAGMA_ONCE = Pattern.compile("^\\s*#\\s*pragma\\s+once\\s*(?://.*)?$");
+	private static final Pattern VERSION = Pattern.compile("^\\s*#\\s*version\\b.*$");
+	private static final String DEFINES = "<defines>";
+	
+	private final List<Path> includeDirectories;
+	private final Map<Path, Chunk> chunks = new ConcurrentHashMap<Path, Chunk>();
+	private final Map<Path, Expansion> expansions = new ConcurrentHashMap<Path, Expansion>();
+	
+	private final AtomicLong filesRead = new AtomicLong(), expansionsBuilt = new AtomicLong(), expansionsReused = new AtomicLong();
+	
+	/**
+	 * @param includeDirectories the directories searched for included files
+	 */
+	public ShaderPreprocessor(Path... includeDirectories) {
+		List<Path> directories = new ArrayList<Path>();
+		for (Path directory : includeDirectories) directories.add(directory.toAbsolutePath().normalize());
+		
+		this.includeDirectories = Collections.unmodifiableList(directories);
+	}
+	
+	/**
+	 * @param file the shader file
+	 * @return the code of the file with all includes resolved
+	 * @throws IOException if a file can't be read
+	 * @throws InvalidShaderException if an include can't be found or includes itself
+	 */
+	public ShaderSource process(Path file) throws IOException {
+		return process(file, Collections.<String, String>emptyMap());
+	}
+	
+	/**
+	 * @param file the shader file
+	 * @param defines the names and values of the macros to define, in order. An empty value defines the name only.
+	 * @return the code of the file with all includes resolved and the defines injected
+	 * @throws IOException if a file can't be read
+	 * @throws InvalidShaderException if an include can't be found or includes itself
+	 */
+	public ShaderSource process(Path file, Map<String, String> defines) throws IOException {
+		Expansion expansion = expand(file.toAbsolutePath().normalize());
+		StringBuilder code = new StringBuilder(expansion.body.length() + 64 + defines.size() * 32);
+		SourceMap.Builder map = new SourceMap.Builder();
+		
+		if (expansion.version != null) {
+			code.append(expansion.version).append('\n');
+			map.add(expansion.file, expansion.versionLine, 1);
+		}
+		
+		int line = 1;
+		
+		for (Map.Entry<String, String> define : defines.entrySet()) {
+			code.append("#define ").append(define.getKey());
+			if (!define.getValue().isEmpty()) code.append(' ').append(define.getValue());
+			code.append('\n');
+			map.add(DEFINES, line++, 1);
+		}
+		
+		code.append(expansion.body);
+		map.add(expansion.map);
+		
+		return new ShaderSource(code.toString(), map.build());
+	}
+	
+	private Expansion expand(Path file) throws IOException {
+		Expansion expansion = expansions.get(file);
+		
+		if (expansion != null) {
+			expansionsReused.incrementAndGet();
+			return expansion;
+		}
+		
+		Chunk root = parse(file);
+		StringBuilder body = new StringBuilder();
+		SourceMap.Builder map = new SourceMap.Builder();
+		
+		append(root, body, map, new HashSet<Path>(), new ArrayDeque<Path>());
+		
+		expansion = new Expansion(file.toString(), root.version, root.versionLine, body.toString(), map.build());
+		expansions.put(file, expansion);
+		expansionsBuilt.incrementAndGet();
+		return expansion;
+	}
+	
+	private void append(Chunk chunk, StringBuilder body, SourceMap.Builder map, Set<Path> included, Deque<Path> stack) throws IOException {
+		if (chunk.once && !included.add(chunk.file)) return;
+		
+		if (stack.contains(chunk.file)) {
+			StringBuilder chain = new StringBuilder();
+			for (Path path : stack) chain.insert(0, path + " -> ");
+			throw new InvalidShaderException("Recursive include: " + chain + chunk.file);
+		}
+		
+		stack.push(chunk.file);
+		
+		for (Segment segment : chunk.segments) {
+			if (segment.include != null) {
+				append(parse(segment.include), body, map, included, stack);
+			} else {
+				body.append(segment.text);
+				map.add(chunk.file.toString(), segment.firstLine, segment.lineCount);
+			}
+		}
+		
+		stack.pop();
+	}
+	
+	private Chunk parse(Path file) throws IOException {
+		Chunk chunk = chunks.get(file);
+		if (chunk != null) return chunk;
+		
+		String[] lines = Shader.decode(Files.readAllBytes(file)).split("\n", -1);
+		filesRead.incrementAndGet();
+		
+		//The decoded code ends with a line break, so the last element is empty
+		int lineCount = lines.length - 1;
+		chunk = new Chunk(file);
+		StringBuilder text = new StringBuilder();
+		int firstLine = 1;
+		
+		for (int i = 0; i < lineCount; i++) {
+			String line = lines[i];
+			Matcher include = INCLUDE.matcher(line);
+			
+			if (include.matches()) {
+				chunk.addText(text, firstLine, i + 1 - firstLine);
+				chunk.segments.add(new Segment(resolve(file, include.group(1).trim(), i + 1)));
+				firstLine = i + 2;
+				continue;
+			}
+			
+			if (PRAGMA_ONCE.matcher(line).matches()) {
+				chunk.once = true;
+				line = "";
+			} else if (chunk.version == null && VERSION.matcher(line).matches()) {
+				//Moved in front of the defines, the empty line keeps the line numbers
+				chunk.version = line.trim();
+				chunk.versionLine = i + 1;
+				line = "";
+			}
+			
+			text.append(line).append('\n');
+		}
+		
+		chunk.addText(text, firstLine, lineCount + 1 - firstLine);
+		chunks.put(file, chunk);
+		return chunk;
+	}
+	
+	private Path resolve(Path file, String name, int line) {
+		Path parent = file.getParent();
+		Path candidate = parent != null ? parent.resolve(name).normalize() : null;
+		if (candidate != null && Files.isRegularFile(candidate)) return candidate;
+		
+		for (Path directory : includeDirectories) {
+			candidate = directory.resolve(name).normalize();
+			if (Files.isRegularFile(candidate)) return candidate;
+		}
+		
+		throw new InvalidShaderException(file + ":" + line + ": cannot find included file \"" + name + "\"");
+	}
+	
+	/**
+	 * Drops everything kept about a file, so the next {@link #process(Path, Map) process} reads it again.
+	 * Files including the file are expanded again as well.
+	 * @param file the changed file
+	 */
+	public void invalidate(Path file) {
+		chunks.remove(file.toAbsolutePath().normalize());
+		//Any expansion may contain the file, expanding again only costs string building as long as the chunks are kept
+		expansions.clear();
+	}
+	
+	/**
+	 * Drops everything kept about all files.
+	 */
+	public void clear() {
+		chunks.clear();
+		expansions.clear();
+	}
+	
+	public List<Path> getIncludeDirectories() {
+		return includeDirectories;
+	}
+	
+	/**
+	 * @return the number of files read from disk
+	 */
+	public long getFilesRead() {
+		return filesRead.get();
+	}
+	
+	/**
+	 * @return the number of files expanded
+	 */
+	public long getExpansionsBuilt() {
+		return expansionsBuilt.get();
+	}
+	
+	/**
+	 * @return the number of times a kept expansion has been reused, e.g. for another permutation
+	 */
+	public long getExpansionsReused() {
+		return expansionsReused.get();
+	}
+	
+	public void resetStatistics() {
+		filesRead.set(0);
+		expansionsBuilt.set(0);
+		expansionsReused.set(0);
+	}
+	
+	/**
+	 * A parsed file: pieces of text and includes in between.
+	 */
+	private static class Chunk {
+		private final Path file;
+		private final List<Segment> segments = new ArrayList<Segment>();
+		private boolean once;
+		private String version;
+		private int versionLine;
+		
+		private Chunk(Path file) {
+			this.file = file;
+		}
+		
+		private void addText(StringBuilder text, int firstLine, int lineCount) {
+			if (lineCount > 0) segments.add(new Segment(text.toString(), firstLine, lineCount));
+			text.setLength(0);
+		}
+	}
+	
+	private static class Segment {
+		private final String text;
+		private final int firstLine, lineCount;
+		private final Path include;
+		
+		private Segment(String text, int firstLine, int lineCount) {
+			this.text = text;
+			this.firstLine = firstLine;
+			this.lineCount = lineCount;
+			this.include = null;
+		}
+		
+		private Segment(Path include) {
+			this.text = null;
+			this.firstLine = 0;
+			this.lineCount = 0;
+			this.include = include;
+		}
+	}
+	
+	private static class Expansion {
+		private final String file;
+		private final String version;
+		private final int versionLine;
+		private final String body;
+		private final SourceMap map;
+		
+		private Expansion(String file, String version, int versionLine, String body, SourceMap map) {
+			this.file = file;
+			this.version = version;
+			this.versionLine = versionLine;
+			this.body = body;
+			this.map = map;
+		}
+	}
+}
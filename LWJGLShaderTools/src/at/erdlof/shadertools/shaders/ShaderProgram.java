@@ -1,96 +1,307 @@
 package at.erdlof.shadertools.shaders;
 
-import static org.lwjgl.opengl.ARBShaderObjects.glAttachObjectARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glCreateProgramObjectARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glDeleteObjectARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glDetachObjectARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glGetUniformLocationARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glLinkProgramARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glUniform1fARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glUniform1iARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glUniform2fARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glUniform2iARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glUniform3fARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glUniform3iARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glUniform4fARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glUniform4iARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glUseProgramObjectARB;
-import static org.lwjgl.opengl.ARBVertexShader.glGetAttribLocationARB;
+import static org.lwjgl.opengl.ARBGetProgramBinary.GL_PROGRAM_BINARY_RETRIEVABLE_HINT;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_OBJECT_INFO_LOG_LENGTH_ARB;
+import static org.lwjgl.opengl.ARBShaderObjects.GL_OBJECT_LINK_STATUS_ARB;
+import static org.lwjgl.opengl.GL11.GL_FALSE;
+import static org.lwjgl.opengl.GL11.GL_TRUE;
 
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 
-import org.lwjgl.opengl.ContextCapabilities;
-import org.lwjgl.opengl.GLContext;
+import at.erdlof.shadertools.gl.GLBackend;
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.GLResources;
+import at.erdlof.shadertools.gl.Profiler;
+import at.erdlof.shadertools.gl.StateTracker;
+import at.erdlof.shadertools.util.StringIntMap;
 
 /**
  * @author Florian Bhrle
  */
-public class ShaderProgram implements Validable {
-	private final int shaderProgramID;
-	private final VertexShader vertexShader;
-	private final FragmentShader fragmentShader;
-	private HashMap<String, Integer> registeredUniforms;
+public class ShaderProgram implements Validable, AutoCloseable {
+	private static final byte UNKNOWN = 0, FLOAT1 = 1, FLOAT2 = 2, FLOAT3 = 3, FLOAT4 = 4, INT1 = 5, INT2 = 6, INT3 = 7, INT4 = 8;
+	
+	private final GLBackend gl;
+	private final StateTracker state;
+	private final Profiler profiler;
+	private String name;
+	private int bindSection = -1;
+	//Replaced by relink(), e.g. when the shader files have been changed
+	private int shaderProgramID;
+	private GLResources.Resource resource;
+	private VertexShader vertexShader;
+	private FragmentShader fragmentShader;
+	private final StringIntMap registeredUniforms = new StringIntMap(-1);
+	//-1 is a valid result for attributes, it is cached as well
+	private final StringIntMap attributeLocations = new StringIntMap(Integer.MIN_VALUE, 4);
+	//Null until the link status has been checked
+	private ProgramReflection reflection;
+	//Name -> unit and unit -> uniform handle, the uniforms are set on the next bind when dirty
+	private final StringIntMap samplerUnits = new StringIntMap(-1, 4);
+	private int[] samplerHandles = new int[4];
+	private int samplerCount;
+	private boolean samplersDirty;
+	private int[] uniformLocations;
+	private String[] uniformNames;
+	private int uniformCount;
+	private int[] shadowValues;
+	private byte[] shadowKinds;
+	private long uniformCacheHits, uniformCacheMisses;
+	
+	//Staging buffers for array uploads, shared by all programs since they are only used on the GL thread
+	private static FloatBuffer floatStaging = ByteBuffer.allocateDirect(64 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+	private static IntBuffer intStaging = ByteBuffer.allocateDirect(64 * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
 	private boolean valid;
+	private boolean pending;
 	
 	/**
 	 * @param vertexShader the vertex shader to use
 	 * @param fragmentShader the fragment shader to use
 	 * @throws InvalidShaderException if one or both of the passed shaders are invalid
+	 * @throws InvalidProgramException if the shaders can't be linked
 	 */
 	public ShaderProgram(VertexShader vertexShader, FragmentShader fragmentShader) {
-		if (!vertexShader.isValid() || !fragmentShader.isValid()) {
+		this(vertexShader, fragmentShader, false);
+	}
+	
+	/**
+	 * @param retrievableBinary true to hint the driver that the binary of the program will be retrieved, see {@link ProgramCache}
+	 */
+	ShaderProgram(VertexShader vertexShader, FragmentShader fragmentShader, boolean retrievableBinary) {
+		this(vertexShader, fragmentShader, retrievableBinary, false);
+	}
+	
+	/**
+	 * @param deferred true to link without waiting for the driver, the status is checked by {@link #checkStatus()}.
+	 * The shaders may still be {@link Shader#isPending() pending}.
+	 */
+	ShaderProgram(VertexShader vertexShader, FragmentShader fragmentShader, boolean retrievableBinary, boolean deferred) {
+		//Asking a pending shader for its status would wait for the compiler
+		if (!deferred && (!vertexShader.isValid() || !fragmentShader.isValid())) {
 			throw new InvalidShaderException("One or both of the passed shaders are invalid.");
 		}
 		
-		if (!isSupported()) throw new RuntimeException("Shaders are not supported on this system.");
+		this.gl = vertexShader.getBackend();
+		this.state = StateTracker.of(gl);
+		this.profiler = Profiler.of(gl);
+		if (!gl.isShaderSupported()) throw new RuntimeException("Shaders are not supported on this system.");
 		
-		shaderProgramID = glCreateProgramObjectARB();
+		shaderProgramID = gl.glCreateProgramObjectARB();
+		resource = GLResources.of(gl).track(this, GLResources.Type.PROGRAM, shaderProgramID);
 		this.vertexShader = vertexShader;
 		this.fragmentShader = fragmentShader;
+		initUniforms();
 		
-		registeredUniforms = new HashMap<String, Integer>();
+		gl.glAttachObjectARB(shaderProgramID, this.vertexShader.getShaderID());
+		gl.glAttachObjectARB(shaderProgramID, this.fragmentShader.getShaderID());
 		
-		glAttachObjectARB(shaderProgramID, this.vertexShader.getShaderID());
-		glAttachObjectARB(shaderProgramID, this.fragmentShader.getShaderID());
+		if (retrievableBinary) gl.glProgramParameteri(shaderProgramID, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+		gl.glLinkProgramARB(shaderProgramID);
 		
-		glLinkProgramARB(shaderProgramID);
+		this.pending = true;
 		
+		if (!deferred) {
+			try {
+				checkStatus();
+			} catch (InvalidProgramException e) {
+				releaseProgram();
+				throw e;
+			}
+		}
+	}
+	
+	/**
+	 * Wraps a program object which has been linked without shader objects, e.g. loaded from a program binary.
+	 * @param gl the backend the program has been created with
+	 * @param shaderProgramID the ID of the linked program object
+	 */
+	ShaderProgram(GLBackend gl, int shaderProgramID) {
+		this.gl = gl;
+		this.state = StateTracker.of(gl);
+		this.profiler = Profiler.of(gl);
+		this.shaderProgramID = shaderProgramID;
+		this.resource = GLResources.of(gl).track(this, GLResources.Type.PROGRAM, shaderProgramID);
+		this.vertexShader = null;
+		this.fragmentShader = null;
+		initUniforms();
+		
+		this.reflection = ProgramReflection.query(gl, shaderProgramID);
 		this.valid = true;
 	}
 	
+	private void initUniforms() {
+		uniformLocations = new int[8];
+		Arrays.fill(uniformLocations, -1);
+		uniformNames = new String[8];
+		shadowValues = new int[8 * 4];
+		shadowKinds = new byte[8];
+	}
+	
 	/**
 	 * Checks if the used OpenGL layer supports shaders.
 	 * @return true if shaders are supported.
 	 */
 	public static boolean isSupported() {
-		ContextCapabilities c = GLContext.getCapabilities();
+		return GLBackends.current().isShaderSupported();
+	}
+	
+	/**
+	 * Checks the compile status of the shaders and the link status of the program, if that hasn't been done yet.
+	 * This waits until the driver has finished compiling and linking, use {@link #isReady()} to avoid that.
+	 * @throws InvalidShaderException if a shader is invalid
+	 * @throws InvalidProgramException if the shaders can't be linked
+	 */
+	public void checkStatus() {
+		if (!pending) return;
+		
+		pending = false;
+		valid = false;
+		
+		if (vertexShader != null && !vertexShader.isValid()) vertexShader.validate();
+		if (fragmentShader != null && !fragmentShader.isValid()) fragmentShader.validate();
+		
+		if (gl.glGetObjectParameteriARB(shaderProgramID, GL_OBJECT_LINK_STATUS_ARB) == GL_FALSE) {
+			throw new InvalidProgramException("Error while linking program: " + getLog());
+		}
+		
+		reflection = ProgramReflection.query(gl, shaderProgramID);
+		valid = true;
+	}
+	
+	/**
+	 * Links other shaders into a new program object and swaps it in. The handles of all registered uniform variables
+	 * stay valid and point to the new locations. If the program is bound, the new program object is bound instead.
+	 * The old program object is deleted, the old shaders are detached but not released.
+	 * Used by the {@link ShaderReloader}.
+	 * @param vertexShader the new vertex shader, which has to be valid
+	 * @param fragmentShader the new fragment shader, which has to be valid
+	 * @throws InvalidProgramException if the new shaders can't be linked. The program is left unchanged.
+	 */
+	void relink(VertexShader vertexShader, FragmentShader fragmentShader) {
+		int newProgramID = gl.glCreateProgramObjectARB();
+		gl.glAttachObjectARB(newProgramID, vertexShader.getShaderID());
+		gl.glAttachObjectARB(newProgramID, fragmentShader.getShaderID());
+		gl.glLinkProgramARB(newProgramID);
+		
+		if (gl.glGetObjectParameteriARB(newProgramID, GL_OBJECT_LINK_STATUS_ARB) == GL_FALSE) {
+			String log = gl.glGetInfoLogARB(newProgramID, gl.glGetObjectParameteriARB(newProgramID, GL_OBJECT_INFO_LOG_LENGTH_ARB));
+			gl.glDetachObjectARB(newProgramID, vertexShader.getShaderID());
+			gl.glDetachObjectARB(newProgramID, fragmentShader.getShaderID());
+			gl.glDeleteObjectARB(newProgramID);
+			throw new InvalidProgramException("Error while linking program: " + log);
+		}
+		
+		boolean bound = state.getBoundProgram() == shaderProgramID;
+		releaseProgram();
+		
+		this.shaderProgramID = newProgramID;
+		this.resource = GLResources.of(gl).track(this, GLResources.Type.PROGRAM, newProgramID);
+		this.vertexShader = vertexShader;
+		this.fragmentShader = fragmentShader;
+		this.reflection = ProgramReflection.query(gl, newProgramID);
+		this.valid = true;
+		
+		//Uniforms the new shaders don't use anymore get -1, so their writes are dropped
+		for (int handle = 0; handle < uniformCount; handle++) {
+			uniformLocations[handle] = uniformLocation(uniformNames[handle]);
+		}
+		
+		attributeLocations.clear();
+		//The new program object starts with default values
+		invalidateUniformCache();
+		
+		if (bound) state.useProgram(newProgramID);
+	}
+	
+	/**
+	 * Checks if the program can be used without waiting for the driver. With KHR_parallel_shader_compile the
+	 * driver is asked whether it is done, so this can be polled once per frame while other work continues.
+	 * Without the extension the status is {@link #checkStatus() checked} right away.
+	 * @return true if the program has been linked successfully, false if it is still being linked or is invalid
+	 */
+	public boolean isReady() {
+		if (pending && gl.isParallelCompileSupported() && gl.glGetObjectParameteriARB(shaderProgramID, GLBackend.GL_COMPLETION_STATUS_KHR) == GL_FALSE) {
+			return false;
+		}
 		
-		return c.GL_ARB_shader_objects && c.GL_ARB_vertex_shader && c.GL_ARB_fragment_shader;
+		return isValid();
+	}
+	
+	/**
+	 * @return true if the link status hasn't been checked yet
+	 */
+	public boolean isPending() {
+		return pending;
+	}
+	
+	/**
+	 * @return the info log of the program
+	 */
+	public String getLog() {
+		return gl.glGetInfoLogARB(shaderProgramID, gl.glGetObjectParameteriARB(shaderProgramID, GL_OBJECT_INFO_LOG_LENGTH_ARB));
 	}
 	
 	/**
 	 * Binds this shader. This means, that every render action after
 	 * using this method will be performed with passing this shader program.
-	 * @throws InvalidProgramException if the program has been released.
+	 * Binding the program that is bound already doesn't reach the driver.
+	 * While the {@link Profiler} is enabled, binds are counted and timed in a section named like the program.
+	 * @throws InvalidProgramException if the program is invalid or has been released.
 	 */
 	public void bind() {
-		if (!valid) throw new InvalidProgramException("The program has been released and cannot longer be used.");
-		glUseProgramObjectARB(shaderProgramID);
+		if (pending) checkStatus();
+		if (!valid) throw new InvalidProgramException("The program is invalid or has been released and cannot longer be used.");
+		
+		if (profiler.isEnabled()) {
+			long start = profiler.now();
+			state.useProgram(shaderProgramID);
+			
+			if (bindSection == -1) bindSection = profiler.section(getName() + " bind");
+			profiler.sample(bindSection, profiler.now() - start);
+		} else {
+			state.useProgram(shaderProgramID);
+		}
+		
+		if (samplersDirty) applySamplers();
+	}
+	
+	/**
+	 * @return the name of the program, used by the {@link Profiler}. "program" and the ID by default.
+	 */
+	public String getName() {
+		return name != null ? name : "program " + shaderProgramID;
+	}
+	
+	/**
+	 * @param name the name of the program, used by the {@link Profiler}
+	 */
+	public void setName(String name) {
+		this.name = name;
+		this.bindSection = -1;
 	}
 	
 	/**
-	 * Invokes {@link #unbindAll() unbindAll()}
+	 * Signals that this program isn't needed anymore. By default the program stays bound until another program
+	 * is bound, so bind/unbind/bind sequences cost a single driver call (see {@link StateTracker}).
+	 * Use {@link #unbindAll() unbindAll()} before rendering without shaders.
 	 */
 	public void unbind() {
-		unbindAll();
+		state.unbindProgram(shaderProgramID);
 	}
 	
 	/**
 	 * Unbinds all shaders. This means, that every render action after
 	 * using this method will be performed without passing any shaders.
+	 * The vertex arrays left enabled by the {@link FullscreenQuad} are disabled as well.
 	 */
 	public static void unbindAll() {
-		glUseProgramObjectARB(0);
+		StateTracker state = StateTracker.of(GLBackends.current());
+		state.useProgram(0);
+		state.resetVertexArrays();
 	}
 	
 	/**
@@ -99,52 +310,218 @@ public class ShaderProgram implements Validable {
 	 */
 	public void releaseAll() {
 		releaseProgram();
-		vertexShader.releaseShader();
-		fragmentShader.releaseShader();
+		
+		//Programs loaded from a binary have no shaders
+		if (vertexShader != null) vertexShader.releaseShader();
+		if (fragmentShader != null) fragmentShader.releaseShader();
 	}
 	
 	/**
 	 * Unbinds the shader and releases all resources, except the vertex and the fragment shader. This makes the program useless.
 	 * Both vertex and fragment shaders are not affected and can be reused to create another shader program.
-	 * This method is automatically invoked by the {@link #finalize() finalize()} method of this class.
+	 * A program that is garbage collected without being released is deleted by {@link GLResources#processDeletions()}.
+	 * Releasing a program twice has no effect.
 	 */
 	public void releaseProgram() {
-		unbind();
+		if (resource.isDeleted()) return;
 		
-		glDetachObjectARB(shaderProgramID, vertexShader.getShaderID());
-		glDetachObjectARB(shaderProgramID, fragmentShader.getShaderID());
-		glDeleteObjectARB(shaderProgramID);
+		//Deleting a program detaches its shaders, so this may be called on any thread
+		resource.delete();
 		
 		this.valid = false;
+		this.pending = false;
 	}
 	
+	/**
+	 * Same as {@link #releaseAll()}, for try-with-resources.
+	 */
 	@Override
-	public void finalize() throws Throwable {
-		releaseProgram();
-		super.finalize();
+	public void close() {
+		releaseAll();
 	}
 	
 	/**
 	 * Returns the validation state of the program. A program that has been created without an exception is always valid.
 	 * However, if the program is {@link #releaseProgram() released}, the validation state is permanently set to false.
+	 * <p>
+	 * The status of a {@link #isPending() pending} program is checked first, which waits for the driver.
 	 * @return true if the program is valid, false otherwise
 	 */
 	@Override
 	public boolean isValid() {
+		if (pending) {
+			try {
+				checkStatus();
+			} catch (InvalidShaderException | InvalidProgramException e) {
+				return false;
+			}
+		}
+		
 		return valid;
 	}
 	
 	/**
-	 * Adds a uniform variable to the shader.
+	 * @return the vertex shader, null if the program has been loaded from a binary
+	 */
+	public VertexShader getVertexShader() {
+		return vertexShader;
+	}
+	
+	/**
+	 * @return the fragment shader, null if the program has been loaded from a binary
+	 */
+	public FragmentShader getFragmentShader() {
+		return fragmentShader;
+	}
+	
+	/**
+	 * @return the ID of the program object
+	 */
+	public int getProgramID() {
+		return shaderProgramID;
+	}
+	
+	/**
+	 * Adds a uniform variable to the shader. The location is looked up in the {@link #getReflection() reflection}
+	 * of the program, registering the same identifier again returns the same handle. Neither asks the driver,
+	 * except for single elements of arrays like "lights[2]".
 	 * @param identifier the identifier of the uniform variable
-	 * 
+	 * @return a handle for the fast {@code setUniform(int, ...)} methods, which is stable for the lifetime of this program
+	 * @throws InvalidProgramException if the program has no active uniform variable of that name, e.g. because it is
+	 * misspelled or has been optimized away by the compiler
+	 */
+	public int registerUniform(String identifier) {
+		int handle = registeredUniforms.get(identifier);
+		
+		if (handle == -1) {
+			if (pending) checkStatus();
+			if (reflection != null && !reflection.hasUniform(identifier)) {
+				throw new InvalidProgramException("The program has no active uniform variable \"" + identifier + "\".");
+			}
+			
+			int uniformID = uniformLocation(identifier);
+			
+			if (uniformCount == uniformLocations.length) {
+				uniformLocations = Arrays.copyOf(uniformLocations, uniformCount * 2);
+				Arrays.fill(uniformLocations, uniformCount, uniformLocations.length, -1);
+				uniformNames = Arrays.copyOf(uniformNames, uniformLocations.length);
+				shadowValues = Arrays.copyOf(shadowValues, uniformLocations.length * 4);
+				shadowKinds = Arrays.copyOf(shadowKinds, uniformLocations.length);
+			}
+			
+			handle = uniformCount++;
+			uniformLocations[handle] = uniformID;
+			uniformNames[handle] = identifier;
+			registeredUniforms.put(identifier, handle);
+		}
+		
+		return handle;
+	}
+	
+	private int uniformLocation(String identifier) {
+		int index = reflection != null ? reflection.findUniform(identifier) : -1;
+		return index != -1 ? reflection.getUniformLocation(index) : gl.glGetUniformLocationARB(shaderProgramID, identifier);
+	}
+	
+	/**
+	 * Checks if the program has an active uniform variable, without asking the driver.
+	 * @param identifier the name of the uniform variable, or an element of an array like "lights[2]"
+	 * @return true if the uniform variable can be {@link #registerUniform(String) registered}
+	 */
+	public boolean hasUniform(String identifier) {
+		if (pending) checkStatus();
+		return reflection != null && reflection.hasUniform(identifier);
+	}
+	
+	/**
+	 * @return the active uniform and attribute variables, null if the program is invalid
 	 */
-	public void registerUniform(String identifier) {
-		if (!registeredUniforms.containsKey(identifier)) {
-			int uniformID = glGetUniformLocationARB(shaderProgramID, identifier);
+	public ProgramReflection getReflection() {
+		if (pending) checkStatus();
+		return reflection;
+	}
+	
+	/**
+	 * Assigns a texture unit to a sampler uniform variable. Units are handed out in the order the samplers are
+	 * registered, starting at 0, and the uniform is set to its unit only once, when the program is bound. Example
+	 * for a pass combining two textures:
+	 * <p><code>
+	 * int scene = combine.registerSampler("scene");<br>
+	 * int bloom = combine.registerSampler("bloom");<br>
+	 * <span style="color: gray; font-style: italic">-- Every frame: --</span><br>
+	 * combine.bind();<br>
+	 * combine.setTexture(scene, sceneTarget.getTextureID());<br>
+	 * combine.setTexture(bloom, bloomTarget.getTextureID());</code>
+	 * @param identifier the identifier of the sampler uniform variable
+	 * @return the texture unit, 0 for GL_TEXTURE0. Registering the same identifier again returns the same unit.
+	 * @throws InvalidProgramException if the program has no active uniform variable of that name
+	 */
+	public int registerSampler(String identifier) {
+		int unit = samplerUnits.get(identifier);
+		
+		if (unit == -1) {
+			int handle = registerUniform(identifier);
+			if (samplerCount == StateTracker.MAX_TEXTURE_UNITS) throw new RuntimeException("A program can't use more than " + StateTracker.MAX_TEXTURE_UNITS + " samplers.");
+			if (samplerCount == samplerHandles.length) samplerHandles = Arrays.copyOf(samplerHandles, samplerCount * 2);
+			
+			unit = samplerCount++;
+			samplerHandles[unit] = handle;
+			samplerUnits.put(identifier, unit);
 			
-			registeredUniforms.put(identifier, uniformID);
+			if (state.getBoundProgram() == shaderProgramID) setUniform(handle, unit);
+			else samplersDirty = true;
 		}
+		
+		return unit;
+	}
+	
+	private void applySamplers() {
+		samplersDirty = false;
+		for (int unit = 0; unit < samplerCount; unit++) setUniform(samplerHandles[unit], unit);
+	}
+	
+	/**
+	 * @param identifier the identifier of the sampler uniform variable
+	 * @return the texture unit of the sampler, or -1 if it hasn't been {@link #registerSampler(String) registered}
+	 */
+	public int getSamplerUnit(String identifier) {
+		return samplerUnits.get(identifier);
+	}
+	
+	/**
+	 * Binds a 2D texture on the unit of a sampler. The call is skipped if the texture is bound there already, see
+	 * {@link StateTracker#bindTexture(int, int)}.
+	 * @param unit the unit returned by {@link #registerSampler(String) registerSampler}
+	 * @param texture the ID of the texture
+	 */
+	public void setTexture(int unit, int texture) {
+		state.bindTexture(unit, texture);
+	}
+	
+	/**
+	 * Binds a 2D texture on the unit of a sampler. You have to {@link #registerSampler(String) register} the sampler first.
+	 * @param identifier the identifier of the sampler uniform variable
+	 * @param texture the ID of the texture
+	 */
+	public void setTexture(String identifier, int texture) {
+		int unit = samplerUnits.get(identifier);
+		if (unit != -1) state.bindTexture(unit, texture);
+	}
+	
+	/**
+	 * @param identifier the identifier of the uniform variable
+	 * @return the handle of the uniform variable, or -1 if it hasn't been {@link #registerUniform(String) registered}
+	 */
+	public int getUniformHandle(String identifier) {
+		return registeredUniforms.get(identifier);
+	}
+	
+	/**
+	 * @param handle the handle returned by {@link #registerUniform(String) registerUniform}
+	 * @return the location of the uniform variable, -1 if the program doesn't use it
+	 */
+	public int getUniformLocation(int handle) {
+		return uniformLocations[handle];
 	}
 	
 	/**
@@ -153,11 +530,8 @@ public class ShaderProgram implements Validable {
 	 * @param v The data
 	 */
 	public void setUniform(String identifier, float v) {
-		if (registeredUniforms.containsKey(identifier)) {
-			int uniformID = registeredUniforms.get(identifier);
-			
-			glUniform1fARB(uniformID, v);
-		}
+		int handle = registeredUniforms.get(identifier);
+		if (handle != -1) setUniform(handle, v);
 	}
 	
 	/**
@@ -166,11 +540,8 @@ public class ShaderProgram implements Validable {
 	 * @param v The data
 	 */
 	public void setUniform(String identifier, int v) {
-		if (registeredUniforms.containsKey(identifier)) {
-			int uniformID = registeredUniforms.get(identifier);
-			
-			glUniform1iARB(uniformID, v);
-		}
+		int handle = registeredUniforms.get(identifier);
+		if (handle != -1) setUniform(handle, v);
 	}
 	
 	/**
@@ -180,11 +551,8 @@ public class ShaderProgram implements Validable {
 	 * @param y The y-component of the vector
 	 */
 	public void setUniform(String identifier, float x, float y) {
-		if (registeredUniforms.containsKey(identifier)) {
-			int uniformID = registeredUniforms.get(identifier);
-			
-			glUniform2fARB(uniformID, x, y);
-		}
+		int handle = registeredUniforms.get(identifier);
+		if (handle != -1) setUniform(handle, x, y);
 	}
 	
 	/**
@@ -194,11 +562,8 @@ public class ShaderProgram implements Validable {
 	 * @param y The y-component of the vector
 	 */
 	public void setUniform(String identifier, int x, int y) {
-		if (registeredUniforms.containsKey(identifier)) {
-			int uniformID = registeredUniforms.get(identifier);
-			
-			glUniform2iARB(uniformID, x, y);
-		}
+		int handle = registeredUniforms.get(identifier);
+		if (handle != -1) setUniform(handle, x, y);
 	}
 	
 	/**
@@ -209,11 +574,8 @@ public class ShaderProgram implements Validable {
 	 * @param z The z-component of the vector
 	 */
 	public void setUniform(String identifier, float x, float y, float z) {
-		if (registeredUniforms.containsKey(identifier)) {
-			int uniformID = registeredUniforms.get(identifier);
-			
-			glUniform3fARB(uniformID, x, y, z);
-		}
+		int handle = registeredUniforms.get(identifier);
+		if (handle != -1) setUniform(handle, x, y, z);
 	}
 	
 	/**
@@ -224,11 +586,8 @@ public class ShaderProgram implements Validable {
 	 * @param z The z-component of the vector
 	 */
 	public void setUniform(String identifier, int x, int y, int z) {
-		if (registeredUniforms.containsKey(identifier)) {
-			int uniformID = registeredUniforms.get(identifier);
-			
-			glUniform3iARB(uniformID, x, y, z);
-		}
+		int handle = registeredUniforms.get(identifier);
+		if (handle != -1) setUniform(handle, x, y, z);
 	}
 	
 	/**
@@ -240,11 +599,8 @@ public class ShaderProgram implements Validable {
 	 * @param w The w-component of the vector
 	 */
 	public void setUniform(String identifier, float x, float y, float z, float w) {
-		if (registeredUniforms.containsKey(identifier)) {
-			int uniformID = registeredUniforms.get(identifier);
-			
-			glUniform4fARB(uniformID, x, y, z, w);
-		}
+		int handle = registeredUniforms.get(identifier);
+		if (handle != -1) setUniform(handle, x, y, z, w);
 	}
 	
 	/**
@@ -256,14 +612,356 @@ public class ShaderProgram implements Validable {
 	 * @param w The w-component of the vector
 	 */
 	public void setUniform(String identifier, int x, int y, int z, int w) {
-		if (registeredUniforms.containsKey(identifier)) {
-			int uniformID = registeredUniforms.get(identifier);
-			
-			glUniform4iARB(uniformID, x, y, z, w);
+		int handle = registeredUniforms.get(identifier);
+		if (handle != -1) setUniform(handle, x, y, z, w);
+	}
+	
+	/**
+	 * Sets the uniform variable to a simple float without any lookup.
+	 * The call is skipped if the program already holds this value.
+	 * @param handle The handle returned by {@link #registerUniform(String) registerUniform}
+	 * @param v The data
+	 */
+	public void setUniform(int handle, float v) {
+		int location = uniformLocations[handle];
+		if (location != -1 && changes(handle, FLOAT1, Float.floatToRawIntBits(v), 0, 0, 0)) gl.glUniform1fARB(location, v);
+	}
+	
+	/**
+	 * Sets the uniform variable to a simple integer without any lookup.
+	 * The call is skipped if the program already holds this value.
+	 * @param handle The handle returned by {@link #registerUniform(String) registerUniform}
+	 * @param v The data
+	 */
+	public void setUniform(int handle, int v) {
+		int location = uniformLocations[handle];
+		if (location != -1 && changes(handle, INT1, v, 0, 0, 0)) gl.glUniform1iARB(location, v);
+	}
+	
+	/**
+	 * Sets the uniform variable to a 2-dimensional float vector without any lookup.
+	 * The call is skipped if the program already holds this value.
+	 * @param handle The handle returned by {@link #registerUniform(String) registerUniform}
+	 * @param x The x-component of the vector
+	 * @param y The y-component of the vector
+	 */
+	public void setUniform(int handle, float x, float y) {
+		int location = uniformLocations[handle];
+		if (location != -1 && changes(handle, FLOAT2, Float.floatToRawIntBits(x), Float.floatToRawIntBits(y), 0, 0)) gl.glUniform2fARB(location, x, y);
+	}
+	
+	/**
+	 * Sets the uniform variable to a 2-dimensional integer vector without any lookup.
+	 * The call is skipped if the program already holds this value.
+	 * @param handle The handle returned by {@link #registerUniform(String) registerUniform}
+	 * @param x The x-component of the vector
+	 * @param y The y-component of the vector
+	 */
+	public void setUniform(int handle, int x, int y) {
+		int location = uniformLocations[handle];
+		if (location != -1 && changes(handle, INT2, x, y, 0, 0)) gl.glUniform2iARB(location, x, y);
+	}
+	
+	/**
+	 * Sets the uniform variable to a 3-dimensional float vector without any lookup.
+	 * The call is skipped if the program already holds this value.
+	 * @param handle The handle returned by {@link #registerUniform(String) registerUniform}
+	 * @param x The x-component of the vector
+	 * @param y The y-component of the vector
+	 * @param z The z-component of the vector
+	 */
+	public void setUniform(int handle, float x, float y, float z) {
+		int location = uniformLocations[handle];
+		if (location != -1 && changes(handle, FLOAT3, Float.floatToRawIntBits(x), Float.floatToRawIntBits(y), Float.floatToRawIntBits(z), 0)) gl.glUniform3fARB(location, x, y, z);
+	}
+	
+	/**
+	 * Sets the uniform variable to a 3-dimensional integer vector without any lookup.
+	 * The call is skipped if the program already holds this value.
+	 * @param handle The handle returned by {@link #registerUniform(String) registerUniform}
+	 * @param x The x-component of the vector
+	 * @param y The y-component of the vector
+	 * @param z The z-component of the vector
+	 */
+	public void setUniform(int handle, int x, int y, int z) {
+		int location = uniformLocations[handle];
+		if (location != -1 && changes(handle, INT3, x, y, z, 0)) gl.glUniform3iARB(location, x, y, z);
+	}
+	
+	/**
+	 * Sets the uniform variable to a 4-dimensional float vector without any lookup.
+	 * The call is skipped if the program already holds this value.
+	 * @param handle The handle returned by {@link #registerUniform(String) registerUniform}
+	 * @param x The x-component of the vector
+	 * @param y The y-component of the vector
+	 * @param z The z-component of the vector
+	 * @param w The w-component of the vector
+	 */
+	public void setUniform(int handle, float x, float y, float z, float w) {
+		int location = uniformLocations[handle];
+		if (location != -1 && changes(handle, FLOAT4, Float.floatToRawIntBits(x), Float.floatToRawIntBits(y), Float.floatToRawIntBits(z), Float.floatToRawIntBits(w))) gl.glUniform4fARB(location, x, y, z, w);
+	}
+	
+	/**
+	 * Sets the uniform variable to a 4-dimensional integer vector without any lookup.
+	 * The call is skipped if the program already holds this value.
+	 * @param handle The handle returned by {@link #registerUniform(String) registerUniform}
+	 * @param x The x-component of the vector
+	 * @param y The y-component of the vector
+	 * @param z The z-component of the vector
+	 * @param w The w-component of the vector
+	 */
+	public void setUniform(int handle, int x, int y, int z, int w) {
+		int location = uniformLocations[handle];
+		if (location != -1 && changes(handle, INT4, x, y, z, w)) gl.glUniform4iARB(location, x, y, z, w);
+	}
+	
+	/**
+	 * Sets a uniform array of floats or float vectors with a single driver call.
+	 * @param handle The handle returned by {@link #registerUniform(String) registerUniform}, registered by the name of the array
+	 * @param components The number of components per element, 1 for float[] up to 4 for vec4[]
+	 * @param values The elements, one after another
+	 * @throws IllegalArgumentException if components isn't between 1 and 4
+	 */
+	public void setUniformArray(int handle, int components, float[] values) {
+		setUniformArray(handle, components, values, 0, values.length);
+	}
+	
+	/**
+	 * Sets a uniform array of floats or float vectors with a single driver call.
+	 * @param handle The handle returned by {@link #registerUniform(String) registerUniform}, registered by the name of the array
+	 * @param components The number of components per element, 1 for float[] up to 4 for vec4[]
+	 * @param values The elements, one after another
+	 * @param offset The index of the first value to pass
+	 * @param length The number of values to pass
+	 * @throws IllegalArgumentException if components isn't between 1 and 4
+	 */
+	public void setUniformArray(int handle, int components, float[] values, int offset, int length) {
+		setUniformArray(handle, components, stage(values, offset, length));
+	}
+	
+	/**
+	 * Sets a uniform array of floats or float vectors with a single driver call.
+	 * @param handle The handle returned by {@link #registerUniform(String) registerUniform}, registered by the name of the array
+	 * @param components The number of components per element, 1 for float[] up to 4 for vec4[]
+	 * @param values The elements between the position and the limit of the buffer, which has to be direct
+	 * @throws IllegalArgumentException if components isn't between 1 and 4
+	 */
+	public void setUniformArray(int handle, int components, FloatBuffer values) {
+		int location = uniformLocations[handle];
+		if (location == -1) return;
+		
+		shadowKinds[handle] = UNKNOWN;
+		
+		switch (components) {
+		case 1: gl.glUniform1ARB(location, values); break;
+		case 2: gl.glUniform2ARB(location, values); break;
+		case 3: gl.glUniform3ARB(location, values); break;
+		case 4: gl.glUniform4ARB(location, values); break;
+		default: throw new IllegalArgumentException("A vector has 1 to 4 components, not " + components + ".");
 		}
 	}
 	
+	/**
+	 * Sets a uniform array of integers or integer vectors with a single driver call.
+	 * @param handle The handle returned by {@link #registerUniform(String) registerUniform}, registered by the name of the array
+	 * @param components The number of components per element, 1 for int[] up to 4 for ivec4[]
+	 * @param values The elements, one after another
+	 * @throws IllegalArgumentException if components isn't between 1 and 4
+	 */
+	public void setUniformArray(int handle, int components, int[] values) {
+		setUniformArray(handle, components, values, 0, values.length);
+	}
+	
+	/**
+	 * Sets a uniform array of integers or integer vectors with a single driver call.
+	 * @param handle The handle returned by {@link #registerUniform(String) registerUniform}, registered by the name of the array
+	 * @param components The number of components per element, 1 for int[] up to 4 for ivec4[]
+	 * @param values The elements, one after another
+	 * @param offset The index of the first value to pass
+	 * @param length The number of values to pass
+	 * @throws IllegalArgumentException if components isn't between 1 and 4
+	 */
+	public void setUniformArray(int handle, int components, int[] values, int offset, int length) {
+		setUniformArray(handle, components, stage(values, offset, length));
+	}
+	
+	/**
+	 * Sets a uniform array of integers or integer vectors with a single driver call.
+	 * @param handle The handle returned by {@link #registerUniform(String) registerUniform}, registered by the name of the array
+	 * @param components The number of components per element, 1 for int[] up to 4 for ivec4[]
+	 * @param values The elements between the position and the limit of the buffer, which has to be direct
+	 * @throws IllegalArgumentException if components isn't between 1 and 4
+	 */
+	public void setUniformArray(int handle, int components, IntBuffer values) {
+		int location = uniformLocations[handle];
+		if (location == -1) return;
+		
+		shadowKinds[handle] = UNKNOWN;
+		
+		switch (components) {
+		case 1: gl.glUniform1ARB(location, values); break;
+		case 2: gl.glUniform2ARB(location, values); break;
+		case 3: gl.glUniform3ARB(location, values); break;
+		case 4: gl.glUniform4ARB(location, values); break;
+		default: throw new IllegalArgumentException("A vector has 1 to 4 components, not " + components + ".");
+		}
+	}
+	
+	/**
+	 * Sets a uniform matrix, or an array of matrices, with a single driver call.
+	 * @param handle The handle returned by {@link #registerUniform(String) registerUniform}
+	 * @param size The number of rows and columns, 2 for mat2 up to 4 for mat4
+	 * @param transpose false if the matrices are stored in column-major order, true for row-major order
+	 * @param matrices The matrices, one after another
+	 * @throws IllegalArgumentException if size isn't between 2 and 4
+	 */
+	public void setUniformMatrix(int handle, int size, boolean transpose, float[] matrices) {
+		setUniformMatrix(handle, size, transpose, stage(matrices, 0, matrices.length));
+	}
+	
+	/**
+	 * Sets a uniform matrix, or an array of matrices, with a single driver call.
+	 * @param handle The handle returned by {@link #registerUniform(String) registerUniform}
+	 * @param size The number of rows and columns, 2 for mat2 up to 4 for mat4
+	 * @param transpose false if the matrices are stored in column-major order, true for row-major order
+	 * @param matrices The matrices between the position and the limit of the buffer, which has to be direct
+	 * @throws IllegalArgumentException if size isn't between 2 and 4
+	 */
+	public void setUniformMatrix(int handle, int size, boolean transpose, FloatBuffer matrices) {
+		int location = uniformLocations[handle];
+		if (location == -1) return;
+		
+		shadowKinds[handle] = UNKNOWN;
+		
+		switch (size) {
+		case 2: gl.glUniformMatrix2ARB(location, transpose, matrices); break;
+		case 3: gl.glUniformMatrix3ARB(location, transpose, matrices); break;
+		case 4: gl.glUniformMatrix4ARB(location, transpose, matrices); break;
+		default: throw new IllegalArgumentException("A matrix has 2 to 4 rows, not " + size + ".");
+		}
+	}
+	
+	/**
+	 * Sets a uniform matrix, or an array of matrices. You have to {@link #registerUniform(String) register} the uniform variable first.
+	 * @param identifier The name of the variable
+	 * @param size The number of rows and columns, 2 for mat2 up to 4 for mat4
+	 * @param transpose false if the matrices are stored in column-major order, true for row-major order
+	 * @param matrices The matrices, one after another
+	 */
+	public void setUniformMatrix(String identifier, int size, boolean transpose, float[] matrices) {
+		int handle = registeredUniforms.get(identifier);
+		if (handle != -1) setUniformMatrix(handle, size, transpose, matrices);
+	}
+	
+	/**
+	 * Sets a uniform array of floats or float vectors. You have to {@link #registerUniform(String) register} the uniform variable first.
+	 * @param identifier The name of the array
+	 * @param components The number of components per element, 1 for float[] up to 4 for vec4[]
+	 * @param values The elements, one after another
+	 */
+	public void setUniformArray(String identifier, int components, float[] values) {
+		int handle = registeredUniforms.get(identifier);
+		if (handle != -1) setUniformArray(handle, components, values);
+	}
+	
+	/**
+	 * Sets a uniform array of integers or integer vectors. You have to {@link #registerUniform(String) register} the uniform variable first.
+	 * @param identifier The name of the array
+	 * @param components The number of components per element, 1 for int[] up to 4 for ivec4[]
+	 * @param values The elements, one after another
+	 */
+	public void setUniformArray(String identifier, int components, int[] values) {
+		int handle = registeredUniforms.get(identifier);
+		if (handle != -1) setUniformArray(handle, components, values);
+	}
+	
+	private static FloatBuffer stage(float[] values, int offset, int length) {
+		if (floatStaging.capacity() < length) {
+			floatStaging = ByteBuffer.allocateDirect(Integer.highestOneBit(length) * 2 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		}
+		
+		floatStaging.clear();
+		floatStaging.put(values, offset, length).flip();
+		return floatStaging;
+	}
+	
+	private static IntBuffer stage(int[] values, int offset, int length) {
+		if (intStaging.capacity() < length) {
+			intStaging = ByteBuffer.allocateDirect(Integer.highestOneBit(length) * 2 * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+		}
+		
+		intStaging.clear();
+		intStaging.put(values, offset, length).flip();
+		return intStaging;
+	}
+	
+	/**
+	 * Compares a value with the shadow copy of the uniform variable and updates the copy.
+	 * @return true if the value differs and has to be passed to the driver
+	 */
+	private boolean changes(int handle, byte kind, int x, int y, int z, int w) {
+		int i = handle * 4;
+		
+		if (shadowKinds[handle] == kind && shadowValues[i] == x && shadowValues[i + 1] == y
+				&& shadowValues[i + 2] == z && shadowValues[i + 3] == w) {
+			uniformCacheHits++;
+			return false;
+		}
+		
+		shadowKinds[handle] = kind;
+		shadowValues[i] = x;
+		shadowValues[i + 1] = y;
+		shadowValues[i + 2] = z;
+		shadowValues[i + 3] = w;
+		uniformCacheMisses++;
+		return true;
+	}
+	
+	/**
+	 * Forgets the values of all uniform variables, so the next write of each one reaches the driver.
+	 * Use this if the uniform variables of this program have been changed without this class.
+	 * The units of the {@link #registerSampler(String) samplers} are set again on the next bind.
+	 */
+	public void invalidateUniformCache() {
+		Arrays.fill(shadowKinds, UNKNOWN);
+		//The units of the samplers are uniforms as well
+		samplersDirty = samplerCount > 0;
+	}
+	
+	/**
+	 * @return the number of uniform writes that have been skipped, because the program already held the value
+	 */
+	public long getUniformCacheHits() {
+		return uniformCacheHits;
+	}
+	
+	/**
+	 * @return the number of uniform writes that have been passed to the driver
+	 */
+	public long getUniformCacheMisses() {
+		return uniformCacheMisses;
+	}
+	
+	public void resetUniformCacheStatistics() {
+		uniformCacheHits = 0;
+		uniformCacheMisses = 0;
+	}
+	
+	/**
+	 * Gets the location of an attribute variable from the {@link #getReflection() reflection} of the program.
+	 * @param identifier The name of the variable
+	 * @return the location, -1 if the program doesn't use the attribute
+	 */
 	public int registerAttribute(String identifier) {
-		return glGetAttribLocationARB(shaderProgramID, identifier);
+		int location = attributeLocations.get(identifier);
+		
+		if (location == Integer.MIN_VALUE) {
+			if (pending) checkStatus();
+			location = reflection != null ? reflection.getAttributeLocation(identifier) : gl.glGetAttribLocationARB(shaderProgramID, identifier);
+			attributeLocations.put(identifier, location);
+		}
+		
+		return location;
 	}
 }
@@ -0,0 +1,161 @@
+package at.erdlof.shadertools.shaders;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiles every shader code only once. Requesting a shader whose code has been compiled before returns the same
+ * shader object, so programs sharing a vertex shader share its GL object as well.
+ * <p>
+ * Shared shaders are reference counted: every request counts as one reference, and {@link Shader#releaseShader()}
+ * (also called by {@link ShaderProgram#releaseAll()}) drops one. The shader object is deleted when the last
+ * reference is dropped. Example:
+ * <p><code>
+ * ShaderRegistry registry = new ShaderRegistry();<br>
+ * ShaderProgram a = registry.program(commonVertexCode, fragmentCodeA);<br>
+ * ShaderProgram b = registry.program(commonVertexCode, fragmentCodeB); <span style="color: gray; font-style: italic">// Vertex shader compiled once</span></code>
+ * @author Florian Bhrle
+ */
+public class ShaderRegistry {
+	private final Map<String, Entry> vertexShaders = new HashMap<String, Entry>();
+	private final Map<String, Entry> fragmentShaders = new HashMap<String, Entry>();
+	
+	private long compiles, savedCompiles;
+	
+	/**
+	 * @param code the code of the shader
+	 * @return the vertex shader of the code, compiled if it isn't in the registry yet
+	 * @throws InvalidShaderException if the shader has to be compiled and is invalid
+	 */
+	public VertexShader vertexShader(String code) {
+		Entry entry = acquire(vertexShaders, code);
+		
+		if (entry == null) {
+			VertexShader shader = new VertexShader(code);
+			register(vertexShaders, shader);
+			return shader;
+		}
+		
+		return (VertexShader) entry.shader;
+	}
+	
+	/**
+	 * @param code the code of the shader
+	 * @return the fragment shader of the code, compiled if it isn't in the registry yet
+	 * @throws InvalidShaderException if the shader has to be compiled and is invalid
+	 */
+	public FragmentShader fragmentShader(String code) {
+		Entry entry = acquire(fragmentShaders, code);
+		
+		if (entry == null) {
+			FragmentShader shader = new FragmentShader(code);
+			register(fragmentShaders, shader);
+			return shader;
+		}
+		
+		return (FragmentShader) entry.shader;
+	}
+	
+	/**
+	 * Creates a program from shared shaders. {@link ShaderProgram#releaseAll()} drops the references of the program.
+	 * @param vertexCode the code of the vertex shader
+	 * @param fragmentCode the code of the fragment shader
+	 * @return the new program
+	 * @throws InvalidShaderException if a shader has to be compiled and is invalid
+	 * @throws InvalidProgramException if the shaders can't be linked
+	 */
+	public ShaderProgram program(String vertexCode, String fragmentCode) {
+		VertexShader vertexShader = vertexShader(vertexCode);
+		FragmentShader fragmentShader;
+		
+		try {
+			fragmentShader = fragmentShader(fragmentCode);
+		} catch (InvalidShaderException e) {
+			vertexShader.releaseShader();
+			throw e;
+		}
+		
+		try {
+			return new ShaderProgram(vertexShader, fragmentShader);
+		} catch (InvalidProgramException e) {
+			vertexShader.releaseShader();
+			fragmentShader.releaseShader();
+			throw e;
+		}
+	}
+	
+	private Entry acquire(Map<String, Entry> shaders, String code) {
+		Entry entry = shaders.get(code);
+		if (entry == null) return null;
+		
+		entry.references++;
+		savedCompiles++;
+		return entry;
+	}
+	
+	private void register(Map<String, Entry> shaders, Shader shader) {
+		compiles++;
+		shader.setRegistry(this);
+		shaders.put(shader.getProgramCode(), new Entry(shader));
+	}
+	
+	/**
+	 * Drops one reference of a shader. Called by {@link Shader#releaseShader()}.
+	 * @return true if the last reference has been dropped and the shader object has to be deleted
+	 */
+	boolean release(Shader shader) {
+		Map<String, Entry> shaders = shader instanceof VertexShader ? vertexShaders : fragmentShaders;
+		Entry entry = shaders.get(shader.getProgramCode());
+		if (entry == null || entry.shader != shader) return true;
+		
+		if (--entry.references > 0) return false;
+		
+		shaders.remove(shader.getProgramCode());
+		shader.setRegistry(null);
+		return true;
+	}
+	
+	/**
+	 * @param shader a shader
+	 * @return the number of references to the shader, 0 if the registry doesn't hold it
+	 */
+	public int getReferences(Shader shader) {
+		Entry entry = (shader instanceof VertexShader ? vertexShaders : fragmentShaders).get(shader.getProgramCode());
+		return entry != null && entry.shader == shader ? entry.references : 0;
+	}
+	
+	/**
+	 * @return the number of shaders held by the registry
+	 */
+	public int size() {
+		return vertexShaders.size() + fragmentShaders.size();
+	}
+	
+	/**
+	 * @return the number of shaders compiled by the registry
+	 */
+	public long getCompiles() {
+		return compiles;
+	}
+	
+	/**
+	 * @return the number of requests served by a shader compiled before
+	 */
+	public long getSavedCompiles() {
+		return savedCompiles;
+	}
+	
+	public void resetStatistics() {
+		compiles = 0;
+		savedCompiles = 0;
+	}
+	
+	private static class Entry {
+		private final Shader shader;
+		private int references = 1;
+		
+		private Entry(Shader shader) {
+			this.shader = shader;
+		}
+	}
+}
@@ -0,0 +1,315 @@
+package at.erdlof.shadertools.shaders;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads programs while the application is running when their shader files, or files they include, are changed.
+ * Meant for development: edit a shader, save it and see the result in the next frame. Example:
+ * <p><code>
+ * ShaderReloader reloader = new ShaderReloader(new ShaderPreprocessor(Paths.get("shaders/include")));<br>
+ * ShaderProgram lit = reloader.load(Paths.get("shaders/lit.vert"), Paths.get("shaders/lit.frag"));<br>
+ * <span style="color: gray; font-style: italic">-- Every frame: --</span><br>
+ * reloader.processChanges();</code>
+ * <p>
+ * A background thread watches the directories of the files. Editors often write a file several times when saving it,
+ * so a file is reloaded once it hasn't changed for the {@link #setDebounceMillis(long) debounce time}.
+ * Only the shaders depending on a changed file are compiled again. The new shaders are linked into a new program
+ * object, which replaces the old one inside the same {@link ShaderProgram} object; registered uniforms keep their
+ * handles. If compiling or linking fails, the program keeps working with the old shaders and the error is available
+ * from {@link #getLastError()}.
+ * @author Florian Bhrle
+ */
+public class ShaderReloader implements AutoCloseable {
+	private final ShaderPreprocessor preprocessor;
+	private final WatchService watcher;
+	private final Thread watchThread;
+	private final Set<Path> watchedDirectories = new HashSet<Path>();
+	private final List<Entry> entries = new ArrayList<Entry>();
+	//File -> time of the last change in nanoseconds, written by the watch thread
+	private final Map<Path, Long> changes = new ConcurrentHashMap<Path, Long>();
+	private volatile boolean overflow;
+	private long debounceNanos = TimeUnit.MILLISECONDS.toNanos(100);
+	private String lastError;
+	
+	private long reloads, failedReloads;
+	
+	/**
+	 * Creates a reloader without include directories.
+	 * @throws IOException if the file system can't be watched
+	 */
+	public ShaderReloader() throws IOException {
+		this(new ShaderPreprocessor());
+	}
+	
+	/**
+	 * @param preprocessor the preprocessor resolving the includes of the files
+	 * @throws IOException if the file system can't be watched
+	 */
+	public ShaderReloader(ShaderPreprocessor preprocessor) throws IOException {
+		this.preprocessor = preprocessor;
+		this.watcher = FileSystems.getDefault().newWatchService();
+		this.watchThread = new Thread(this::watch, "ShaderReloader");
+		this.watchThread.setDaemon(true);
+		this.watchThread.start();
+	}
+	
+	/**
+	 * Creates a program from two files and reloads it whenever one of them or an included file changes.
+	 * @param vertexFile the file of the vertex shader
+	 * @param fragmentFile the file of the fragment shader
+	 * @return the program
+	 * @throws IOException if a file can't be read or watched
+	 * @throws InvalidShaderException if a shader is invalid
+	 * @throws InvalidProgramException if the shaders can't be linked
+	 */
+	public ShaderProgram load(Path vertexFile, Path fragmentFile) throws IOException {
+		return load(vertexFile, fragmentFile, Collections.<String, String>emptyMap());
+	}
+	
+	/**
+	 * Creates a program from two files and reloads it whenever one of them or an included file changes.
+	 * @param vertexFile the file of the vertex shader
+	 * @param fragmentFile the file of the fragment shader
+	 * @param defines the defines injected into both shaders, see {@link ShaderPreprocessor#process(Path, Map)}
+	 * @return the program
+	 * @throws IOException if a file can't be read or watched
+	 * @throws InvalidShaderException if a shader is invalid
+	 * @throws InvalidProgramException if the shaders can't be linked
+	 */
+	public ShaderProgram load(Path vertexFile, Path fragmentFile, Map<String, String> defines) throws IOException {
+		Entry entry = new Entry(vertexFile, fragmentFile, new LinkedHashMap<String, String>(defines));
+		ShaderSource vertexSource = preprocessor.process(vertexFile, entry.defines);
+		ShaderSource fragmentSource = preprocessor.process(fragmentFile, entry.defines);
+		
+		VertexShader vertexShader = new VertexShader(vertexSource);
+		FragmentShader fragmentShader;
+		
+		try {
+			fragmentShader = new FragmentShader(fragmentSource);
+		} catch (InvalidShaderException e) {
+			vertexShader.releaseShader();
+			throw e;
+		}
+		
+		try {
+			entry.program = new ShaderProgram(vertexShader, fragmentShader);
+		} catch (InvalidProgramException e) {
+			vertexShader.releaseShader();
+			fragmentShader.releaseShader();
+			throw e;
+		}
+		
+		entry.vertexFiles = watch(vertexSource);
+		entry.fragmentFiles = watch(fragmentSource);
+		entries.add(entry);
+		return entry.program;
+	}
+	
+	/**
+	 * Watches the directories of all files the code comes from.
+	 * @return the files
+	 */
+	private Set<Path> watch(ShaderSource source) throws IOException {
+		Set<Path> files = new HashSet<Path>();
+		
+		for (String name : source.getSourceMap().getFiles()) {
+			Path file = Paths.get(name);
+			//The preprocessor names files by absolute paths, other names like the one of the defines aren't files
+			if (!file.isAbsolute()) continue;
+			
+			files.add(file);
+			Path directory = file.getParent();
+			if (watchedDirectories.add(directory)) directory.register(watcher, ENTRY_MODIFY, ENTRY_CREATE);
+		}
+		
+		return files;
+	}
+	
+	private void watch() {
+		try {
+			while (true) {
+				WatchKey key = watcher.take();
+				Path directory = (Path) key.watchable();
+				
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == OVERFLOW) overflow = true;
+					else changes.put(directory.resolve((Path) event.context()), System.nanoTime());
+				}
+				
+				key.reset();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			//Closed
+		}
+	}
+	
+	/**
+	 * Reloads the programs depending on files that have been changed and haven't changed since for the debounce time.
+	 * Has to be called on the GL thread, e.g. once per frame. Files are read on the calling thread.
+	 * @return the number of programs that have been reloaded successfully
+	 */
+	public int processChanges() {
+		if (changes.isEmpty() && !overflow) return 0;
+		
+		long now = System.nanoTime();
+		Set<Path> changed = new HashSet<Path>();
+		
+		for (Iterator<Map.Entry<Path, Long>> i = changes.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<Path, Long> change = i.next();
+			if (now - change.getValue() < debounceNanos) continue;
+			
+			//Keep the change if the file has been written again in the meantime
+			if (changes.remove(change.getKey(), change.getValue())) changed.add(change.getKey());
+		}
+		
+		//Events have been lost, reload everything
+		boolean all = overflow;
+		overflow = false;
+		
+		if (all) preprocessor.clear();
+		else if (changed.isEmpty()) return 0;
+		else for (Path file : changed) preprocessor.invalidate(file);
+		
+		int reloaded = 0;
+		
+		for (Entry entry : entries) {
+			boolean vertex = all || !Collections.disjoint(entry.vertexFiles, changed);
+			boolean fragment = all || !Collections.disjoint(entry.fragmentFiles, changed);
+			
+			if ((vertex || fragment) && reload(entry, vertex, fragment)) reloaded++;
+		}
+		
+		return reloaded;
+	}
+	
+	private boolean reload(Entry entry, boolean vertex, boolean fragment) {
+		ShaderProgram program = entry.program;
+		VertexShader oldVertexShader = program.getVertexShader(), vertexShader = null;
+		FragmentShader oldFragmentShader = program.getFragmentShader(), fragmentShader = null;
+		
+		try {
+			ShaderSource vertexSource = vertex ? preprocessor.process(entry.vertexFile, entry.defines) : null;
+			ShaderSource fragmentSource = fragment ? preprocessor.process(entry.fragmentFile, entry.defines) : null;
+			
+			vertexShader = vertex ? new VertexShader(vertexSource) : oldVertexShader;
+			fragmentShader = fragment ? new FragmentShader(fragmentSource) : oldFragmentShader;
+			program.relink(vertexShader, fragmentShader);
+			
+			if (vertex) {
+				oldVertexShader.releaseShader();
+				entry.vertexFiles = watch(vertexSource);
+			}
+			
+			if (fragment) {
+				oldFragmentShader.releaseShader();
+				entry.fragmentFiles = watch(fragmentSource);
+			}
+			
+			reloads++;
+			return true;
+		} catch (IOException | InvalidShaderException | InvalidProgramException e) {
+			if (vertex && vertexShader != null && vertexShader != program.getVertexShader()) vertexShader.releaseShader();
+			if (fragment && fragmentShader != null && fragmentShader != program.getFragmentShader()) fragmentShader.releaseShader();
+			
+			failedReloads++;
+			lastError = entry.vertexFile + ", " + entry.fragmentFile + ": " + e.getMessage();
+			return false;
+		}
+	}
+	
+	/**
+	 * Stops reloading a program. The program itself isn't affected.
+	 * @param program a program created by {@link #load(Path, Path)}
+	 */
+	public void unwatch(ShaderProgram program) {
+		for (Iterator<Entry> i = entries.iterator(); i.hasNext();) {
+			if (i.next().program == program) i.remove();
+		}
+	}
+	
+	/**
+	 * Stops watching the files. The programs aren't affected.
+	 */
+	@Override
+	public void close() {
+		try {
+			watcher.close();
+		} catch (IOException e) {
+			//Nothing to do about it
+		}
+		
+		entries.clear();
+	}
+	
+	/**
+	 * Sets how long a file has to stay unchanged before it is reloaded. The default is 100 milliseconds.
+	 * @param debounceMillis the time in milliseconds
+	 */
+	public void setDebounceMillis(long debounceMillis) {
+		this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+	}
+	
+	public long getDebounceMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(debounceNanos);
+	}
+	
+	/**
+	 * @return the error of the last reload that failed, null if none has failed
+	 */
+	public String getLastError() {
+		return lastError;
+	}
+	
+	/**
+	 * @return the number of programs that have been reloaded
+	 */
+	public long getReloads() {
+		return reloads;
+	}
+	
+	/**
+	 * @return the number of reloads that have failed and kept the old shaders
+	 */
+	public long getFailedReloads() {
+		return failedReloads;
+	}
+	
+	public void resetStatistics() {
+		reloads = 0;
+		failedReloads = 0;
+	}
+	
+	private static class Entry {
+		private final Path vertexFile, fragmentFile;
+		private final Map<String, String> defines;
+		private ShaderProgram program;
+		private Set<Path> vertexFiles, fragmentFiles;
+		
+		private Entry(Path vertexFile, Path fragmentFile, Map<String, String> defines) {
+			this.vertexFile = vertexFile;
+			this.fragmentFile = fragmentFile;
+			this.defines = defines;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package at.erdlof.shadertools.shaders;
+
+/**
+ * Shader code created by the {@link ShaderPreprocessor}, together with the map to the files it comes from.
+ * Shaders created from a ShaderSource report compile errors with the original files and lines.
+ * @author Florian Bhrle
+ */
+public class ShaderSource {
+	private final String code;
+	private final SourceMap sourceMap;
+	
+	public ShaderSource(String code, SourceMap sourceMap) {
+		this.code = code;
+		this.sourceMap = sourceMap;
+	}
+	
+	public String getCode() {
+		return code;
+	}
+	
+	public SourceMap getSourceMap() {
+		return sourceMap;
+	}
+	
+	@Override
+	public String toString() {
+		return code;
+	}
+}
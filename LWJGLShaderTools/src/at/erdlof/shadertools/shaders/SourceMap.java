@@ -0,0 +1,156 @@
+package at.erdlof.shadertools.shaders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maps the lines of preprocessed shader code back to the files and lines they come from.
+ * The map is stored as runs of consecutive lines, one per included piece of a file.
+ * @author Florian Bhrle
+ */
+public class SourceMap {
+	//"0(12) : error" (NVIDIA) and "0:12(5): error" or "ERROR: 0:12:" (AMD, Intel, Mesa)
+	private static final Pattern LOG_LOCATION = Pattern.compile("(?m)^((?:ERROR|WARNING):\\s*)?(\\d+)(?:\\((\\d+)\\)|:(\\d+))");
+	
+	private final List<String> files;
+	private final int[] starts;
+	private final int[] fileIndices;
+	private final int[] firstLines;
+	private final int lineCount;
+	
+	private SourceMap(List<String> files, int[] starts, int[] fileIndices, int[] firstLines, int lineCount) {
+		this.files = files;
+		this.starts = starts;
+		this.fileIndices = fileIndices;
+		this.firstLines = firstLines;
+		this.lineCount = lineCount;
+	}
+	
+	private int run(int line) {
+		if (line < 1 || line > lineCount) return -1;
+		
+		int run = Arrays.binarySearch(starts, line);
+		return run >= 0 ? run : -run - 2;
+	}
+	
+	/**
+	 * @param line a line of the preprocessed code, starting at 1
+	 * @return the file the line comes from, or null if the line doesn't exist
+	 */
+	public String getFile(int line) {
+		int run = run(line);
+		return run >= 0 ? files.get(fileIndices[run]) : null;
+	}
+	
+	/**
+	 * @param line a line of the preprocessed code, starting at 1
+	 * @return the line in the {@link #getFile(int) file}, or -1 if the line doesn't exist
+	 */
+	public int getLine(int line) {
+		int run = run(line);
+		return run >= 0 ? firstLines[run] + line - starts[run] : -1;
+	}
+	
+	/**
+	 * @return all files lines come from, in the order they first appear
+	 */
+	public List<String> getFiles() {
+		return Collections.unmodifiableList(files);
+	}
+	
+	/**
+	 * @return the number of lines of the preprocessed code
+	 */
+	public int getLineCount() {
+		return lineCount;
+	}
+	
+	/**
+	 * Replaces the locations in a compiler log with the files and lines they come from, e.g.
+	 * "0(12) : error" becomes "lighting.glsl:3 : error".
+	 * @param log the log of the shader
+	 * @return the log pointing to the original files
+	 */
+	public String remap(String log) {
+		Matcher m = LOG_LOCATION.matcher(log);
+		StringBuffer remapped = new StringBuffer(log.length() + 64);
+		
+		while (m.find()) {
+			int line = Integer.parseInt(m.group(3) != null ? m.group(3) : m.group(4));
+			String file = getFile(line);
+			if (file == null) continue;
+			
+			String prefix = m.group(1) != null ? m.group(1) : "";
+			m.appendReplacement(remapped, Matcher.quoteReplacement(prefix + file + ":" + getLine(line)));
+		}
+		
+		m.appendTail(remapped);
+		return remapped.toString();
+	}
+	
+	/**
+	 * Collects the runs of a map in the order of the code.
+	 */
+	static class Builder {
+		private final List<String> files = new ArrayList<String>();
+		private int[] starts = new int[8];
+		private int[] fileIndices = new int[8];
+		private int[] firstLines = new int[8];
+		private int runs;
+		private int lineCount;
+		
+		/**
+		 * Appends lines coming from consecutive lines of one file.
+		 */
+		Builder add(String file, int firstLine, int count) {
+			if (count <= 0) return this;
+			
+			int fileIndex = files.indexOf(file);
+			
+			if (fileIndex < 0) {
+				fileIndex = files.size();
+				files.add(file);
+			}
+			
+			//Continue the last run if the lines follow it directly
+			if (runs > 0 && fileIndices[runs - 1] == fileIndex && firstLines[runs - 1] + lineCount + 1 - starts[runs - 1] == firstLine) {
+				lineCount += count;
+				return this;
+			}
+			
+			if (runs == starts.length) {
+				starts = Arrays.copyOf(starts, runs * 2);
+				fileIndices = Arrays.copyOf(fileIndices, runs * 2);
+				firstLines = Arrays.copyOf(firstLines, runs * 2);
+			}
+			
+			starts[runs] = lineCount + 1;
+			fileIndices[runs] = fileIndex;
+			firstLines[runs] = firstLine;
+			runs++;
+			lineCount += count;
+			return this;
+		}
+		
+		/**
+		 * Appends all lines of another map.
+		 */
+		Builder add(SourceMap map) {
+			for (int run = 0; run < map.starts.length; run++) {
+				int end = run + 1 < map.starts.length ? map.starts[run + 1] : map.lineCount + 1;
+				add(map.files.get(map.fileIndices[run]), map.firstLines[run], end - map.starts[run]);
+			}
+			
+			return this;
+		}
+		
+		SourceMap build() {
+			return new SourceMap(new ArrayList<String>(files), Arrays.copyOf(starts, runs),
+					Arrays.copyOf(fileIndices, runs), Arrays.copyOf(firstLines, runs), lineCount);
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package at.erdlof.shadertools.shaders;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Packs uniform variables of one program into a single off-heap buffer. Setting values only writes to the buffer,
+ * {@link #flush()} then uploads every changed variable with one driver call, no matter how many elements it has.
+ * A light list of 16 vec4s or the bone matrices of a skinned mesh cost one call per draw instead of one per element.
+ * <p>
+ * This is a client side block for ARB shader objects, which have no uniform buffer objects. Example:
+ * <p><code>
+ * UniformBlock block = new UniformBlock(program);<br>
+ * int lights = block.add("lights", UniformBlock.Type.VEC4, 16);<br>
+ * block.set(lights, 3, r, g, b, a);<br>
+ * program.bind();<br>
+ * block.flush();</code>
+ * @author Florian Bhrle
+ */
+public class UniformBlock {
+	/**
+	 * The GLSL types a block can hold.
+	 */
+	public enum Type {
+		FLOAT(1, 1, false), VEC2(2, 2, false), VEC3(3, 3, false), VEC4(4, 4, false),
+		INT(1, 1, true), IVEC2(2, 2, true), IVEC3(3, 3, true), IVEC4(4, 4, true),
+		MAT2(4, 2, false), MAT3(9, 3, false), MAT4(16, 4, false);
+		
+		private final int components;
+		private final int size;
+		private final boolean integer;
+		
+		private Type(int components, int size, boolean integer) {
+			this.components = components;
+			this.size = size;
+			this.integer = integer;
+		}
+		
+		/**
+		 * @return the number of values per element, e.g. 16 for a mat4
+		 */
+		public int getComponents() {
+			return components;
+		}
+		
+		public boolean isMatrix() {
+			return components != size;
+		}
+		
+		public boolean isInteger() {
+			return integer;
+		}
+	}
+	
+	private final ShaderProgram program;
+	private ByteBuffer data;
+	private FloatBuffer floats;
+	private IntBuffer ints;
+	private int used;
+	
+	private Type[] types = new Type[8];
+	private int[] handles = new int[8];
+	private int[] offsets = new int[8];
+	private int[] counts = new int[8];
+	private boolean[] dirty = new boolean[8];
+	private int entryCount;
+	private boolean anyDirty;
+	
+	private long flushes, uploads;
+	
+	/**
+	 * @param program the program the variables belong to
+	 */
+	public UniformBlock(ShaderProgram program) {
+		this.program = program;
+		allocate(64);
+	}
+	
+	private void allocate(int words) {
+		ByteBuffer newData = ByteBuffer.allocateDirect(words * 4).order(ByteOrder.nativeOrder());
+		
+		if (data != null) {
+			data.clear();
+			newData.put(data).clear();
+		}
+		
+		data = newData;
+		floats = data.asFloatBuffer();
+		ints = data.asIntBuffer();
+	}
+	
+	/**
+	 * Adds a uniform variable to the block. The variable is {@link ShaderProgram#registerUniform(String) registered}
+	 * with the program.
+	 * @param identifier the name of the variable, the name of the array for arrays
+	 * @param type the type of the variable
+	 * @param count the number of elements, 1 if the variable isn't an array
+	 * @return the index of the entry, used by the set methods
+	 */
+	public int add(String identifier, Type type, int count) {
+		if (count < 1) throw new IllegalArgumentException("An entry needs at least one element.");
+		
+		if (entryCount == types.length) {
+			int capacity = entryCount * 2;
+			types = Arrays.copyOf(types, capacity);
+			handles = Arrays.copyOf(handles, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+			dirty = Arrays.copyOf(dirty, capacity);
+		}
+		
+		int words = type.components * count;
+		if (used + words > floats.capacity()) allocate(Math.max(floats.capacity() * 2, used + words));
+		
+		int entry = entryCount++;
+		types[entry] = type;
+		handles[entry] = program.registerUniform(identifier);
+		offsets[entry] = used;
+		counts[entry] = count;
+		used += words;
+		
+		return entry;
+	}
+	
+	private int index(int entry, int element, int components) {
+		if (element < 0 || element >= counts[entry]) {
+			throw new IndexOutOfBoundsException("Element " + element + " of an entry with " + counts[entry] + " elements.");
+		}
+		
+		if (types[entry].components < components) {
+			throw new IllegalArgumentException("Cannot write " + components + " values to an element of type " + types[entry] + ".");
+		}
+		
+		dirty[entry] = true;
+		anyDirty = true;
+		return offsets[entry] + element * types[entry].components;
+	}
+	
+	private FloatBuffer floats(int entry) {
+		if (types[entry].integer) throw new IllegalArgumentException("Cannot write floats to an entry of type " + types[entry] + ".");
+		return floats;
+	}
+	
+	public void set(int entry, int element, float x) {
+		int i = index(entry, element, 1);
+		floats(entry).put(i, x);
+	}
+	
+	public void set(int entry, int element, float x, float y) {
+		int i = index(entry, element, 2);
+		floats(entry).put(i, x).put(i + 1, y);
+	}
+	
+	public void set(int entry, int element, float x, float y, float z) {
+		int i = index(entry, element, 3);
+		floats(entry).put(i, x).put(i + 1, y).put(i + 2, z);
+	}
+	
+	public void set(int entry, int element, float x, float y, float z, float w) {
+		int i = index(entry, element, 4);
+		floats(entry).put(i, x).put(i + 1, y).put(i + 2, z).put(i + 3, w);
+	}
+	
+	/**
+	 * Writes an integer. Float entries receive the value converted to float.
+	 */
+	public void set(int entry, int element, int x) {
+		int i = index(entry, element, 1);
+		
+		if (types[entry].integer) ints.put(i, x);
+		else floats.put(i, x);
+	}
+	
+	/**
+	 * Writes an integer vector. Float entries receive the values converted to float.
+	 */
+	public void set(int entry, int element, int x, int y) {
+		int i = index(entry, element, 2);
+		
+		if (types[entry].integer) ints.put(i, x).put(i + 1, y);
+		else floats.put(i, x).put(i + 1, y);
+	}
+	
+	/**
+	 * Writes an integer vector. Float entries receive the values converted to float.
+	 */
+	public void set(int entry, int element, int x, int y, int z) {
+		int i = index(entry, element, 3);
+		
+		if (types[entry].integer) ints.put(i, x).put(i + 1, y).put(i + 2, z);
+		else floats.put(i, x).put(i + 1, y).put(i + 2, z);
+	}
+	
+	/**
+	 * Writes an integer vector. Float entries receive the values converted to float.
+	 */
+	public void set(int entry, int element, int x, int y, int z, int w) {
+		int i = index(entry, element, 4);
+		
+		if (types[entry].integer) ints.put(i, x).put(i + 1, y).put(i + 2, z).put(i + 3, w);
+		else floats.put(i, x).put(i + 1, y).put(i + 2, z).put(i + 3, w);
+	}
+	
+	/**
+	 * Writes one element of a float, vector or matrix entry.
+	 * @param entry the index returned by {@link #add(String, Type, int) add}
+	 * @param element the index of the element
+	 * @param values the components of the element, matrices in column-major order
+	 */
+	public void set(int entry, int element, float[] values) {
+		int i = index(entry, element, values.length);
+		FloatBuffer target = floats(entry);
+		for (int c = 0; c < values.length; c++) target.put(i + c, values[c]);
+	}
+	
+	/**
+	 * Writes consecutive values into a float, vector or matrix entry, starting at its first element.
+	 * @param entry the index returned by {@link #add(String, Type, int) add}
+	 * @param values the values, at most as many as the entry holds
+	 */
+	public void setAll(int entry, float[] values) {
+		if (values.length > counts[entry] * types[entry].components) {
+			throw new IndexOutOfBoundsException(values.length + " values don't fit into the entry.");
+		}
+		
+		int i = index(entry, 0, 0);
+		FloatBuffer target = floats(entry);
+		for (int c = 0; c < values.length; c++) target.put(i + c, values[c]);
+	}
+	
+	/**
+	 * Marks all entries as changed, e.g. after the program has been relinked.
+	 */
+	public void invalidate() {
+		Arrays.fill(dirty, 0, entryCount, true);
+		anyDirty = entryCount > 0;
+	}
+	
+	/**
+	 * Uploads every entry that has been changed since the last flush, with one driver call per entry.
+	 * The program has to be bound.
+	 */
+	public void flush() {
+		flushes++;
+		if (!anyDirty) return;
+		
+		for (int entry = 0; entry < entryCount; entry++) {
+			if (!dirty[entry]) continue;
+			
+			Type type = types[entry];
+			int offset = offsets[entry];
+			int limit = offset + type.components * counts[entry];
+			
+			if (type.integer) {
+				ints.limit(limit).position(offset);
+				program.setUniformArray(handles[entry], type.size, ints);
+			} else {
+				floats.limit(limit).position(offset);
+				
+				if (type.isMatrix()) program.setUniformMatrix(handles[entry], type.size, false, floats);
+				else program.setUniformArray(handles[entry], type.size, floats);
+			}
+			
+			dirty[entry] = false;
+			uploads++;
+		}
+		
+		floats.clear();
+		ints.clear();
+		anyDirty = false;
+	}
+	
+	/**
+	 * @return the number of {@link #flush() flushes}
+	 */
+	public long getFlushes() {
+		return flushes;
+	}
+	
+	/**
+	 * @return the number of driver calls made by all flushes
+	 */
+	public long getUploads() {
+		return uploads;
+	}
+	
+	public ShaderProgram getProgram() {
+		return program;
+	}
+}
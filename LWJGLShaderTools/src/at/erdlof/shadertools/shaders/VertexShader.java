@@ -1,8 +1,5 @@
 package at.erdlof.shadertools.shaders;
 
-import static org.lwjgl.opengl.ARBShaderObjects.glCompileShaderARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glCreateShaderObjectARB;
-import static org.lwjgl.opengl.ARBShaderObjects.glShaderSourceARB;
 import static org.lwjgl.opengl.ARBVertexShader.GL_VERTEX_SHADER_ARB;
 
 /**
@@ -12,9 +9,28 @@ public class VertexShader extends Shader {
 	public VertexShader(String programCode) {
 		super(programCode);
 		
-		setShaderID(glCreateShaderObjectARB(GL_VERTEX_SHADER_ARB));
-		glShaderSourceARB(getShaderID(), getProgramCode());
-		glCompileShaderARB(getShaderID());
-		super.validate();
+		compile(GL_VERTEX_SHADER_ARB);
+		validateOrRelease();
+	}
+	
+	/**
+	 * @param source preprocessed code, see {@link ShaderPreprocessor}
+	 */
+	public VertexShader(ShaderSource source) {
+		super(source);
+		
+		compile(GL_VERTEX_SHADER_ARB);
+		validateOrRelease();
+	}
+	
+	/**
+	 * Compiles without checking the compile status, see {@link ShaderBatch}.
+	 */
+	VertexShader(String programCode, boolean deferValidation) {
+		super(programCode);
+		
+		compile(GL_VERTEX_SHADER_ARB);
+		if (deferValidation) deferValidation();
+		else validateOrRelease();
 	}
 }
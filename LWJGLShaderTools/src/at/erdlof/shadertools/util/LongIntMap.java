@@ -0,0 +1,174 @@
+package at.erdlof.shadertools.util;
+
+import java.util.Arrays;
+
+/**
+ * A map from primitive longs to primitive ints using open addressing with linear probing, like {@link StringIntMap}.
+ * Neither lookups nor updates box, and removing a key shifts the keys after it back instead of leaving tombstones,
+ * so maps with many updates and removals don't degrade.
+ * @author Florian Bhrle
+ */
+public class LongIntMap {
+	private static final float LOAD_FACTOR = 0.5f;
+	
+	private final int missingValue;
+	private long[] keys;
+	private int[] values;
+	private boolean[] used;
+	private int size;
+	
+	/**
+	 * @param missingValue the value returned by {@link #get(long)} for unknown keys
+	 */
+	public LongIntMap(int missingValue) {
+		this(missingValue, 16);
+	}
+	
+	/**
+	 * @param missingValue the value returned by {@link #get(long)} for unknown keys
+	 * @param expectedSize the number of keys the map should hold without growing
+	 */
+	public LongIntMap(int missingValue, int expectedSize) {
+		this.missingValue = missingValue;
+		
+		int capacity = 4;
+		while (capacity * LOAD_FACTOR < expectedSize) capacity <<= 1;
+		
+		keys = new long[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+	}
+	
+	private static int mix(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+	
+	private int slot(long key) {
+		int mask = keys.length - 1;
+		int i = mix(key) & mask;
+		
+		while (used[i] && keys[i] != key) i = (i + 1) & mask;
+		
+		return i;
+	}
+	
+	/**
+	 * @return the value mapped to the key, or the missing value if there is none
+	 */
+	public int get(long key) {
+		int i = slot(key);
+		return used[i] ? values[i] : missingValue;
+	}
+	
+	/**
+	 * @return true if the key is mapped to a value
+	 */
+	public boolean containsKey(long key) {
+		return used[slot(key)];
+	}
+	
+	/**
+	 * Maps the key to the value, replacing any previous value.
+	 */
+	public void put(long key, int value) {
+		int i = slot(key);
+		
+		if (!used[i]) {
+			if (size + 1 > keys.length * LOAD_FACTOR) {
+				grow();
+				i = slot(key);
+			}
+			
+			keys[i] = key;
+			used[i] = true;
+			size++;
+		}
+		
+		values[i] = value;
+	}
+	
+	/**
+	 * Removes the key.
+	 * @return the value that has been mapped to the key, or the missing value if there was none
+	 */
+	public int remove(long key) {
+		int mask = keys.length - 1;
+		int i = slot(key);
+		if (!used[i]) return missingValue;
+		
+		int value = values[i];
+		used[i] = false;
+		size--;
+		
+		//Moves the following keys of the run into the gap, unless they already sit between their home slot and the gap
+		for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+			int home = mix(keys[j]) & mask;
+			
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				used[i] = true;
+				used[j] = false;
+				i = j;
+			}
+		}
+		
+		return value;
+	}
+	
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+		
+		keys = new long[oldKeys.length << 1];
+		values = new int[oldKeys.length << 1];
+		used = new boolean[oldKeys.length << 1];
+		
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i]) {
+				int j = slot(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+				used[j] = true;
+			}
+		}
+	}
+	
+	/**
+	 * Copies the keys into an array, in no particular order.
+	 */
+	public long[] keys() {
+		long[] result = new long[size];
+		int n = 0;
+		
+		for (int i = 0; i < keys.length; i++) {
+			if (used[i]) result[n++] = keys[i];
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @return the number of keys
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return the value returned for unknown keys
+	 */
+	public int getMissingValue() {
+		return missingValue;
+	}
+	
+	/**
+	 * Removes all keys.
+	 */
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+}
@@ -0,0 +1,89 @@
+package at.erdlof.shadertools.util;
+
+import java.util.Arrays;
+
+/**
+ * Sorts primitive long keys in ascending unsigned order, optionally carrying an int value along with every key.
+ * <p>
+ * The sort is a least significant digit radix sort over the eight bytes of the keys. It is stable, takes linear time
+ * and skips every byte that is the same in all keys, which is common for packed sort keys using only some of their
+ * bits. The scratch arrays are kept between calls, so sorting a similar number of keys every frame allocates nothing.
+ * Instances aren't thread safe.
+ * @author Florian Bhrle
+ */
+public class RadixSort {
+	private static final int PASSES = 8;
+	
+	private final int[] histograms = new int[PASSES * 256];
+	private long[] keyBuffer = new long[0];
+	private int[] valueBuffer = new int[0];
+	
+	/**
+	 * Sorts the first keys of an array.
+	 * @param keys the keys
+	 * @param count the number of keys to sort
+	 */
+	public void sort(long[] keys, int count) {
+		sort(keys, null, count);
+	}
+	
+	/**
+	 * Sorts the first keys of an array and moves the values the same way.
+	 * @param keys the keys
+	 * @param values the values belonging to the keys, null if there are none
+	 * @param count the number of keys to sort
+	 */
+	public void sort(long[] keys, int[] values, int count) {
+		if (count < 2) return;
+		
+		if (keyBuffer.length < count) keyBuffer = new long[count];
+		if (values != null && valueBuffer.length < count) valueBuffer = new int[count];
+		
+		int[] histograms = this.histograms;
+		Arrays.fill(histograms, 0);
+		
+		for (int i = 0; i < count; i++) {
+			long key = keys[i];
+			for (int pass = 0; pass < PASSES; pass++) histograms[pass << 8 | (int) (key >>> (pass << 3)) & 0xFF]++;
+		}
+		
+		long[] sourceKeys = keys, targetKeys = keyBuffer;
+		int[] sourceValues = values, targetValues = valueBuffer;
+		
+		for (int pass = 0; pass < PASSES; pass++) {
+			int offset = pass << 8;
+			int shift = pass << 3;
+			
+			//All keys share this byte, the pass wouldn't change the order
+			if (histograms[offset | (int) (sourceKeys[0] >>> shift) & 0xFF] == count) continue;
+			
+			int sum = 0;
+			
+			for (int i = offset; i < offset + 256; i++) {
+				int bucket = histograms[i];
+				histograms[i] = sum;
+				sum += bucket;
+			}
+			
+			for (int i = 0; i < count; i++) {
+				long key = sourceKeys[i];
+				int position = histograms[offset | (int) (key >>> shift) & 0xFF]++;
+				targetKeys[position] = key;
+				if (values != null) targetValues[position] = sourceValues[i];
+			}
+			
+			long[] keySwap = sourceKeys;
+			sourceKeys = targetKeys;
+			targetKeys = keySwap;
+			
+			int[] valueSwap = sourceValues;
+			sourceValues = targetValues;
+			targetValues = valueSwap;
+		}
+		
+		if (sourceKeys != keys) {
+			System.arraycopy(sourceKeys, 0, keys, 0, count);
+			if (values != null) System.arraycopy(sourceValues, 0, values, 0, count);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package at.erdlof.shadertools.util;
+
+import java.util.Arrays;
+
+/**
+ * A map from strings to primitive ints using open addressing with linear probing.
+ * Lookups hash the key once (strings cache their hash code) and never box the value.
+ * <p>
+ * Keys cannot be removed, since the maps of the shader tools only ever grow until they are {@link #clear() cleared}.
+ * @author Florian Bhrle
+ */
+public class StringIntMap {
+	private static final float LOAD_FACTOR = 0.5f;
+	
+	private final int missingValue;
+	private String[] keys;
+	private int[] values;
+	private int size;
+	
+	/**
+	 * @param missingValue the value returned by {@link #get(String)} for unknown keys
+	 */
+	public StringIntMap(int missingValue) {
+		this(missingValue, 16);
+	}
+	
+	/**
+	 * @param missingValue the value returned by {@link #get(String)} for unknown keys
+	 * @param expectedSize the number of keys the map should hold without growing
+	 */
+	public StringIntMap(int missingValue, int expectedSize) {
+		this.missingValue = missingValue;
+		
+		int capacity = 4;
+		while (capacity * LOAD_FACTOR < expectedSize) capacity <<= 1;
+		
+		keys = new String[capacity];
+		values = new int[capacity];
+	}
+	
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+	
+	private int slot(String key) {
+		int mask = keys.length - 1;
+		int i = mix(key.hashCode()) & mask;
+		
+		while (keys[i] != null && !keys[i].equals(key)) i = (i + 1) & mask;
+		
+		return i;
+	}
+	
+	/**
+	 * @param key the key, not null
+	 * @return the value mapped to the key, or the missing value if there is none
+	 */
+	public int get(String key) {
+		int i = slot(key);
+		return keys[i] != null ? values[i] : missingValue;
+	}
+	
+	/**
+	 * @param key the key, not null
+	 * @return true if the key is mapped to a value
+	 */
+	public boolean containsKey(String key) {
+		return keys[slot(key)] != null;
+	}
+	
+	/**
+	 * Maps the key to the value, replacing any previous value.
+	 * @param key the key, not null
+	 * @param value the value
+	 */
+	public void put(String key, int value) {
+		if (key == null) throw new NullPointerException("key");
+		
+		int i = slot(key);
+		
+		if (keys[i] == null) {
+			if (size + 1 > keys.length * LOAD_FACTOR) {
+				grow();
+				i = slot(key);
+			}
+			
+			keys[i] = key;
+			size++;
+		}
+		
+		values[i] = value;
+	}
+	
+	private void grow() {
+		String[] oldKeys = keys;
+		int[] oldValues = values;
+		
+		keys = new String[oldKeys.length << 1];
+		values = new int[oldKeys.length << 1];
+		
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				int j = slot(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+	
+	/**
+	 * @return the number of keys
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return the value returned for unknown keys
+	 */
+	public int getMissingValue() {
+		return missingValue;
+	}
+	
+	/**
+	 * Removes all keys.
+	 */
+	public void clear() {
+		Arrays.fill(keys, null);
+		size = 0;
+	}
+}
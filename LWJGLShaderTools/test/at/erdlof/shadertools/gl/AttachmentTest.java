@@ -0,0 +1,55 @@
+package at.erdlof.shadertools.gl;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+
+import at.erdlof.shadertools.shaders.FullscreenQuad;
+
+/**
+ * Checks that the objects kept per backend are shared by its users and don't keep it alive.
+ * @author Florian Bhrle
+ */
+public class AttachmentTest {
+	@Test
+	public void sharesObjectsPerBackend() {
+		RecordingBackend first = new RecordingBackend();
+		RecordingBackend second = new RecordingBackend();
+		
+		assertSame(StateTracker.of(first), StateTracker.of(first));
+		assertSame(GLResources.of(first), GLResources.of(first));
+		assertSame(Profiler.of(first), Profiler.of(first));
+		assertSame(FullscreenQuad.of(first), FullscreenQuad.of(first));
+		
+		assertNotSame(StateTracker.of(first), StateTracker.of(second));
+		assertNotSame(GLResources.of(first), GLResources.of(second));
+		assertNotSame(Profiler.of(first), Profiler.of(second));
+		assertNotSame(FullscreenQuad.of(first), FullscreenQuad.of(second));
+	}
+	
+	@Test
+	public void collectsBackendsWithTheirObjects() throws InterruptedException {
+		WeakReference<GLBackend> backend = createAndUse();
+		
+		for (int i = 0; i < 100 && backend.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		
+		assertNull(backend.get());
+	}
+	
+	private static WeakReference<GLBackend> createAndUse() {
+		RecordingBackend gl = new RecordingBackend();
+		StateTracker.of(gl).useProgram(1);
+		Profiler.of(gl).setEnabled(true);
+		//Creates the vertex buffer, which is registered with the GLResources of the backend
+		FullscreenQuad.of(gl).draw(null);
+		
+		return new WeakReference<GLBackend>(gl);
+	}
+}
@@ -0,0 +1,54 @@
+package at.erdlof.shadertools.gl;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks the timer queries of the {@link Profiler} on a {@link RecordingBackend}.
+ * @author Florian Bhrle
+ */
+public class ProfilerTest {
+	@Test
+	public void measuresOutermostSectionOnGpu() {
+		RecordingBackend gl = new RecordingBackend();
+		gl.setTimerQuerySupported(true);
+		Profiler profiler = new Profiler(gl, 8);
+		profiler.setEnabled(true);
+		int outer = profiler.section("outer");
+		int inner = profiler.section("inner");
+		
+		profiler.begin(outer);
+		profiler.begin(inner);
+		profiler.end(inner);
+		profiler.end(outer);
+		
+		assertEquals(1, profiler.endFrame());
+		assertEquals(2, profiler.getCount(outer) + profiler.getCount(inner));
+		assertEquals(-1, profiler.getGpuPercentile(inner, 50));
+	}
+	
+	@Test
+	public void endsActiveQueryWhenDisabled() {
+		RecordingBackend gl = new RecordingBackend();
+		gl.setTimerQuerySupported(true);
+		Profiler profiler = new Profiler(gl, 8);
+		profiler.setEnabled(true);
+		int section = profiler.section("section");
+		
+		profiler.begin(section);
+		profiler.setEnabled(false);
+		profiler.end(section);
+		
+		assertEquals(1, gl.getTotalCount(GLCall.BEGIN_QUERY));
+		assertEquals(1, gl.getTotalCount(GLCall.END_QUERY));
+		assertEquals(0, profiler.endFrame());
+		
+		profiler.setEnabled(true);
+		profiler.begin(section);
+		profiler.end(section);
+		
+		assertEquals(1, profiler.endFrame());
+		assertEquals(1, gl.getTotalCount(GLCall.GEN_QUERIES));
+	}
+}
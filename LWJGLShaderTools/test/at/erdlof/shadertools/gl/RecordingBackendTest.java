@@ -0,0 +1,62 @@
+package at.erdlof.shadertools.gl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Checks the per frame call histograms of the {@link RecordingBackend}.
+ * @author Florian Bhrle
+ */
+public class RecordingBackendTest {
+	private static final int GL_TRIANGLES = 0x0004;
+	
+	@Test
+	public void countsCallsPerFrame() {
+		RecordingBackend gl = new RecordingBackend();
+		
+		gl.glDrawArrays(GL_TRIANGLES, 0, 3);
+		gl.glDrawArrays(GL_TRIANGLES, 0, 3);
+		gl.glUseProgramObjectARB(0);
+		
+		assertEquals(2, gl.getFrameCount(GLCall.DRAW_ARRAYS));
+		assertEquals(1, gl.getFrameCount(GLCall.USE_PROGRAM_OBJECT));
+		assertEquals(3, gl.getFrameCallCount());
+		
+		Map<GLCall, Integer> expected = new EnumMap<GLCall, Integer>(GLCall.class);
+		expected.put(GLCall.USE_PROGRAM_OBJECT, 1);
+		expected.put(GLCall.DRAW_ARRAYS, 2);
+		assertEquals(expected, gl.endFrame());
+		
+		assertEquals(0, gl.getFrameCount(GLCall.DRAW_ARRAYS));
+		assertEquals(0, gl.getFrameCallCount());
+		assertEquals(2, gl.getTotalCount(GLCall.DRAW_ARRAYS));
+	}
+	
+	@Test
+	public void keepsFrameHistory() {
+		RecordingBackend gl = new RecordingBackend();
+		
+		gl.glDrawArrays(GL_TRIANGLES, 0, 3);
+		gl.endFrame();
+		gl.endFrame();
+		gl.glDrawArrays(GL_TRIANGLES, 0, 3);
+		gl.glDrawArrays(GL_TRIANGLES, 0, 3);
+		gl.endFrame();
+		
+		List<Map<GLCall, Integer>> history = gl.getFrameHistory();
+		assertEquals(3, history.size());
+		assertEquals(1, (int) history.get(0).get(GLCall.DRAW_ARRAYS));
+		assertTrue(history.get(1).isEmpty());
+		assertEquals(2, (int) history.get(2).get(GLCall.DRAW_ARRAYS));
+		
+		gl.reset();
+		assertTrue(gl.getFrameHistory().isEmpty());
+		assertEquals(0, gl.getTotalCount(GLCall.DRAW_ARRAYS));
+	}
+}
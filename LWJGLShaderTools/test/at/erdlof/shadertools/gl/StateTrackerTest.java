@@ -0,0 +1,87 @@
+package at.erdlof.shadertools.gl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import at.erdlof.shadertools.shaders.ShaderProgram;
+
+/**
+ * Checks that redundant binds don't reach the {@link RecordingBackend} and that the counters of the
+ * {@link StateTracker} see them.
+ * @author Florian Bhrle
+ */
+public class StateTrackerTest {
+	@Test
+	public void bindUnbindBindCostsOneCall() {
+		RecordingBackend gl = new RecordingBackend();
+		GLBackends.set(gl);
+		StateTracker state = StateTracker.of(gl);
+		ShaderProgram program = UniformCacheTest.program();
+		gl.reset();
+		
+		program.bind();
+		program.unbind();
+		program.bind();
+		program.unbind();
+		program.bind();
+		
+		assertEquals(1, gl.getFrameCount(GLCall.USE_PROGRAM_OBJECT));
+		assertEquals(3, state.getProgramBinds());
+		assertEquals(2, state.getRedundantProgramBinds());
+		assertEquals(2, state.getDeferredUnbinds());
+		assertEquals(program.getProgramID(), gl.getBoundProgram());
+		
+		ShaderProgram.unbindAll();
+		assertEquals(2, gl.getFrameCount(GLCall.USE_PROGRAM_OBJECT));
+		assertEquals(0, gl.getBoundProgram());
+	}
+	
+	@Test
+	public void unbindsRightAwayWithoutLazyUnbind() {
+		RecordingBackend gl = new RecordingBackend();
+		GLBackends.set(gl);
+		StateTracker state = StateTracker.of(gl);
+		state.setLazyUnbind(false);
+		ShaderProgram program = UniformCacheTest.program();
+		gl.reset();
+		
+		program.bind();
+		program.unbind();
+		program.bind();
+		
+		assertEquals(3, gl.getFrameCount(GLCall.USE_PROGRAM_OBJECT));
+		assertEquals(0, state.getDeferredUnbinds());
+	}
+	
+	@Test
+	public void skipsBoundFramebuffersAndTextures() {
+		RecordingBackend gl = new RecordingBackend();
+		GLBackends.set(gl);
+		StateTracker state = StateTracker.of(gl);
+		
+		assertTrue(state.bindFramebuffer(0));
+		assertFalse(state.bindFramebuffer(0));
+		assertEquals(1, gl.getFrameCount(GLCall.BIND_FRAMEBUFFER));
+		assertEquals(1, state.getRedundantFramebufferBinds());
+		
+		assertTrue(state.bindTexture(0, 7));
+		assertFalse(state.bindTexture(0, 7));
+		assertTrue(state.bindTexture(1, 7));
+		assertTrue(state.bindTexture(1, 8));
+		assertEquals(3, gl.getFrameCount(GLCall.BIND_TEXTURE));
+		assertEquals(2, gl.getFrameCount(GLCall.ACTIVE_TEXTURE));
+		assertEquals(1, state.getRedundantTextureBinds());
+		assertEquals(2, state.getTextureUnitSwitches());
+		
+		state.invalidate();
+		assertTrue(state.bindFramebuffer(0));
+		assertTrue(state.bindTexture(1, 8));
+		
+		state.resetStatistics();
+		assertEquals(0, state.getFramebufferBinds());
+		assertEquals(0, state.getTextureBinds());
+	}
+}
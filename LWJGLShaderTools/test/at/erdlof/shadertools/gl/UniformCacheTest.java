@@ -0,0 +1,64 @@
+package at.erdlof.shadertools.gl;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import at.erdlof.shadertools.shaders.FragmentShader;
+import at.erdlof.shadertools.shaders.ShaderProgram;
+import at.erdlof.shadertools.shaders.VertexShader;
+
+/**
+ * Checks that the shadow copies of {@link ShaderProgram} skip uniform writes of values the program already holds.
+ * @author Florian Bhrle
+ */
+public class UniformCacheTest {
+	static ShaderProgram program() {
+		return new ShaderProgram(new VertexShader("#version 120\nvoid main() {\n\tgl_Position = gl_Vertex;\n}\n"),
+				new FragmentShader("#version 120\nuniform float time;\nuniform vec4 tint;\n"
+						+ "void main() {\n\tgl_FragColor = tint * time;\n}\n"));
+	}
+	
+	@Test
+	public void skipsRepeatedValues() {
+		RecordingBackend gl = new RecordingBackend();
+		GLBackends.set(gl);
+		ShaderProgram program = program();
+		int time = program.registerUniform("time");
+		int tint = program.registerUniform("tint");
+		program.bind();
+		
+		for (int i = 0; i < 3; i++) {
+			program.setUniform(time, 1f);
+			program.setUniform(tint, 1f, 0.5f, 0.25f, 1f);
+		}
+		
+		program.setUniform(time, 2f);
+		program.setUniform("time", 2f);
+		
+		assertEquals(2, gl.getFrameCount(GLCall.UNIFORM_1F));
+		assertEquals(1, gl.getFrameCount(GLCall.UNIFORM_4F));
+		assertEquals(3, program.getUniformCacheMisses());
+		assertEquals(5, program.getUniformCacheHits());
+	}
+	
+	@Test
+	public void uploadsAgainAfterInvalidate() {
+		RecordingBackend gl = new RecordingBackend();
+		GLBackends.set(gl);
+		ShaderProgram program = program();
+		int time = program.registerUniform("time");
+		program.bind();
+		
+		program.setUniform(time, 1f);
+		program.invalidateUniformCache();
+		program.setUniform(time, 1f);
+		
+		assertEquals(2, gl.getFrameCount(GLCall.UNIFORM_1F));
+		
+		program.resetUniformCacheStatistics();
+		program.setUniform(time, 1f);
+		assertEquals(1, program.getUniformCacheHits());
+		assertEquals(0, program.getUniformCacheMisses());
+	}
+}
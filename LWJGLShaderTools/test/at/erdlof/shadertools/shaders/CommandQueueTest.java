@@ -0,0 +1,141 @@
+package at.erdlof.shadertools.shaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.RecordingBackend;
+import at.erdlof.shadertools.gl.StateTracker;
+
+/**
+ * Checks the order in which a {@link CommandQueue} replays the items of several buffers, and the binds it saves.
+ * @author Florian Bhrle
+ */
+public class CommandQueueTest {
+	/**
+	 * Logs the framebuffers and programs in the order they are bound.
+	 */
+	private static class BindLog extends RecordingBackend {
+		private final List<String> binds = new ArrayList<String>();
+		
+		@Override
+		public void glBindFramebufferEXT(int target, int framebuffer) {
+			super.glBindFramebufferEXT(target, framebuffer);
+			binds.add("fbo " + framebuffer);
+		}
+		
+		@Override
+		public void glUseProgramObjectARB(int program) {
+			super.glUseProgramObjectARB(program);
+			binds.add("program " + program);
+		}
+	}
+	
+	private static ShaderProgram program(int index) {
+		return new ShaderProgram(new VertexShader(FullscreenQuadTest.VERTEX), new FragmentShader(FullscreenQuadTest.FRAGMENT + "//Program " + index + "\n"));
+	}
+	
+	private static void draw(CommandBuffer commands, FrameBuffer target, ShaderProgram program, int layer) {
+		commands.begin(target, program, layer);
+		commands.drawQuad();
+	}
+	
+	@Test
+	public void sortsByLayerTargetAndProgram() {
+		BindLog gl = new BindLog();
+		GLBackends.set(gl);
+		FrameBuffer first = new FrameBuffer(64, 64);
+		FrameBuffer second = new FrameBuffer(64, 64);
+		ShaderProgram a = program(0);
+		ShaderProgram b = program(1);
+		CommandQueue queue = new CommandQueue();
+		StateTracker.of(gl).invalidate();
+		
+		CommandBuffer commands = queue.acquire();
+		draw(commands, first, a, 1);
+		draw(commands, null, b, 0);
+		draw(commands, second, a, 0);
+		queue.submit(commands);
+		
+		commands = queue.acquire();
+		draw(commands, second, b, 0);
+		draw(commands, first, a, 1);
+		draw(commands, second, a, 0);
+		queue.submit(commands);
+		
+		gl.binds.clear();
+		assertEquals(6, queue.execute());
+		
+		//Layer 0 first, in it the display before the FBO with the lower ID, and every pair bound once
+		String fboFirst = "fbo " + first.getFBOid();
+		String fboSecond = "fbo " + second.getFBOid();
+		String programA = "program " + a.getProgramID();
+		String programB = "program " + b.getProgramID();
+		assertEquals(Arrays.asList("fbo 0", programB, fboSecond, programA, programB, fboFirst, programA, "fbo 0"), gl.binds);
+		assertEquals(4, queue.getTargetBinds());
+		assertEquals(4, queue.getProgramBinds());
+		assertEquals(6, queue.getItems());
+	}
+	
+	@Test
+	public void keepsSubmissionOrderWithoutSorting() {
+		RecordingBackend gl = new RecordingBackend();
+		GLBackends.set(gl);
+		FrameBuffer target = new FrameBuffer(64, 64);
+		ShaderProgram a = program(0);
+		ShaderProgram b = program(1);
+		CommandQueue queue = new CommandQueue();
+		queue.setSorting(false);
+		
+		CommandBuffer commands = queue.acquire();
+		draw(commands, target, a, 0);
+		draw(commands, target, b, 0);
+		draw(commands, target, a, 0);
+		queue.submit(commands);
+		queue.execute();
+		
+		assertEquals(2, queue.getTargetBinds());
+		assertEquals(3, queue.getProgramBinds());
+	}
+	
+	@Test
+	public void dropsBuffersOfFailedExecute() {
+		RecordingBackend gl = new RecordingBackend();
+		GLBackends.set(gl);
+		FrameBuffer target = new FrameBuffer(64, 64);
+		ShaderProgram a = program(0);
+		ShaderProgram released = program(1);
+		CommandQueue queue = new CommandQueue();
+		
+		CommandBuffer commands = queue.acquire();
+		draw(commands, target, a, 0);
+		draw(commands, target, released, 0);
+		queue.submit(commands);
+		released.releaseProgram();
+		
+		try {
+			queue.execute();
+			fail("The released program has been bound.");
+		} catch (InvalidProgramException e) {
+			//Expected
+		}
+		
+		assertEquals(0, StateTracker.of(gl).getBoundFramebuffer());
+		
+		//The failed buffer has been reset and is handed out again
+		CommandBuffer next = queue.acquire();
+		assertEquals(commands, next);
+		assertEquals(0, next.getItemCount());
+		
+		draw(next, target, a, 0);
+		queue.submit(next);
+		assertEquals(1, queue.execute());
+		assertEquals(1, queue.getItems());
+	}
+}
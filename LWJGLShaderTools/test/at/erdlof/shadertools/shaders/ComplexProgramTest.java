@@ -0,0 +1,82 @@
+package at.erdlof.shadertools.shaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.GLCall;
+import at.erdlof.shadertools.gl.Profiler;
+import at.erdlof.shadertools.gl.RecordingBackend;
+import at.erdlof.shadertools.gl.StateTracker;
+
+/**
+ * Checks that {@link ComplexProgram#use(ComplexSequence)} hands its targets back to the pool and restores the state
+ * it has changed, also if a pass fails.
+ * @author Florian Bhrle
+ */
+public class ComplexProgramTest {
+	@Test
+	public void releasesTargetsAfterUse() {
+		GLBackends.set(new RecordingBackend());
+		RenderTargetPool pool = new RenderTargetPool(2);
+		ComplexProgram program = new ComplexProgram(pool);
+		
+		program.use(() -> {});
+		program.use(() -> {});
+		
+		assertEquals(0, pool.getAcquiredCount());
+		assertEquals(1, pool.getAllocations());
+	}
+	
+	private static void assertRestored(RecordingBackend gl) {
+		assertEquals(gl.getTotalCount(GLCall.PUSH_ATTRIB), gl.getTotalCount(GLCall.POP_ATTRIB));
+		assertEquals(gl.getTotalCount(GLCall.BEGIN_QUERY), gl.getTotalCount(GLCall.END_QUERY));
+		assertEquals(0, StateTracker.of(gl).getBoundFramebuffer());
+	}
+	
+	@Test
+	public void releasesTargetsWhenSequenceFails() {
+		RecordingBackend gl = new RecordingBackend();
+		GLBackends.set(gl);
+		RenderTargetPool pool = new RenderTargetPool(2);
+		ComplexProgram program = new ComplexProgram(pool);
+		
+		try {
+			program.use(() -> {
+				throw new IllegalStateException("Sequence failed.");
+			});
+			fail("The sequence didn't fail.");
+		} catch (IllegalStateException e) {
+			assertEquals("Sequence failed.", e.getMessage());
+		}
+		
+		assertEquals(0, pool.getAcquiredCount());
+		assertEquals(1, pool.getFreeCount());
+		assertRestored(gl);
+	}
+	
+	@Test
+	public void restoresStateWhenPassFails() {
+		RecordingBackend gl = new RecordingBackend();
+		gl.setTimerQuerySupported(true);
+		GLBackends.set(gl);
+		Profiler.of(gl).setEnabled(true);
+		RenderTargetPool pool = new RenderTargetPool(2);
+		ShaderProgram pass = new ShaderProgram(new VertexShader(FullscreenQuadTest.VERTEX), new FragmentShader(FullscreenQuadTest.FRAGMENT));
+		ComplexProgram program = new ComplexProgram(pool, pass);
+		pass.releaseProgram();
+		
+		try {
+			program.use(() -> {});
+			fail("The released pass has been bound.");
+		} catch (InvalidProgramException e) {
+			//Expected
+		}
+		
+		assertEquals(0, pool.getAcquiredCount());
+		assertEquals(2, pool.getFreeCount());
+		assertRestored(gl);
+	}
+}
@@ -0,0 +1,72 @@
+package at.erdlof.shadertools.shaders;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.RecordingBackend;
+
+/**
+ * Checks the order in which a {@link DrawBatcher} renders its draws, on the {@link RecordingBackend}.
+ * @author Florian Bhrle
+ */
+public class DrawBatcherTest {
+	private static final String VERTEX = "#version 120\n"
+			+ "void main() {\n"
+			+ "\tgl_Position = gl_Vertex;\n"
+			+ "}\n";
+	
+	private ShaderProgram first, second;
+	private final List<String> rendered = new ArrayList<String>();
+	
+	@Before
+	public void setUp() {
+		GLBackends.set(new RecordingBackend());
+		first = new ShaderProgram(new VertexShader(VERTEX), new FragmentShader("#version 120\nvoid main() {\n\tgl_FragColor = vec4(1.0);\n}\n"));
+		second = new ShaderProgram(new VertexShader(VERTEX), new FragmentShader("#version 120\nvoid main() {\n\tgl_FragColor = vec4(0.0);\n}\n"));
+	}
+	
+	private DrawBatcher.Draw draw(String name) {
+		return program -> rendered.add(name);
+	}
+	
+	@Test
+	public void rendersLowerLayersFirst() {
+		FrameBuffer scene = new FrameBuffer(64, 64);
+		DrawBatcher batcher = new DrawBatcher();
+		
+		batcher.add(null, second, scene.getTextureID(), 0, 1, draw("composite"));
+		batcher.add(scene, first, 0, 0.5f, 0, draw("far"));
+		batcher.add(scene, first, 0, 0.25f, 0, draw("near"));
+		assertEquals(3, batcher.flush());
+		
+		assertEquals(Arrays.asList("near", "far", "composite"), rendered);
+		assertEquals(2, batcher.getTargetSwitches());
+	}
+	
+	@Test
+	public void groupsProgramsWithinALayer() {
+		DrawBatcher batcher = new DrawBatcher();
+		
+		batcher.add(first, draw("a"));
+		batcher.add(second, draw("b"));
+		batcher.add(first, draw("c"));
+		batcher.add(second, draw("d"));
+		batcher.flush();
+		
+		assertEquals(2, batcher.getProgramSwitches());
+		assertEquals(2, batcher.getSavedProgramSwitchesPerFrame());
+		assertEquals(Arrays.asList("a", "c", "b", "d"), rendered);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsInvalidLayers() {
+		new DrawBatcher().add(null, first, 0, 0, DrawBatcher.MAX_LAYER + 1, draw("invalid"));
+	}
+}
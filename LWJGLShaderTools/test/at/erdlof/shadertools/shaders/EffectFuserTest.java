@@ -0,0 +1,109 @@
+package at.erdlof.shadertools.shaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.RecordingBackend;
+
+/**
+ * Checks the generated code of fused effects. Runs on the {@link RecordingBackend}, without a GPU.
+ * @author Florian Bhrle
+ */
+public class EffectFuserTest {
+	private static final PixelEffect GRADE = new PixelEffect("grade", "uniform float strength;", "return mix(color, color * color, strength);");
+	private static final PixelEffect VIGNETTE = new PixelEffect("vignette", "uniform float strength;", "return color * (1.0 - strength * length(texCoord - 0.5));");
+	private static final PixelEffect INVERT = new PixelEffect("invert", "return vec4(1.0 - color.rgb, color.a);");
+	private static final PixelEffect DESATURATE = new PixelEffect("desaturate",
+			"uniform float amount;\n"
+			+ "float luma(vec3 rgb) {\n"
+			+ "\treturn dot(rgb, vec3(0.299, 0.587, 0.114));\n"
+			+ "}\n"
+			+ "vec3 grey(vec3 rgb) {\n"
+			+ "\treturn vec3(luma(rgb));\n"
+			+ "}\n",
+			"return vec4(mix(color.rgb, grey(color.rgb), amount), color.a);");
+	private static final PixelEffect CONTRAST = new PixelEffect("contrast",
+			"const float pivot = 0.5;\n"
+			+ "vec3 stretch(vec3 rgb, float factor) {\n"
+			+ "\treturn (rgb - pivot) * factor + pivot;\n"
+			+ "}\n",
+			"return vec4(stretch(color.rgb, 1.2), color.a);");
+	
+	@Before
+	public void setUp() {
+		GLBackends.set(new RecordingBackend());
+	}
+	
+	private static int count(String code, String part) {
+		int count = 0;
+		for (int i = code.indexOf(part); i >= 0; i = code.indexOf(part, i + part.length())) count++;
+		return count;
+	}
+	
+	private static void assertBalanced(String code) {
+		assertEquals(code, count(code, "{"), count(code, "}"));
+	}
+	
+	@Test
+	public void readsOnceAndAppliesEffectsInOrder() {
+		String code = EffectFuser.fragmentCode(Arrays.asList(GRADE, VIGNETTE, INVERT));
+		
+		assertEquals(1, count(code, "texture2D("));
+		int grade = code.indexOf("color = grade_0(color, uv);");
+		int vignette = code.indexOf("color = vignette_1(color, uv);");
+		int invert = code.indexOf("color = invert_2(color, uv);");
+		assertTrue(code, grade >= 0 && grade < vignette && vignette < invert);
+		assertEquals(1, count(code, "uniform float strength;"));
+		assertBalanced(code);
+	}
+	
+	@Test
+	public void keepsMultiLineHelperFunctions() {
+		String code = EffectFuser.fragmentCode(Arrays.asList(DESATURATE, CONTRAST));
+		
+		assertTrue(code, code.contains(DESATURATE.getDeclarations().substring(DESATURATE.getDeclarations().indexOf("float luma"))));
+		assertTrue(code, code.contains(CONTRAST.getDeclarations().substring(CONTRAST.getDeclarations().indexOf("vec3 stretch"))));
+		assertEquals(1, count(code, "const float pivot = 0.5;"));
+		assertBalanced(code);
+	}
+	
+	@Test
+	public void declaresHelpersOnceForRepeatedEffects() {
+		String code = EffectFuser.fragmentCode(Arrays.asList(DESATURATE, INVERT, DESATURATE));
+		
+		assertEquals(1, count(code, "float luma(vec3 rgb) {"));
+		assertEquals(1, count(code, "uniform float amount;"));
+		assertTrue(code, code.contains("color = desaturate_2(color, uv);"));
+		assertBalanced(code);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsEmptyChains() {
+		EffectFuser.fragmentCode(Arrays.<PixelEffect>asList());
+	}
+	
+	@Test
+	public void cachesProgramsByCode() {
+		EffectFuser fuser = new EffectFuser();
+		List<PixelEffect> effects = Arrays.asList(GRADE, DESATURATE, VIGNETTE);
+		
+		ShaderProgram program = fuser.program(effects);
+		assertSame(program, fuser.program(effects));
+		assertEquals("fused grade+desaturate+vignette", program.getName());
+		assertEquals(1, fuser.getCacheHits());
+		assertEquals(3, fuser.getFusedEffects());
+		assertTrue(program.hasUniform("strength"));
+		assertTrue(program.hasUniform("amount"));
+		
+		fuser.release();
+		assertEquals(0, fuser.size());
+	}
+}
@@ -0,0 +1,137 @@
+package at.erdlof.shadertools.shaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.GLCall;
+import at.erdlof.shadertools.gl.RecordingBackend;
+
+/**
+ * Counts the GL calls of {@link FullscreenQuad#draw(ShaderProgram)} per pass on a {@link RecordingBackend}.
+ * @author Florian Bhrle
+ */
+public class FullscreenQuadTest {
+	static final String VERTEX = "#version 120\n"
+			+ "attribute vec2 position;\n"
+			+ "attribute vec2 texCoord;\n"
+			+ "varying vec2 uv;\n"
+			+ "void main() {\n"
+			+ "\tuv = texCoord;\n"
+			+ "\tgl_Position = vec4(position, 0.0, 1.0);\n"
+			+ "}\n";
+	static final String FRAGMENT = "#version 120\n"
+			+ "uniform sampler2D source;\n"
+			+ "varying vec2 uv;\n"
+			+ "void main() {\n"
+			+ "\tgl_FragColor = texture2D(source, uv);\n"
+			+ "}\n";
+	
+	private static ShaderProgram program(int pass) {
+		return new ShaderProgram(new VertexShader(VERTEX), new FragmentShader(FRAGMENT + "//Pass " + pass + "\n"));
+	}
+	
+	@Test
+	public void drawsWithOneCallPerPass() {
+		RecordingBackend gl = new RecordingBackend();
+		GLBackends.set(gl);
+		FullscreenQuad quad = FullscreenQuad.of(gl);
+		ShaderProgram program = program(0);
+		program.bind();
+		
+		quad.draw(program);
+		gl.endFrame();
+		quad.draw(program);
+		quad.draw(program);
+		
+		assertEquals(Collections.singletonMap(GLCall.DRAW_ARRAYS, 2), gl.endFrame());
+		assertEquals(3, quad.getDraws());
+	}
+	
+	@Test
+	public void keepsClientArraysForFixedFunction() {
+		RecordingBackend gl = new RecordingBackend();
+		GLBackends.set(gl);
+		FullscreenQuad quad = FullscreenQuad.of(gl);
+		
+		quad.draw(null);
+		gl.endFrame();
+		quad.draw(null);
+		Map<GLCall, Integer> calls = gl.endFrame();
+		
+		assertEquals(1, (int) calls.get(GLCall.DRAW_ARRAYS));
+		assertNull(calls.get(GLCall.BIND_BUFFER));
+		assertNull(calls.get(GLCall.ENABLE_CLIENT_STATE));
+		assertNull(calls.get(GLCall.VERTEX_POINTER));
+		assertNull(calls.get(GLCall.TEX_COORD_POINTER));
+	}
+	
+	@Test
+	public void switchesBetweenAttributesAndClientArrays() {
+		RecordingBackend gl = new RecordingBackend();
+		GLBackends.set(gl);
+		FullscreenQuad quad = FullscreenQuad.of(gl);
+		ShaderProgram program = program(0);
+		program.bind();
+		
+		quad.draw(program);
+		quad.draw(null);
+		gl.endFrame();
+		quad.draw(program);
+		Map<GLCall, Integer> calls = gl.endFrame();
+		
+		//The pointers are still set, only the arrays are switched
+		assertEquals(2, (int) calls.get(GLCall.DISABLE_CLIENT_STATE));
+		assertEquals(2, (int) calls.get(GLCall.ENABLE_VERTEX_ATTRIB_ARRAY));
+		assertNull(calls.get(GLCall.VERTEX_ATTRIB_POINTER));
+		assertNull(calls.get(GLCall.BIND_BUFFER));
+		
+		ShaderProgram.unbindAll();
+		calls = gl.endFrame();
+		assertEquals(2, (int) calls.get(GLCall.DISABLE_VERTEX_ATTRIB_ARRAY));
+		assertEquals(1, (int) calls.get(GLCall.BIND_BUFFER));
+	}
+	
+	@Test
+	public void setsPointersAgainAfterRelease() {
+		RecordingBackend gl = new RecordingBackend();
+		GLBackends.set(gl);
+		FullscreenQuad quad = FullscreenQuad.of(gl);
+		ShaderProgram program = program(0);
+		program.bind();
+		
+		quad.draw(program);
+		quad.release();
+		gl.endFrame();
+		quad.draw(program);
+		Map<GLCall, Integer> calls = gl.endFrame();
+		
+		assertEquals(1, (int) calls.get(GLCall.BIND_BUFFER));
+		assertEquals(2, (int) calls.get(GLCall.VERTEX_ATTRIB_POINTER));
+	}
+	
+	@Test
+	public void chainsPassesWithoutVertexSetup() {
+		RecordingBackend gl = new RecordingBackend();
+		GLBackends.set(gl);
+		ComplexProgram complexProgram = new ComplexProgram(program(0), program(1), program(2));
+		
+		complexProgram.use(() -> {});
+		gl.endFrame();
+		complexProgram.use(() -> {});
+		Map<GLCall, Integer> calls = gl.endFrame();
+		
+		//Three passes and the blit
+		assertEquals(4, (int) calls.get(GLCall.DRAW_ARRAYS));
+		assertNull(calls.get(GLCall.VERTEX_ATTRIB_POINTER));
+		assertNull(calls.get(GLCall.VERTEX_POINTER));
+		assertNull(calls.get(GLCall.BIND_BUFFER));
+		assertFalse(calls.containsKey(GLCall.GET_ATTRIB_LOCATION));
+	}
+}
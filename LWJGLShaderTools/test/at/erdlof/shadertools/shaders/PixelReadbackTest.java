@@ -0,0 +1,132 @@
+package at.erdlof.shadertools.shaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.RecordingBackend;
+
+/**
+ * Checks the ring of a {@link PixelReadback} on a {@link RecordingBackend}, which fills every read with its number,
+ * starting at 1.
+ * @author Florian Bhrle
+ */
+public class PixelReadbackTest {
+	private static RecordingBackend backend(boolean pixelBuffers) {
+		RecordingBackend gl = new RecordingBackend();
+		gl.setPixelBufferSupported(pixelBuffers);
+		gl.setDisplaySize(4, 2);
+		GLBackends.set(gl);
+		return gl;
+	}
+	
+	private static void assertFrame(PixelReadback.Frame frame, long number) {
+		assertEquals(number, frame.getNumber());
+		assertEquals(4, frame.getWidth());
+		assertEquals(2, frame.getHeight());
+		assertEquals(4 * 2 * 4, frame.getPixels().remaining());
+		//The reads of the backend are counted from 1, the captures from 0
+		assertEquals(number + 1, frame.getPixels().get(0));
+	}
+	
+	@Test
+	public void deliversAsManyCapturesBehindAsTheRingIsLong() {
+		backend(true);
+		PixelReadback readback = new PixelReadback(3, 4);
+		
+		for (int i = 0; i < 3; i++) readback.captureDisplay();
+		assertNull(readback.poll());
+		assertEquals(3, readback.getPending());
+		
+		for (int i = 3; i < 8; i++) {
+			readback.captureDisplay();
+			PixelReadback.Frame frame = readback.poll();
+			assertFrame(frame, i - 3);
+			readback.recycle(frame);
+		}
+		
+		assertEquals(8, readback.getCaptured());
+		assertEquals(5, readback.getDelivered());
+		assertEquals(0, readback.getDropped());
+		readback.release();
+	}
+	
+	@Test
+	public void dropsReadsWhileConsumerHoldsAllFrames() {
+		backend(true);
+		PixelReadback readback = new PixelReadback(1, 1);
+		
+		readback.captureDisplay();
+		readback.captureDisplay();
+		readback.captureDisplay();
+		assertEquals(1, readback.getDropped());
+		
+		PixelReadback.Frame frame = readback.poll();
+		assertFrame(frame, 0);
+		readback.recycle(frame);
+		assertNull(readback.poll());
+		
+		//Capture 1 has been dropped
+		readback.captureDisplay();
+		assertFrame(readback.poll(), 2);
+		assertEquals(2, readback.getDelivered());
+		readback.release();
+	}
+	
+	@Test
+	public void waitsForConsumerWhenBlocking() throws InterruptedException {
+		backend(true);
+		PixelReadback readback = new PixelReadback(1, 1);
+		readback.setBlocking(true);
+		
+		readback.captureDisplay();
+		readback.captureDisplay();
+		
+		Thread consumer = new Thread(() -> {
+			try {
+				Thread.sleep(50);
+				readback.recycle(readback.take());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		consumer.start();
+		
+		//Blocks until the consumer has recycled frame 0
+		readback.captureDisplay();
+		consumer.join();
+		
+		assertFrame(readback.poll(), 1);
+		assertEquals(0, readback.getDropped());
+		readback.release();
+	}
+	
+	@Test
+	public void flushFinishesOutstandingReads() {
+		backend(true);
+		PixelReadback readback = new PixelReadback(3, 4);
+		
+		readback.captureDisplay();
+		readback.captureDisplay();
+		assertEquals(2, readback.flush());
+		assertEquals(0, readback.getPending());
+		assertEquals(2, readback.getQueued());
+		
+		assertFrame(readback.poll(), 0);
+		assertFrame(readback.poll(), 1);
+		assertEquals(0, readback.flush());
+		readback.release();
+	}
+	
+	@Test
+	public void readsSynchronouslyWithoutPixelBuffers() {
+		backend(false);
+		PixelReadback readback = new PixelReadback(3, 4);
+		
+		readback.captureDisplay();
+		assertFrame(readback.poll(), 0);
+		assertEquals(0, readback.getPending());
+	}
+}
@@ -0,0 +1,137 @@
+package at.erdlof.shadertools.shaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.RecordingBackend;
+
+/**
+ * Checks hits, misses and rejected binaries of the {@link ProgramCache} on a {@link RecordingBackend}, which accepts
+ * binaries of the same driver version only.
+ * @author Florian Bhrle
+ */
+public class ProgramCacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private RecordingBackend backend() {
+		RecordingBackend gl = new RecordingBackend();
+		gl.setProgramBinarySupported(true);
+		GLBackends.set(gl);
+		return gl;
+	}
+	
+	private static List<Path> files(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.collect(Collectors.toList());
+		}
+	}
+	
+	@Test
+	public void loadsStoredBinaryOnSecondRun() {
+		backend();
+		Path directory = folder.getRoot().toPath();
+		ProgramCache cache = new ProgramCache(directory);
+		
+		cache.load(FullscreenQuadTest.VERTEX, FullscreenQuadTest.FRAGMENT).releaseAll();
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getWrites());
+		
+		//The next run has a new context
+		backend();
+		cache = new ProgramCache(directory);
+		ShaderProgram program = cache.load(FullscreenQuadTest.VERTEX, FullscreenQuadTest.FRAGMENT);
+		
+		assertEquals(1, cache.getHits());
+		assertEquals(0, cache.getMisses());
+		assertEquals(0, cache.getWrites());
+		assertNotNull(program.getReflection());
+	}
+	
+	@Test
+	public void compilesAgainAfterDriverUpdate() throws IOException {
+		RecordingBackend gl = backend();
+		Path directory = folder.getRoot().toPath();
+		ProgramCache cache = new ProgramCache(directory);
+		cache.load(FullscreenQuadTest.VERTEX, FullscreenQuadTest.FRAGMENT);
+		
+		//Binaries of the old driver are stored under another key
+		gl.setDriverVersion("2.0 updated");
+		cache.invalidateDriver();
+		cache.load(FullscreenQuadTest.VERTEX, FullscreenQuadTest.FRAGMENT);
+		
+		assertEquals(0, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(0, cache.getRejected());
+		assertEquals(2, files(directory).size());
+		
+		//With stale driver strings the old binary is found, but the driver rejects it
+		gl.setDriverVersion("3.0 updated");
+		cache.load(FullscreenQuadTest.VERTEX, FullscreenQuadTest.FRAGMENT);
+		
+		assertEquals(0, cache.getHits());
+		assertEquals(3, cache.getMisses());
+		assertEquals(1, cache.getRejected());
+		assertEquals(3, cache.getWrites());
+	}
+	
+	@Test
+	public void deletesCorruptAndTruncatedBinaries() throws IOException {
+		backend();
+		Path directory = folder.getRoot().toPath();
+		ProgramCache cache = new ProgramCache(directory);
+		cache.load(FullscreenQuadTest.VERTEX, FullscreenQuadTest.FRAGMENT);
+		Path file = files(directory).get(0);
+		
+		byte[] data = Files.readAllBytes(file);
+		data[data.length - 1] ^= 1;
+		Files.write(file, data);
+		cache.load(FullscreenQuadTest.VERTEX, FullscreenQuadTest.FRAGMENT);
+		
+		assertEquals(1, cache.getRejected());
+		assertEquals(2, cache.getMisses());
+		
+		data = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(data, data.length / 2));
+		cache.load(FullscreenQuadTest.VERTEX, FullscreenQuadTest.FRAGMENT);
+		
+		assertEquals(2, cache.getRejected());
+		assertEquals(3, cache.getMisses());
+		
+		//The binary written instead is intact
+		cache.load(FullscreenQuadTest.VERTEX, FullscreenQuadTest.FRAGMENT);
+		assertEquals(1, cache.getHits());
+		assertEquals(1, files(directory).size());
+	}
+	
+	@Test
+	public void releasesShadersOfFailedCompile() {
+		RecordingBackend gl = backend();
+		ProgramCache cache = new ProgramCache(folder.getRoot().toPath());
+		
+		try {
+			cache.load(FullscreenQuadTest.VERTEX, "#error typo\n");
+			fail("The fragment shader compiled.");
+		} catch (InvalidShaderException e) {
+			//Expected
+		}
+		
+		assertEquals(0, gl.getLiveShaderCount());
+		assertEquals(0, cache.getWrites());
+	}
+}
@@ -0,0 +1,212 @@
+package at.erdlof.shadertools.shaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.GLCall;
+import at.erdlof.shadertools.gl.RecordingBackend;
+import at.erdlof.shadertools.gl.StateTracker;
+
+/**
+ * Checks the order, culling, lifetimes and framebuffer sharing decided by {@link RenderGraph#compile()}, which makes
+ * no GL calls.
+ * @author Florian Bhrle
+ */
+public class RenderGraphTest {
+	private static final int GL_RGBA8 = 0x8058;
+	private static final int GL_RGBA16F = 0x881A;
+	
+	private static void assertCompileFails(RenderGraph graph, String message) {
+		try {
+			graph.compile();
+			fail("The graph compiled.");
+		} catch (IllegalStateException e) {
+			assertEquals(message, e.getMessage());
+		}
+	}
+	
+	@Test
+	public void ordersAndSharesTheBloomExample() {
+		RenderGraph graph = new RenderGraph();
+		int scene = graph.target("scene", 800, 600, GL_RGBA8);
+		int bright = graph.target("bright", 400, 300, GL_RGBA8);
+		int blurred = graph.target("blurred", 400, 300, GL_RGBA8);
+		//Declared out of order, the dependencies decide
+		graph.pass("combine").read(scene).read(blurred).write(RenderGraph.DISPLAY);
+		graph.pass("blur").read(bright).write(blurred);
+		graph.pass("threshold").read(scene).write(bright);
+		graph.pass("scene").write(scene);
+		graph.compile();
+		
+		assertEquals(Arrays.asList("scene", "threshold", "blur", "combine"), graph.getOrder());
+		assertEquals(0, graph.getCulledPassCount());
+		assertEquals(0, graph.getFirstUse(scene));
+		assertEquals(3, graph.getLastUse(scene));
+		assertEquals(1, graph.getFirstUse(bright));
+		assertEquals(2, graph.getLastUse(bright));
+		assertEquals(2, graph.getFirstUse(blurred));
+		assertEquals(3, graph.getLastUse(blurred));
+		
+		//The blur reads bright while writing blurred, so they can't share
+		assertEquals(3, graph.getFramebufferCount());
+		assertNotEquals(graph.getFramebufferIndex(bright), graph.getFramebufferIndex(blurred));
+		assertEquals(graph.getUnaliasedMemory(), graph.getTransientMemory());
+	}
+	
+	@Test
+	public void cullsPassesWhoseResultIsNeverRead() {
+		RenderGraph graph = new RenderGraph();
+		int scene = graph.target("scene", 64, 64, GL_RGBA8);
+		int debug = graph.target("debug", 64, 64, GL_RGBA8);
+		graph.pass("scene").write(scene);
+		graph.pass("debug").read(scene).write(debug);
+		graph.pass("present").read(scene).write(RenderGraph.DISPLAY);
+		graph.compile();
+		
+		assertEquals(Arrays.asList("scene", "present"), graph.getOrder());
+		assertEquals(1, graph.getCulledPassCount());
+		assertEquals(-1, graph.getFirstUse(debug));
+		assertEquals(-1, graph.getFramebufferIndex(debug));
+		
+		//Marking the target as an output keeps its pass
+		graph.output(debug);
+		graph.compile();
+		assertEquals(Arrays.asList("scene", "debug", "present"), graph.getOrder());
+		assertEquals(0, graph.getCulledPassCount());
+	}
+	
+	@Test
+	public void rejectsCycles() {
+		RenderGraph graph = new RenderGraph();
+		int x = graph.target("x", 64, 64, GL_RGBA8);
+		int y = graph.target("y", 64, 64, GL_RGBA8);
+		graph.pass("a").read(y).write(x);
+		graph.pass("b").read(x).write(y);
+		graph.pass("present").read(x).write(RenderGraph.DISPLAY);
+		
+		assertCompileFails(graph, "The passes depend on each other in a cycle.");
+	}
+	
+	@Test
+	public void rejectsTargetsWrittenTwice() {
+		RenderGraph graph = new RenderGraph();
+		int scene = graph.target("scene", 64, 64, GL_RGBA8);
+		graph.pass("first").write(scene);
+		graph.pass("second").write(scene);
+		graph.pass("present").read(scene).write(RenderGraph.DISPLAY);
+		
+		assertCompileFails(graph, "The target \"scene\" is written by the passes \"first\" and \"second\".");
+	}
+	
+	@Test
+	public void rejectsTargetsNeverWritten() {
+		RenderGraph graph = new RenderGraph();
+		int scene = graph.target("scene", 64, 64, GL_RGBA8);
+		graph.pass("present").read(scene).write(RenderGraph.DISPLAY);
+		
+		assertCompileFails(graph, "The pass \"present\" reads the target \"scene\", which isn't written by any pass.");
+	}
+	
+	@Test
+	public void sharesFramebuffersOfDisjointLifetimes() {
+		RenderGraph graph = new RenderGraph();
+		int first = graph.target("first", 256, 256, GL_RGBA8);
+		int half = graph.target("half", 128, 128, GL_RGBA8);
+		int second = graph.target("second", 256, 256, GL_RGBA8);
+		int hdr = graph.target("hdr", 256, 256, GL_RGBA16F);
+		graph.pass("a").write(first);
+		graph.pass("b").read(first).write(half);
+		graph.pass("c").read(half).write(second);
+		graph.pass("d").read(second).write(hdr);
+		graph.pass("present").read(hdr).write(RenderGraph.DISPLAY);
+		graph.compile();
+		
+		//first is read for the last time by b, before c writes second
+		assertTrue(graph.getLastUse(first) < graph.getFirstUse(second));
+		assertEquals(graph.getFramebufferIndex(first), graph.getFramebufferIndex(second));
+		//Neither a different size nor a different format is shared
+		assertNotEquals(graph.getFramebufferIndex(first), graph.getFramebufferIndex(half));
+		assertNotEquals(graph.getFramebufferIndex(first), graph.getFramebufferIndex(hdr));
+		assertEquals(3, graph.getFramebufferCount());
+		assertEquals(graph.getUnaliasedMemory() - 256 * 256 * 4, graph.getTransientMemory());
+	}
+	
+	@Test
+	public void neverSharesOutputs() {
+		RenderGraph graph = new RenderGraph();
+		int history = graph.target("history", 256, 256, GL_RGBA8);
+		int scratch = graph.target("scratch", 256, 256, GL_RGBA8);
+		graph.pass("history").write(history);
+		graph.pass("scratch").write(scratch);
+		graph.pass("present").read(scratch).write(RenderGraph.DISPLAY);
+		graph.output(history);
+		graph.compile();
+		
+		assertEquals(Arrays.asList("history", "scratch", "present"), graph.getOrder());
+		//history isn't read after its pass, but has to survive the frame
+		assertEquals(graph.getOrder().size(), graph.getLastUse(history));
+		assertNotEquals(graph.getFramebufferIndex(history), graph.getFramebufferIndex(scratch));
+		assertEquals(2, graph.getFramebufferCount());
+	}
+	
+	@Test
+	public void executesInOrderAndReturnsFramebuffers() {
+		RecordingBackend gl = new RecordingBackend();
+		GLBackends.set(gl);
+		
+		RenderGraph graph = new RenderGraph();
+		int first = graph.target("first", 256, 256, GL_RGBA8);
+		int second = graph.target("second", 256, 256, GL_RGBA8);
+		int third = graph.target("third", 256, 256, GL_RGBA8);
+		List<String> executed = new ArrayList<String>();
+		
+		graph.pass("present").read(third).write(RenderGraph.DISPLAY).execute(() -> executed.add("present"));
+		graph.pass("c").read(second).write(third).execute(() -> executed.add("c"));
+		graph.pass("b").read(first).write(second).execute(() -> executed.add("b"));
+		graph.pass("a").write(first).execute(() -> executed.add("a"));
+		graph.execute();
+		
+		assertEquals(graph.getOrder(), executed);
+		//first and third share a framebuffer
+		assertEquals(2, graph.getFramebufferCount());
+		assertEquals(2, gl.getLiveFramebufferCount());
+		assertEquals(2, graph.getPool().getFreeCount());
+		assertEquals(0, graph.getPool().getAcquiredCount());
+		
+		graph.execute();
+		assertEquals(2, gl.getLiveFramebufferCount());
+	}
+	
+	@Test
+	public void unbindsTargetOfFailingPass() {
+		RecordingBackend gl = new RecordingBackend();
+		GLBackends.set(gl);
+		
+		RenderGraph graph = new RenderGraph();
+		int scene = graph.target("scene", 256, 256, GL_RGBA8);
+		graph.pass("present").read(scene).write(RenderGraph.DISPLAY);
+		graph.pass("scene").write(scene).execute(() -> {
+			throw new IllegalStateException("Pass failed.");
+		});
+		
+		try {
+			graph.execute();
+			fail("The pass didn't fail.");
+		} catch (IllegalStateException e) {
+			assertEquals("Pass failed.", e.getMessage());
+		}
+		
+		assertEquals(gl.getTotalCount(GLCall.PUSH_ATTRIB), gl.getTotalCount(GLCall.POP_ATTRIB));
+		assertEquals(0, StateTracker.of(gl).getBoundFramebuffer());
+		assertEquals(0, graph.getPool().getAcquiredCount());
+	}
+}
@@ -0,0 +1,154 @@
+package at.erdlof.shadertools.shaders;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.RecordingBackend;
+
+/**
+ * Checks the least recently used cache of the variants, the usage log, and that queued variants are prewarmed in
+ * budgeted slices, never at the cost of a cached program.
+ * @author Florian Bhrle
+ */
+public class ShaderPermutationsTest {
+	private static final String VERTEX = "#version 120\n"
+			+ "void main() {\n"
+			+ "\tgl_Position = gl_Vertex;\n"
+			+ "}\n";
+	private static final String FRAGMENT = "#version 120\n"
+			+ "uniform vec4 color;\n"
+			+ "void main() {\n"
+			+ "#ifdef SHADOWS\n"
+			+ "\tgl_FragColor = color * 0.5;\n"
+			+ "#else\n"
+			+ "\tgl_FragColor = color;\n"
+			+ "#endif\n"
+			+ "}\n";
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Before
+	public void setUp() {
+		GLBackends.set(new RecordingBackend());
+	}
+	
+	@Test
+	public void evictsLeastRecentlyUsedVariant() {
+		ShaderPermutations lit = new ShaderPermutations(VERTEX, FRAGMENT, 2, "SHADOWS", "FOG");
+		long shadows = lit.flags("SHADOWS");
+		long fog = lit.flags("FOG");
+		
+		ShaderProgram plain = lit.get(0);
+		ShaderProgram shadowed = lit.get(shadows);
+		assertEquals(2, lit.size());
+		
+		lit.get(fog);
+		assertFalse(lit.contains(0));
+		assertFalse(plain.isValid());
+		assertTrue(shadowed.isValid());
+		assertEquals(1, lit.getEvictions());
+		
+		//Requesting shadows again makes fog the oldest
+		lit.get(shadows);
+		lit.get(0);
+		assertTrue(lit.contains(shadows));
+		assertFalse(lit.contains(fog));
+		assertEquals(2, lit.getEvictions());
+		assertEquals(2, lit.size());
+		
+		//Only the programs are linked again, the shaders are kept
+		assertEquals(1, lit.getHits());
+		assertEquals(4, lit.getHitches());
+		
+		lit.release();
+	}
+	
+	@Test
+	public void ordersHotSetAfterReload() throws IOException {
+		ShaderPermutations lit = new ShaderPermutations(VERTEX, FRAGMENT, 4, "SHADOWS", "FOG");
+		long shadows = lit.flags("SHADOWS");
+		long fog = lit.flags("FOG");
+		long both = lit.flags("SHADOWS", "FOG");
+		
+		for (int i = 0; i < 3; i++) lit.get(fog);
+		lit.get(0);
+		for (int i = 0; i < 5; i++) lit.get(both);
+		lit.get(shadows);
+		lit.get(shadows);
+		assertArrayEquals(new long[] {both, fog, shadows, 0}, lit.getHotSet(4));
+		
+		Path file = folder.getRoot().toPath().resolve("usage.txt");
+		lit.saveUsage(file);
+		lit.release();
+		
+		ShaderPermutations next = new ShaderPermutations(VERTEX, FRAGMENT, 4, "SHADOWS", "FOG");
+		for (int i = 0; i < 3; i++) next.get(0);
+		assertEquals(4, next.loadUsage(file));
+		
+		//The counts of both launches add up
+		assertArrayEquals(new long[] {both, 0, fog}, next.getHotSet(3));
+		assertEquals(0, next.loadUsage(folder.getRoot().toPath().resolve("missing.txt")));
+		
+		//Only the last line is well formed, it adds 7 requests of fog
+		Files.write(file, Arrays.asList("zz 1", "1", "2 -3", "2 7"));
+		assertEquals(1, next.loadUsage(file));
+		assertArrayEquals(new long[] {fog, both}, next.getHotSet(2));
+		
+		next.release();
+	}
+	
+	@Test
+	public void prewarmsQueuedVariantsInSlices() {
+		ShaderPermutations lit = new ShaderPermutations(VERTEX, FRAGMENT, 4, "SHADOWS", "FOG");
+		long shadows = lit.flags("SHADOWS");
+		long fog = lit.flags("FOG");
+		
+		lit.queuePrewarm(shadows, fog);
+		assertEquals(2, lit.getPrewarmQueueSize());
+		
+		//Every slice starts at least one variant
+		assertEquals(1, lit.prewarmSlice(0));
+		assertEquals(1, lit.getPrewarmQueueSize());
+		assertEquals(1, lit.prewarmSlice(Long.MAX_VALUE));
+		assertEquals(0, lit.getPrewarmQueueSize());
+		assertEquals(2, lit.getPrewarmed());
+		
+		lit.get(shadows);
+		lit.get(fog);
+		assertEquals(2, lit.getHits());
+		assertEquals(0, lit.getHitches());
+		
+		lit.release();
+	}
+	
+	@Test
+	public void neverEvictsForPrewarming() {
+		ShaderPermutations lit = new ShaderPermutations(VERTEX, FRAGMENT, 1, "SHADOWS");
+		lit.get(0);
+		assertEquals(1, lit.getHitches());
+		
+		lit.queuePrewarm(lit.flags("SHADOWS"));
+		assertEquals(0, lit.prewarmSlice(Long.MAX_VALUE));
+		assertEquals(0, lit.getPrewarmQueueSize());
+		assertEquals(0, lit.getEvictions());
+		
+		lit.get(0);
+		assertEquals(1, lit.getHits());
+		
+		lit.release();
+	}
+}
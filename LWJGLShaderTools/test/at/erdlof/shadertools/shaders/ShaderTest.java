@@ -0,0 +1,40 @@
+package at.erdlof.shadertools.shaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.GLResources;
+import at.erdlof.shadertools.gl.RecordingBackend;
+
+/**
+ * Checks that shaders failing to compile don't leave their shader objects behind.
+ * @author Florian Bhrle
+ */
+public class ShaderTest {
+	@Test
+	public void releasesShadersFailingToCompile() {
+		RecordingBackend gl = new RecordingBackend();
+		GLBackends.set(gl);
+		
+		try {
+			new VertexShader("#error typo\n");
+			fail("The vertex shader compiled.");
+		} catch (InvalidShaderException e) {
+			//Expected
+		}
+		
+		try {
+			new FragmentShader("#error typo\n");
+			fail("The fragment shader compiled.");
+		} catch (InvalidShaderException e) {
+			//Expected
+		}
+		
+		assertEquals(0, gl.getLiveShaderCount());
+		assertEquals(0, GLResources.of(gl).getLiveCount(GLResources.Type.SHADER));
+		assertEquals(2, GLResources.of(gl).getCreatedCount(GLResources.Type.SHADER));
+	}
+}
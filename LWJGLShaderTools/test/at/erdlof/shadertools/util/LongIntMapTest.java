@@ -0,0 +1,85 @@
+package at.erdlof.shadertools.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link LongIntMap} against a {@link HashMap}, in particular that removing a key keeps the keys probed past
+ * it reachable.
+ * @author Florian Bhrle
+ */
+public class LongIntMapTest {
+	private static void assertSameContent(Map<Long, Integer> expected, LongIntMap map, long maxKey) {
+		assertEquals(expected.size(), map.size());
+		
+		for (long key = 0; key < maxKey; key++) {
+			Integer value = expected.get(key);
+			assertEquals(value != null, map.containsKey(key));
+			assertEquals(value != null ? value : map.getMissingValue(), map.get(key));
+		}
+	}
+	
+	@Test
+	public void findsKeysProbedPastRemovedOnes() {
+		//Many keys in a small table, so runs of colliding keys are long and wrap around
+		LongIntMap map = new LongIntMap(-1, 4);
+		Map<Long, Integer> expected = new HashMap<Long, Integer>();
+		
+		for (long key = 0; key < 64; key++) {
+			map.put(key, (int) key * 10);
+			expected.put(key, (int) key * 10);
+		}
+		
+		for (long key = 0; key < 64; key += 3) {
+			assertEquals((int) key * 10, map.remove(key));
+			expected.remove(key);
+			assertSameContent(expected, map, 64);
+		}
+		
+		assertEquals(-1, map.remove(0));
+	}
+	
+	@Test
+	public void matchesHashMapUnderRandomUpdates() {
+		Random random = new Random(42);
+		LongIntMap map = new LongIntMap(-1);
+		Map<Long, Integer> expected = new HashMap<Long, Integer>();
+		
+		for (int i = 0; i < 20000; i++) {
+			long key = random.nextInt(200);
+			
+			if (random.nextInt(3) == 0) {
+				Integer value = expected.remove(key);
+				assertEquals(value != null ? value : -1, map.remove(key));
+			} else {
+				map.put(key, i);
+				expected.put(key, i);
+			}
+		}
+		
+		assertSameContent(expected, map, 200);
+	}
+	
+	@Test
+	public void keepsKeysAfterClear() {
+		LongIntMap map = new LongIntMap(0);
+		map.put(Long.MIN_VALUE, 1);
+		map.put(-1, 2);
+		assertEquals(2, map.keys().length);
+		
+		map.clear();
+		assertFalse(map.containsKey(-1));
+		assertEquals(0, map.keys().length);
+		
+		map.put(-1, 3);
+		assertTrue(map.containsKey(-1));
+		assertEquals(3, map.get(-1));
+	}
+}
@@ -0,0 +1,33 @@
+package at.erdlof.shadertools.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks like the JMH launcher, but publishes the allocation rates of the GC profiler
+ * (<code>-prof gc</code>) and writes the results as JSON, unless other profilers or formats are chosen. Examples:
+ * <p><code>
+ * java -jar benchmarks/target/benchmarks.jar<br>
+ * java -jar benchmarks/target/benchmarks.jar SetUniform -p uniforms=64</code>
+ * @author Florian Bhrle
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions options = new CommandLineOptions(args);
+		
+		if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams() || options.shouldListProfilers() || options.shouldListResultFormats()) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		
+		ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+		if (options.getProfilers().isEmpty()) builder.addProfiler(GCProfiler.class);
+		if (!options.getResultFormat().hasValue()) builder.resultFormat(ResultFormatType.JSON);
+		
+		new Runner(builder.build()).run();
+	}
+}
@@ -0,0 +1,51 @@
+package at.erdlof.shadertools.benchmarks;
+
+import at.erdlof.shadertools.gl.GLBackends;
+import at.erdlof.shadertools.gl.RecordingBackend;
+
+/**
+ * The shaders the benchmarks are run with. The {@link RecordingBackend} compiles them without a GPU.
+ * @author Florian Bhrle
+ */
+final class BenchmarkShaders {
+	static final String VERTEX = "#version 120\n"
+			+ "attribute vec2 position;\n"
+			+ "attribute vec2 texCoord;\n"
+			+ "varying vec2 uv;\n"
+			+ "void main() {\n"
+			+ "\tuv = texCoord;\n"
+			+ "\tgl_Position = vec4(position, 0.0, 1.0);\n"
+			+ "}\n";
+	
+	static final String FRAGMENT = "#version 120\n"
+			+ "uniform sampler2D source;\n"
+			+ "uniform float time;\n"
+			+ "uniform vec4 tint;\n"
+			+ "varying vec2 uv;\n"
+			+ "void main() {\n"
+			+ "\tgl_FragColor = texture2D(source, uv) * tint * time;\n"
+			+ "}\n";
+	
+	private BenchmarkShaders() {
+	}
+	
+	/**
+	 * @param uniforms the number of float uniforms, named u0, u1, ...
+	 * @return a fragment shader declaring the uniforms
+	 */
+	static String fragmentWithUniforms(int uniforms) {
+		StringBuilder code = new StringBuilder("#version 120\n");
+		for (int i = 0; i < uniforms; i++) code.append("uniform float u").append(i).append(";\n");
+		code.append("void main() {\n\tgl_FragColor = vec4(0.0);\n}\n");
+		return code.toString();
+	}
+	
+	/**
+	 * Makes a new headless backend current, so every benchmark starts without state of the others.
+	 */
+	static RecordingBackend headless() {
+		RecordingBackend backend = new RecordingBackend();
+		GLBackends.set(backend);
+		return backend;
+	}
+}
@@ -0,0 +1,67 @@
+package at.erdlof.shadertools.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.erdlof.shadertools.shaders.Shader;
+
+/**
+ * Loading shader files of different sizes with {@link Shader#codeFromFile(String)}, with Unix and Windows line endings.
+ * The file stays in the page cache, so this measures reading and decoding rather than the disk.
+ * @author Florian Bhrle
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeFromFileBenchmark {
+	@Param({"1", "16", "256"})
+	public int kilobytes;
+	
+	@Param({"\n", "\r\n"})
+	public String lineEnding;
+	
+	private Path file;
+	private String location;
+	
+	@Setup
+	public void setUp() throws IOException {
+		StringBuilder code = new StringBuilder("#version 120").append(lineEnding);
+		
+		for (int i = 0; code.length() < kilobytes * 1024; i++) {
+			code.append("uniform vec4 value").append(i).append("; // Some comment to make the line longer").append(lineEnding);
+		}
+		
+		file = Files.createTempFile("benchmark", ".frag");
+		Files.write(file, code.toString().getBytes(StandardCharsets.UTF_8));
+		location = file.toString();
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+	
+	@Benchmark
+	public String codeFromFile() throws IOException {
+		return Shader.codeFromFile(location);
+	}
+}
@@ -0,0 +1,189 @@
+package at.erdlof.shadertools.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+import at.erdlof.shadertools.shaders.CommandBuffer;
+import at.erdlof.shadertools.shaders.CommandQueue;
+import at.erdlof.shadertools.shaders.FragmentShader;
+import at.erdlof.shadertools.shaders.FrameBuffer;
+import at.erdlof.shadertools.shaders.ShaderProgram;
+import at.erdlof.shadertools.shaders.VertexShader;
+
+/**
+ * Recording draws into {@link CommandBuffer CommandBuffers} on 1, 2, 4 or 8 worker threads while one GL thread
+ * executes them through a {@link CommandQueue}. The score of the record methods is the number of draws recorded and
+ * submitted by all worker threads together, the score of the execute methods the number of times the GL thread has
+ * drained the queue.
+ * <p>
+ * Workers wait while more than {@link #MAX_PENDING} buffers per worker haven't been executed yet, like a frame
+ * waiting for the previous one, so the queue stays bounded if the GL thread can't keep up.
+ * @author Florian Bhrle
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandQueueBenchmark {
+	/**
+	 * The number of draws recorded into every buffer.
+	 */
+	static final int ITEMS = 64;
+	private static final int MAX_PENDING = 4;
+	
+	@State(Scope.Group)
+	public static class Frame {
+		private CommandQueue queue;
+		private ShaderProgram[] programs;
+		private FrameBuffer[] targets;
+		private int[] time, tint;
+		private volatile int workers;
+		
+		@Setup
+		public void setUp() {
+			BenchmarkShaders.headless();
+			queue = new CommandQueue();
+			VertexShader vertexShader = new VertexShader(BenchmarkShaders.VERTEX);
+			
+			programs = new ShaderProgram[4];
+			time = new int[programs.length];
+			tint = new int[programs.length];
+			
+			for (int i = 0; i < programs.length; i++) {
+				programs[i] = new ShaderProgram(vertexShader, new FragmentShader(BenchmarkShaders.FRAGMENT + "//Program " + i + "\n"));
+				time[i] = programs[i].registerUniform("time");
+				tint[i] = programs[i].registerUniform("tint");
+			}
+			
+			targets = new FrameBuffer[] {new FrameBuffer(256, 256), new FrameBuffer(512, 512), null};
+		}
+		
+		@TearDown
+		public void tearDown() {
+			queue.execute();
+			
+			for (FrameBuffer target : targets) {
+				if (target != null) target.release();
+			}
+			
+			for (ShaderProgram program : programs) program.releaseProgram();
+		}
+		
+		//Workers are counted as they record their first buffer, since the group size isn't known to the state
+		private synchronized void register() {
+			workers++;
+		}
+	}
+	
+	@State(Scope.Thread)
+	public static class Worker {
+		private boolean registered;
+		private float value;
+	}
+	
+	private static void record(Frame frame, Worker worker, Control control) {
+		if (!worker.registered) {
+			frame.register();
+			worker.registered = true;
+		}
+		
+		while (frame.queue.getSubmittedCount() > MAX_PENDING * frame.workers && !control.stopMeasurement) Thread.yield();
+		
+		CommandBuffer commands = frame.queue.acquire();
+		
+		for (int i = 0; i < ITEMS; i++) {
+			int program = (i >> 1) & 3;
+			//The pass drawing into the display reads the targets, so it comes last
+			int target = i % frame.targets.length;
+			
+			commands.begin(frame.targets[target], frame.programs[program], target == 2 ? 1 : 0);
+			commands.setUniform(frame.time[program], worker.value += 1);
+			commands.setUniform(frame.tint[program], 1f, 0.5f, 0.25f, 1f);
+			commands.drawQuad();
+		}
+		
+		frame.queue.submit(commands);
+	}
+	
+	//The GL thread waits for work, so its score counts the batches it has executed
+	private static int execute(Frame frame, Control control) {
+		while (frame.queue.getSubmittedCount() == 0 && !control.stopMeasurement) Thread.yield();
+		return frame.queue.execute();
+	}
+	
+	@Benchmark
+	@Group("workers1")
+	@GroupThreads(1)
+	@OperationsPerInvocation(ITEMS)
+	public void record1(Frame frame, Worker worker, Control control) {
+		record(frame, worker, control);
+	}
+	
+	@Benchmark
+	@Group("workers1")
+	@GroupThreads(1)
+	public int execute1(Frame frame, Control control) {
+		return execute(frame, control);
+	}
+	
+	@Benchmark
+	@Group("workers2")
+	@GroupThreads(2)
+	@OperationsPerInvocation(ITEMS)
+	public void record2(Frame frame, Worker worker, Control control) {
+		record(frame, worker, control);
+	}
+	
+	@Benchmark
+	@Group("workers2")
+	@GroupThreads(1)
+	public int execute2(Frame frame, Control control) {
+		return execute(frame, control);
+	}
+	
+	@Benchmark
+	@Group("workers4")
+	@GroupThreads(4)
+	@OperationsPerInvocation(ITEMS)
+	public void record4(Frame frame, Worker worker, Control control) {
+		record(frame, worker, control);
+	}
+	
+	@Benchmark
+	@Group("workers4")
+	@GroupThreads(1)
+	public int execute4(Frame frame, Control control) {
+		return execute(frame, control);
+	}
+	
+	@Benchmark
+	@Group("workers8")
+	@GroupThreads(8)
+	@OperationsPerInvocation(ITEMS)
+	public void record8(Frame frame, Worker worker, Control control) {
+		record(frame, worker, control);
+	}
+	
+	@Benchmark
+	@Group("workers8")
+	@GroupThreads(1)
+	public int execute8(Frame frame, Control control) {
+		return execute(frame, control);
+	}
+}
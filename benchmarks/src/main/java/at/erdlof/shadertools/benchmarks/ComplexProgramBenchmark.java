@@ -0,0 +1,69 @@
+package at.erdlof.shadertools.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.erdlof.shadertools.shaders.ComplexProgram;
+import at.erdlof.shadertools.shaders.ComplexSequence;
+import at.erdlof.shadertools.shaders.FragmentShader;
+import at.erdlof.shadertools.shaders.ShaderProgram;
+import at.erdlof.shadertools.shaders.VertexShader;
+
+/**
+ * The CPU side of {@link ComplexProgram#use(ComplexSequence)}: taking render targets from the pool, binding them and
+ * the programs of the passes and drawing the full screen quads, for chains of different lengths. The sequence draws nothing.
+ * @author Florian Bhrle
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComplexProgramBenchmark {
+	@Param({"1", "2", "4", "8"})
+	public int passes;
+	
+	private ShaderProgram[] programs;
+	private ComplexProgram complexProgram;
+	private final ComplexSequence sequence = () -> {
+	};
+	
+	@Setup
+	public void setUp() {
+		BenchmarkShaders.headless();
+		VertexShader vertexShader = new VertexShader(BenchmarkShaders.VERTEX);
+		programs = new ShaderProgram[passes];
+		
+		for (int i = 0; i < passes; i++) {
+			//Different code, so every pass binds a program of its own
+			programs[i] = new ShaderProgram(vertexShader, new FragmentShader(BenchmarkShaders.FRAGMENT + "//Pass " + i + "\n"));
+		}
+		
+		complexProgram = new ComplexProgram(programs);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		complexProgram.getPool().clear();
+		//Releasing the shared vertex shader twice has no effect
+		for (ShaderProgram program : programs) program.releaseAll();
+	}
+	
+	@Benchmark
+	public void use() {
+		complexProgram.use(sequence);
+	}
+}
@@ -0,0 +1,74 @@
+package at.erdlof.shadertools.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.erdlof.shadertools.shaders.FragmentShader;
+import at.erdlof.shadertools.shaders.ProgramReflection;
+import at.erdlof.shadertools.shaders.ShaderProgram;
+import at.erdlof.shadertools.shaders.VertexShader;
+
+/**
+ * The lookup of {@link ShaderProgram#registerUniform(String)} for uniforms that have been registered before, and the
+ * lookup in the {@link ProgramReflection} that first registrations go through, for programs with more or fewer uniforms.
+ * @author Florian Bhrle
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegisterUniformBenchmark {
+	@Param({"4", "16", "64"})
+	public int uniforms;
+	
+	private ShaderProgram program;
+	private ProgramReflection reflection;
+	private String[] names;
+	private int next;
+	
+	@Setup
+	public void setUp() {
+		BenchmarkShaders.headless();
+		program = new ShaderProgram(new VertexShader(BenchmarkShaders.VERTEX), new FragmentShader(BenchmarkShaders.fragmentWithUniforms(uniforms)));
+		reflection = program.getReflection();
+		
+		//Separate strings, so the lookups hash and compare like names coming from elsewhere
+		names = new String[uniforms];
+		for (int i = 0; i < uniforms; i++) names[i] = new String("u" + i);
+		for (String name : names) program.registerUniform(name);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		program.releaseAll();
+	}
+	
+	private String nextName() {
+		if (++next == names.length) next = 0;
+		return names[next];
+	}
+	
+	@Benchmark
+	public int registered() {
+		return program.registerUniform(nextName());
+	}
+	
+	@Benchmark
+	public int reflection() {
+		return reflection.getUniformLocation(nextName());
+	}
+}
@@ -0,0 +1,113 @@
+package at.erdlof.shadertools.benchmarks;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.erdlof.shadertools.gl.GLBackend;
+import at.erdlof.shadertools.shaders.FragmentShader;
+import at.erdlof.shadertools.shaders.ShaderProgram;
+import at.erdlof.shadertools.shaders.VertexShader;
+
+/**
+ * The dispatch of {@link ShaderProgram#setUniform(int, float)} and its overloads: by handle with a new value, by
+ * handle with the value the program already holds (skipped by the shadow copy) and by name. The baseline methods
+ * repeat the lookup by name of earlier versions, a <code>HashMap&lt;String, Integer&gt;</code> queried with
+ * containsKey and get, unboxed and uploaded without a shadow copy.
+ * @author Florian Bhrle
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SetUniformBenchmark {
+	private GLBackend gl;
+	private ShaderProgram program;
+	private int time, tint;
+	private float value;
+	private final HashMap<String, Integer> registeredUniforms = new HashMap<String, Integer>();
+	
+	@Setup
+	public void setUp() {
+		gl = BenchmarkShaders.headless();
+		program = new ShaderProgram(new VertexShader(BenchmarkShaders.VERTEX), new FragmentShader(BenchmarkShaders.FRAGMENT));
+		time = program.registerUniform("time");
+		tint = program.registerUniform("tint");
+		program.bind();
+		
+		registeredUniforms.put("time", program.getReflection().getUniformLocation("time"));
+		registeredUniforms.put("tint", program.getReflection().getUniformLocation("tint"));
+	}
+	
+	@TearDown
+	public void tearDown() {
+		program.releaseAll();
+	}
+	
+	//Alternates between two exact values, counting up would stop changing the float after 2^24 calls
+	private float next() {
+		return value = value == 1f ? 2f : 1f;
+	}
+	
+	@Benchmark
+	public void handleChanged() {
+		program.setUniform(time, next());
+	}
+	
+	@Benchmark
+	public void handleUnchanged() {
+		program.setUniform(time, 1f);
+	}
+	
+	@Benchmark
+	public void handleVectorChanged() {
+		float value = next();
+		program.setUniform(tint, value, value, value, 1f);
+	}
+	
+	@Benchmark
+	public void nameChanged() {
+		program.setUniform("time", next());
+	}
+	
+	@Benchmark
+	public void nameUnchanged() {
+		program.setUniform("time", 1f);
+	}
+	
+	@Benchmark
+	public void baselineChanged() {
+		String identifier = "time";
+		
+		if (registeredUniforms.containsKey(identifier)) {
+			int uniformID = registeredUniforms.get(identifier);
+			
+			gl.glUniform1fARB(uniformID, next());
+		}
+	}
+	
+	@Benchmark
+	public void baselineVectorChanged() {
+		String identifier = "tint";
+		float value = next();
+		
+		if (registeredUniforms.containsKey(identifier)) {
+			int uniformID = registeredUniforms.get(identifier);
+			
+			gl.glUniform4fARB(uniformID, value, value, value, 1f);
+		}
+	}
+}